@@ -83,7 +83,15 @@ static int aeApiAddEvent(aeEventLoop *eventLoop, int fd, int mask) {
     if (mask & AE_READABLE) ee.events |= EPOLLIN;
     if (mask & AE_WRITABLE) ee.events |= EPOLLOUT;
     ee.data.fd = fd;
-    if (epoll_ctl(state->epfd,op,fd,&ee) == -1) return -1;
+    if (epoll_ctl(state->epfd,op,fd,&ee) == -1) {
+        /* The recorded mask may not match the kernel state: the mask is
+         * merged before adding, and an fd can be registered with no events.
+         * Retry with the other operation. */
+        if (op == EPOLL_CTL_MOD && errno == ENOENT) op = EPOLL_CTL_ADD;
+        else if (op == EPOLL_CTL_ADD && errno == EEXIST) op = EPOLL_CTL_MOD;
+        else return -1;
+        if (epoll_ctl(state->epfd,op,fd,&ee) == -1) return -1;
+    }
     return 0;
 }
 
@@ -57,6 +57,19 @@
         typedef struct sockaddr v_sockaddr;
     #endif
 
+    #if defined(__linux__) && !defined(FSTACK)
+        #define V_HAVE_MMSG 1
+        #define v_recvmmsg    recvmmsg
+        #define v_sendmmsg    sendmmsg
+        typedef struct mmsghdr v_mmsghdr;
+
+        #define V_HAVE_SPLICE 1
+        #include <fcntl.h>
+        #define v_splice      splice
+        #define v_pipe2       pipe2
+        #define v_fcntl       fcntl
+    #endif
+
 
 
     #include <netinet/tcp.h>
@@ -66,16 +79,23 @@
 
     #include <unistd.h>
 
+    #include <sys/uio.h>
+
     #ifdef FSTACK
         #define v_close       ff_close
         #define v_read        ff_read
         #define v_write       ff_write
+        #define v_readv       ff_readv
+        #define v_writev      ff_writev
     #else
         #define v_close       close
         #define v_read        read
         #define v_write       write
+        #define v_readv       readv
+        #define v_writev      writev
         #define v_pipe        pipe
     #endif
+    typedef struct iovec v_iovec;
     typedef struct sockaddr_in  v_sockaddr_in;
     typedef struct sockaddr_in6 v_sockaddr_in6;
 
@@ -131,6 +151,8 @@
     #include <strings.h>
     #define v_bzero bzero
 
+    #include <string.h>
+
 
 
 #endif
@@ -1,3 +1,4 @@
+#define _GNU_SOURCE // for recvmmsg and sendmmsg
 #include "vfd_posix_GeneralPosix.h"
 #include "vfd_posix.h"
 #include "exception.h"
@@ -108,6 +109,29 @@ JNIEXPORT jobjectArray JNICALL Java_vfd_posix_GeneralPosix_aeApiPoll
     return ret;
 }
 
+// write (fd, mask) pairs into the buffer and return the count
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_aeApiPollIntoBuffer
+  (JNIEnv* env, jobject self, jlong aex, jlong wait, jobject directBuffer) {
+    aeEventLoop* ae = (aeEventLoop*) aex;
+    v_timeval tv;
+    v_timeval* tvp = &tv;
+    tvp->tv_sec = wait/1000;
+    tvp->tv_usec = (wait % 1000)*1000;
+    int numevents = aePoll(ae, tvp);
+
+    jint* buf = (*env)->GetDirectBufferAddress(env, directBuffer);
+    jlong cap = (*env)->GetDirectBufferCapacity(env, directBuffer) / (2 * sizeof(jint));
+    if (numevents > cap) {
+        // the events are level triggered, the rest will be fired again in the next poll
+        numevents = cap;
+    }
+    for (int j = 0; j < numevents; j++) {
+      buf[2 * j] = ae->fired[j].fd;
+      buf[2 * j + 1] = ae->fired[j].mask;
+    }
+    return numevents;
+}
+
 // return FDInfo[]
 JNIEXPORT jobjectArray JNICALL Java_vfd_posix_GeneralPosix_aeAllFDs
   (JNIEnv* env, jobject self, jlong aex) {
@@ -537,6 +561,51 @@ JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_write
     return handleWriteIOOperationResult(env, res);
 }
 
+#define IOV_MAX_COUNT 16
+
+// fill the iovec array with the direct buffers and the offset/length arrays
+void fillIOVecs(JNIEnv* env, v_iovec* iovs, jobjectArray directBuffers, jintArray offs, jintArray lens, jint count) {
+    jint off[count];
+    jint len[count];
+    (*env)->GetIntArrayRegion(env, offs, 0, count, off);
+    (*env)->GetIntArrayRegion(env, lens, 0, count, len);
+    for (int i = 0; i < count; ++i) {
+        jobject b = (*env)->GetObjectArrayElement(env, directBuffers, i);
+        byte* buf = (*env)->GetDirectBufferAddress(env, b);
+        (*env)->DeleteLocalRef(env, b);
+        iovs[i].iov_base = buf + off[i];
+        iovs[i].iov_len = len[i];
+    }
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_readv
+  (JNIEnv* env, jobject self, jint fd, jobjectArray directBuffers, jintArray offs, jintArray lens, jint count) {
+    if (count <= 0) {
+        return 0;
+    }
+    if (count > IOV_MAX_COUNT) {
+        count = IOV_MAX_COUNT;
+    }
+    v_iovec iovs[count];
+    fillIOVecs(env, iovs, directBuffers, offs, lens, count);
+    int res = v_readv(fd, iovs, count);
+    return handleReadIOOperationResult(env, res);
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_writev
+  (JNIEnv* env, jobject self, jint fd, jobjectArray directBuffers, jintArray offs, jintArray lens, jint count) {
+    if (count <= 0) {
+        return 0;
+    }
+    if (count > IOV_MAX_COUNT) {
+        count = IOV_MAX_COUNT;
+    }
+    v_iovec iovs[count];
+    fillIOVecs(env, iovs, directBuffers, offs, lens, count);
+    int res = v_writev(fd, iovs, count);
+    return handleWriteIOOperationResult(env, res);
+}
+
 JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_sendtoIPv4
   (JNIEnv* env, jobject self, jint fd, jobject directBuffer, jint off, jint len, jint addrHostOrder, jint port) {
     if (len == 0) {
@@ -610,6 +679,205 @@ JNIEXPORT jobject JNICALL Java_vfd_posix_GeneralPosix_recvfromIPv6
     return ret;
 }
 
+// the layout of metadata of each packet, see vfd.DatagramBatch
+// [len: int][port: int][addrLen: int][reserved: int][addr: 16 bytes]
+#define MMSG_META_LEN 32
+#define MMSG_MAX_VLEN 64
+
+typedef union {
+    v_sockaddr_in  v4;
+    v_sockaddr_in6 v6;
+} mmsg_sockaddr;
+
+void mmsgFormatMeta(byte* meta, jboolean ipv4, mmsg_sockaddr* name, int len) {
+    jint* imeta = (jint*) meta;
+    imeta[0] = len;
+    imeta[3] = 0;
+    if (ipv4) {
+        imeta[1] = v_ntohs(name->v4.sin_port);
+        imeta[2] = 4;
+        memcpy(meta + 16, &(name->v4.sin_addr), 4);
+    } else {
+        imeta[1] = v_ntohs(name->v6.sin6_port);
+        imeta[2] = 16;
+        memcpy(meta + 16, &(name->v6.sin6_addr), 16);
+    }
+}
+
+int mmsgParseMeta(byte* meta, jboolean ipv4, mmsg_sockaddr* name) {
+    jint* imeta = (jint*) meta;
+    v_bzero(name, sizeof(mmsg_sockaddr));
+    if (ipv4) {
+        if (imeta[2] != 4) {
+            errno = EAFNOSUPPORT;
+            return -1;
+        }
+        name->v4.sin_family = V_AF_INET;
+        name->v4.sin_port = v_htons(imeta[1]);
+        memcpy(&(name->v4.sin_addr), meta + 16, 4);
+    } else {
+        if (imeta[2] != 16) {
+            errno = EAFNOSUPPORT;
+            return -1;
+        }
+        name->v6.sin6_family = V_AF_INET6;
+        name->v6.sin6_port = v_htons(imeta[1]);
+        memcpy(&(name->v6.sin6_addr), meta + 16, 16);
+    }
+    return 0;
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_recvmmsg
+  (JNIEnv* env, jobject self, jint fd, jboolean ipv4, jobject directBuffer, jint slotSize, jint vlen, jobject metaBuffer) {
+    if (vlen <= 0) {
+        return 0;
+    }
+    if (vlen > MMSG_MAX_VLEN) {
+        vlen = MMSG_MAX_VLEN;
+    }
+    byte* buf = (*env)->GetDirectBufferAddress(env, directBuffer);
+    byte* meta = (*env)->GetDirectBufferAddress(env, metaBuffer);
+    mmsg_sockaddr names[vlen];
+    socklen_t nameLen = ipv4 ? sizeof(v_sockaddr_in) : sizeof(v_sockaddr_in6);
+#ifdef V_HAVE_MMSG
+    v_mmsghdr msgs[vlen];
+    v_iovec iovs[vlen];
+    v_bzero(msgs, sizeof(msgs));
+    for (int i = 0; i < vlen; ++i) {
+        iovs[i].iov_base = buf + i * slotSize;
+        iovs[i].iov_len = slotSize;
+        msgs[i].msg_hdr.msg_iov = &iovs[i];
+        msgs[i].msg_hdr.msg_iovlen = 1;
+        msgs[i].msg_hdr.msg_name = &names[i];
+        msgs[i].msg_hdr.msg_namelen = nameLen;
+    }
+    int res = v_recvmmsg(fd, msgs, vlen, 0, NULL);
+    if (res < 0) {
+        return handleReadIOOperationResult(env, res);
+    }
+    for (int i = 0; i < res; ++i) {
+        mmsgFormatMeta(meta + i * MMSG_META_LEN, ipv4, &names[i], msgs[i].msg_len);
+    }
+    return res;
+#else
+    // no recvmmsg on this platform, simply loop in native code
+    // which still saves the jni calls
+    int n = 0;
+    for (; n < vlen; ++n) {
+        socklen_t foo = nameLen;
+        int res = v_recvfrom(fd, buf + n * slotSize, slotSize, 0, (v_sockaddr*) &names[n], &foo);
+        if (res < 0) {
+            if (n == 0) {
+                return handleReadIOOperationResult(env, res);
+            }
+            // the error will be raised again in the next call
+            break;
+        }
+        mmsgFormatMeta(meta + n * MMSG_META_LEN, ipv4, &names[n], res);
+    }
+    return n;
+#endif
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_sendmmsg
+  (JNIEnv* env, jobject self, jint fd, jboolean ipv4, jobject directBuffer, jint slotSize, jint vlen, jobject metaBuffer) {
+    if (vlen <= 0) {
+        return 0;
+    }
+    if (vlen > MMSG_MAX_VLEN) {
+        vlen = MMSG_MAX_VLEN;
+    }
+    byte* buf = (*env)->GetDirectBufferAddress(env, directBuffer);
+    byte* meta = (*env)->GetDirectBufferAddress(env, metaBuffer);
+    mmsg_sockaddr names[vlen];
+    socklen_t nameLen = ipv4 ? sizeof(v_sockaddr_in) : sizeof(v_sockaddr_in6);
+    for (int i = 0; i < vlen; ++i) {
+        if (mmsgParseMeta(meta + i * MMSG_META_LEN, ipv4, &names[i]) < 0) {
+            throwIOExceptionBasedOnErrno(env);
+            return 0;
+        }
+    }
+#ifdef V_HAVE_MMSG
+    v_mmsghdr msgs[vlen];
+    v_iovec iovs[vlen];
+    v_bzero(msgs, sizeof(msgs));
+    for (int i = 0; i < vlen; ++i) {
+        iovs[i].iov_base = buf + i * slotSize;
+        iovs[i].iov_len = ((jint*) (meta + i * MMSG_META_LEN))[0];
+        msgs[i].msg_hdr.msg_iov = &iovs[i];
+        msgs[i].msg_hdr.msg_iovlen = 1;
+        msgs[i].msg_hdr.msg_name = &names[i];
+        msgs[i].msg_hdr.msg_namelen = nameLen;
+    }
+    int res = v_sendmmsg(fd, msgs, vlen, 0);
+    return handleWriteIOOperationResult(env, res);
+#else
+    int n = 0;
+    for (; n < vlen; ++n) {
+        int len = ((jint*) (meta + n * MMSG_META_LEN))[0];
+        int res = v_sendto(fd, buf + n * slotSize, len, 0, (v_sockaddr*) &names[n], nameLen);
+        if (res < 0) {
+            if (n == 0) {
+                return handleWriteIOOperationResult(env, res);
+            }
+            break;
+        }
+    }
+    return n;
+#endif
+}
+
+JNIEXPORT jboolean JNICALL Java_vfd_posix_GeneralPosix_spliceSupported
+  (JNIEnv* env, jobject self) {
+#ifdef V_HAVE_SPLICE
+    return JNI_TRUE;
+#else
+    return JNI_FALSE;
+#endif
+}
+
+JNIEXPORT jintArray JNICALL Java_vfd_posix_GeneralPosix_openSplicePipe
+  (JNIEnv* env, jobject self, jint size) {
+#ifdef V_HAVE_SPLICE
+    int pipes[2];
+    int res = v_pipe2(pipes, O_NONBLOCK);
+    if (res < 0) {
+        throwIOExceptionBasedOnErrno(env);
+        return NULL;
+    }
+    // the size is only a hint, ignore the error if failed to set
+    v_fcntl(pipes[1], F_SETPIPE_SZ, size);
+    int cap = v_fcntl(pipes[1], F_GETPIPE_SZ);
+    if (cap < 0) {
+        v_close(pipes[0]);
+        v_close(pipes[1]);
+        throwIOExceptionBasedOnErrno(env);
+        return NULL;
+    }
+    jintArray ret = (*env)->NewIntArray(env, 3);
+    jint elems[] = { pipes[0], pipes[1], cap };
+    (*env)->SetIntArrayRegion(env, ret, 0, 3, elems);
+    return ret;
+#else
+    throwIOException(env, "splice is not supported");
+    return NULL;
+#endif
+}
+
+JNIEXPORT jint JNICALL Java_vfd_posix_GeneralPosix_splice
+  (JNIEnv* env, jobject self, jint fdIn, jint fdOut, jint len) {
+#ifdef V_HAVE_SPLICE
+    if (len == 0) {
+        return 0;
+    }
+    ssize_t res = v_splice(fdIn, NULL, fdOut, NULL, len, SPLICE_F_MOVE | SPLICE_F_NONBLOCK);
+    return handleReadIOOperationResult(env, (int) res);
+#else
+    throwIOException(env, "splice is not supported");
+    return 0;
+#endif
+}
+
 JNIEXPORT jlong JNICALL Java_vfd_posix_GeneralPosix_currentTimeMillis
   (JNIEnv* env, jobject self) {
     v_timeval tv;
@@ -0,0 +1,265 @@
+package vfd;
+
+import vproxy.util.Utils;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A batch of udp packets, used to receive or send multiple packets in one call.<br>
+ * The packet data are stored in one direct buffer, each packet occupies one slot.<br>
+ * The packet metadata are stored in another direct buffer (native byte order),
+ * each packet occupies {@link #META_LEN} bytes:
+ * <pre>
+ * [len: int][port: int][addrLen: int][reserved: int][addr: 16 bytes]
+ * </pre>
+ * the addr is in network byte order, and only the first `addrLen` bytes are used (4 or 16).<br>
+ * The layout is shared with the native implementations, do not modify it.<br>
+ * This class is not thread safe.
+ */
+public class DatagramBatch {
+    public static final int META_LEN = 32;
+    public static final int MAX_CAPACITY = 64;
+
+    private final int capacity;
+    private final int slotSize;
+    private final ByteBuffer data;
+    private final ByteBuffer meta;
+    private final ByteBuffer[] slots;
+    private final InetSocketAddress[] addresses;
+    private int size = 0;
+
+    public DatagramBatch(int capacity, int slotSize) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity should be in (0, " + MAX_CAPACITY + "]");
+        }
+        if (slotSize <= 0) {
+            throw new IllegalArgumentException("slotSize should be positive");
+        }
+        this.capacity = capacity;
+        this.slotSize = slotSize;
+        this.data = ByteBuffer.allocateDirect(capacity * slotSize);
+        this.meta = ByteBuffer.allocateDirect(capacity * META_LEN).order(ByteOrder.nativeOrder());
+        this.slots = new ByteBuffer[capacity];
+        for (int i = 0; i < capacity; ++i) {
+            data.limit((i + 1) * slotSize).position(i * slotSize);
+            slots[i] = data.slice();
+        }
+        data.limit(data.capacity()).position(0);
+        this.addresses = new InetSocketAddress[capacity];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int slotSize() {
+        return slotSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; ++i) {
+            addresses[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * @param idx index of the packet
+     * @return the packet data, position is 0 and limit is the packet length.
+     * The returned buffer is reused, do not hold it.
+     */
+    public ByteBuffer get(int idx) {
+        checkIndex(idx);
+        ByteBuffer slot = slots[idx];
+        slot.limit(meta.getInt(idx * META_LEN)).position(0);
+        return slot;
+    }
+
+    /**
+     * @param idx index of the packet
+     * @return the remote address of the packet
+     */
+    public InetSocketAddress getAddress(int idx) {
+        checkIndex(idx);
+        InetSocketAddress addr = addresses[idx];
+        if (addr == null) {
+            int off = idx * META_LEN;
+            int port = meta.getInt(off + 4);
+            int addrLen = meta.getInt(off + 8);
+            byte[] ip = new byte[addrLen];
+            for (int i = 0; i < addrLen; ++i) {
+                ip[i] = meta.get(off + 16 + i);
+            }
+            InetAddress l3addr;
+            try {
+                l3addr = InetAddress.getByAddress(ip);
+            } catch (UnknownHostException e) {
+                // should not happen, the length is always 4 or 16
+                throw new IllegalStateException("invalid address " + Utils.bytesToHex(ip), e);
+            }
+            addr = new InetSocketAddress(l3addr, port);
+            addresses[idx] = addr;
+        }
+        return addr;
+    }
+
+    /**
+     * copy the packet into the batch
+     *
+     * @param src    packet data, all remaining bytes will be consumed
+     * @param remote remote address of the packet
+     * @return false if the batch is full or the packet is too large, the src will not be modified
+     */
+    public boolean add(ByteBuffer src, InetSocketAddress remote) {
+        if (size == capacity) {
+            return false;
+        }
+        int len = src.limit() - src.position();
+        if (len > slotSize) {
+            return false;
+        }
+        ByteBuffer slot = slots[size];
+        slot.limit(slotSize).position(0);
+        slot.put(src);
+        set(size, len, remote);
+        ++size;
+        return true;
+    }
+
+    /**
+     * retrieve the next slot to write a packet in place, the packet is added by {@link #commit(int, InetSocketAddress)}
+     *
+     * @return the slot with position 0 and limit slotSize, or null if the batch is full
+     */
+    public ByteBuffer nextSlot() {
+        if (size == capacity) {
+            return null;
+        }
+        return slotForReceiving(size);
+    }
+
+    /**
+     * add the packet written into the slot retrieved from {@link #nextSlot()}
+     *
+     * @param len    length of the packet
+     * @param remote remote address of the packet
+     */
+    public void commit(int len, InetSocketAddress remote) {
+        if (size == capacity) {
+            throw new IllegalStateException("the batch is full");
+        }
+        if (len < 0 || len > slotSize) {
+            throw new IllegalArgumentException("len " + len + " out of range [0, " + slotSize + "]");
+        }
+        set(size, len, remote);
+        ++size;
+    }
+
+    /**
+     * retrieve the slot to receive a packet, used by fd implementations.
+     *
+     * @param idx index of the slot
+     * @return the slot with position 0 and limit slotSize
+     */
+    public ByteBuffer slotForReceiving(int idx) {
+        ByteBuffer slot = slots[idx];
+        slot.limit(slotSize).position(0);
+        return slot;
+    }
+
+    /**
+     * record a received packet, used by fd implementations.
+     */
+    public void set(int idx, int len, InetSocketAddress remote) {
+        int off = idx * META_LEN;
+        meta.putInt(off, len);
+        meta.putInt(off + 4, remote.getPort());
+        byte[] ip = remote.getAddress().getAddress();
+        meta.putInt(off + 8, ip.length);
+        for (int i = 0; i < ip.length; ++i) {
+            meta.put(off + 16 + i, ip[i]);
+        }
+        addresses[idx] = remote;
+    }
+
+    /**
+     * set the packet count after the native code filled the buffers, used by fd implementations.
+     */
+    public void setSize(int size) {
+        if (size < 0 || size > capacity) {
+            throw new IllegalArgumentException("size " + size + " out of range [0, " + capacity + "]");
+        }
+        for (int i = 0; i < this.size; ++i) {
+            addresses[i] = null;
+        }
+        this.size = size;
+    }
+
+    /**
+     * remove the first n packets, the remaining packets are moved to the front of the batch.
+     * Used to keep the packets not sent yet.
+     *
+     * @param n count of packets to remove
+     */
+    public void removeFirst(int n) {
+        if (n < 0 || n > size) {
+            throw new IllegalArgumentException("n " + n + " out of range [0, " + size + "]");
+        }
+        if (n == 0) {
+            return;
+        }
+        for (int i = n; i < size; ++i) {
+            int len = meta.getInt(i * META_LEN);
+            ByteBuffer src = slots[i];
+            src.limit(len).position(0);
+            ByteBuffer dst = slots[i - n];
+            dst.limit(slotSize).position(0);
+            dst.put(src);
+            for (int off = 0; off < META_LEN; off += 4) {
+                meta.putInt((i - n) * META_LEN + off, meta.getInt(i * META_LEN + off));
+            }
+            addresses[i - n] = addresses[i];
+        }
+        for (int i = size - n; i < size; ++i) {
+            addresses[i] = null;
+        }
+        size -= n;
+    }
+
+    public ByteBuffer dataBuffer() {
+        return data;
+    }
+
+    public ByteBuffer metaBuffer() {
+        return meta;
+    }
+
+    public void clean() {
+        clear();
+        Utils.clean(data);
+        Utils.clean(meta);
+    }
+
+    private void checkIndex(int idx) {
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException("idx=" + idx + ", size=" + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DatagramBatch(size=" + size + ", capacity=" + capacity + ", slotSize=" + slotSize + ")";
+    }
+}
@@ -19,4 +19,47 @@ public interface DatagramFD extends FD, ReadableByteChannel, WritableByteChannel
     SocketAddress getLocalAddress() throws IOException;
 
     SocketAddress getRemoteAddress() throws IOException;
+
+    /**
+     * receive packets into the batch until the batch is full or no packet available.<br>
+     * The batch will be cleared before receiving.
+     *
+     * @param batch the batch to store packets
+     * @return packets received
+     */
+    default int receiveBatch(DatagramBatch batch) throws IOException {
+        batch.clear();
+        int n = 0;
+        while (n < batch.capacity()) {
+            ByteBuffer slot = batch.slotForReceiving(n);
+            InetSocketAddress remote = (InetSocketAddress) receive(slot);
+            if (remote == null) {
+                break;
+            }
+            batch.set(n, slot.position(), remote);
+            ++n;
+        }
+        batch.setSize(n);
+        return n;
+    }
+
+    /**
+     * send packets in the batch in order, stop when a packet cannot be sent.<br>
+     * The batch will not be modified.
+     *
+     * @param batch packets to send
+     * @return packets sent, which are the first n packets in the batch
+     */
+    default int sendBatch(DatagramBatch batch) throws IOException {
+        int n = 0;
+        while (n < batch.size()) {
+            ByteBuffer buf = batch.get(n);
+            int len = buf.limit();
+            if (send(buf, batch.getAddress(n)) < len) {
+                break;
+            }
+            ++n;
+        }
+        return n;
+    }
 }
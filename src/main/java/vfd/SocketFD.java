@@ -3,10 +3,11 @@ package vfd;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
 
-public interface SocketFD extends FD, ReadableByteChannel, WritableByteChannel {
+public interface SocketFD extends FD, ScatteringByteChannel, GatheringByteChannel {
     void connect(InetSocketAddress l4addr) throws IOException;
 
     boolean isConnected();
@@ -18,4 +19,55 @@ public interface SocketFD extends FD, ReadableByteChannel, WritableByteChannel {
     SocketAddress getRemoteAddress() throws IOException;
 
     boolean finishConnect() throws IOException;
+
+    /**
+     * read into the buffers in order, stop when a buffer is not filled.<br>
+     * Implementations may read into all buffers with one call (readv).
+     */
+    @Override
+    default long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long n = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            ByteBuffer b = dsts[i];
+            int rem = b.limit() - b.position();
+            int r = read(b);
+            if (r == -1) {
+                return n == 0 ? -1 : n;
+            }
+            n += r;
+            if (r < rem) {
+                break;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    default long read(ByteBuffer[] dsts) throws IOException {
+        return read(dsts, 0, dsts.length);
+    }
+
+    /**
+     * write the buffers in order, stop when a buffer is not fully written.<br>
+     * Implementations may write all buffers with one call (writev).
+     */
+    @Override
+    default long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long n = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            ByteBuffer b = srcs[i];
+            int rem = b.limit() - b.position();
+            int w = write(b);
+            n += w;
+            if (w < rem) {
+                break;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    default long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
 }
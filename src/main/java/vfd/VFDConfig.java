@@ -18,6 +18,10 @@ public class VFDConfig {
     // -Dvfdtrace=1
     public static final boolean vfdtrace;
 
+    // -Dsplice=1
+    // use splice(2) to forward raw tcp sessions, only available for posix fds on linux
+    public static final boolean splice;
+
     static {
         fstack = System.getProperty("fstack", "");
         useFStack = !fstack.isBlank();
@@ -32,5 +36,8 @@ public class VFDConfig {
 
         String vfdtraceConf = System.getProperty("vfdtrace", "0");
         vfdtrace = !vfdtraceConf.equals("0");
+
+        String spliceConf = System.getProperty("splice", "0");
+        splice = !spliceConf.equals("0");
     }
 }
@@ -6,17 +6,31 @@ import vproxy.util.Utils;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ClosedSelectorException;
 import java.util.*;
 
 public class AESelector implements FDSelector {
+    // max count of fired events retrieved in one poll
+    private static final int MAX_FIRED_EVENTS = 4096;
+
     private final Posix posix;
     private final long ae;
     private final int[] pipefd; // null, or pipefd[read][write], might be the same if using linux eventfd
     private final ByteBuffer bufferForPipeFD;
     private boolean closed = false;
 
+    // the poll results are written into this buffer as (fd, events) int pairs
+    private final ByteBuffer firedBuffer;
+    // registered attachments indexed by fd, read by the loop without locking,
+    // fds may be registered on other threads, so the modifications are done under the lock,
+    // and published by writing the volatile field
+    private volatile Att[] atts = new Att[1024];
+    private final Object attsLock = new Object();
+    // always reuse the result collection
+    private final SelectedEntries selectedEntries = new SelectedEntries();
+
     private final int aeReadable;
     private final int aeWritable;
     private final boolean onlySelectNow;
@@ -34,6 +48,7 @@ public class AESelector implements FDSelector {
             posix.aeCreateFileEvent(ae, pipefd[0], this.aeReadable, new Att(null, null));
         }
         onlySelectNow = posix.onlySelectNow();
+        firedBuffer = ByteBuffer.allocateDirect(MAX_FIRED_EVENTS * 8).order(ByteOrder.nativeOrder());
     }
 
     private static class Att {
@@ -41,11 +56,37 @@ public class AESelector implements FDSelector {
 
         final Object att;
 
+        // selected entries are created only once for each kind of events
+        private SelectedEntry readable;
+        private SelectedEntry writable;
+        private SelectedEntry readwrite;
+
         private Att(FD fd, Object att) {
             this.fd = fd;
             this.att = att;
         }
 
+        SelectedEntry selected(EventSet ready) {
+            if (ready == EventSet.readwrite()) {
+                if (readwrite == null) {
+                    readwrite = new SelectedEntry(fd, ready, att);
+                }
+                return readwrite;
+            } else if (ready == EventSet.read()) {
+                if (readable == null) {
+                    readable = new SelectedEntry(fd, ready, att);
+                }
+                return readable;
+            } else if (ready == EventSet.write()) {
+                if (writable == null) {
+                    writable = new SelectedEntry(fd, ready, att);
+                }
+                return writable;
+            } else {
+                return new SelectedEntry(fd, ready, att);
+            }
+        }
+
         @Override
         public String toString() {
             return "Att{" +
@@ -61,14 +102,17 @@ public class AESelector implements FDSelector {
     }
 
     private EventSet getJavaEvents(int events) {
-        EventSet ret = EventSet.none();
-        if ((events & aeReadable) == aeReadable) {
-            ret = ret.combine(EventSet.read());
-        }
-        if ((events & aeWritable) == aeWritable) {
-            ret = ret.combine(EventSet.write());
+        boolean readable = (events & aeReadable) == aeReadable;
+        boolean writable = (events & aeWritable) == aeWritable;
+        if (readable && writable) {
+            return EventSet.readwrite();
+        } else if (readable) {
+            return EventSet.read();
+        } else if (writable) {
+            return EventSet.write();
+        } else {
+            return EventSet.none();
         }
-        return ret;
     }
 
     private void clearPipeFD() {
@@ -89,18 +133,27 @@ public class AESelector implements FDSelector {
         }
     }
 
-    private Collection<SelectedEntry> handleSelectResult(FDInfo[] results) {
-        clearPipeFD();
-        if (results.length == 0) {
-            return Collections.emptyList();
-        }
-        List<SelectedEntry> ret = new ArrayList<>(results.length);
-        for (FDInfo res : results) {
-            Att att = (Att) res.attachment;
-            if (att.fd == null) // for the internal pipe fds
+    private Collection<SelectedEntry> handleSelectResult(int count) {
+        SelectedEntries ret = selectedEntries;
+        ret.clear();
+        boolean pipeFired = false;
+        for (int i = 0; i < count; ++i) {
+            int fd = firedBuffer.getInt(i * 8);
+            int ev = firedBuffer.getInt(i * 8 + 4);
+            if (pipefd != null && fd == pipefd[0]) { // for the internal pipe fds
+                pipeFired = true;
+                continue;
+            }
+            Att att = getAtt(fd);
+            if (att == null) {
+                // the fd is removed, or the registration is not visible yet
+                // it will fire again in the next poll if it's still registered
                 continue;
-            int ev = res.events;
-            ret.add(new SelectedEntry(att.fd, getJavaEvents(ev), att.att));
+            }
+            ret.add(att.selected(getJavaEvents(ev)));
+        }
+        if (pipeFired) {
+            clearPipeFD();
         }
         return ret;
     }
@@ -117,14 +170,14 @@ public class AESelector implements FDSelector {
             throw new UnsupportedOperationException("only selectNow supported");
         }
         checkOpen();
-        var res = posix.aeApiPoll(ae, 24 * 60 * 60 * 1000);
+        int res = posix.aeApiPollIntoBuffer(ae, 24 * 60 * 60 * 1000, firedBuffer);
         return handleSelectResult(res);
     }
 
     @Override
     public Collection<SelectedEntry> selectNow() throws IOException {
         checkOpen();
-        var res = posix.aeApiPoll(ae, 0);
+        int res = posix.aeApiPollIntoBuffer(ae, 0, firedBuffer);
         return handleSelectResult(res);
     }
 
@@ -134,7 +187,7 @@ public class AESelector implements FDSelector {
             throw new UnsupportedOperationException("only selectNow supported");
         }
         checkOpen();
-        var res = posix.aeApiPoll(ae, millis);
+        int res = posix.aeApiPollIntoBuffer(ae, millis, firedBuffer);
         return handleSelectResult(res);
     }
 
@@ -160,7 +213,29 @@ public class AESelector implements FDSelector {
     @Override
     public boolean isRegistered(FD fd) {
         checkOpen();
-        return null != posix.aeGetClientData(ae, ((PosixFD) fd.real()).fd);
+        return getAtt(((PosixFD) fd.real()).fd) != null;
+    }
+
+    private Att getAtt(int fd) {
+        Att[] atts = this.atts;
+        if (fd < 0 || fd >= atts.length) {
+            return null;
+        }
+        return atts[fd];
+    }
+
+    private void setAtt(int fd, Att att) {
+        synchronized (attsLock) {
+            Att[] atts = this.atts;
+            if (fd >= atts.length) {
+                if (att == null) {
+                    return;
+                }
+                atts = Arrays.copyOf(atts, Math.max(atts.length * 2, fd + 1));
+            }
+            atts[fd] = att;
+            this.atts = atts; // publish
+        }
     }
 
     private int getIntEvents(EventSet events) {
@@ -180,13 +255,19 @@ public class AESelector implements FDSelector {
         if (!fd.isOpen()) {
             throw new ClosedChannelException();
         }
-        posix.aeCreateFileEvent(ae, ((PosixFD) fd.real()).fd, getIntEvents(ops), new Att(fd, registerData));
+        int fdnum = ((PosixFD) fd.real()).fd;
+        Att att = new Att(fd, registerData);
+        // set before the native registration, so the first events can find the attachment
+        setAtt(fdnum, att);
+        posix.aeCreateFileEvent(ae, fdnum, getIntEvents(ops), att);
     }
 
     @Override
     public void remove(FD fd) {
         checkOpen();
-        posix.aeDeleteFileEvent(ae, ((PosixFD) fd.real()).fd);
+        int fdnum = ((PosixFD) fd.real()).fd;
+        posix.aeDeleteFileEvent(ae, fdnum);
+        setAtt(fdnum, null);
     }
 
     @Override
@@ -204,7 +285,11 @@ public class AESelector implements FDSelector {
     @Override
     public Object attachment(FD fd) {
         checkOpen();
-        return ((Att) posix.aeGetClientData(ae, ((PosixFD) fd.real()).fd)).att;
+        Att att = getAtt(((PosixFD) fd.real()).fd);
+        if (att == null) {
+            return null;
+        }
+        return att.att;
     }
 
     @Override
@@ -231,6 +316,10 @@ public class AESelector implements FDSelector {
         if (bufferForPipeFD != null) {
             Utils.clean(bufferForPipeFD);
         }
+        Utils.clean(firedBuffer);
+        synchronized (attsLock) {
+            atts = new Att[0];
+        }
         if (pipefd != null) {
             try {
                 posix.close(pipefd[0]);
@@ -247,6 +336,60 @@ public class AESelector implements FDSelector {
         }
     }
 
+    /**
+     * the collection is reused in every poll,
+     * and the iterator is reused as well,
+     * so it can only be iterated once at a time, and is valid until the next poll
+     */
+    private static class SelectedEntries extends AbstractCollection<SelectedEntry> {
+        private SelectedEntry[] entries = new SelectedEntry[16];
+        private int size = 0;
+        private final Cursor cursor = new Cursor();
+
+        @Override
+        public boolean add(SelectedEntry entry) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = entry;
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            Arrays.fill(entries, 0, size, null);
+            size = 0;
+        }
+
+        @Override
+        public Iterator<SelectedEntry> iterator() {
+            cursor.idx = 0;
+            return cursor;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        private class Cursor implements Iterator<SelectedEntry> {
+            int idx;
+
+            @Override
+            public boolean hasNext() {
+                return idx < size;
+            }
+
+            @Override
+            public SelectedEntry next() {
+                if (idx >= size) {
+                    throw new NoSuchElementException();
+                }
+                return entries[idx++];
+            }
+        }
+    }
+
     @SuppressWarnings("deprecation")
     @Override
     protected void finalize() {
@@ -25,6 +25,9 @@ public class GeneralPosix implements Posix {
     @Override
     native public FDInfo[] aeApiPoll(long ae, long wait) throws IOException;
 
+    @Override
+    native public int aeApiPollIntoBuffer(long ae, long wait, ByteBuffer directBuffer) throws IOException;
+
     @Override
     native public FDInfo[] aeAllFDs(long ae);
 
@@ -115,6 +118,12 @@ public class GeneralPosix implements Posix {
     @Override
     native public int write(int fd, ByteBuffer directBuffer, int off, int len) throws IOException;
 
+    @Override
+    native public int readv(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens, int count) throws IOException;
+
+    @Override
+    native public int writev(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens, int count) throws IOException;
+
     @Override
     native public int sendtoIPv4(int fd, ByteBuffer directBuffer, int off, int len, int addrHostOrder, int port) throws IOException;
 
@@ -127,6 +136,21 @@ public class GeneralPosix implements Posix {
     @Override
     native public UDPRecvResult recvfromIPv6(int fd, ByteBuffer directBuffer, int off, int len) throws IOException;
 
+    @Override
+    native public int recvmmsg(int fd, boolean ipv4, ByteBuffer directBuffer, int slotSize, int vlen, ByteBuffer metaBuffer) throws IOException;
+
+    @Override
+    native public int sendmmsg(int fd, boolean ipv4, ByteBuffer directBuffer, int slotSize, int vlen, ByteBuffer metaBuffer) throws IOException;
+
+    @Override
+    native public boolean spliceSupported();
+
+    @Override
+    native public int[] openSplicePipe(int size) throws IOException;
+
+    @Override
+    native public int splice(int fdIn, int fdOut, int len) throws IOException;
+
     @Override
     native public long currentTimeMillis();
 }
@@ -18,6 +18,15 @@ public interface Posix {
 
     FDInfo[] aeApiPoll(long ae, long wait) throws IOException;
 
+    /**
+     * poll and write the fired fd and events into the direct buffer as int pairs: (fd, events) in native order.<br>
+     * only the events which the buffer can hold are written, the others will be
+     * retrieved in the next poll because the events are level triggered.
+     *
+     * @return number of (fd, events) pairs written into the buffer
+     */
+    int aeApiPollIntoBuffer(long ae, long wait, ByteBuffer directBuffer) throws IOException;
+
     FDInfo[] aeAllFDs(long ae);
 
     void aeCreateFileEvent(long ae, int fd, int mask, Object clientData);
@@ -78,6 +87,22 @@ public interface Posix {
 
     int write(int fd, ByteBuffer directBuffer, int off, int len) throws IOException;
 
+    /**
+     * read into the buffers in one call, the bytes are filled into
+     * directBuffers[i] from offs[i] with at most lens[i] bytes in order.<br>
+     * at most 16 buffers are used in one call.
+     *
+     * @return bytes read, -1 for EOF
+     */
+    int readv(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens, int count) throws IOException;
+
+    /**
+     * write the buffers in one call, see {@link #readv(int, ByteBuffer[], int[], int[], int)}
+     *
+     * @return bytes written
+     */
+    int writev(int fd, ByteBuffer[] directBuffers, int[] offs, int[] lens, int count) throws IOException;
+
     int sendtoIPv4(int fd, ByteBuffer directBuffer, int off, int len, int addrHostOrder, int port) throws IOException;
 
     int sendtoIPv6(int fd, ByteBuffer directBuffer, int off, int len, String fullAddr, int port) throws IOException;
@@ -86,5 +111,36 @@ public interface Posix {
 
     UDPRecvResult recvfromIPv6(int fd, ByteBuffer directBuffer, int off, int len) throws IOException;
 
+    /**
+     * receive multiple packets in one call, see {@link vfd.DatagramBatch} for the buffer layout
+     *
+     * @return packets received, 0 if nothing received
+     */
+    int recvmmsg(int fd, boolean ipv4, ByteBuffer directBuffer, int slotSize, int vlen, ByteBuffer metaBuffer) throws IOException;
+
+    /**
+     * send multiple packets in one call, see {@link vfd.DatagramBatch} for the buffer layout
+     *
+     * @return packets sent, 0 if nothing sent
+     */
+    int sendmmsg(int fd, boolean ipv4, ByteBuffer directBuffer, int slotSize, int vlen, ByteBuffer metaBuffer) throws IOException;
+
+    boolean spliceSupported();
+
+    /**
+     * open a non-blocking pipe for splicing
+     *
+     * @param size the expected capacity of the pipe, it's only a hint
+     * @return [read end, write end, actual capacity]
+     */
+    int[] openSplicePipe(int size) throws IOException;
+
+    /**
+     * move data between two fds without copying through user space, one of the fds must be a pipe
+     *
+     * @return bytes moved, 0 if it would block, -1 for EOF
+     */
+    int splice(int fdIn, int fdOut, int len) throws IOException;
+
     long currentTimeMillis();
 }
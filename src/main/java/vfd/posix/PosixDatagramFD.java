@@ -1,5 +1,6 @@
 package vfd.posix;
 
+import vfd.DatagramBatch;
 import vfd.DatagramFD;
 import vproxy.util.Utils;
 
@@ -167,4 +168,39 @@ public class PosixDatagramFD extends PosixNetworkFD implements DatagramFD {
         }
         return l4addr.toInetSocketAddress();
     }
+
+    @Override
+    public int receiveBatch(DatagramBatch batch) throws IOException {
+        checkFD();
+        checkNotClosed();
+        if (!bond) {
+            throw new IOException("not bond");
+        }
+        batch.clear();
+        int n = posix.recvmmsg(fd, ipv4, batch.dataBuffer(), batch.slotSize(), batch.capacity(), batch.metaBuffer());
+        batch.setSize(n);
+        return n;
+    }
+
+    @Override
+    public int sendBatch(DatagramBatch batch) throws IOException {
+        if (connected) {
+            throw new IOException("this fd is already connected");
+        }
+        checkNotClosed();
+        if (batch.size() == 0) {
+            return 0;
+        }
+        if (fd == -1) {
+            // let the default implementation create the fd
+            return DatagramFD.super.sendBatch(batch);
+        }
+        for (int i = 0; i < batch.size(); ++i) {
+            InetSocketAddress remote = batch.getAddress(i);
+            if (ipv4 != (remote.getAddress() instanceof Inet4Address)) {
+                throw new IOException("unsupported address for this fd: " + remote);
+            }
+        }
+        return posix.sendmmsg(fd, ipv4, batch.dataBuffer(), batch.slotSize(), batch.size(), batch.metaBuffer());
+    }
 }
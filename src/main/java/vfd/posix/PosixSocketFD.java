@@ -3,8 +3,16 @@ package vfd.posix;
 import vfd.SocketFD;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class PosixSocketFD extends PosixNetworkFD implements SocketFD {
+    private static final int IOV_MAX_COUNT = 16;
+
+    // buffers passed to readv/writev, allocated when first used
+    private ByteBuffer[] iovBuffers;
+    private int[] iovOffs;
+    private int[] iovLens;
+
     public PosixSocketFD(Posix posix) {
         super(posix);
     }
@@ -32,4 +40,81 @@ public class PosixSocketFD extends PosixNetworkFD implements SocketFD {
         connected = true;
         return true;
     }
+
+    // fill the iov arrays with the buffers
+    // return count of buffers filled, or -1 if any buffer is not direct
+    private int fillIOVecs(ByteBuffer[] bufs, int offset, int length) {
+        if (iovBuffers == null) {
+            iovBuffers = new ByteBuffer[IOV_MAX_COUNT];
+            iovOffs = new int[IOV_MAX_COUNT];
+            iovLens = new int[IOV_MAX_COUNT];
+        }
+        int count = 0;
+        for (int i = offset; i < offset + length && count < IOV_MAX_COUNT; ++i) {
+            ByteBuffer b = bufs[i];
+            int len = b.limit() - b.position();
+            if (len == 0) {
+                continue;
+            }
+            if (!b.isDirect()) {
+                return -1;
+            }
+            iovBuffers[count] = b;
+            iovOffs[count] = b.position();
+            iovLens[count] = len;
+            ++count;
+        }
+        return count;
+    }
+
+    // move the positions of the buffers forward with n bytes in total
+    private void finishIOVecs(int count, int n) {
+        for (int i = 0; i < count; ++i) {
+            ByteBuffer b = iovBuffers[i];
+            iovBuffers[i] = null;
+            if (n > 0) {
+                int len = Math.min(n, iovLens[i]);
+                b.position(iovOffs[i] + len);
+                n -= len;
+            }
+        }
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        checkFD();
+        checkConnected();
+        checkNotClosed();
+
+        int count = fillIOVecs(dsts, offset, length);
+        if (count == -1) {
+            return SocketFD.super.read(dsts, offset, length);
+        }
+        int n = 0;
+        try {
+            n = posix.readv(fd, iovBuffers, iovOffs, iovLens, count);
+        } finally {
+            finishIOVecs(count, n);
+        }
+        return n;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        checkFD();
+        checkConnected();
+        checkNotClosed();
+
+        int count = fillIOVecs(srcs, offset, length);
+        if (count == -1) {
+            return SocketFD.super.write(srcs, offset, length);
+        }
+        int n = 0;
+        try {
+            n = posix.writev(fd, iovBuffers, iovOffs, iovLens, count);
+        } finally {
+            finishIOVecs(count, n);
+        }
+        return n;
+    }
 }
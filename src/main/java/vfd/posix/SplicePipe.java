@@ -0,0 +1,175 @@
+package vfd.posix;
+
+import vfd.FD;
+import vproxy.util.Logger;
+import vproxy.util.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A kernel pipe used to move data between two posix sockets with splice(2),
+ * the data will not be copied into user space.<br>
+ * Bytes in the pipe are counted in this object because the kernel does not provide
+ * a cheap way to retrieve them.<br>
+ * This class is not thread safe.
+ */
+public class SplicePipe {
+    private final Posix posix;
+    private int readFD;
+    private int writeFD;
+    private final int capacity;
+    private int used = 0;
+
+    private SplicePipe(Posix posix, int readFD, int writeFD, int capacity) {
+        this.posix = posix;
+        this.readFD = readFD;
+        this.writeFD = writeFD;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param fd the fd to be spliced
+     * @return true if the fd can be used with the splice pipe
+     */
+    public static boolean supports(FD fd) {
+        if (!(fd instanceof PosixSocketFD)) {
+            return false;
+        }
+        return ((PosixSocketFD) fd).posix.spliceSupported();
+    }
+
+    /**
+     * @param fd       the fd to be spliced, the pipe will use the same posix implementation as the fd
+     * @param capacity expected capacity of the pipe
+     * @return the pipe
+     * @throws IOException failed to create the pipe, or splice not supported
+     */
+    public static SplicePipe open(FD fd, int capacity) throws IOException {
+        if (!supports(fd)) {
+            throw new IOException("splice not supported on " + fd);
+        }
+        Posix posix = ((PosixSocketFD) fd).posix;
+        int[] res = posix.openSplicePipe(capacity);
+        return new SplicePipe(posix, res[0], res[1], res[2]);
+    }
+
+    private int fdOf(FD fd) throws IOException {
+        if (!(fd instanceof PosixSocketFD)) {
+            throw new IOException("splice not supported on " + fd);
+        }
+        PosixSocketFD sock = (PosixSocketFD) fd;
+        sock.checkFD();
+        sock.checkNotClosed();
+        return sock.fd;
+    }
+
+    private void checkNotClosed() throws IOException {
+        if (readFD == -1) {
+            throw new IOException("the splice pipe is closed");
+        }
+    }
+
+    /**
+     * move data from the fd into the pipe
+     *
+     * @return bytes moved, 0 if nothing moved, -1 for EOF
+     */
+    public int spliceFrom(FD fd, int len) throws IOException {
+        checkNotClosed();
+        int n = posix.splice(fdOf(fd), writeFD, len);
+        if (n > 0) {
+            used += n;
+        }
+        return n;
+    }
+
+    /**
+     * move data from the pipe into the fd
+     *
+     * @return bytes moved, 0 if nothing moved
+     */
+    public int spliceTo(FD fd, int len) throws IOException {
+        checkNotClosed();
+        int n = posix.splice(readFD, fdOf(fd), Math.min(len, used));
+        if (n > 0) {
+            used -= n;
+            return n;
+        }
+        return 0;
+    }
+
+    /**
+     * read data from the pipe into user space
+     *
+     * @param directBuffer the buffer to store the data
+     * @return bytes read
+     */
+    public int read(ByteBuffer directBuffer) throws IOException {
+        checkNotClosed();
+        int len = Math.min(directBuffer.limit() - directBuffer.position(), used);
+        int n = posix.read(readFD, directBuffer, directBuffer.position(), len);
+        if (n > 0) {
+            used -= n;
+            directBuffer.position(directBuffer.position() + n);
+            return n;
+        }
+        return 0;
+    }
+
+    /**
+     * drop all data in the pipe
+     */
+    public void clear() throws IOException {
+        if (used == 0) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.allocateDirect(Math.min(used, 65536));
+        try {
+            while (used > 0) {
+                buf.limit(buf.capacity()).position(0);
+                if (read(buf) == 0) {
+                    break;
+                }
+            }
+        } finally {
+            Utils.clean(buf);
+        }
+    }
+
+    public int used() {
+        return used;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isClosed() {
+        return readFD == -1;
+    }
+
+    public void close() {
+        if (readFD == -1) {
+            return;
+        }
+        try {
+            posix.close(readFD);
+        } catch (IOException e) {
+            Logger.shouldNotHappen("closing read end of splice pipe failed", e);
+        }
+        try {
+            posix.close(writeFD);
+        } catch (IOException e) {
+            Logger.shouldNotHappen("closing write end of splice pipe failed", e);
+        }
+        // the fds might be reused by other connections, so do not keep them
+        readFD = -1;
+        writeFD = -1;
+    }
+
+    @Override
+    public String toString() {
+        return "SplicePipe(" + readFD + ", " + writeFD + ", used=" + used + ", cap=" + capacity + ")";
+    }
+}
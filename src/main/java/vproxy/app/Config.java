@@ -1,5 +1,6 @@
 package vproxy.app;
 
+import vfd.DatagramBatch;
 import vproxy.util.Logger;
 import vproxy.util.OS;
 
@@ -23,6 +24,76 @@ public class Config {
     // the maximum expected size of a udp packet
     public static final int udpMtu = 65536;
 
+    // -DudpBatchSize=16
+    // max packets to be received or sent in one syscall for udp servers
+    public static final int udpBatchSize;
+
+    // -DbackendPoolSize=0
+    // max idle backend connections kept for each server and protocol in each event loop
+    // the connections are released by processors and reused by other frontend connections, 0 to disable
+    // it's the default value of tcp-lbs, see TcpLB#setBackendPoolSize
+    public static final int backendPoolSize;
+
+    // -DbackendPoolTimeout=4000
+    // idle backend connections in the pool are closed after the timeout (milliseconds)
+    // keep it smaller than the keep-alive timeout of the servers, e.g. 5 seconds of nodejs
+    public static final int backendPoolTimeout;
+
+    // -DhttpCacheSize=0
+    // size (MB) of the off-heap response cache of the http/1.x processor, 0 to disable, at most 1024
+    public static final int httpCacheSize;
+
+    // -DhttpCoalesceTimeout=0
+    // max time (milliseconds) for identical GET requests to wait for the response of the in-flight one
+    // in the http/1.x processor, 0 to disable request coalescing
+    public static final int httpCoalesceTimeout;
+
+    // -DhttpCoalesceWaiters=64
+    // max requests waiting for the same in-flight request, others are sent to backends directly
+    public static final int httpCoalesceWaiters;
+
+    // -DhttpCoalesceKey=method,host,uri
+    // parts of the request to decide whether requests are identical: method, host, uri, path (uri without query),
+    // or header:{name}, e.g. header:accept-encoding
+    public static final String httpCoalesceKey;
+
+    // -Dhttp2BackendHeaderTableSize=0
+    // max size of the hpack dynamic table used to encode the headers sent to each h2 backend connection,
+    // also limited by SETTINGS_HEADER_TABLE_SIZE of the backend and the initial value 4096
+    // (acks of the backend settings are not tracked), 0 to encode without the dynamic table
+    public static final int http2BackendHeaderTableSize;
+
+    // -DdnsServeStale=0
+    // milliseconds that expired entries in the dns cache of the resolver are still used while being refreshed,
+    // 0 to remove the entries when they expire
+    public static final int dnsServeStale;
+
+    // -DdnsPrefetch=0
+    // milliseconds before a dns cache entry expires, when a lookup hits the entry,
+    // the host is resolved again in background, 0 to disable
+    public static final int dnsPrefetch;
+
+    // -DdnsCacheSize=4096
+    // max count of entries in the dns cache of the resolver, entries not used recently are evicted when it's full
+    public static final int dnsCacheSize;
+
+    // -DdnsMinTTL=1
+    // -DdnsMaxTTL=3600
+    // seconds, the ttl of the records is clamped into [dnsMinTTL, dnsMaxTTL] when cached by the resolver,
+    // records are not cached by the resolver if the clamped ttl is 0,
+    // the answers cached by dns-servers are also kept for at most dnsMaxTTL seconds
+    public static final int dnsMinTTL;
+    public static final int dnsMaxTTL;
+
+    // -DdnsNegativeTTL=30
+    // max seconds to cache NXDOMAIN (and NODATA for dns-servers) answers,
+    // also limited by the SOA record of the answer, 0 to disable
+    public static final int dnsNegativeTTL;
+
+    // -DdnsServerCacheSize=4096
+    // max count of answers of recursive queries cached by each dns-server, 0 to disable
+    public static final int dnsServerCacheSize;
+
     // the recommended min payload length
     // also, see Processor.PROXY_ZERO_COPY_THRESHOLD
     public static final int recommendedMinPayloadLength = 1400;
@@ -59,6 +130,12 @@ public class Config {
     // -Dprobe=...
     public static final Set<String> probe;
 
+    // -DtimeQueue=heap|wheel
+    // the implementation of timers in event loops
+    // heap: the priority queue, good for small amount of timers
+    // wheel: the hierarchical timing wheel, O(1) add and cancel, good for a large amount of connections
+    public static final String timeQueue;
+
     private static int supportReusePortLB = 0;
     // do not initialize the field statically
     // graalvm native image might initialize the field and won't be changed at runtime
@@ -76,6 +153,23 @@ public class Config {
             probe = Arrays.stream(probeConf.split(",")).map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toUnmodifiableSet());
         }
         domainWhichShouldResolve = System.getProperty("omainWhichShouldResolve", "www.qq.com");
+        timeQueue = System.getProperty("timeQueue", "heap");
+        int batch = Integer.parseInt(System.getProperty("udpBatchSize", "16"));
+        udpBatchSize = Math.max(1, Math.min(batch, DatagramBatch.MAX_CAPACITY));
+        backendPoolSize = Math.max(0, Integer.parseInt(System.getProperty("backendPoolSize", "0")));
+        backendPoolTimeout = Math.max(1000, Integer.parseInt(System.getProperty("backendPoolTimeout", "4000")));
+        httpCacheSize = Math.max(0, Math.min(1024, Integer.parseInt(System.getProperty("httpCacheSize", "0"))));
+        httpCoalesceTimeout = Math.max(0, Integer.parseInt(System.getProperty("httpCoalesceTimeout", "0")));
+        httpCoalesceWaiters = Math.max(1, Integer.parseInt(System.getProperty("httpCoalesceWaiters", "64")));
+        httpCoalesceKey = System.getProperty("httpCoalesceKey", "method,host,uri");
+        http2BackendHeaderTableSize = Math.max(0, Integer.parseInt(System.getProperty("http2BackendHeaderTableSize", "0")));
+        dnsServeStale = Math.max(0, Integer.parseInt(System.getProperty("dnsServeStale", "0")));
+        dnsPrefetch = Math.max(0, Integer.parseInt(System.getProperty("dnsPrefetch", "0")));
+        dnsCacheSize = Math.max(1, Integer.parseInt(System.getProperty("dnsCacheSize", "4096")));
+        dnsMinTTL = Math.max(0, Integer.parseInt(System.getProperty("dnsMinTTL", "1")));
+        dnsMaxTTL = Math.max(dnsMinTTL, Integer.parseInt(System.getProperty("dnsMaxTTL", "3600")));
+        dnsNegativeTTL = Math.max(0, Integer.parseInt(System.getProperty("dnsNegativeTTL", "30")));
+        dnsServerCacheSize = Math.max(0, Integer.parseInt(System.getProperty("dnsServerCacheSize", "4096")));
     }
 
     public static boolean supportReusePortLB() {
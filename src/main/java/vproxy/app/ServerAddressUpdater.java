@@ -22,6 +22,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 public class ServerAddressUpdater implements ResolveListener {
+    // the evicted entry must be recorded at least this long (ms) ago to resolve the host again
+    private static final int MIN_RESOLVE_INTERVAL = 10_000;
     private static ServerAddressUpdater updater = new ServerAddressUpdater();
 
     private ConcurrentMap<String, Cache> cacheMap = new ConcurrentHashMap<>();
@@ -153,9 +155,23 @@ public class ServerAddressUpdater implements ResolveListener {
 
     @Override
     public void onRemove(Cache cache) {
-        // re-resolve it
+        resolve(cache.host);
+    }
+
+    @Override
+    public void onEvict(Cache cache) {
+        // the entry may be evicted right after it's recorded when the resolver cache is full,
+        // and resolving it again would evict another entry, so the rate is limited to avoid resolving hosts in a loop
+        if (FDProvider.get().currentTimeMillis() - cache.timestamp < MIN_RESOLVE_INTERVAL) {
+            Logger.warn(LogType.ALERT, "the dns cache of " + cache.host + " is evicted right after it's recorded, " +
+                "it will not be resolved again until it's used, consider increasing -DdnsCacheSize");
+            return;
+        }
+        resolve(cache.host);
+    }
 
-        String host = cache.host;
+    // re-resolve the host, the result is handled in onResolve()
+    private static void resolve(String host) {
         Resolver.getDefault().resolve(host, new Callback<>() {
             @Override
             protected void onSucceeded(InetAddress value) {
@@ -34,6 +34,7 @@ public class UpstreamHolder {
         Upstream g = map.remove(alias);
         if (g == null)
             throw new NotFoundException("upstream", alias);
+        g.destroy();
     }
 
     void clear() {
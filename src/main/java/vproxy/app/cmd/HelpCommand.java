@@ -450,7 +450,7 @@ public class HelpCommand {
                     , new ResActParamMan(ParamMan.upstream, "used as the backend servers")
                     , new ResActParamMan(ParamMan.inbuffersize, "input buffer size", "16384 (bytes)")
                     , new ResActParamMan(ParamMan.outbuffersize, "output buffer size", "16384 (bytes)")
-                    , new ResActParamMan(ParamMan.protocol, "the protocol used by tcp-lb. available options: tcp, http, h2, http/1.x, dubbo, framed-int32, or your customized protocol. See doc for more info", "tcp")
+                    , new ResActParamMan(ParamMan.protocol, "the protocol used by tcp-lb. available options: tcp, http, h2, http/1.x, dubbo, framed-int32, redis, memcached, or your customized protocol. See doc for more info", "tcp")
                     , new ResActParamMan(ParamMan.certkey, "the certificates and keys used by tcp-lb. Multiple cert-key(s) are separated with `,`")
                     , new ResActParamMan(ParamMan.securitygroup, "specify a security group for the lb", "allow any")
                 ),
@@ -681,7 +681,7 @@ public class HelpCommand {
                         new ResActParamMan(ParamMan.up, "set server status to UP after succeeded for `${up}` times"),
                         new ResActParamMan(ParamMan.down, "set server status to DOWN after failed for `${down}` times"),
                         new ResActParamMan(ParamMan.protocol, "the protocol used for checking the servers, you may choose `tcp`, `none`", "tcp"),
-                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`", "wrr"),
+                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`, `maglev`, `p2c`, `ewma`, `lor`", "wrr"),
                         new ResActParamMan(ParamMan.annotations, "extra info for the server-group, such as host info, health check url. Must be a json and values must be strings", "{}"),
                         new ResActParamMan(ParamMan.eventloopgroup, "choose a event-loop-group for the server group. health check operations will be performed on the event loop group", Application.DEFAULT_CONTROL_EVENT_LOOP_GROUP_NAME)
                     ),
@@ -738,7 +738,7 @@ public class HelpCommand {
                         new ResActParamMan(ParamMan.down, "set server status to DOWN after failed for `${down}` times", "not changed"),
                         new ResActParamMan(ParamMan.protocol, "the protocol used for checking the servers, you may choose `tcp`, `none`. " +
                             "Note: this field will be set to `tcp` as default when updating other hc options", "not changed"),
-                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`", "not changed"),
+                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, you can choose `wrr`, `wlc`, `source`, `maglev`, `p2c`, `ewma`, `lor`", "not changed"),
                         new ResActParamMan(ParamMan.weight, "the weight of group in the upstream resource (only available for server-group in upstream)", "not changed"),
                         new ResActParamMan(ParamMan.annotations, "annotation of the group itself, or the group in the upstream", "not changed")
                     ),
@@ -174,7 +174,7 @@ public class ServerGroupHandle {
             var h = Application.get().upstreamHolder.get(cmd.prepositionResource.alias)
                 .add(Application.get().serverGroupHolder.get(cmd.resource.alias), weight);
             if (cmd.args.containsKey(Param.anno)) {
-                h.annotations = AnnotationsHandle.get(cmd);
+                h.setAnnotations(AnnotationsHandle.get(cmd));
             }
         }
     }
@@ -223,7 +223,7 @@ public class ServerGroupHandle {
                 h.setWeight(WeightHandle.get(cmd));
             }
             if (cmd.args.containsKey(Param.anno)) {
-                h.annotations = AnnotationsHandle.get(cmd);
+                h.setAnnotations(AnnotationsHandle.get(cmd));
             }
         }
     }
@@ -261,7 +261,7 @@ public class ServerGroupHandle {
             if (h == null) {
                 annos = Objects.requireNonNullElseGet(g.getAnnotations(), Map::of);
             } else {
-                annos = Objects.requireNonNullElseGet(h.annotations, Map::of);
+                annos = Objects.requireNonNullElseGet(h.getAnnotations(), Map::of);
             }
 
             ObjectBuilder ob = new ObjectBuilder();
@@ -3,6 +3,7 @@ package vproxy.app.util;
 public class AnnotationKeys {
     public static final String ServerGroup_HintHost = "vproxy/hint-host";
     public static final String ServerGroup_HintPort = "vproxy/hint-port";
+    public static final String ServerGroup_HintUri = "vproxy/hint-uri";
     public static final String ServerGroup_HCHttpMethod = "vproxy/hc-http-method";
     public static final String ServerGroup_HCHttpUrl = "vproxy/hc-http-url";
     public static final String ServerGroup_HCHttpHost = "vproxy/hc-http-host";
@@ -13,7 +13,12 @@ import vproxy.component.exception.NotFoundException;
 import vproxy.component.exception.XException;
 import vproxy.connection.ServerSock;
 import vproxy.dns.Cache;
+import vproxy.dns.ResolveStats;
 import vproxy.dns.Resolver;
+import vproxy.processor.http1.HttpCache;
+import vproxy.processor.http2.GrpcStats;
+import vproxy.processor.http2.HeaderStats;
+import vproxy.processor.redis.RedisCommandStats;
 import vproxy.util.*;
 import vserver.HttpServer;
 import vserver.RoutingContext;
@@ -24,6 +29,7 @@ import vserver.server.Http1ServerImpl;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
@@ -118,7 +124,7 @@ public class HttpController {
             .build()));
         server.del(moduleBase + "/dns-server/:dns", wrapAsync(this::deleteDNSServer));
         // event-loop
-        server.get(moduleBase + "/event-loop-group/:elg/event-loop/:el/detail", wrapAsync(this::getEventLoop));
+        server.get(moduleBase + "/event-loop-group/:elg/event-loop/:el/detail", wrapAsync(this::getEventLoopDetail));
         server.get(moduleBase + "/event-loop-group/:elg/event-loop/:el", wrapAsync(this::getEventLoop));
         server.get(moduleBase + "/event-loop-group/:elg/event-loop", wrapAsync(this::listEventLoop));
         server.pst(moduleBase + "/event-loop-group/:elg/event-loop", wrapAsync(this::createEventLoop, new ObjectBuilder()
@@ -282,6 +288,16 @@ public class HttpController {
         // accepted-conn-count
         server.get(statistics + "/tcp-lb/:tl/server-sock/:l4addr/accepted-conn", wrapAsync(this::getAcceptedConnFromL4AddrTl));
         server.get(statistics + "/socks5-server/:socks5/server-sock/:l4addr/accepted-conn", wrapAsync(this::getAcceptedConnFromL4AddrSocks5));
+        // http-cache
+        server.get(statistics + "/http-cache", wrapAsync(this::getHttpCacheStatistics));
+        // http2-headers
+        server.get(statistics + "/http2-headers", wrapAsync(this::getHttp2HeaderStatistics));
+        // grpc
+        server.get(statistics + "/grpc", wrapAsync(this::getGrpcStatistics));
+        // dns-resolver
+        server.get(statistics + "/dns-resolver", wrapAsync(this::getDnsResolverStatistics));
+        // redis-commands
+        server.get(statistics + "/redis-commands", wrapAsync(this::getRedisCommandStatistics));
 
         // watch
         server.get(watch + "/server-group/-/server/-/health-check", this::watchHealthCheck);
@@ -559,6 +575,11 @@ public class HttpController {
             "remove", "dns-server", rctx.param("dns"));
     }
 
+    private void getEventLoopDetail(RoutingContext rctx, Callback<JSON.Instance, Throwable> cb) throws NotFoundException {
+        var el = Application.get().eventLoopGroupHolder.get(rctx.param("elg")).get(rctx.param("el"));
+        cb.succeeded(utils.formatEventLoopDetail(el));
+    }
+
     private void getEventLoop(RoutingContext rctx, Callback<JSON.Instance, Throwable> cb) throws NotFoundException {
         var el = Application.get().eventLoopGroupHolder.get(rctx.param("elg")).get(rctx.param("el"));
         cb.succeeded(utils.formatEventLoop(el));
@@ -1224,6 +1245,98 @@ public class HttpController {
         utils.respondAcceptedConnFromL4AddrTl(l4addrStr, socks5, cb);
     }
 
+    private void getHttpCacheStatistics(RoutingContext rctx, Callback<JSON.Instance, Throwable> cb) {
+        HttpCache cache = HttpCache.get();
+        if (cache == null) {
+            cb.succeeded(new ObjectBuilder().put("enabled", false).build());
+            return;
+        }
+        long lookups = cache.getLookups();
+        long hits = cache.getHits();
+        cb.succeeded(new ObjectBuilder()
+            .put("enabled", true)
+            .put("capacity", cache.getCapacity())
+            .put("used", cache.getUsed())
+            .put("entries", cache.getEntries())
+            .put("lookups", lookups)
+            .put("hits", hits)
+            .put("hitRatio", lookups == 0 ? 0d : (double) hits / lookups)
+            .put("revalidated", cache.getRevalidated())
+            .put("bytesSaved", cache.getBytesSaved())
+            .put("evictions", cache.getEvictions())
+            .put("rejected", cache.getRejected())
+            .build());
+    }
+
+    private void getHttp2HeaderStatistics(RoutingContext rctx, Callback<JSON.Instance, Throwable> cb) {
+        cb.succeeded(new ObjectBuilder()
+            .put("backendHeaderTableSize", Config.http2BackendHeaderTableSize)
+            .put("blocks", HeaderStats.getBlocks())
+            .put("passthrough", HeaderStats.getPassthrough())
+            .put("decodedBytes", HeaderStats.getDecodedBytes())
+            .put("receivedBytes", HeaderStats.getReceivedBytes())
+            .put("sentBytes", HeaderStats.getSentBytes())
+            .put("compressionRatio", HeaderStats.getCompressionRatio())
+            .build());
+    }
+
+    private void getDnsResolverStatistics(RoutingContext rctx, Callback<JSON.Instance, Throwable> cb) {
+        Resolver resolver = Resolver.getDefault();
+        ResolveStats stats = resolver.stats();
+        cb.succeeded(new ObjectBuilder()
+            .put("entries", resolver.cacheCount())
+            .put("hits", stats.getHits())
+            .put("misses", stats.getMisses())
+            .put("coalesced", stats.getCoalesced())
+            .put("stale", stats.getStale())
+            .put("prefetches", stats.getPrefetches())
+            .put("negativeHits", stats.getNegativeHits())
+            .put("evictions", stats.getEvictions())
+            .build());
+    }
+
+    private void getGrpcStatistics(RoutingContext rctx, Callback<JSON.Instance, Throwable> cb) {
+        List<GrpcStats> all = GrpcStats.getAll();
+        all.sort(Comparator.comparing(st -> st.method));
+        var arr = new ArrayBuilder();
+        for (GrpcStats st : all) {
+            long finished = 0;
+            var statuses = new ObjectBuilder();
+            for (int status = GrpcStats.NO_STATUS; status <= GrpcStats.MAX_STATUS; ++status) {
+                long n = st.getFinished(status);
+                if (n == 0) {
+                    continue;
+                }
+                finished += n;
+                statuses.put(String.valueOf(status), n);
+            }
+            arr.addInst(new ObjectBuilder()
+                .put("method", st.method)
+                .put("calls", st.getCalls())
+                .put("inFlight", st.getInFlight())
+                .put("avgNanos", finished == 0 ? 0 : st.getTotalNanos() / finished)
+                .putInst("statuses", statuses.build())
+                .build());
+        }
+        cb.succeeded(arr.build());
+    }
+
+    private void getRedisCommandStatistics(RoutingContext rctx, Callback<JSON.Instance, Throwable> cb) {
+        List<RedisCommandStats> all = RedisCommandStats.getAll();
+        all.sort(Comparator.comparing(st -> st.command));
+        var arr = new ArrayBuilder();
+        for (RedisCommandStats st : all) {
+            long count = st.getCount();
+            arr.addInst(new ObjectBuilder()
+                .put("command", st.command)
+                .put("count", count)
+                .put("avgNanos", count == 0 ? 0 : st.getTotalNanos() / count)
+                .put("maxNanos", st.getMaxNanos())
+                .build());
+        }
+        cb.succeeded(arr.build());
+    }
+
     private void watchHealthCheck(RoutingContext rctx) {
         rctx.response().status(200).sendHeadersWithChunked();
         //noinspection unchecked
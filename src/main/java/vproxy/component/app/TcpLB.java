@@ -73,6 +73,7 @@ public class TcpLB {
     private int timeout; // modifiable
     private int inBufferSize; // modifiable
     private int outBufferSize; // modifiable
+    private int backendPoolSize = Config.backendPoolSize; // modifiable
     public final String protocol;
     public final Processor processor;
     public final VSSLContext sslContext;
@@ -115,6 +116,39 @@ public class TcpLB {
                  VSSLContext sslContext,
                  CertKey[] certKeys,
                  SecurityGroup securityGroup) throws AlreadyExistException, ClosedException {
+        this(alias, acceptorGroup, workerGroup, bindAddress, backend, timeout, inBufferSize, outBufferSize,
+            protocol, (protocol.equals("tcp") ? null : ProcessorProvider.getInstance().get(protocol)),
+            sslContext, certKeys, securityGroup);
+    }
+
+    // use the processor instance instead of the one registered with the protocol name
+    public TcpLB(String alias,
+                 EventLoopGroup acceptorGroup,
+                 EventLoopGroup workerGroup,
+                 InetSocketAddress bindAddress,
+                 Upstream backend,
+                 int timeout,
+                 int inBufferSize, int outBufferSize,
+                 Processor processor,
+                 VSSLContext sslContext,
+                 CertKey[] certKeys,
+                 SecurityGroup securityGroup) throws AlreadyExistException, ClosedException {
+        this(alias, acceptorGroup, workerGroup, bindAddress, backend, timeout, inBufferSize, outBufferSize,
+            processor.name(), processor, sslContext, certKeys, securityGroup);
+    }
+
+    private TcpLB(String alias,
+                  EventLoopGroup acceptorGroup,
+                  EventLoopGroup workerGroup,
+                  InetSocketAddress bindAddress,
+                  Upstream backend,
+                  int timeout,
+                  int inBufferSize, int outBufferSize,
+                  String protocol,
+                  Processor processor,
+                  VSSLContext sslContext,
+                  CertKey[] certKeys,
+                  SecurityGroup securityGroup) throws AlreadyExistException, ClosedException {
         this.alias = alias;
         this.acceptorGroup = acceptorGroup;
         this.workerGroup = workerGroup;
@@ -124,7 +158,7 @@ public class TcpLB {
         this.inBufferSize = inBufferSize;
         this.outBufferSize = outBufferSize;
         this.protocol = protocol;
-        this.processor = (protocol.equals("tcp") ? null : ProcessorProvider.getInstance().get(protocol));
+        this.processor = processor;
         this.sslContext = sslContext;
         this.certKeys = certKeys;
         this.securityGroup = securityGroup;
@@ -158,6 +192,11 @@ public class TcpLB {
                 public Processor processor() {
                     return processor;
                 }
+
+                @Override
+                public String scope() {
+                    return alias;
+                }
             };
         }
     }
@@ -193,6 +232,7 @@ public class TcpLB {
             .setTimeout(timeout)
             .setInBufferSize(inBufferSize)
             .setOutBufferSize(outBufferSize)
+            .setBackendPoolSize(backendPoolSize)
             .setServer(server)
             .setAcceptLoop(eventLoop)
             .setSslContext(sslContext);
@@ -305,6 +345,13 @@ public class TcpLB {
         }
     }
 
+    public void setBackendPoolSize(int backendPoolSize) {
+        this.backendPoolSize = backendPoolSize;
+        for (Proxy pxy : servers.values()) {
+            pxy.config.setBackendPoolSize(backendPoolSize);
+        }
+    }
+
     public void setTimeout(int timeout) {
         this.timeout = timeout;
         for (Proxy pxy : servers.values()) {
@@ -323,4 +370,8 @@ public class TcpLB {
     public int getTimeout() {
         return timeout;
     }
+
+    public int getBackendPoolSize() {
+        return backendPoolSize;
+    }
 }
@@ -354,6 +354,7 @@ class utils {
             .put("currentIp", Utils.ipStr(svr.server.getAddress().getAddress()))
             .put("status", svr.healthy ? "UP" : "DOWN")
             .put("cost", svr.getHcCost())
+            .put("latency", svr.getLatencyEWMA() < 0 ? -1 : svr.getLatencyEWMA() / 1000)
             .put("downReason", svr.getHcDownReason())
             .build();
     }
@@ -375,7 +376,7 @@ class utils {
         return new ObjectBuilder()
             .put("name", sg.alias)
             .put("weight", sg.getWeight())
-            .putInst("annotations", formatAnnotations(sg.annotations))
+            .putInst("annotations", formatAnnotations(sg.getAnnotations()))
             .build();
     }
 
@@ -383,7 +384,7 @@ class utils {
         return new ObjectBuilder()
             .put("name", sg.alias)
             .put("weight", sg.getWeight())
-            .putInst("annotations", formatAnnotations(sg.annotations))
+            .putInst("annotations", formatAnnotations(sg.getAnnotations()))
             .putInst("serverGroup", formatServerGroupDetail(sg.group))
             .build();
     }
@@ -397,7 +398,7 @@ class utils {
     static JSON.Object formatEventLoopGroupDetail(EventLoopGroup elg) {
         return new ObjectBuilder()
             .put("name", elg.alias)
-            .putArray("eventLoopList", arr -> elg.list().forEach(el -> arr.addInst(formatEventLoop(el))))
+            .putArray("eventLoopList", arr -> elg.list().forEach(el -> arr.addInst(formatEventLoopDetail(el))))
             .build();
     }
 
@@ -407,6 +408,19 @@ class utils {
             .build();
     }
 
+    static JSON.Object formatEventLoopDetail(EventLoopWrapper el) {
+        var pool = el.getSelectorEventLoop().bufferPool;
+        return new ObjectBuilder()
+            .put("name", el.alias)
+            .putInst("bufferPool", new ObjectBuilder()
+                .put("hit", pool.getHit())
+                .put("miss", pool.getMiss())
+                .put("pooled", pool.getPooledCount())
+                .put("highWater", pool.getHighWater())
+                .build())
+            .build();
+    }
+
     static JSON.Object formatSocks5Server(Socks5Server socks5) {
         return new ObjectBuilder()
             .put("name", socks5.alias)
@@ -454,9 +468,27 @@ class utils {
             .putInst("rrsets", formatUpstreamDetail(dns.rrsets))
             .putInst("eventLoopGroup", formatEventLoopGroupDetail(dns.eventLoopGroup))
             .putInst("securityGroup", formatSecurityGroupDetail(dns.securityGroup))
+            .putInst("loops", formatDNSServerLoops(dns))
+            .putInst("answerCache", new ObjectBuilder()
+                .put("entries", dns.answerCache.size())
+                .put("hits", dns.answerCache.getHits())
+                .put("misses", dns.answerCache.getMisses())
+                .build())
             .build();
     }
 
+    static JSON.Array formatDNSServerLoops(DNSServer dns) {
+        var arr = new ArrayBuilder();
+        for (DNSServer.LoopStats stats : dns.loopStats()) {
+            arr.addInst(new ObjectBuilder()
+                .put("eventLoop", stats.eventLoop)
+                .put("queries", stats.queries)
+                .put("qps", stats.qps)
+                .build());
+        }
+        return arr.build();
+    }
+
     static JSON.Object formatTcpLb(TcpLB tl) {
         JSON.Instance listOfCertKey;
         if (tl.certKeys == null) {
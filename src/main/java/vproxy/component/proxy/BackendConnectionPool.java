@@ -0,0 +1,142 @@
+package vproxy.component.proxy;
+
+import vproxy.app.Config;
+import vproxy.connection.ConnectableConnection;
+import vproxy.connection.Connector;
+import vproxy.connection.NetEventLoop;
+import vproxy.pool.ConnectionPool;
+import vproxy.pool.ConnectionPoolHandler;
+import vproxy.processor.Processor;
+import vproxy.util.Logger;
+import vproxy.util.nio.ByteArrayChannel;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Idle backend connections shared by the frontend connections handled by processors in the same event loop.<br>
+ * When a frontend connection closes, the backend connections which the processor considers reusable
+ * are released into the pool instead of being closed, and other frontend connections take them
+ * before making new ones.<br>
+ * The connections are pooled by {@link Connector#poolKey()} (e.g. the server handle),
+ * {@link Processor#reuseKey(Processor.Context)} (the protocol running on the connection)
+ * and the pool size of the proxy (default {@link Config#backendPoolSize}).
+ * Each pool is a {@link ConnectionPool} holding at most `pool size` connections,
+ * connections idle longer than {@link Config#backendPoolTimeout}, or whose connector is no longer reusable
+ * (e.g. the server is down), are closed.<br>
+ * All methods must be called in the event loop.
+ */
+class BackendConnectionPool implements ConnectionPoolHandler {
+    private static final ConcurrentHashMap<NetEventLoop, BackendConnectionPool> loopPools = new ConcurrentHashMap<>();
+
+    private static class Key {
+        final Object poolKey;
+        final String reuseKey;
+        final int size;
+
+        Key(Object poolKey, String reuseKey, int size) {
+            this.poolKey = poolKey;
+            this.reuseKey = reuseKey;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return size == key.size && poolKey.equals(key.poolKey) && reuseKey.equals(key.reuseKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(poolKey, reuseKey, size);
+        }
+    }
+
+    private final NetEventLoop loop;
+    private final Map<Key, ConnectionPool> pools = new HashMap<>();
+
+    private BackendConnectionPool(NetEventLoop loop) {
+        this.loop = loop;
+        loop.getSelectorEventLoop().period(Config.backendPoolTimeout / 2, this::evict);
+    }
+
+    static BackendConnectionPool get(NetEventLoop loop) {
+        BackendConnectionPool pool = loopPools.get(loop);
+        if (pool != null) {
+            return pool;
+        }
+        // remove pools of closed loops when a new loop comes
+        loopPools.keySet().removeIf(l -> l.getSelectorEventLoop().isClosed());
+        return loopPools.computeIfAbsent(loop, BackendConnectionPool::new);
+    }
+
+    /**
+     * @return an idle connection made to the same target as the connector, or null if not found
+     */
+    ConnectableConnection poll(Connector connector, String reuseKey, int size) {
+        if (pools.isEmpty()) {
+            return null;
+        }
+        ConnectionPool pool = pools.get(new Key(connector.poolKey(), reuseKey, size));
+        if (pool == null) {
+            return null;
+        }
+        return pool.poll();
+    }
+
+    /**
+     * @param conn     the idle connection removed from the event loop
+     * @param reuseKey the protocol running on the connection
+     * @param size     max idle connections of the pool
+     * @return true if the connection is pooled, otherwise the caller should close it
+     */
+    boolean release(ConnectableConnection conn, String reuseKey, int size) {
+        Connector connector = conn.getConnector();
+        if (connector == null || !connector.isReusable()) {
+            return false;
+        }
+        ConnectionPool pool = pools.computeIfAbsent(new Key(connector.poolKey(), reuseKey, size),
+            k -> new ConnectionPool(loop, this, size, Config.backendPoolTimeout));
+        return pool.release(conn);
+    }
+
+    private void evict() {
+        Iterator<ConnectionPool> ite = pools.values().iterator();
+        while (ite.hasNext()) {
+            ConnectionPool pool = ite.next();
+            pool.evict();
+            if (pool.size() == 0) {
+                ite.remove();
+            }
+        }
+    }
+
+    @Override
+    public ConnectableConnection provide(NetEventLoop loop) {
+        return null; // the pool only holds released connections
+    }
+
+    @Override
+    public void keepaliveReadable(ConnectableConnection conn) {
+        // no data is expected on idle connections, so the connection cannot be reused
+        assert Logger.lowLevelDebug("unexpected data on idle connection " + conn);
+        conn.getInBuffer().writeTo(ByteArrayChannel.fromEmpty(conn.getInBuffer().used()));
+        conn.close();
+    }
+
+    @Override
+    public void keepalive(ConnectableConnection conn) {
+        // no keepalive for idle connections, they are closed after the idle timeout
+    }
+
+    @Override
+    public boolean valid(ConnectableConnection conn) {
+        Connector connector = conn.getConnector();
+        return connector != null && connector.isReusable();
+    }
+}
@@ -32,4 +32,9 @@ public interface ConnectorGen<T> {
     default Processor processor() {
         return null;
     }
+
+    // the scope of the processor contexts, see Processor#init(InetSocketAddress, String)
+    default String scope() {
+        return null;
+    }
 }
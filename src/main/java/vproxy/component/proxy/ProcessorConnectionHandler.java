@@ -36,6 +36,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         this.frontendConnection = frontendConnection;
         this.frontendSubCtx = frontendSubCtx;
         this.loop = loop;
+        processor.resumeWith(topCtx, () -> loop.getSelectorEventLoop().nextTick(this::resumeFrontend));
     }
 
     void recordBackend(BackendConnectionHandler backend, int connId) {
@@ -48,6 +49,14 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         conns[connId] = null;
     }
 
+    // a stream may end or be reset when proxying through any connection,
+    // so check all backends
+    void reportRequests() {
+        for (BackendConnectionHandler b : conn2intMap.keySet()) {
+            b.reportRequests();
+        }
+    }
+
     /**
      * a util function. NOTE: this method should be called in a while loop until no data to send or buffer is full
      *
@@ -92,6 +101,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                             assert Logger.lowLevelDebug("proxy done");
                             flow.currentSegment = flow.sendingQueue.poll(); // poll for the next segment
                             processor.proxyDone(topCtx, subCtx);
+                            reportRequests();
                             // -----the code is copied -------1
 
                             onZeroCopyProxyDone.run();
@@ -112,6 +122,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                     assert Logger.lowLevelDebug("proxy done");
                     flow.currentSegment = flow.sendingQueue.poll(); // poll for the next segment
                     processor.proxyDone(topCtx, subCtx);
+                    reportRequests();
                     // -----the code is copied -------1
                 }
             }
@@ -194,11 +205,75 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         private final BackendConnectionHandler.ByteFlow backendByteFlow = new BackendConnectionHandler.ByteFlow();
         private final BackendConnectionHandler.ByteFlow frontendByteFlow = new BackendConnectionHandler.ByteFlow();
 
+        // the requests in flight last reported to the connector
+        private int reportedRequests = 0;
+        // true if the connection is taken from the BackendConnectionPool
+        private boolean reused = false;
+        // true if the connection is released into the BackendConnectionPool
+        private boolean released = false;
+
         BackendConnectionHandler(Processor.SubContext subCtx, ConnectableConnection conn) {
             this.subCtx = subCtx;
             this.conn = conn;
         }
 
+        void reportRequests() {
+            int n = processor.requestsInFlight(topCtx, subCtx);
+            if (n < 0 || n == reportedRequests) {
+                return;
+            }
+            Connector connector = conn.getConnector();
+            if (connector != null) {
+                connector.requestsChanged(n - reportedRequests);
+            }
+            reportedRequests = n;
+        }
+
+        void clearReportedRequests() {
+            if (reportedRequests == 0) {
+                return;
+            }
+            Connector connector = conn.getConnector();
+            if (connector != null) {
+                connector.requestsChanged(-reportedRequests);
+            }
+            reportedRequests = 0;
+        }
+
+        /**
+         * release the connection into the BackendConnectionPool if it's idle
+         * and the processor considers it reusable.
+         * the caller should remove it from the collections when succeeded
+         *
+         * @return true if released
+         */
+        boolean release() {
+            if (config.backendPoolSize == 0) {
+                return false;
+            }
+            if (!isConnected || conn.isClosed() || conn.isRemoteClosed() || conn.isWriteClosed()) {
+                return false;
+            }
+            if (chnl != null || conn.getInBuffer().used() != 0 || conn.getOutBuffer().used() != 0) {
+                return false; // data not fully handled
+            }
+            if (backendByteFlow.currentSegment != null || !backendByteFlow.sendingQueue.isEmpty()
+                || frontendByteFlow.currentSegment != null || !frontendByteFlow.sendingQueue.isEmpty()) {
+                return false;
+            }
+            String reuseKey = processor.reuseKey(topCtx);
+            if (reuseKey == null || !processor.reusable(topCtx, subCtx)) {
+                return false;
+            }
+            released = true;
+            loop.removeConnection(conn);
+            if (BackendConnectionPool.get(loop).release(conn, reuseKey, config.backendPoolSize)) {
+                assert Logger.lowLevelDebug("backend connection " + conn + " released into the pool");
+                return true;
+            }
+            return false; // the connection is already removed from loop, so it should be closed
+        }
+
         void writeToBackend(ByteArray data) {
             backendByteFlow.write(data);
             doBackendWrite();
@@ -210,6 +285,22 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         }
 
         void writeToFrontend(ByteArray data) {
+            BackendConnectionHandler writing = handlingConnection;
+            if (writing != null && writing != this
+                && processor.keepFrontendWriteOrder(topCtx)
+                && writing.frontendByteFlow.currentSegment != null
+                && frontendByteFlow.currentSegment == null
+                && processor.expectNewFrame(topCtx, subCtx)
+                && processor.expectNewFrame(topCtx, writing.subCtx)) {
+                // another backend is writing to the frontend, and both connections are on frame boundaries,
+                // so append the data after the data being written
+                // otherwise the data written later by the writing backend would be sent before this one
+                // which breaks the order of responses the processor relies on (e.g. redis)
+                assert Logger.lowLevelDebug("append data of " + conn + " to the frontend flow of " + writing.conn);
+                writing.frontendByteFlow.write(data);
+                frontendWrite(writing);
+                return;
+            }
             frontendByteFlow.write(data);
             frontendWrite(this);
         }
@@ -266,6 +357,10 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         @Override
         public void connected(ConnectableConnectionHandlerContext ctx) {
             isConnected = true;
+            Connector connector = conn.getConnector();
+            if (connector != null && !reused) { // reused connections are connected long ago
+                connector.connectionSucceeded();
+            }
             // no need to call processor.connected(...) here, it's already called when retrieving the connection
             doBackendWrite();
         }
@@ -285,6 +380,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                 assert Logger.lowLevelDebug("the proxy length is " + len);
                 if (len == 0) { // 0 bytes to proxy, so it's already done
                     processor.proxyDone(topCtx, subCtx);
+                    reportRequests();
                     readBackend(); // recursively call to handle more input data
                 } else {
                     proxyToFrontend(len);
@@ -301,6 +397,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                             frontendConnection.close(true);
                             return;
                         }
+                        reportRequests();
                         // check data to write back
                         {
                             ByteArray writeBackBytes = processor.produce(topCtx, subCtx);
@@ -335,6 +432,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                     frontendConnection.close();
                     return;
                 }
+                reportRequests();
                 assert Logger.lowLevelDebug("the processor return a message of length " + (dataToSend == null ? "null" : dataToSend.length()));
 
                 // check data to write back
@@ -403,6 +501,9 @@ class ProcessorConnectionHandler implements ConnectionHandler {
 
         @Override
         public void removed(ConnectionHandlerContext ctx) {
+            if (released) {
+                return; // removed when releasing into the pool
+            }
             if (!ctx.connection.isClosed())
                 Logger.error(LogType.IMPROPER_USE, "backend connection " + ctx.connection + " removed from event loop " + loop);
             closeAll();
@@ -584,6 +685,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
             } else {
                 if (bytesToProxy == 0) { // 0 bytes to proxy, so it's already done
                     processor.proxyDone(topCtx, frontendSubCtx);
+                    reportRequests();
                     readFrontend(); // recursively call to read more data
                 } else {
                     backend.proxyToBackend(bytesToProxy);
@@ -636,36 +738,91 @@ class ProcessorConnectionHandler implements ConnectionHandler {
                 frontendConnection.close(true);
                 return;
             }
-            {
-                ByteArray produced = processor.produce(topCtx, frontendSubCtx);
-                if (produced != null && produced.length() != 0) {
-                    frontendByteFlow.write(produced);
+            handleFrontendFed(bytesToSend);
+        }
+    }
+
+    /**
+     * the processor asks to resume handling the frontend connection, see {@link Processor#resumeWith(Processor.Context, Runnable)}
+     */
+    private void resumeFrontend() {
+        if (closed) {
+            return;
+        }
+        assert Logger.lowLevelDebug("resume handling frontend connection " + frontendConnection);
+        ByteArray bytesToSend;
+        try {
+            bytesToSend = processor.feed(topCtx, frontendSubCtx, ByteArray.from(new byte[0]));
+        } catch (Exception e) {
+            Logger.warn(LogType.INVALID_EXTERNAL_DATA, "user code cannot handle data from " + frontendConnection + ". err=" + e);
+            frontendConnection.close(true);
+            return;
+        }
+        handleFrontendFed(bytesToSend);
+    }
+
+    /**
+     * handle the result of feeding the frontend data into the processor
+     *
+     * @param bytesToSend the result of `feed`
+     */
+    private void handleFrontendFed(ByteArray bytesToSend) {
+        {
+            ByteArray produced = processor.produce(topCtx, frontendSubCtx);
+            if (produced != null && produced.length() != 0) {
+                frontendByteFlow.write(produced);
+            }
+        }
+        // the data may be split into parts for different backends
+        boolean backendBusy = false;
+        while (true) {
+            ByteArray part = processor.split(topCtx, frontendSubCtx);
+            if (part == null) {
+                break;
+            }
+            int partConnId = processor.connection(topCtx, frontendSubCtx);
+            Hint partHint = processor.connectionHint(topCtx, frontendSubCtx);
+            assert Logger.lowLevelDebug("the processor split a part of length " + part.length() + ", sending to connId=" + partConnId + ", hint=" + partHint);
+            BackendConnectionHandler backend = getConnection(partConnId, partHint);
+            if (backend == null) {
+                Logger.error(LogType.CONN_ERROR, "failed to retrieve the backend connection for " + frontendConnection + "/" + partConnId);
+                frontendConnection.close(true);
+                return;
+            }
+            if (part.length() != 0) {
+                backend.writeToBackend(part);
+                if (backend.backendByteFlow.currentSegment != null) {
+                    backendBusy = true;
                 }
             }
+        }
 
-            int connId = processor.connection(topCtx, frontendSubCtx);
-            Hint hint = processor.connectionHint(topCtx, frontendSubCtx);
-            assert Logger.lowLevelDebug("the processor return data of length " + (bytesToSend == null ? "null" : bytesToSend.length()) + ", sending to connId=" + connId + ", hint=" + hint);
-            if (connId == 0) {
-                if (bytesToSend == null || bytesToSend.length() == 0) {
-                    readFrontend();
+        int connId = processor.connection(topCtx, frontendSubCtx);
+        Hint hint = processor.connectionHint(topCtx, frontendSubCtx);
+        assert Logger.lowLevelDebug("the processor return data of length " + (bytesToSend == null ? "null" : bytesToSend.length()) + ", sending to connId=" + connId + ", hint=" + hint);
+        if (connId == 0) {
+            if (bytesToSend == null || bytesToSend.length() == 0) {
+                if (backendBusy) {
+                    // readFrontend() will be called when the backend finishes writing
                     return;
-                } else {
-                    Logger.error(LogType.IMPROPER_USE, "When you return connection()==0, you must guarantee that the former feed() calling result was null or an array with length 0");
-                    // ignore and fall through
                 }
+                readFrontend();
+                return;
+            } else {
+                Logger.error(LogType.IMPROPER_USE, "When you return connection()==0, you must guarantee that the former feed() calling result was null or an array with length 0");
+                // ignore and fall through
             }
-            BackendConnectionHandler backend = getConnection(connId, hint);
-            if (backend == null) {
-                // for now, we simply close the whole connection when a backend is missing
-                Logger.error(LogType.CONN_ERROR, "failed to retrieve the backend connection for " + frontendConnection + "/" + connId);
-                frontendConnection.close(true);
+        }
+        BackendConnectionHandler backend = getConnection(connId, hint);
+        if (backend == null) {
+            // for now, we simply close the whole connection when a backend is missing
+            Logger.error(LogType.CONN_ERROR, "failed to retrieve the backend connection for " + frontendConnection + "/" + connId);
+            frontendConnection.close(true);
+        } else {
+            if (bytesToSend == null || bytesToSend.length() == 0) {
+                readFrontend(); // recursively call to handle more data
             } else {
-                if (bytesToSend == null || bytesToSend.length() == 0) {
-                    readFrontend(); // recursively call to handle more data
-                } else {
-                    backend.writeToBackend(bytesToSend);
-                }
+                backend.writeToBackend(bytesToSend);
             }
         }
     }
@@ -697,27 +854,45 @@ class ProcessorConnectionHandler implements ConnectionHandler {
             if (conns[existingConnId].conn.remote.equals(connector.remote)) {
                 BackendConnectionHandler bh = conns[existingConnId];
                 processor.chosen(topCtx, frontendSubCtx, bh.subCtx);
+                bh.reportRequests();
                 return bh;
             }
         }
 
+        // get an idle connection from the pool
+        String reuseKey = config.backendPoolSize == 0 ? null : processor.reuseKey(topCtx);
+        if (reuseKey != null) {
+            ConnectableConnection pooled = BackendConnectionPool.get(loop).poll(connector, reuseKey, config.backendPoolSize);
+            if (pooled != null) {
+                assert Logger.lowLevelDebug("reuse backend connection " + pooled + " from the pool");
+                return addBackend(connector, pooled, true);
+            }
+        }
+
         // get a new connection
         ConnectableConnection connectableConnection;
         try {
             connectableConnection = connector.connect(
                 new ConnectionOpts().setTimeout(config.timeout),
-                RingBuffer.allocateDirect(config.inBufferSize), ProxyOutputRingBuffer.allocateDirect(config.outBufferSize));
+                RingBuffer.allocateDirectPooled(config.inBufferSize), ProxyOutputRingBuffer.allocateDirectPooled(config.outBufferSize));
         } catch (IOException e) {
             Logger.fatal(LogType.CONN_ERROR, "make passive connection failed, maybe provided endpoint info is invalid", e);
             return null;
         }
 
+        return addBackend(connector, connectableConnection, false);
+    }
+
+    private BackendConnectionHandler addBackend(Connector connector, ConnectableConnection connectableConnection, boolean reused) {
         // record in collections
         int newConnId = ++cursor;
         BackendConnectionHandler bh =
             new BackendConnectionHandler(processor.initSub(topCtx, newConnId, connector.remote), connectableConnection);
+        bh.reused = reused;
         recordBackend(bh, newConnId);
         // register
+        // a reused connection is just removed from the pool,
+        // the event loop registers it after the canceled key is removed, see SelectorEventLoop#add0
         try {
             loop.addConnectableConnection(connectableConnection, null, bh);
         } catch (IOException e) {
@@ -732,6 +907,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
 
         ByteArray bytes = processor.connected(topCtx, bh.subCtx);
         processor.chosen(topCtx, frontendSubCtx, bh.subCtx);
+        bh.reportRequests();
 
         if (bytes != null && bytes.length() > 0) {
             bh.writeToBackend(bytes);
@@ -757,7 +933,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         // frontend FIN
         // we should send FIN to current backend
         int connId = processor.connection(topCtx, frontendSubCtx);
-        if (connId == -1) {
+        if (connId <= 0) {
             assert Logger.lowLevelDebug("" +
                 "no current backend connection, " +
                 "send FIN to all backend");
@@ -766,6 +942,9 @@ class ProcessorConnectionHandler implements ConnectionHandler {
             boolean allBackendRemoteClosed = true;
             for (int i : ints) {
                 BackendConnectionHandler be = conns[i];
+                if (releaseBackend(be)) {
+                    continue; // idle backends can be used by other frontends
+                }
                 be.conn.closeWrite();
                 if (be.conn.getOutBuffer().used() != 0 || !be.conn.isRemoteClosed()) {
                     allBackendRemoteClosed = false;
@@ -813,6 +992,22 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         closeAll();
     }
 
+    private boolean releaseBackend(BackendConnectionHandler be) {
+        if (be.released) {
+            return false;
+        }
+        boolean ok = be.release();
+        if (be.released) {
+            // removed from the loop, so it's no longer handled by this session
+            removeBackend(be);
+            be.clearReportedRequests();
+            if (!ok) {
+                be.conn.close();
+            }
+        }
+        return ok;
+    }
+
     private boolean closed = false;
 
     void closeAll() {
@@ -825,7 +1020,11 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         List<Integer> ints = new ArrayList<>(conn2intMap.values());
         for (int i : ints) {
             BackendConnectionHandler be = conns[i];
+            if (releaseBackend(be)) {
+                continue;
+            }
             removeBackend(be);
+            be.clearReportedRequests();
             be.conn.close();
             be.conn.getInBuffer().clean();
             be.conn.getOutBuffer().clean();
@@ -833,5 +1032,7 @@ class ProcessorConnectionHandler implements ConnectionHandler {
         frontendConnection.close();
         frontendConnection.getInBuffer().clean();
         frontendConnection.getOutBuffer().clean();
+
+        processor.closed(topCtx);
     }
 }
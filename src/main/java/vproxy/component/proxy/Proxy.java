@@ -1,6 +1,8 @@
 package vproxy.component.proxy;
 
 import vfd.SocketFD;
+import vfd.VFDConfig;
+import vfd.posix.SplicePipe;
 import vproxy.connection.*;
 import vproxy.processor.Processor;
 import vproxy.protocol.ProtocolConnectionHandler;
@@ -10,6 +12,7 @@ import vproxy.util.*;
 import vproxy.util.ringbuffer.ByteBufferRingBuffer;
 import vproxy.util.ringbuffer.ProxyOutputRingBuffer;
 import vproxy.util.ringbuffer.SSLUtils;
+import vproxy.util.ringbuffer.SpliceRingBuffer;
 import vproxy.util.ringbuffer.ssl.SSL;
 import vproxy.util.ringbuffer.ssl.SSLEngineBuilder;
 
@@ -104,6 +107,17 @@ public class Proxy {
                 return;
             }
 
+            if (connection.getInBuffer() instanceof SpliceRingBuffer && !SplicePipe.supports(connectableConnection.channel)) {
+                // the connector provided a connection which cannot be spliced
+                // use normal buffers instead
+                if (!replaceSpliceBuffers(connection, connectableConnection)) {
+                    utilCloseConnectionAndReleaseBuffers(connection);
+                    utilCloseConnection(connectableConnection);
+                    connector.close();
+                    return;
+                }
+            }
+
             Session session = new Session(connection, connectableConnection);
             ConnectableConnectionHandler handler = new SessionConnectableConnectionHandler(session);
 
@@ -146,6 +160,26 @@ public class Proxy {
             }
         }
 
+        private boolean replaceSpliceBuffers(Connection active, Connection passive) {
+            RingBuffer oldIn = active.getInBuffer();
+            RingBuffer oldOut = active.getOutBuffer();
+            RingBuffer in = RingBuffer.allocateDirectPooled(config.inBufferSize);
+            RingBuffer out = RingBuffer.allocateDirectPooled(config.outBufferSize);
+            try {
+                // the buffers are empty because the connections are not registered yet
+                active.UNSAFE_replaceBuffer(in, out);
+                passive.UNSAFE_replaceBuffer(out, in);
+            } catch (IOException e) {
+                Logger.shouldNotHappen("replacing splice buffers failed", e);
+                in.clean();
+                out.clean();
+                return false;
+            }
+            oldIn.clean();
+            oldOut.clean();
+            return true;
+        }
+
         class HandlerCallback extends Callback<Connector, IOException> {
             private final NetEventLoop acceptLoop;
             private final NetEventLoop loop;
@@ -235,7 +269,7 @@ public class Proxy {
         @SuppressWarnings("unchecked")
         private void handleProcessor(NetEventLoop acceptLoop, Connection frontendConnection) {
             Processor processor = config.connGen.processor();
-            Processor.Context topCtx = processor.init(frontendConnection.remote);
+            Processor.Context topCtx = processor.init(frontendConnection.remote, config.connGen.scope());
             Processor.SubContext frontendSubCtx = processor.initSub(topCtx, 0, frontendConnection.remote);
             {
                 ByteArray data = processor.connected(topCtx, frontendSubCtx);
@@ -267,6 +301,12 @@ public class Proxy {
 
         @Override
         public Tuple<RingBuffer, RingBuffer> getIOBuffers(SocketFD channel) {
+            if (VFDConfig.splice && config.sslContext == null && config.connGen.type() == ConnectorGen.Type.direct) {
+                Tuple<RingBuffer, RingBuffer> buffers = getSpliceBuffers(channel);
+                if (buffers != null) {
+                    return buffers;
+                }
+            }
             int inBufferSize, outBufferSize;
             if (config.sslContext == null) {
                 inBufferSize = config.inBufferSize;
@@ -277,11 +317,11 @@ public class Proxy {
                 inBufferSize = Math.max(config.inBufferSize, 24576);
                 outBufferSize = Math.max(config.outBufferSize, 24576);
             }
-            ByteBufferRingBuffer inBuffer = RingBuffer.allocateDirect(inBufferSize);
+            ByteBufferRingBuffer inBuffer = RingBuffer.allocateDirectPooled(inBufferSize);
             RingBuffer outBuffer =
                 (config.connGen.type() == ConnectorGen.Type.processor && config.sslContext == null)
-                    ? ProxyOutputRingBuffer.allocateDirect(outBufferSize)
-                    : RingBuffer.allocateDirect(outBufferSize);
+                    ? ProxyOutputRingBuffer.allocateDirectPooled(outBufferSize)
+                    : RingBuffer.allocateDirectPooled(outBufferSize);
 
             if (config.sslContext == null) {
                 return new Tuple<>(inBuffer, outBuffer);
@@ -319,6 +359,25 @@ public class Proxy {
             return new Tuple<>(pair.left, pair.right);
         }
 
+        // raw tcp sessions can be forwarded with splice, the bytes will not be copied into user space
+        // the net flow is still recorded because the buffer reports the spliced bytes
+        private Tuple<RingBuffer, RingBuffer> getSpliceBuffers(SocketFD channel) {
+            if (!SplicePipe.supports(channel)) {
+                return null;
+            }
+            // the pipe stores data by pages, a small pipe can only hold a few segments
+            SpliceRingBuffer inBuffer = SpliceRingBuffer.allocate(channel, Math.max(config.inBufferSize, 65536));
+            if (inBuffer == null) {
+                return null;
+            }
+            SpliceRingBuffer outBuffer = SpliceRingBuffer.allocate(channel, Math.max(config.outBufferSize, 65536));
+            if (outBuffer == null) {
+                inBuffer.clean();
+                return null;
+            }
+            return new Tuple<>(inBuffer, outBuffer);
+        }
+
         @Override
         public void removed(ServerHandlerContext ctx) {
             handler.serverRemoved(ctx.server);
@@ -419,6 +478,11 @@ public class Proxy {
             assert Logger.lowLevelDebug("passive connection established: " + session);
             isConnected = true; // it's connected
 
+            Connector connector = ctx.connection.getConnector();
+            if (connector != null) {
+                connector.connectionSucceeded();
+            }
+
             // now we can add active connection into event loop
             // use event loop from context
             // the active and passive connection are handled in the same loop
@@ -18,6 +18,7 @@ public class ProxyNetConfig {
 
     int inBufferSize = 128;
     int outBufferSize = 128;
+    int backendPoolSize = Config.backendPoolSize;
 
     VSSLContext sslContext = null;
     BiConsumer<SSLEngine, SSLParameters> sslEngineManipulator = null;
@@ -52,6 +53,11 @@ public class ProxyNetConfig {
         return this;
     }
 
+    public ProxyNetConfig setBackendPoolSize(int backendPoolSize) {
+        this.backendPoolSize = backendPoolSize;
+        return this;
+    }
+
     public ProxyNetConfig setTimeout(int timeout) {
         this.timeout = timeout;
         return this;
@@ -95,6 +101,10 @@ public class ProxyNetConfig {
         return timeout;
     }
 
+    public int getBackendPoolSize() {
+        return backendPoolSize;
+    }
+
     public VSSLContext getSslContext() {
         return sslContext;
     }
@@ -17,6 +17,9 @@ public class SecurityGroup {
     public boolean defaultAllow;
     private LinkedList<SecurityGroupRule> tcpRules = new LinkedList<>();
     private LinkedList<SecurityGroupRule> udpRules = new LinkedList<>();
+    // compiled from the rule lists, rebuilt when rules change
+    private SecurityGroupRuleTrie tcpTrie = new SecurityGroupRuleTrie(tcpRules);
+    private SecurityGroupRuleTrie udpTrie = new SecurityGroupRuleTrie(udpRules);
 
     public SecurityGroup(String alias, boolean defaultAllow) {
         this.alias = alias;
@@ -28,20 +31,17 @@ public class SecurityGroup {
     }
 
     public boolean allow(Protocol protocol, InetAddress address, int port) {
-        LinkedList<SecurityGroupRule> rules;
+        SecurityGroupRuleTrie trie;
         if (protocol == Protocol.TCP) {
-            rules = tcpRules;
+            trie = tcpTrie;
         } else {
             assert protocol == Protocol.UDP;
-            rules = udpRules;
+            trie = udpTrie;
         }
-        if (rules.isEmpty())
+        SecurityGroupRule rule = trie.match(address, port);
+        if (rule == null)
             return defaultAllow;
-        for (SecurityGroupRule rule : rules) {
-            if (rule.match(address, port))
-                return rule.allow;
-        }
-        return defaultAllow;
+        return rule.allow;
     }
 
     public List<SecurityGroupRule> getRules() {
@@ -73,12 +73,15 @@ public class SecurityGroup {
                 throw new AlreadyExistException("security-group-rule " + r + " already exists in security-group " + this.alias);
         }
         rules.add(rule);
+        SecurityGroupRuleTrie trie = new SecurityGroupRuleTrie(rules);
         if (rule.protocol == Protocol.TCP) {
             this.tcpRules = rules;
+            this.tcpTrie = trie;
         } else {
             //noinspection ConstantConditions
             assert rule.protocol == Protocol.UDP;
             this.udpRules = rules;
+            this.udpTrie = trie;
         }
     }
 
@@ -92,13 +95,18 @@ public class SecurityGroup {
         Optional<SecurityGroupRule> optRule = oldRules.stream().filter(r -> r.alias.equals(name)).findFirst();
         if (optRule.isEmpty())
             throw new NotFoundException("security-group-rule in security-group " + this.alias, name);
+        // copy the list, the old list may be in use
         if (optRule.get().protocol == Protocol.TCP) {
+            tcpRules = new LinkedList<>(tcpRules);
             tcpRules.remove(optRule.get());
             this.tcpRules = tcpRules;
+            this.tcpTrie = new SecurityGroupRuleTrie(tcpRules);
         } else {
             assert optRule.get().protocol == Protocol.UDP;
+            udpRules = new LinkedList<>(udpRules);
             udpRules.remove(optRule.get());
             this.udpRules = udpRules;
+            this.udpTrie = new SecurityGroupRuleTrie(udpRules);
         }
     }
 
@@ -0,0 +1,215 @@
+package vproxy.component.secure;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rules of one protocol compiled into two binary tries, one for ipv4 inputs and one for ipv6 inputs.<br>
+ * Each rule is stored in the node of its prefix, together with its port range.
+ * A lookup walks the trie along the bits of the input address,
+ * and the rule with the smallest index matching the port wins,
+ * which keeps the first-match semantics of the rule list.<br>
+ * The mixed ipv4/ipv6 behavior of {@link vproxy.util.Utils#maskMatch(byte[], byte[], byte[])}
+ * is preserved by inserting the rules into the tries of both families when they may match.<br>
+ * The object is immutable after built, a new one should be built when rules change.
+ */
+class SecurityGroupRuleTrie {
+    private static final int[] EMPTY = new int[0];
+
+    private static class Node {
+        Node zero;
+        Node one;
+        // sorted by rule index
+        int[] idx = EMPTY;
+        int[] minPort = EMPTY;
+        int[] maxPort = EMPTY;
+
+        void add(int index, SecurityGroupRule rule) {
+            int len = idx.length;
+            idx = Arrays.copyOf(idx, len + 1);
+            minPort = Arrays.copyOf(minPort, len + 1);
+            maxPort = Arrays.copyOf(maxPort, len + 1);
+            idx[len] = index;
+            minPort[len] = rule.minPort;
+            maxPort[len] = rule.maxPort;
+        }
+
+        // return the first matched index which is smaller than `best`, or `best` if not found
+        int match(int port, int best) {
+            int[] idx = this.idx;
+            for (int i = 0; i < idx.length; ++i) {
+                if (idx[i] >= best)
+                    break;
+                if (minPort[i] <= port && port <= maxPort[i])
+                    return idx[i];
+            }
+            return best;
+        }
+    }
+
+    private final SecurityGroupRule[] rules;
+    private final Node v4 = new Node();
+    private final Node v6 = new Node();
+    // the rules whose masks are not prefixes, they are checked one by one
+    private final int[] others;
+
+    SecurityGroupRuleTrie(List<SecurityGroupRule> rules) {
+        this.rules = rules.toArray(new SecurityGroupRule[0]);
+        List<Integer> others = new ArrayList<>();
+        for (int i = 0; i < this.rules.length; ++i) {
+            SecurityGroupRule r = this.rules[i];
+            if (prefixLen(r.mask) == -1) {
+                others.add(i);
+                continue;
+            }
+            add(i, r);
+        }
+        this.others = others.stream().mapToInt(i -> i).toArray();
+    }
+
+    /*
+     * see comments in Utils.maskMatch for all situations
+     * ipv4 inputs:
+     *   ipv4 rule: compare with the last 4 bytes of the mask
+     *   ipv6 rule with short mask: never match
+     *   ipv6 rule with long mask: the rule should be [all 0] or [all 0][ffff] in high bits,
+     *                             then compare the last 4 bytes
+     * ipv6 inputs:
+     *   ipv4 rule: the input should be [all 0] or [all 0][ffff] in high bits,
+     *              then compare the last 4 bytes
+     *   ipv6 rule with short mask: compare the first 4 bytes
+     *   ipv6 rule with long mask: compare all bytes
+     */
+    private void add(int index, SecurityGroupRule r) {
+        byte[] ip = r.ip;
+        byte[] mask = r.mask;
+        // for ipv4 inputs
+        if (ip.length == 4) {
+            insert(v4, index, r, ip, last4(mask));
+        } else if (mask.length == 16 && isV4CompatibleOrMapped(ip)) {
+            insert(v4, index, r, last4(ip), last4(mask));
+        }
+        // for ipv6 inputs
+        if (ip.length == 16) {
+            if (mask.length == 16) {
+                insert(v6, index, r, ip, mask);
+            } else {
+                insert(v6, index, r, Arrays.copyOf(Arrays.copyOf(ip, mask.length), 16), Arrays.copyOf(mask, 16));
+            }
+        } else {
+            byte[] m = new byte[16];
+            Arrays.fill(m, 0, 12, (byte) 0xff);
+            System.arraycopy(last4(mask), 0, m, 12, 4);
+            byte[] compatible = new byte[16];
+            System.arraycopy(ip, 0, compatible, 12, 4);
+            insert(v6, index, r, compatible, m);
+            byte[] mapped = Arrays.copyOf(compatible, 16);
+            mapped[10] = (byte) 0xff;
+            mapped[11] = (byte) 0xff;
+            insert(v6, index, r, mapped, m);
+        }
+    }
+
+    private static void insert(Node root, int index, SecurityGroupRule r, byte[] value, byte[] mask) {
+        for (int i = 0; i < value.length; ++i) {
+            if ((value[i] & ~mask[i]) != 0)
+                return; // bits out of the mask are set, the rule never matches
+        }
+        int len = prefixLen(mask);
+        Node n = root;
+        for (int i = 0; i < len; ++i) {
+            if (bit(value, i) == 0) {
+                if (n.zero == null) {
+                    n.zero = new Node();
+                }
+                n = n.zero;
+            } else {
+                if (n.one == null) {
+                    n.one = new Node();
+                }
+                n = n.one;
+            }
+        }
+        n.add(index, r);
+    }
+
+    private static int bit(byte[] bytes, int i) {
+        return (bytes[i >>> 3] >>> (7 - (i & 7))) & 1;
+    }
+
+    private static byte[] last4(byte[] bytes) {
+        return Arrays.copyOfRange(bytes, bytes.length - 4, bytes.length);
+    }
+
+    private static boolean isV4CompatibleOrMapped(byte[] ip) {
+        for (int i = 0; i < 10; ++i) {
+            if (ip[i] != 0)
+                return false;
+        }
+        return (ip[10] == 0 && ip[11] == 0) || (ip[10] == (byte) 0xff && ip[11] == (byte) 0xff);
+    }
+
+    // -1 if the mask is not a prefix
+    private static int prefixLen(byte[] mask) {
+        int len = 0;
+        int i = 0;
+        for (; i < mask.length; ++i) {
+            int ones = Integer.numberOfLeadingZeros(~(mask[i] << 24));
+            len += ones;
+            if (ones != 8) {
+                if ((byte) (mask[i] << ones) != 0)
+                    return -1;
+                ++i;
+                break;
+            }
+        }
+        for (; i < mask.length; ++i) {
+            if (mask[i] != 0)
+                return -1;
+        }
+        return len;
+    }
+
+    /**
+     * @return the first matched rule, or null if no rule matches
+     */
+    SecurityGroupRule match(InetAddress address, int port) {
+        int best = Integer.MAX_VALUE;
+        if (address instanceof Inet4Address) {
+            byte[] ip = address.getAddress();
+            int addr = ((ip[0] & 0xff) << 24) | ((ip[1] & 0xff) << 16) | ((ip[2] & 0xff) << 8) | (ip[3] & 0xff);
+            Node n = v4;
+            for (int i = 0; ; ++i) {
+                best = n.match(port, best);
+                if (i == 32)
+                    break;
+                n = ((addr >>> (31 - i)) & 1) == 0 ? n.zero : n.one;
+                if (n == null)
+                    break;
+            }
+        } else {
+            byte[] addr = address.getAddress();
+            Node n = v6;
+            for (int i = 0; ; ++i) {
+                best = n.match(port, best);
+                if (i == 128)
+                    break;
+                n = bit(addr, i) == 0 ? n.zero : n.one;
+                if (n == null)
+                    break;
+            }
+        }
+        for (int idx : others) {
+            if (idx >= best)
+                break;
+            if (rules[idx].match(address, port)) {
+                best = idx;
+                break;
+            }
+        }
+        return best == Integer.MAX_VALUE ? null : rules[best];
+    }
+}
@@ -0,0 +1,170 @@
+package vproxy.component.svrgroup;
+
+import vproxy.app.util.AnnotationKeys;
+import vproxy.processor.Hint;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of the HintHost/HintPort/HintUri annotations of the server groups in an upstream.<br>
+ * The hosts are stored in a trie with reversed labels, e.g. `www.example.com` is stored
+ * as `com` -&gt; `example` -&gt; `www`. For a hint host, the groups of the three match levels
+ * of {@link Hint#matchLevel(Map[])} can be found on the path of the host:
+ * <ul>
+ * <li>3: groups on the node of the host</li>
+ * <li>2: groups on the ancestor nodes, i.e. the host is a sub domain of the group</li>
+ * <li>1: groups in the sub tree, i.e. the group is a sub domain of the host</li>
+ * </ul>
+ * The port and the uri prefix only filter the groups, they do not change the level.<br>
+ * Groups are recorded with their index in the upstream, the smallest index wins
+ * when multiple groups have the same level, which is the same as checking them one by one.<br>
+ * The index is immutable after built, a new one should be built when groups or annotations change.
+ * Each thread (event loop) caches recent results in its own small lru map.
+ */
+class HintIndex {
+    private static final int LRU_SIZE = 128;
+    private static final Object NOT_FOUND = new Object();
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private static class Entry {
+        final int idx;
+        final String port;
+        final String uri;
+        final Upstream.ServerGroupHandle handle;
+
+        Entry(int idx, String port, String uri, Upstream.ServerGroupHandle handle) {
+            this.idx = idx;
+            this.port = port;
+            this.uri = uri;
+            this.handle = handle;
+        }
+
+        boolean match(String port, String uri) {
+            return (port == null || this.port == null || this.port.equals(port))
+                && (this.uri == null || (uri != null && uri.startsWith(this.uri)));
+        }
+    }
+
+    private static class Node {
+        final Map<String, Node> children = new HashMap<>();
+        // groups with the host of this node, sorted by idx
+        Entry[] exact = EMPTY;
+        // groups with the hosts in the sub tree (not including this node), sorted by idx
+        Entry[] subTree = EMPTY;
+
+        static Entry[] append(Entry[] entries, Entry e) {
+            Entry[] ret = Arrays.copyOf(entries, entries.length + 1);
+            ret[entries.length] = e;
+            return ret;
+        }
+    }
+
+    private final Node root = new Node();
+    private final ThreadLocal<LinkedHashMap<String, Object>> lru = ThreadLocal.withInitial(() ->
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > LRU_SIZE;
+            }
+        });
+
+    HintIndex(List<Upstream.ServerGroupHandle> handles) {
+        for (int i = 0; i < handles.size(); ++i) {
+            Upstream.ServerGroupHandle h = handles.get(i);
+            String host = annotation(h, AnnotationKeys.ServerGroup_HintHost);
+            if (host == null) { // for now, we do not support to determine from annotations without `host`
+                continue;
+            }
+            Entry e = new Entry(i,
+                annotation(h, AnnotationKeys.ServerGroup_HintPort),
+                annotation(h, AnnotationKeys.ServerGroup_HintUri),
+                h);
+
+            Node n = root;
+            int end = host.length();
+            while (true) {
+                int dot = host.lastIndexOf('.', end - 1);
+                String label = host.substring(dot + 1, end);
+                if (n != root) {
+                    n.subTree = Node.append(n.subTree, e);
+                }
+                n = n.children.computeIfAbsent(label, k -> new Node());
+                if (dot < 0) {
+                    break;
+                }
+                end = dot;
+            }
+            n.exact = Node.append(n.exact, e);
+        }
+    }
+
+    // the annotations of the handle take precedence over the annotations of the group
+    private static String annotation(Upstream.ServerGroupHandle h, String key) {
+        String v = null;
+        Map<String, String> anno = h.getAnnotations();
+        if (anno != null) {
+            v = anno.get(key);
+        }
+        if (v == null) {
+            anno = h.group.getAnnotations();
+            if (anno != null) {
+                v = anno.get(key);
+            }
+        }
+        return v;
+    }
+
+    Upstream.ServerGroupHandle search(Hint hint) {
+        LinkedHashMap<String, Object> cache = lru.get();
+        String key = hint.uri == null ? hint.hint : hint.hint + " " + hint.uri;
+        Object cached = cache.get(key);
+        if (cached != null) {
+            return cached == NOT_FOUND ? null : (Upstream.ServerGroupHandle) cached;
+        }
+        Entry e = doSearch(hint.host, hint.port, hint.uri);
+        cache.put(key, e == null ? NOT_FOUND : e.handle);
+        return e == null ? null : e.handle;
+    }
+
+    private Entry doSearch(String host, String port, String uri) {
+        Entry parentMatch = null; // level 2
+        Node n = root;
+        int end = host.length();
+        while (true) {
+            int dot = host.lastIndexOf('.', end - 1);
+            n = n.children.get(host.substring(dot + 1, end));
+            if (n == null) {
+                return parentMatch;
+            }
+            if (dot < 0) {
+                break;
+            }
+            Entry e = first(n.exact, port, uri);
+            if (e != null && (parentMatch == null || e.idx < parentMatch.idx)) {
+                parentMatch = e;
+            }
+            end = dot;
+        }
+        Entry e = first(n.exact, port, uri); // level 3
+        if (e != null) {
+            return e;
+        }
+        if (parentMatch != null) {
+            return parentMatch;
+        }
+        return first(n.subTree, port, uri); // level 1
+    }
+
+    private static Entry first(Entry[] entries, String port, String uri) {
+        for (Entry e : entries) {
+            if (e.match(port, uri)) {
+                return e;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,141 @@
+package vproxy.component.svrgroup;
+
+import java.util.Arrays;
+
+/**
+ * The lookup table of Maglev consistent hashing.<br>
+ * Each backend generates a permutation of the table slots from its key,
+ * and the backends take turns (proportional to their weights) to fill their
+ * preferred slots which are still empty. When a backend is added or removed,
+ * only a small portion of the slots change their owners.<br>
+ * The table is immutable after built, so it's safe to be used on multiple threads.
+ */
+public class MaglevTable {
+    // the table size should be a prime and much larger than the backend count
+    private static final int[] SIZES = {65537, 131071, 262139, 524287, 1048573};
+    private static final int SLOTS_PER_BACKEND = 100;
+
+    private final int[] table;
+    private final int backends;
+
+    /**
+     * @param keys    keys of the backends, the same key will always generate the same permutation
+     * @param weights weights of the backends, must be positive
+     */
+    public MaglevTable(byte[][] keys, int[] weights) {
+        if (keys.length != weights.length) {
+            throw new IllegalArgumentException("keys.length " + keys.length + " != weights.length " + weights.length);
+        }
+        this.backends = keys.length;
+        if (backends == 0) {
+            this.table = new int[0];
+            return;
+        }
+        int m = SIZES[SIZES.length - 1];
+        for (int s : SIZES) {
+            if (s >= (long) backends * SLOTS_PER_BACKEND) {
+                m = s;
+                break;
+            }
+        }
+        this.table = populate(keys, weights, m);
+    }
+
+    private static int[] populate(byte[][] keys, int[] weights, int m) {
+        int n = keys.length;
+        long[] offset = new long[n];
+        long[] skip = new long[n];
+        int maxWeight = 0;
+        for (int i = 0; i < n; ++i) {
+            if (weights[i] <= 0) {
+                throw new IllegalArgumentException("weight of backend " + i + " is not positive: " + weights[i]);
+            }
+            offset[i] = Long.remainderUnsigned(hash(keys[i], 0xcbf29ce484222325L), m);
+            skip[i] = Long.remainderUnsigned(hash(keys[i], 0x84222325cbf29ce4L), m - 1) + 1;
+            maxWeight = Math.max(maxWeight, weights[i]);
+        }
+        int[] table = new int[m];
+        Arrays.fill(table, -1);
+        int[] next = new int[n];
+        // a backend takes one slot each time its credit reaches maxWeight
+        long[] credit = new long[n];
+        int filled = 0;
+        while (true) {
+            for (int i = 0; i < n; ++i) {
+                credit[i] += weights[i];
+                while (credit[i] >= maxWeight) {
+                    credit[i] -= maxWeight;
+                    int c;
+                    do {
+                        c = (int) ((offset[i] + next[i] * skip[i]) % m);
+                        ++next[i];
+                    } while (table[c] >= 0);
+                    table[c] = i;
+                    if (++filled == m) {
+                        return table;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * fnv-1a with the murmur3 finalizer, the sdbm hash does not spread well for ip addresses
+     */
+    public static long hash(byte[] bytes, long seed) {
+        long h = seed;
+        for (byte b : bytes) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        return hash(h);
+    }
+
+    /**
+     * the murmur3 finalizer
+     */
+    public static long hash(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public static long hash(byte[] bytes) {
+        return hash(bytes, 0xcbf29ce484222325L);
+    }
+
+    /**
+     * @return table slot index of the hash
+     */
+    public int slot(long hash) {
+        return (int) Long.remainderUnsigned(hash, table.length);
+    }
+
+    /**
+     * @return the backend index stored in the slot
+     */
+    public int get(int slot) {
+        return table[slot];
+    }
+
+    /**
+     * @return the backend index for the hash, or -1 if no backend
+     */
+    public int lookup(long hash) {
+        if (backends == 0) {
+            return -1;
+        }
+        return table[slot(hash)];
+    }
+
+    public int size() {
+        return table.length;
+    }
+
+    public int backends() {
+        return backends;
+    }
+}
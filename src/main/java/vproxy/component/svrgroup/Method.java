@@ -4,4 +4,8 @@ public enum Method {
     wrr,
     wlc,
     source, // consistent hashing with source ip address
+    maglev, // maglev consistent hashing with source ip address, and bounded loads
+    p2c, // power of two choices on active connections
+    ewma, // power of two choices on active connections and ewma of connect time
+    lor, // power of two choices on outstanding requests (e.g. h2 streams) reported by processors
 }
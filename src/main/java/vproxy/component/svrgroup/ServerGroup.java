@@ -20,6 +20,7 @@ import vproxy.util.Utils;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
@@ -70,6 +71,7 @@ public class ServerGroup {
                 if (hcCost.size() > 10) {
                     hcCost.removeFirst();
                 }
+                recordLatency(result.cost * 1_000_000);
             }
 
             @Override
@@ -127,6 +129,12 @@ public class ServerGroup {
         private final LongAdder toRemoteBytes = new LongAdder();
 
         private ConcurrentHashSet<Connection> connMap = new ConcurrentHashSet<>();
+        // same as connMap.size(), but much cheaper to retrieve
+        private final AtomicInteger connCount = new AtomicInteger(0);
+        // ewma of the connect time in nanoseconds, -1 means not recorded yet
+        private volatile long latencyEWMA = -1;
+        // requests in flight (e.g. h2 streams), reported by processors through the connectors
+        private final AtomicInteger activeRequests = new AtomicInteger(0);
 
         public Object data; // the data field, not used by this lib
 
@@ -165,15 +173,56 @@ public class ServerGroup {
 
         @Override
         public void onConnClose(Connection conn) {
-            connMap.remove(conn);
+            if (connMap.remove(conn)) {
+                connCount.decrementAndGet();
+                totalConnections.decrementAndGet();
+            }
         }
 
         void attachConnection(Connection conn) {
-            connMap.add(conn);
+            if (connMap.add(conn)) {
+                connCount.incrementAndGet();
+                totalConnections.incrementAndGet();
+            }
         }
 
         public int connectionCount() {
-            return connMap.size();
+            return connCount.get();
+        }
+
+        /**
+         * record the time cost of establishing a connection, from live traffic or health check
+         *
+         * @param nanos time cost in nanoseconds
+         */
+        void recordLatency(long nanos) {
+            long cur = latencyEWMA;
+            if (cur < 0) {
+                latencyEWMA = nanos;
+            } else {
+                // the same smoothing factor as tcp srtt (1/8)
+                // concurrent updates may lose one sample, which is acceptable
+                latencyEWMA = cur + ((nanos - cur) >> 3);
+            }
+        }
+
+        /**
+         * @return ewma of the connect time in nanoseconds, -1 if not recorded yet
+         */
+        public long getLatencyEWMA() {
+            return latencyEWMA;
+        }
+
+        void requestsChanged(int delta) {
+            activeRequests.addAndGet(delta);
+        }
+
+        /**
+         * @return count of requests in flight on all connections to the server,
+         * only processors which can recognize requests report them, e.g. h2 streams
+         */
+        public int getActiveRequests() {
+            return activeRequests.get();
         }
 
         public void copyConnections(Collection<? super Connection> c) {
@@ -322,16 +371,38 @@ public class ServerGroup {
     public final EventLoopGroup eventLoopGroup;
     private HealthCheckConfig healthCheckConfig;
     private final AnnotatedHcConfig annotatedHcConfig = new AnnotatedHcConfig();
-    private Method method;
+    private volatile Method method;
     private final Attach attach;
     private ArrayList<ServerHandle> servers = new ArrayList<>(0);
     private final CopyOnWriteArraySet<ServerListener> serverListeners = new CopyOnWriteArraySet<>();
     private Map<String, String> annotations = null;
+    // upstreams containing this group, their hint indexes should be rebuilt when annotations change
+    private final CopyOnWriteArraySet<Upstream> upstreams = new CopyOnWriteArraySet<>();
+    // connections of all servers in this group, used by bounded-load methods
+    private final AtomicInteger totalConnections = new AtomicInteger(0);
+
+    // the selection state of one thread
+    // the cursors are kept per thread instead of per EventLoopWrapper:
+    // the servers are picked on the thread of the loop handling the connection,
+    // so each loop still gets its own cursor without looking up the current loop,
+    // and threads other than the loops (e.g. the command handling thread) also get their own ones
+    static class Cursor {
+        int idx;
+
+        Cursor(int idx) {
+            this.idx = idx;
+        }
+    }
 
     // START fields for WRR
     static class WRR {
         int[] seq;
-        final AtomicInteger wrrCursor = new AtomicInteger(0);
+        // each thread (i.e. each event loop) walks through the seq with its own cursor
+        // so picking servers never modifies shared state.
+        // the cursors start from random positions, so that the loops
+        // will not send their first connections to the same server
+        final ThreadLocal<Cursor> wrrCursor = ThreadLocal.withInitial(() ->
+            new Cursor(seq.length == 0 ? 0 : ThreadLocalRandom.current().nextInt(seq.length)));
         final ArrayList<ServerHandle> servers; // = servers;
 
         WRR(List<ServerHandle> servers) {
@@ -346,6 +417,10 @@ public class ServerGroup {
 
     // START fields for WLC
     static class WLC {
+        // the position to start scanning for each thread (i.e. each event loop),
+        // it moves forward after each pick, so servers with the same
+        // connections / weight are picked in turn
+        final ThreadLocal<Cursor> wlcCursor = ThreadLocal.withInitial(() -> new Cursor(0));
         final ArrayList<ServerHandle> servers;
 
         WLC(List<ServerHandle> servers) {
@@ -359,6 +434,8 @@ public class ServerGroup {
     // END fields for WLC
 
     // START fields for SOURCE
+    // count of redis cluster hash slots, see nextBySlot()
+    private static final int SLOT_COUNT = 16384;
     static class SOURCE {
         final int[] seq;
         final ArrayList<ServerHandle> servers;
@@ -387,6 +464,30 @@ public class ServerGroup {
     private SOURCE _sourceIPv6;
     // END fields for SOURCE
 
+    // fields for P2C and EWMA: use the WLC server lists
+    private static final int P2C_MAX_ATTEMPTS = 4;
+
+    // START fields for MAGLEV
+    // a server may hold at most (1 + e) times of the average load
+    private static final double MAGLEV_LOAD_FACTOR = 1.25;
+
+    static class MAGLEV {
+        final MaglevTable table;
+        final ArrayList<ServerHandle> servers;
+        final int totalWeight;
+
+        MAGLEV(MaglevTable table, ArrayList<ServerHandle> servers, int totalWeight) {
+            this.table = table;
+            this.servers = servers;
+            this.totalWeight = totalWeight;
+        }
+    }
+
+    private MAGLEV _maglev;
+    private MAGLEV _maglevIPv4;
+    private MAGLEV _maglevIPv6;
+    // END fields for MAGLEV
+
     public ServerGroup(String alias,
                        EventLoopGroup eventLoopGroup,
                        HealthCheckConfig healthCheckConfig,
@@ -411,6 +512,10 @@ public class ServerGroup {
             return wlcNext();
         } else if (method == Method.source) {
             return sourceHashGet(source.getAddress());
+        } else if (method == Method.maglev) {
+            return maglevGet(_maglev, source.getAddress());
+        } else if (method == Method.p2c || method == Method.ewma || method == Method.lor) {
+            return p2cNext(_wlc, method);
         } else {
             Logger.shouldNotHappen("unsupported method " + method);
             // use wrr instead
@@ -425,6 +530,10 @@ public class ServerGroup {
             return wlcNextIPv4();
         } else if (method == Method.source) {
             return sourceHashGetIPv4(source.getAddress());
+        } else if (method == Method.maglev) {
+            return maglevGet(_maglevIPv4, source.getAddress());
+        } else if (method == Method.p2c || method == Method.ewma || method == Method.lor) {
+            return p2cNext(_wlcIPv4, method);
         } else {
             Logger.shouldNotHappen("unsupported method " + method);
             // use wrr instead
@@ -439,6 +548,10 @@ public class ServerGroup {
             return wlcNextIPv6();
         } else if (method == Method.source) {
             return sourceHashGetIPv6(source.getAddress());
+        } else if (method == Method.maglev) {
+            return maglevGet(_maglevIPv6, source.getAddress());
+        } else if (method == Method.p2c || method == Method.ewma || method == Method.lor) {
+            return p2cNext(_wlcIPv6, method);
         } else {
             Logger.shouldNotHappen("unsupported method " + method);
             // use wrr instead
@@ -446,6 +559,28 @@ public class ServerGroup {
         }
     }
 
+    /**
+     * choose a server for a redis cluster style hash slot.<br>
+     * For the maglev method, the slot is looked up in the maglev table.
+     * Otherwise, the slots are split into continuous ranges by weight
+     * for the servers sorted by address.<br>
+     * The slots of a DOWN server are taken over by the next server.
+     * The connection count is not considered, so a slot always goes to
+     * the same server as long as the server is UP.
+     *
+     * @param slot the hash slot in [0, 16384)
+     * @return null if not found any healthy
+     */
+    public SvrHandleConnector nextBySlot(int slot) {
+        if (method == Method.maglev) {
+            return maglevGetBySlot(_maglev, slot);
+        }
+        SOURCE source = _source;
+        if (source.seq.length == 0)
+            return null;
+        return sourceHashGet(source, source.seq[slot * source.seq.length / SLOT_COUNT], 0);
+    }
+
     private SvrHandleConnector sourceHashGet(InetAddress source) {
         byte[] bytes = source.getAddress();
         return sourceHashGet(_source, _source.hash(bytes), 0);
@@ -474,6 +609,117 @@ public class ServerGroup {
         return sourceHashGet(source, idx + 1, recurse + 1);
     }
 
+    /*
+     * Maglev with bounded loads:
+     * the source address is hashed into a slot of the lookup table.
+     * If the server of the slot is DOWN, or it already holds more than
+     * ceil(LOAD_FACTOR * (totalConnections + 1) * weight / totalWeight) connections,
+     * the following slots are checked one by one.
+     * The servers in consecutive slots are randomly distributed,
+     * so the load of one server spills over to all other servers
+     * instead of the next one in the list.
+     */
+    private SvrHandleConnector maglevGet(MAGLEV maglev, InetAddress source) {
+        if (maglev.servers.isEmpty())
+            return null;
+
+        MaglevTable table = maglev.table;
+        int slot = table.slot(MaglevTable.hash(source.getAddress()));
+        // use the total weight of all servers, so the ipv4/ipv6 tables share the same bound
+        int totalWeight = _maglev.totalWeight;
+        double avg = MAGLEV_LOAD_FACTOR * (totalConnections.get() + 1) / totalWeight;
+        int probes = Math.min(table.size(), Math.max(64, maglev.servers.size() * 4));
+
+        ServerHandle firstHealthy = null;
+        for (int i = 0; i < probes; ++i) {
+            ServerHandle h = maglev.servers.get(table.get(slot));
+            if (h.healthy) {
+                if (h.connectionCount() < Math.ceil(avg * h.weight))
+                    return h.makeConnector();
+                if (firstHealthy == null)
+                    firstHealthy = h;
+            }
+            if (++slot == table.size())
+                slot = 0;
+        }
+        if (firstHealthy != null) {
+            // all checked servers are overloaded, use the nearest one
+            return firstHealthy.makeConnector();
+        }
+        // most servers are DOWN
+        for (ServerHandle h : maglev.servers) {
+            if (h.healthy)
+                return h.makeConnector();
+        }
+        return null;
+    }
+
+    private SvrHandleConnector maglevGetBySlot(MAGLEV maglev, int slot) {
+        if (maglev.servers.isEmpty())
+            return null;
+
+        MaglevTable table = maglev.table;
+        int idx = table.slot(MaglevTable.hash(slot));
+        for (int i = 0; i < table.size(); ++i) {
+            ServerHandle h = maglev.servers.get(table.get(idx));
+            if (h.healthy)
+                return h.makeConnector();
+            if (++idx == table.size())
+                idx = 0;
+        }
+        return null;
+    }
+
+    /*
+     * Power of two choices:
+     * randomly pick two different servers, and use the one with less
+     * connections / weight. For the `ewma` method, the value is also
+     * multiplied by the ewma of connect time, so slow servers get less connections.
+     * For the `lor` method, requests in flight are used instead of connections,
+     * so that long-lived streams multiplexed on a few connections do not pile up on one server.
+     * Only two servers are checked, so it's O(1) regardless of the server count.
+     */
+    private SvrHandleConnector p2cNext(WLC wlc, Method method) {
+        ArrayList<ServerHandle> servers = wlc.servers;
+        int n = servers.size();
+        if (n == 0)
+            return null;
+        if (n == 1) {
+            ServerHandle h = servers.get(0);
+            return h.healthy ? h.makeConnector() : null;
+        }
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        for (int i = 0; i < P2C_MAX_ATTEMPTS; ++i) {
+            int a = rand.nextInt(n);
+            int b = rand.nextInt(n - 1);
+            if (b >= a)
+                ++b;
+            ServerHandle ha = servers.get(a);
+            ServerHandle hb = servers.get(b);
+            if (!ha.healthy) {
+                if (hb.healthy)
+                    return hb.makeConnector();
+                continue;
+            }
+            if (!hb.healthy)
+                return ha.makeConnector();
+            return (p2cCost(ha, method) <= p2cCost(hb, method) ? ha : hb).makeConnector();
+        }
+        // most servers are DOWN, scan all of them
+        return wlcNext(wlc);
+    }
+
+    private static double p2cCost(ServerHandle h, Method method) {
+        int load = method == Method.lor ? h.activeRequests.get() : h.connectionCount();
+        double cost = (load + 1) / (double) h.weight;
+        if (method == Method.ewma) {
+            // servers without latency records are preferred, so they will get records soon
+            long l = h.latencyEWMA;
+            cost *= (l < 0 ? 1 : l + 1);
+        }
+        return cost;
+    }
+
     /*
      * WLC algorithm:
      * copied from http://kb.linuxvirtualserver.org/wiki/Weighted_Least-Connection_Scheduling
@@ -509,54 +755,56 @@ public class ServerGroup {
      */
 
     private SvrHandleConnector wlcNext() {
-        return wlcNext(_wlc, 0);
+        return wlcNext(_wlc);
     }
 
     private SvrHandleConnector wlcNextIPv4() {
-        return wlcNext(_wlcIPv4, 0);
+        return wlcNext(_wlcIPv4);
     }
 
     private SvrHandleConnector wlcNextIPv6() {
-        return wlcNext(_wlcIPv6, 0);
+        return wlcNext(_wlcIPv6);
     }
 
-    private SvrHandleConnector wlcNext(WLC wlc, int mStart) {
-        if (mStart >= wlc.servers.size())
+    private SvrHandleConnector wlcNext(WLC wlc) {
+        int n = wlc.servers.size();
+        if (n == 0)
             return null;
 
-        if (wlc.servers.isEmpty())
+        Cursor cursor = wlc.wlcCursor.get();
+        int start = cursor.idx;
+        if (start >= n) { // the list may be shorter than the first time the cursor is created
+            start = start % n;
+        }
+        cursor.idx = start + 1 == n ? 0 : start + 1;
+
+        int WSm = 0, CSm = 0, WSi, CSi;
+        ServerHandle Sm = null;
+        // for (m = 0; m < n; ++m) { if (W(Sm) > 0) { ... } }
+        // the scanning starts from the cursor instead of 0
+        int k = 0;
+        for (; k < n; ++k) {
+            ServerHandle h = wlc.servers.get((start + k) % n);
+            if (h.healthy) {
+                Sm = h;
+                WSm = Sm.weight;
+                CSm = Sm.connectionCount();
+                break;
+            }
+        }
+        if (Sm == null)
             return null;
-        int m, n, WSm, CSm, WSi, CSi;
-        ServerHandle Sm;
-        m = mStart;
-        n = wlc.servers.size();
-        // for (m = 0; m < n; ++m) {
-        { // --------- START ---------
-            Sm = wlc.servers.get(m);
-            WSm = Sm.weight;
-            CSm = Sm.connectionCount();
-        } // --------- END ---------
-        if (!Sm.healthy) {
-            return wlcNext(wlc, mStart + 1);
-        }
-        // if (WSm > 0) {
-        for (int i = m + 1; i < n; ++i) {
-            ServerHandle Si = wlc.servers.get(i);
+        for (int i = k + 1; i < n; ++i) {
+            ServerHandle Si = wlc.servers.get((start + i) % n);
             WSi = Si.weight;
             CSi = Si.connectionCount();
             if (CSm * WSi > CSi * WSm && Si.healthy) {
-                m = i;
-                { // --------- START ---------
-                    Sm = wlc.servers.get(m);
-                    WSm = Sm.weight;
-                    CSm = Sm.connectionCount();
-                } // --------- END ---------
+                Sm = Si;
+                WSm = WSi;
+                CSm = CSi;
             }
         }
         return Sm.makeConnector();
-        // }
-        // }
-        // return null;
     }
 
     private SvrHandleConnector wrrNext() {
@@ -577,11 +825,12 @@ public class ServerGroup {
         if (wrr.seq.length == 0)
             return null; // return null if no elements
 
-        int idx = wrr.wrrCursor.getAndIncrement();
-        if (idx >= wrr.seq.length) {
+        Cursor cursor = wrr.wrrCursor.get();
+        int idx = cursor.idx;
+        if (idx >= wrr.seq.length) { // the seq may be shorter than the first time the cursor is created
             idx = idx % wrr.seq.length;
-            wrr.wrrCursor.set(idx + 1);
         }
+        cursor.idx = idx + 1 == wrr.seq.length ? 0 : idx + 1;
         int realIdx = wrr.seq[idx];
         ServerHandle h = wrr.servers.get(realIdx);
         if (h.healthy)
@@ -591,9 +840,14 @@ public class ServerGroup {
     }
 
     private void resetMethodRelatedFields() {
+        resetMethodRelatedFields(method);
+    }
+
+    // the tables may be built for a method which is not assigned to the group yet
+    private void resetMethodRelatedFields(Method method) {
         wrrReset();
         wlcReset();
-        sourceReset();
+        sourceReset(method);
     }
 
     private int gcd(int a, int b) {
@@ -602,10 +856,41 @@ public class ServerGroup {
         return gcd(b - a, a);
     }
 
-    private void sourceReset() {
+    private void sourceReset(Method method) {
         _source = sourceReset(servers);
         _sourceIPv4 = sourceReset(servers.stream().filter(s -> s.server.getAddress() instanceof Inet4Address).collect(Collectors.toList()));
         _sourceIPv6 = sourceReset(servers.stream().filter(s -> s.server.getAddress() instanceof Inet6Address).collect(Collectors.toList()));
+        maglevReset(method);
+    }
+
+    private void maglevReset(Method method) {
+        _maglev = maglevReset(servers, method);
+        _maglevIPv4 = maglevReset(servers.stream().filter(s -> s.server.getAddress() instanceof Inet4Address).collect(Collectors.toList()), method);
+        _maglevIPv6 = maglevReset(servers.stream().filter(s -> s.server.getAddress() instanceof Inet6Address).collect(Collectors.toList()), method);
+    }
+
+    private MAGLEV maglevReset(List<ServerHandle> servers, Method method) {
+        ArrayList<ServerHandle> svrs = servers.stream().filter(s -> s.weight > 0).collect(Collectors.toCollection(ArrayList::new));
+        if (method != Method.maglev) {
+            // building the table is not cheap, only build it when it's used
+            svrs.clear();
+        }
+        byte[][] keys = new byte[svrs.size()][];
+        int[] weights = new int[svrs.size()];
+        int totalWeight = 0;
+        for (int i = 0; i < svrs.size(); ++i) {
+            ServerHandle s = svrs.get(i);
+            // use ip:port as the key, so that the result does not depend on the order of servers,
+            // and multiple vproxy instances with the same servers will get the same table
+            byte[] ip = s.server.getAddress().getAddress();
+            byte[] key = Arrays.copyOf(ip, ip.length + 2);
+            key[ip.length] = (byte) (s.server.getPort() >> 8);
+            key[ip.length + 1] = (byte) s.server.getPort();
+            keys[i] = key;
+            weights[i] = s.weight;
+            totalWeight += s.weight;
+        }
+        return new MAGLEV(new MaglevTable(keys, weights), svrs, totalWeight);
     }
 
     private SOURCE sourceReset(List<ServerHandle> servers) {
@@ -754,12 +1039,14 @@ public class ServerGroup {
         return maxIdx;
     }
 
-    public void setMethod(Method method) {
-        boolean needReload = this.method != method;
-        this.method = method;
-        if (needReload) {
-            resetMethodRelatedFields();
+    public synchronized void setMethod(Method method) {
+        if (this.method == method) {
+            return;
         }
+        // build the tables before switching the method,
+        // otherwise a concurrent selection may use the new method with the tables of the old one
+        resetMethodRelatedFields(method);
+        this.method = method;
     }
 
     public Method getMethod() {
@@ -792,6 +1079,18 @@ public class ServerGroup {
         } else {
             annotatedHcConfig.set(annotations);
         }
+
+        for (Upstream ups : upstreams) {
+            ups.resetHintIndex();
+        }
+    }
+
+    void attachUpstream(Upstream ups) {
+        upstreams.add(ups);
+    }
+
+    void detachUpstream(Upstream ups) {
+        upstreams.remove(ups);
     }
 
     public synchronized ServerHandle add(String alias, InetSocketAddress server, int weight) throws AlreadyExistException {
@@ -10,14 +10,20 @@ import java.io.IOException;
 
 public class SvrHandleConnector extends Connector {
     private final ServerGroup.ServerHandle serverHandle;
+    private long connectStart;
 
     SvrHandleConnector(ServerGroup.ServerHandle h) {
         super(h.server);
         this.serverHandle = h;
     }
 
+    public ServerGroup.ServerHandle getServerHandle() {
+        return serverHandle;
+    }
+
     @Override
     public ConnectableConnection connect(Connection accepted, ConnectionOpts opts, RingBuffer in, RingBuffer out) throws IOException {
+        connectStart = System.nanoTime();
         ConnectableConnection conn = super.connect(accepted, opts, in, out);
         conn.addNetFlowRecorder(serverHandle);
         serverHandle.attachConnection(conn);
@@ -30,12 +36,32 @@ public class SvrHandleConnector extends Connector {
         return serverHandle.valid;
     }
 
+    @Override
+    public Object poolKey() {
+        return serverHandle;
+    }
+
+    @Override
+    public boolean isReusable() {
+        return serverHandle.valid && serverHandle.healthy;
+    }
+
     @Override
     public void connectionFailed() {
         // accelerate the down process
         serverHandle.healthCheckClient.manuallyDownOnce();
     }
 
+    @Override
+    public void connectionSucceeded() {
+        serverHandle.recordLatency(System.nanoTime() - connectStart);
+    }
+
+    @Override
+    public void requestsChanged(int delta) {
+        serverHandle.requestsChanged(delta);
+    }
+
     public String getHostName() {
         String hostname = serverHandle.hostName;
         if (hostname == null) {
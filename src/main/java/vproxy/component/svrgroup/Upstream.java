@@ -15,7 +15,7 @@ public class Upstream {
         public final String alias;
         public final ServerGroup group;
         private int weight;
-        public Map<String, String> annotations = null;
+        private Map<String, String> annotations = null;
 
         public ServerGroupHandle(ServerGroup group, int weight) {
             this.alias = group.alias;
@@ -31,6 +31,15 @@ public class Upstream {
             this.weight = weight;
             recalculateWRR();
         }
+
+        public Map<String, String> getAnnotations() {
+            return annotations;
+        }
+
+        public void setAnnotations(Map<String, String> annotations) {
+            this.annotations = annotations;
+            resetHintIndex();
+        }
     }
 
     class WRR {
@@ -46,10 +55,17 @@ public class Upstream {
     public final String alias;
     private ArrayList<ServerGroupHandle> serverGroupHandles = new ArrayList<>(0);
     private WRR _wrr;
+    private HintIndex _hintIndex;
 
     public Upstream(String alias) {
         this.alias = alias;
         recalculateWRR();
+        resetHintIndex();
+    }
+
+    // called when groups or annotations change
+    void resetHintIndex() {
+        _hintIndex = new HintIndex(serverGroupHandles);
     }
 
     private void recalculateWRR() {
@@ -140,6 +156,8 @@ public class Upstream {
         newLs.add(h);
         serverGroupHandles = newLs;
         recalculateWRR();
+        group.attachUpstream(this);
+        resetHintIndex();
         return h;
     }
 
@@ -161,6 +179,18 @@ public class Upstream {
         }
         serverGroupHandles = newLs;
         recalculateWRR();
+        group.detachUpstream(this);
+        resetHintIndex();
+    }
+
+    /**
+     * detach the upstream from its groups when the upstream is removed,
+     * so the groups no longer reference it or rebuild its hint index
+     */
+    public synchronized void destroy() {
+        for (ServerGroupHandle h : serverGroupHandles) {
+            h.group.detachUpstream(this);
+        }
     }
 
     public List<ServerGroupHandle> getServerGroupHandles() {
@@ -171,26 +201,23 @@ public class Upstream {
         return next(source, null);
     }
 
+    /**
+     * @return the group with the highest {@link Hint#matchLevel(Map[])},
+     * the first one is returned if multiple groups have the same level.
+     * null if nothing matches
+     */
     public ServerGroupHandle searchForGroup(Hint hint) {
-        int maxLvl = Hint.MAX_MATCH_LEVEL;
-        int level = 0;
-        ServerGroupHandle lastMax = null;
-        for (ServerGroupHandle h : serverGroupHandles) {
-            //noinspection unchecked
-            int l = hint.matchLevel(h.annotations, h.group.getAnnotations());
-            if (l > level) {
-                level = l;
-                lastMax = h;
-            }
-            if (l == maxLvl) { // directly return if it's the best match
-                break;
-            }
+        if (hint.host == null) {
+            return null;
         }
-        return lastMax;
+        return _hintIndex.search(hint);
     }
 
     public Connector next(InetSocketAddress source, Hint hint) {
         if (hint != null) {
+            if (hint.slot != -1) {
+                return nextBySlot(_wrr, hint.slot);
+            }
             ServerGroupHandle h = searchForGroup(hint);
             if (h != null) {
                 return h.group.next(source);
@@ -202,6 +229,22 @@ public class Upstream {
         return next(source, wrr, 0);
     }
 
+    // the group is chosen from the weighted sequence by the slot, so the same slot always goes to the same group
+    // the next group is used if the group does not have any healthy server
+    private static Connector nextBySlot(WRR wrr, int slot) {
+        if (wrr.seq.length == 0)
+            return null;
+        int idx = slot % wrr.seq.length;
+        for (int i = 0; i < wrr.seq.length; ++i) {
+            Connector connector = wrr.groups.get(wrr.seq[idx]).group.nextBySlot(slot);
+            if (connector != null)
+                return connector;
+            if (++idx == wrr.seq.length)
+                idx = 0;
+        }
+        return null;
+    }
+
     private /*use static to prevent access local variable*/ static Connector next(InetSocketAddress source, WRR wrr, int recursion) {
         if (recursion > wrr.seq.length)
             return null;
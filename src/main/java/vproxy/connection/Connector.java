@@ -30,11 +30,31 @@ public class Connector {
         return true; // it's always valid for a manually created Connector
     }
 
+    // idle connections made by connectors with the same key can be reused for each other
+    public Object poolKey() {
+        return remote;
+    }
+
+    // whether idle connections made by this connector can be kept and reused
+    public boolean isReusable() {
+        return isValid();
+    }
+
     // let user code alert that the connection failed
     public void connectionFailed() {
         // do nothing in default implementation
     }
 
+    // let user code alert that the connection is established
+    public void connectionSucceeded() {
+        // do nothing in default implementation
+    }
+
+    // let user code alert that requests in flight on the connection increased or decreased
+    public void requestsChanged(@SuppressWarnings("unused") int delta) {
+        // do nothing in default implementation
+    }
+
     // provide a event loop
     public NetEventLoop loop() {
         return null; // default: do not provide
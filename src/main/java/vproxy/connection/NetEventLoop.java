@@ -331,6 +331,13 @@ class HandlerForConnection implements Handler<SocketFD> {
             return;
         }
         if (read == 0) {
+            if (cctx.connection.getInBuffer().free() == 0) {
+                // the buffer may find itself full only when trying to store data, e.g. the SpliceRingBuffer
+                // remove read event, it will be added back when the buffer becomes writable
+                assert Logger.lowLevelDebug("the inBuffer is full now, remove READ event " + cctx.connection);
+                ctx.rmOps(EventSet.read());
+                return;
+            }
             Logger.shouldNotHappen("read nothing, the event should not be fired");
             return;
         }
@@ -4,18 +4,39 @@ import vfd.FDProvider;
 import vfd.FDs;
 import vfd.VFDConfig;
 import vfd.jdk.ChannelFDs;
+import vproxy.app.Config;
 import vproxy.connection.NetEventLoop;
 import vproxy.selector.SelectorEventLoop;
 import vproxy.util.*;
 
 import java.io.IOException;
 import java.net.*;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 
+/**
+ * Resolves hosts in its own loop and caches the results for the ttl of the records,
+ * clamped into [{@link Config#dnsMinTTL}, {@link Config#dnsMaxTTL}] seconds,
+ * or {@link #ttl} milliseconds if the ttl is unknown (e.g. from the hosts file).
+ * Records whose clamped ttl is 0 are not cached, only an unknown ttl can make an entry never expire.
+ * NXDOMAIN answers are cached for at most {@link Config#dnsNegativeTTL} seconds.<br>
+ * The cache holds at most {@link #cacheSize} entries, entries not used recently are evicted (CLOCK),
+ * and the listeners are notified with {@link ResolveListener#onEvict(Cache)}.
+ * Expired entries are ignored when looked up, and removed by a periodic sweep.<br>
+ * Lookups of a host missing in the cache wait for the same resolving process, so only one process runs for each host.
+ * Cache entries can be used for {@link Config#dnsServeStale} milliseconds after they expire,
+ * and lookups hitting a stale entry, or hitting an entry which expires within {@link Config#dnsPrefetch} milliseconds,
+ * start a resolving process in background to refresh the entry.
+ */
 public abstract class AbstractResolver implements Resolver {
     static class ResolveTask {
         final String host;
@@ -82,8 +103,16 @@ public abstract class AbstractResolver implements Resolver {
     public final String alias;
     protected final NetEventLoop loop;
     public int ttl = 60000;
+    public int cacheSize = Config.dnsCacheSize; // modifiable, only checked when new entries are recorded
     final ConcurrentMap<String, Cache> cacheMap = new ConcurrentHashMap<>();
     final CopyOnWriteArraySet<ResolveListener> resolveListeners = new CopyOnWriteArraySet<>();
+    // host => tasks waiting for the resolving process of the host, only accessed in the loop
+    private final Map<String, List<ResolveTask>> inflight = new HashMap<>();
+    private final ResolveStats stats = new ResolveStats();
+    // the cache entries in order of insertion, the head is the clock hand, only accessed in the loop
+    // entries removed from the cacheMap are dropped when the hand or the sweep reaches them
+    private final ArrayDeque<Cache> clock = new ArrayDeque<>();
+    private static final int SWEEP_PERIOD = 5_000;
 
     protected AbstractResolver(String alias, FDs fds) throws IOException {
         // currently we only use java standard lib to resolve the address
@@ -94,6 +123,7 @@ public abstract class AbstractResolver implements Resolver {
         // so we start a new thread only for resolving
         // it will make a callback when resolve completed
         // let's just handle it in the loop since it is created for resolving
+        loop.getSelectorEventLoop().period(SWEEP_PERIOD, this::sweep);
     }
 
     @Override
@@ -103,15 +133,115 @@ public abstract class AbstractResolver implements Resolver {
 
     abstract protected void getAllByName(String domain, Callback<InetAddress[], UnknownHostException> cb);
 
-    private void doResolve(ResolveTask task) {
-        getAllByName(task.host, new Callback<>() {
+    /**
+     * resolve the domain along with the ttl of the records,
+     * the default implementation calls {@link #getAllByName(String, Callback)} and the ttl is unknown.<br>
+     * Raise {@link NXDomainException} if the domain does not exist, which will be cached.
+     *
+     * @param domain the domain to resolve
+     * @param cb     callback
+     */
+    protected void lookup(String domain, Callback<Resolved, UnknownHostException> cb) {
+        getAllByName(domain, new Callback<>() {
             @Override
-            protected void onSucceeded(InetAddress[] addresses) {
+            protected void onSucceeded(InetAddress[] value) {
+                cb.succeeded(new Resolved(Arrays.asList(value), -1));
+            }
+
+            @Override
+            protected void onFailed(UnknownHostException err) {
+                cb.failed(err);
+            }
+        });
+    }
+
+    // must be called in the loop
+    private void put(Cache cache) {
+        Cache old = cacheMap.put(cache.host, cache);
+        clock.add(cache);
+        if (old != null) {
+            return; // the size is not changed
+        }
+        // second chance: entries used since the hand passed them are moved to the tail
+        while (cacheMap.size() > cacheSize && !clock.isEmpty()) {
+            Cache c = clock.poll();
+            if (cacheMap.get(c.host) != c) {
+                continue; // already removed or replaced
+            }
+            if (c.referenced) {
+                c.referenced = false;
+                clock.add(c);
+                continue;
+            }
+            stats.evict();
+            c.evict();
+        }
+    }
+
+    // must be called in the loop
+    private void sweep() {
+        long now = FDProvider.get().currentTimeMillis();
+        Iterator<Cache> ite = clock.iterator();
+        while (ite.hasNext()) {
+            Cache c = ite.next();
+            if (cacheMap.get(c.host) != c) {
+                ite.remove(); // already removed or replaced
+            } else if (c.removable(now)) {
+                ite.remove();
+                c.remove();
+            }
+        }
+    }
+
+    // seconds => milliseconds, 0 means the records should not be cached
+    // the resolver ttl is returned for an unknown ttl (-1), which never expires if it's not positive
+    private long ttlMillis(int ttl) {
+        if (ttl == -1) {
+            return this.ttl;
+        }
+        return Math.max(Config.dnsMinTTL, Math.min(ttl, Config.dnsMaxTTL)) * 1000L;
+    }
+
+    // must be called in the loop
+    // the task is null when refreshing the cache
+    private void resolveOnLoop(String host, ResolveTask task) {
+        List<ResolveTask> waiting = inflight.get(host);
+        if (waiting != null) {
+            if (task != null) {
+                assert Logger.lowLevelDebug("resolving " + host + " is in progress, wait for the result");
+                stats.coalesced();
+                waiting.add(task);
+            }
+            return;
+        }
+        if (task != null) {
+            // the cache may be recorded after the task is dispatched to the loop
+            Cache cache = cacheMap.get(host);
+            if (cache != null && !cache.removable(FDProvider.get().currentTimeMillis())) {
+                respond(cache, task.ipv4, task.ipv6, task.cb);
+                return;
+            }
+        }
+        waiting = new LinkedList<>();
+        if (task != null) {
+            waiting.add(task);
+        }
+        inflight.put(host, waiting);
+        doResolve(host);
+    }
+
+    private void doResolve(String host) {
+        lookup(host, new Callback<>() {
+            @Override
+            protected void onSucceeded(Resolved resolved) {
+                List<ResolveTask> waiting = inflight.remove(host);
+                InetAddress[] addresses = resolved.addresses.toArray(new InetAddress[0]);
+                long ttl = ttlMillis(resolved.ttl);
                 // record
-                if (addresses.length > 0) {
-                    Cache cache = new Cache(AbstractResolver.this, task.host, addresses);
-                    assert Logger.lowLevelDebug("cache recorded " + cache.host + " -> " + Arrays.toString(addresses));
-                    cacheMap.put(task.host, cache);
+                if (addresses.length > 0 && (ttl > 0 || resolved.ttl == -1)) {
+                    Cache cache = new Cache(AbstractResolver.this, host, addresses, ttl);
+                    assert Logger.lowLevelDebug("cache recorded " + cache.host + " -> " + Arrays.toString(addresses) + ", ttl=" + resolved.ttl);
+                    put(cache);
                     for (ResolveListener lsn : resolveListeners) {
                         try {
                             lsn.onResolve(cache);
@@ -120,27 +250,67 @@ public abstract class AbstractResolver implements Resolver {
                             Logger.error(LogType.IMPROPER_USE, "onResolve() raised exception", t);
                         }
                     }
+                } else {
+                    refreshDone(host);
                 }
-
-                // filter the result
-                InetAddress result = filter(addresses, task.ipv4, task.ipv6);
-                if (result != null) {
-                    task.cb.succeeded(result);
+                if (waiting == null) {
                     return;
                 }
 
-                // otherwise nothing can be returned
-                // we raise exception
-                task.cb.failed(new UnknownHostException(task.host));
+                for (ResolveTask task : waiting) {
+                    // filter the result
+                    InetAddress result = filter(addresses, task.ipv4, task.ipv6);
+                    if (result != null) {
+                        task.cb.succeeded(result);
+                    } else {
+                        // otherwise nothing can be returned
+                        // we raise exception
+                        task.cb.failed(new UnknownHostException(task.host));
+                    }
+                }
             }
 
             @Override
             protected void onFailed(UnknownHostException err) {
-                task.cb.failed(err);
+                List<ResolveTask> waiting = inflight.remove(host);
+                // the stale cache is still used until it's removed
+                refreshDone(host);
+                if (err instanceof NXDomainException && Config.dnsNegativeTTL > 0) {
+                    // cache the nxdomain answer, see rfc2308
+                    int ttl = ((NXDomainException) err).ttl;
+                    ttl = ttl == -1 ? Config.dnsNegativeTTL : Math.min(ttl, Config.dnsNegativeTTL);
+                    if (ttl > 0) {
+                        assert Logger.lowLevelDebug("cache recorded " + host + " does not exist, ttl=" + ttl);
+                        put(new Cache(AbstractResolver.this, host, new InetAddress[0], ttl * 1000L));
+                    }
+                }
+                if (waiting == null) {
+                    return;
+                }
+                for (ResolveTask task : waiting) {
+                    task.cb.failed(err);
+                }
             }
         });
     }
 
+    // the cache is not refreshed by the resolving process, so it can be refreshed again
+    private void refreshDone(String host) {
+        Cache cache = cacheMap.get(host);
+        if (cache != null) {
+            cache.refreshing.set(false);
+        }
+    }
+
+    private void refresh(Cache cache) {
+        if (!cache.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        assert Logger.lowLevelDebug("refreshing cache of " + cache.host);
+        stats.prefetch();
+        loop.getSelectorEventLoop().runOnLoop(() -> resolveOnLoop(cache.host, null));
+    }
+
     private InetAddress filter(InetAddress[] addresses, boolean ipv4, boolean ipv6) {
         // get first returned ipv4 and ipv6
         Inet4Address ipv4Addr = null;
@@ -191,11 +361,34 @@ public abstract class AbstractResolver implements Resolver {
         // it's not ip literal
         // let's resolve
         Cache r = cacheMap.get(host);
+        long now = FDProvider.get().currentTimeMillis();
+        if (r != null && r.removable(now)) {
+            r = null; // will be removed by the sweep, or replaced when resolved
+        }
         if (r == null) {
-            loop.getSelectorEventLoop().runOnLoop(() ->
-                doResolve(new ResolveTask(host, new RunOnLoopCallback<>((Callback) cb), ipv4, ipv6)));
+            stats.miss();
+            ResolveTask task = new ResolveTask(host, new RunOnLoopCallback<>((Callback) cb), ipv4, ipv6);
+            loop.getSelectorEventLoop().runOnLoop(() -> resolveOnLoop(host, task));
             return;
         }
+        stats.hit();
+        if (r.isNegative()) {
+            stats.negativeHit();
+        }
+        r.referenced = true;
+        if (r.expireAt != -1) {
+            if (now >= r.expireAt) {
+                stats.stale();
+                refresh(r);
+            } else if (Config.dnsPrefetch > 0 && now >= r.expireAt - Config.dnsPrefetch) {
+                refresh(r);
+            }
+        }
+        respond(r, ipv4, ipv6, cb);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void respond(Cache r, boolean ipv4, boolean ipv6, Callback<? super InetAddress, ? super UnknownHostException> cb) {
         Tuple<Inet4Address, Inet6Address> tup = r.next();
         Inet4Address v4 = tup.left;
         Inet6Address v6 = tup.right;
@@ -212,7 +405,7 @@ public abstract class AbstractResolver implements Resolver {
             return;
         }
         // otherwise not found
-        cb.failed(new UnknownHostException(host));
+        cb.failed(new UnknownHostException(r.host));
     }
 
     @Override
@@ -239,12 +432,24 @@ public abstract class AbstractResolver implements Resolver {
 
     @Override
     public int cacheCount() {
-        return cacheMap.size();
+        long now = FDProvider.get().currentTimeMillis();
+        int n = 0;
+        for (Cache c : cacheMap.values()) {
+            if (!c.removable(now)) {
+                ++n;
+            }
+        }
+        return n;
     }
 
     @Override
     public void copyCache(Collection<? super Cache> cacheList) {
-        cacheList.addAll(this.cacheMap.values());
+        long now = FDProvider.get().currentTimeMillis();
+        for (Cache c : cacheMap.values()) {
+            if (!c.removable(now)) {
+                cacheList.add(c);
+            }
+        }
     }
 
     @Override
@@ -254,6 +459,11 @@ public abstract class AbstractResolver implements Resolver {
         }
     }
 
+    @Override
+    public ResolveStats stats() {
+        return stats;
+    }
+
     @Override
     public void addListener(ResolveListener lsn) {
         resolveListeners.add(lsn);
@@ -0,0 +1,243 @@
+package vproxy.dns;
+
+import vfd.FDProvider;
+import vproxy.app.Config;
+import vproxy.util.ByteArray;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the answers of the questions forwarded by the {@link DNSServer} to the recursive name servers,
+ * keyed by (qname, qtype, qclass) of the question.<br>
+ * Positive answers are cached for the min ttl of the records (at most {@link Config#dnsMaxTTL} seconds).
+ * NXDOMAIN and NODATA answers are cached for the ttl of the SOA record (at most {@link Config#dnsNegativeTTL} seconds),
+ * and not cached without the SOA record, see rfc2308.
+ * The ttl of the records is decreased by the seconds elapsed when they are served.<br>
+ * At most `capacity` answers are cached ({@link Config#dnsServerCacheSize} for dns-servers),
+ * answers not used recently are evicted (CLOCK).
+ */
+public class AnswerCache {
+    private static final int UDP_MAX_LEN = 512; // rfc1035 4.2.1, without edns
+
+    static class Key {
+        final String qname;
+        final DNSType qtype;
+        final DNSClass qclass;
+
+        Key(DNSQuestion q) {
+            this.qname = q.qname.toLowerCase(); // domain names are case insensitive
+            this.qtype = q.qtype;
+            this.qclass = q.qclass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return qname.equals(key.qname) &&
+                qtype == key.qtype &&
+                qclass == key.qclass;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(qname, qtype, qclass);
+        }
+    }
+
+    static class Entry {
+        final Key key;
+        final DNSPacket packet;
+        // length of the packet on the wire
+        final int length;
+        final long timestamp;
+        final long expireAt;
+        // the entry is used since the clock hand passed it
+        volatile boolean referenced = false;
+
+        Entry(Key key, DNSPacket packet, int length, long timestamp, int ttl) {
+            this.key = key;
+            this.packet = packet;
+            this.length = length;
+            this.timestamp = timestamp;
+            this.expireAt = timestamp + ttl * 1000L;
+        }
+    }
+
+    private final int capacity;
+    private final ConcurrentHashMap<Key, Entry> map = new ConcurrentHashMap<>();
+    // the entries in order of insertion, the head is the clock hand, guarded by `this`
+    private final ArrayDeque<Entry> clock = new ArrayDeque<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity max count of cached answers, 0 to disable
+     */
+    public AnswerCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param req the request from the client
+     * @return the cached answer responding to the request, or null if not found
+     */
+    public DNSPacket get(DNSPacket req) {
+        if (capacity == 0 || !cacheable(req)) {
+            return null;
+        }
+        Key key = new Key(req.questions.get(0));
+        Entry e = map.get(key);
+        long now = FDProvider.get().currentTimeMillis();
+        if (e != null && now >= e.expireAt) {
+            map.remove(key, e);
+            e = null;
+        }
+        if (e == null || (e.length > UDP_MAX_LEN && !hasOPT(req))) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        e.referenced = true;
+
+        int elapsed = (int) ((now - e.timestamp) / 1000);
+        DNSPacket cached = e.packet;
+        DNSPacket resp = new DNSPacket();
+        resp.id = req.id;
+        resp.isResponse = true;
+        resp.opcode = cached.opcode;
+        resp.aa = false; // not authoritative when served from cache
+        resp.tc = false;
+        resp.rd = req.rd;
+        resp.ra = cached.ra;
+        resp.rcode = cached.rcode;
+        // the qname is in the same length as the cached one,
+        // so the compression pointers in the cached records are still valid
+        resp.questions.addAll(req.questions);
+        resp.answers.addAll(decrease(cached.answers, elapsed));
+        resp.nameServers.addAll(decrease(cached.nameServers, elapsed));
+        resp.additionalResources.addAll(decrease(cached.additionalResources, elapsed));
+        return resp;
+    }
+
+    /**
+     * record the answer of the request if it can be cached
+     *
+     * @param req  the request forwarded
+     * @param resp the response from the recursive name server
+     */
+    public void put(DNSPacket req, DNSPacket resp) {
+        if (capacity == 0 || !cacheable(req)) {
+            return;
+        }
+        Key key = new Key(req.questions.get(0));
+        if (resp.tc || resp.questions.size() != 1 || !new Key(resp.questions.get(0)).equals(key)) {
+            return;
+        }
+        int ttl;
+        if (resp.rcode == DNSPacket.RCode.NoError && !resp.answers.isEmpty()) {
+            ttl = Config.dnsMaxTTL;
+            for (List<DNSResource> ls : List.of(resp.answers, resp.nameServers, resp.additionalResources)) {
+                for (DNSResource r : ls) {
+                    if (r.type != DNSType.OPT) {
+                        ttl = Math.min(ttl, r.ttl);
+                    }
+                }
+            }
+        } else if (resp.rcode == DNSPacket.RCode.NoError || resp.rcode == DNSPacket.RCode.NameError) {
+            ttl = Math.min(resp.negativeTtl(), Config.dnsNegativeTTL);
+        } else {
+            return; // errors are not cached
+        }
+        if (ttl <= 0) {
+            return;
+        }
+
+        DNSPacket packet = new DNSPacket();
+        packet.opcode = resp.opcode;
+        packet.ra = resp.ra;
+        packet.rcode = resp.rcode;
+        packet.answers.addAll(resp.answers);
+        packet.nameServers.addAll(resp.nameServers);
+        for (DNSResource r : resp.additionalResources) {
+            // the OPT record is for the client which sent the request
+            if (r.type != DNSType.OPT) {
+                packet.additionalResources.add(r);
+            }
+        }
+        int length = resp.toByteArray().length();
+
+        Entry e = new Entry(key, packet, length, FDProvider.get().currentTimeMillis(), ttl);
+        synchronized (this) {
+            map.put(key, e);
+            clock.add(e);
+            // second chance: entries used since the hand passed them are moved to the tail
+            while (clock.size() > capacity) {
+                Entry c = clock.poll();
+                if (map.get(c.key) != c) {
+                    continue; // already removed or replaced
+                }
+                if (c.referenced) {
+                    c.referenced = false;
+                    clock.add(c);
+                    continue;
+                }
+                map.remove(c.key, c);
+            }
+        }
+    }
+
+    private static boolean cacheable(DNSPacket req) {
+        return req.opcode == DNSPacket.Opcode.QUERY && req.questions.size() == 1;
+    }
+
+    private static boolean hasOPT(DNSPacket req) {
+        for (DNSResource r : req.additionalResources) {
+            if (r.type == DNSType.OPT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<DNSResource> decrease(List<DNSResource> resources, int elapsed) {
+        List<DNSResource> ret = new ArrayList<>(resources.size());
+        for (DNSResource r : resources) {
+            DNSResource copy = new DNSResource();
+            copy.name = r.name;
+            copy.type = r.type;
+            copy.clazz = r.clazz;
+            copy.ttl = Math.max(0, r.ttl - elapsed);
+            copy.rdlen = r.rdlen;
+            copy.rdataBytes = r.rdataBytes;
+            copy.rdata = r.rdata;
+            if (r.rawBytes != null) {
+                // the raw bytes may contain compression pointers, so only modify the ttl field
+                // name, type(2), class(2), ttl(4), rdlength(2), rdata(rdlength)
+                ByteArray raw = ByteArray.from(r.rawBytes.toJavaArray());
+                raw.int32(raw.length() - r.rdlen - 6, copy.ttl);
+                copy.rawBytes = raw;
+            }
+            ret.add(copy);
+        }
+        return ret;
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,72 @@
+package vproxy.dns;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * The pre-encoded A/AAAA answer record of a server in the rrsets, used by the fast path of the {@link DNSServer}.<br>
+ * The name of the record is a pointer to the qname of the question, so the record can be used for any question:
+ * <pre>
+ * [0xc00c][type][class IN][ttl][rdlength][address]
+ * </pre>
+ * When the request carries an OPT record, the {@link #OPT} record is appended to the response, see rfc6891.
+ */
+class AnswerTemplate {
+    static final int HEADER_LEN = 12;
+    // root name, type OPT, udp payload size 4096, extended rcode 0, version 0, flags 0, no options
+    static final byte[] OPT = {0, 0, 41, 0x10, 0, 0, 0, 0, 0, 0, 0};
+
+    final int ttl;
+    final byte[] record;
+
+    AnswerTemplate(InetAddress address, int ttl) {
+        this.ttl = ttl;
+        byte[] addr = address.getAddress();
+        ByteBuffer buf = ByteBuffer.allocate(12 + addr.length);
+        buf.putShort((short) (0xc000 | HEADER_LEN)); // the question starts right after the header
+        buf.putShort((short) (address instanceof Inet4Address ? DNSType.A.code : DNSType.AAAA.code));
+        buf.putShort((short) DNSClass.IN.code);
+        buf.putInt(ttl);
+        buf.putShort((short) addr.length);
+        buf.put(addr);
+        this.record = buf.array();
+    }
+
+    /**
+     * write the response into the buffer
+     *
+     * @param req         the request
+     * @param questionEnd the offset of the end of the question in the request
+     * @param edns        whether the request carries an OPT record
+     * @param out         the buffer to write, position is 0
+     * @return false if the buffer is not big enough
+     */
+    boolean write(ByteBuffer req, int questionEnd, boolean edns, ByteBuffer out) {
+        int len = questionEnd + record.length + (edns ? OPT.length : 0);
+        if (out.limit() < len) {
+            return false;
+        }
+        out.put(0, req.get(0)); // id
+        out.put(1, req.get(1));
+        out.put(2, (byte) (0x80 | (req.get(2) & 0b00000101))); // QR, keep aa and rd, opcode is QUERY
+        out.put(3, (byte) 0x80); // RA, NoError
+        out.putShort(4, (short) 1); // qdcount
+        out.putShort(6, (short) 1); // ancount
+        out.putShort(8, (short) 0); // nscount
+        out.putShort(10, (short) (edns ? 1 : 0)); // arcount
+        for (int i = HEADER_LEN; i < questionEnd; ++i) {
+            out.put(i, req.get(i));
+        }
+        for (int i = 0; i < record.length; ++i) {
+            out.put(questionEnd + i, record[i]);
+        }
+        if (edns) {
+            for (int i = 0; i < OPT.length; ++i) {
+                out.put(questionEnd + record.length + i, OPT[i]);
+            }
+        }
+        out.limit(len);
+        return true;
+    }
+}
@@ -1,7 +1,7 @@
 package vproxy.dns;
 
 import vfd.FDProvider;
-import vproxy.selector.TimerEvent;
+import vproxy.app.Config;
 import vproxy.util.LogType;
 import vproxy.util.Logger;
 import vproxy.util.Tuple;
@@ -13,8 +13,14 @@ import java.net.InetAddress;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Addresses of a host cached by the resolver, or a negative entry without addresses if the host does not exist.<br>
+ * The entry expires after the ttl of the records, and it's removed from the resolver
+ * {@link Config#dnsServeStale} milliseconds later by the periodic sweep of the resolver.
+ */
 public class Cache {
     private AbstractResolver abstractResolver;
     public final String host;
@@ -22,10 +28,18 @@ public class Cache {
     public final List<Inet6Address> ipv6;
     private final AtomicInteger idxIpv4 = new AtomicInteger(0);
     private final AtomicInteger idxIpv6 = new AtomicInteger(0);
-    final TimerEvent te;
     public final long timestamp;
+    // the entry is stale after this time, but it's kept for Config.dnsServeStale milliseconds, -1 for never expires
+    final long expireAt;
+    // the host is being resolved again
+    final AtomicBoolean refreshing = new AtomicBoolean(false);
+    // the entry is used since the clock hand of the resolver passed it, see AbstractResolver#put()
+    volatile boolean referenced = false;
 
-    Cache(AbstractResolver abstractResolver, String host, InetAddress[] addresses) {
+    /**
+     * @param ttl milliseconds, the entry never expires if it's not positive
+     */
+    Cache(AbstractResolver abstractResolver, String host, InetAddress[] addresses, long ttl) {
         this.abstractResolver = abstractResolver;
         this.host = host;
         List<Inet4Address> ipv4 = new LinkedList<>();
@@ -40,22 +54,46 @@ public class Cache {
         this.ipv4 = Collections.unmodifiableList(ipv4);
         this.ipv6 = Collections.unmodifiableList(ipv6);
 
-        if (abstractResolver.ttl > 0) {
-            // start a timer to clear the record
-            te = abstractResolver.loop.getSelectorEventLoop().delay(abstractResolver.ttl, Cache.this::remove);
-        } else {
-            te = null;
+        timestamp = FDProvider.get().currentTimeMillis();
+        expireAt = ttl > 0 ? timestamp + ttl : -1;
+    }
+
+    public boolean isNegative() {
+        return ipv4.isEmpty() && ipv6.isEmpty();
+    }
+
+    // the entry should not be used any more
+    boolean removable(long now) {
+        return expireAt != -1 && now >= expireAt + Config.dnsServeStale;
+    }
+
+    // removed because the cache is full
+    void evict() {
+        if (!abstractResolver.cacheMap.remove(host, this)) {
+            return; // already replaced or removed
+        }
+        assert Logger.lowLevelDebug("cache evicted " + host);
+        if (isNegative()) {
+            return; // listeners only care about the addresses
         }
 
-        timestamp = FDProvider.get().currentTimeMillis();
+        for (ResolveListener lsn : abstractResolver.resolveListeners) {
+            try {
+                lsn.onEvict(this);
+            } catch (Throwable t) {
+                Logger.error(LogType.IMPROPER_USE, "onEvict() raised exception", t);
+            }
+        }
     }
 
     public void remove() {
-        if (te != null) {
-            te.cancel();
+        if (!abstractResolver.cacheMap.remove(host, this)) {
+            return; // already replaced or removed
         }
         assert Logger.lowLevelDebug("cache removed " + host);
-        abstractResolver.cacheMap.remove(host);
+        if (isNegative()) {
+            return; // listeners only care about the addresses
+        }
 
         for (ResolveListener lsn : abstractResolver.resolveListeners) {
             try {
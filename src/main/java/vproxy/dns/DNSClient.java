@@ -319,7 +319,7 @@ public class DNSClient {
         return id;
     }
 
-    private void getAllByName0(String domain, boolean ipv4, Callback<List<InetAddress>, UnknownHostException> cb) {
+    private void getAllByName0(String domain, boolean ipv4, Callback<Resolved, UnknownHostException> cb) {
         DNSPacket reqPacket = new DNSPacket();
         reqPacket.id = getNextId();
         reqPacket.isResponse = false;
@@ -336,7 +336,13 @@ public class DNSClient {
         reqPacket.questions.add(q);
         assert Logger.lowLevelDebug("is going to send packet " + reqPacket);
 
-        BiFunction<DNSPacket, IOException[], List<InetAddress>> transform = (packet, errHolder) -> {
+        BiFunction<DNSPacket, IOException[], Resolved> transform = (packet, errHolder) -> {
+            if (packet.rcode == DNSPacket.RCode.NameError) {
+                // the domain does not exist, no need to ask other name servers
+                assert Logger.lowLevelDebug("the remote dns server respond with NXDOMAIN for " + domain);
+                errHolder[0] = new NXDomainException(domain, packet.negativeTtl());
+                return null;
+            }
             if (packet.rcode != DNSPacket.RCode.NoError) {
                 Logger.error(LogType.INVALID_EXTERNAL_DATA, "the remote dns server respond with error: " + packet.rcode);
                 return null;
@@ -351,7 +357,13 @@ public class DNSClient {
                 return null;
             }
             List<InetAddress> addresses = new ArrayList<>();
+            int ttl = -1; // the min ttl of the answers, including the cnames
             for (DNSResource answer : packet.answers) {
+                if (answer.type == DNSType.A || answer.type == DNSType.AAAA || answer.type == DNSType.CNAME) {
+                    if (answer.ttl >= 0 && (ttl == -1 || answer.ttl < ttl)) {
+                        ttl = answer.ttl;
+                    }
+                }
                 if (answer.type == DNSType.A) {
                     addresses.add(((A) answer.rdata).address);
                 } else if (answer.type == DNSType.AAAA) {
@@ -365,17 +377,43 @@ public class DNSClient {
                 errHolder[0] = new UnknownHostException(domain);
                 return null;
             }
-            return addresses;
+            return new Resolved(addresses, ttl);
         };
         new Request<>(reqPacket, transform, () -> new UnknownHostException(domain), cb);
     }
 
     public void resolveIPv4(String domain, Callback<List<InetAddress>, UnknownHostException> cb) {
-        getAllByName0(domain, true, new RunOnLoopCallback<>(cb));
+        resolve(domain, true, addresses(cb));
     }
 
     public void resolveIPv6(String domain, Callback<List<InetAddress>, UnknownHostException> cb) {
-        getAllByName0(domain, false, new RunOnLoopCallback<>(cb));
+        resolve(domain, false, addresses(cb));
+    }
+
+    /**
+     * resolve A or AAAA records of the domain, along with the ttl of the records<br>
+     * {@link NXDomainException} is raised if the domain does not exist
+     *
+     * @param domain the domain to resolve
+     * @param ipv4   true for A records, false for AAAA records
+     * @param cb     callback
+     */
+    public void resolve(String domain, boolean ipv4, Callback<Resolved, UnknownHostException> cb) {
+        getAllByName0(domain, ipv4, new RunOnLoopCallback<>(cb));
+    }
+
+    private static Callback<Resolved, UnknownHostException> addresses(Callback<List<InetAddress>, UnknownHostException> cb) {
+        return new Callback<>() {
+            @Override
+            protected void onSucceeded(Resolved value) {
+                cb.succeeded(value.addresses);
+            }
+
+            @Override
+            protected void onFailed(UnknownHostException err) {
+                cb.failed(err);
+            }
+        };
     }
 
     public void request(DNSPacket reqPacket, Callback<DNSPacket, IOException> cb) {
@@ -42,6 +42,21 @@ public class DNSPacket {
     public List<DNSResource> nameServers = new ArrayList<>();
     public List<DNSResource> additionalResources = new ArrayList<>();
 
+    /**
+     * @return ttl in seconds of the negative answer, which is the min of the ttl and the MINIMUM field of
+     * the SOA record in the authority section (rfc2308 section 5), or -1 if the SOA record is not found
+     */
+    public int negativeTtl() {
+        for (DNSResource r : nameServers) {
+            if (r.type == DNSType.SOA && r.rdataBytes != null && r.rdataBytes.length() >= 4) {
+                // MINIMUM is the last field of the rdata
+                int minimum = r.rdataBytes.int32(r.rdataBytes.length() - 4);
+                return Math.max(0, Math.min(r.ttl, minimum));
+            }
+        }
+        return -1;
+    }
+
     public enum Opcode {
         QUERY(0),
         IQUERY(1),
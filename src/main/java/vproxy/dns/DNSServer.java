@@ -1,5 +1,6 @@
 package vproxy.dns;
 
+import vfd.DatagramBatch;
 import vfd.DatagramFD;
 import vfd.EventSet;
 import vfd.FDProvider;
@@ -11,6 +12,8 @@ import vproxy.component.exception.AlreadyExistException;
 import vproxy.component.exception.ClosedException;
 import vproxy.component.exception.NotFoundException;
 import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.SvrHandleConnector;
 import vproxy.component.svrgroup.Upstream;
 import vproxy.connection.Connector;
 import vproxy.connection.NetEventLoop;
@@ -23,12 +26,16 @@ import vproxy.dns.rdata.SRV;
 import vproxy.processor.Hint;
 import vproxy.selector.Handler;
 import vproxy.selector.HandlerContext;
+import vproxy.selector.PeriodicEvent;
+import vproxy.selector.SelectorEventLoop;
 import vproxy.util.*;
 
 import java.io.IOException;
 import java.net.*;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class DNSServer {
     public final String alias;
@@ -36,12 +43,16 @@ public class DNSServer {
     public final EventLoopGroup eventLoopGroup;
     public final Upstream rrsets;
     public final DNSClient client;
+    public final AnswerCache answerCache = new AnswerCache(Config.dnsServerCacheSize);
     private Map<String, InetAddress> hosts;
-    private ByteBuffer buffer = ByteBuffer.allocate(Config.udpMtu);
 
     private final Attach attach = new Attach();
+    // one of the loops which the dns server is bound on
     protected NetEventLoop loop = null;
-    private DatagramFD sock = null;
+    private PeriodicEvent reloadHosts = null;
+    // the sockets bound on the event loops, one socket for each loop when reuseport load balancing is supported,
+    // otherwise only one socket
+    private final ConcurrentMap<SelectorEventLoop, LoopSock> socks = new ConcurrentHashMap<>();
     private boolean needToStart = false;
     public int ttl;
     public SecurityGroup securityGroup;
@@ -57,6 +68,73 @@ public class DNSServer {
         this.securityGroup = securityGroup;
     }
 
+    // the socket bound on an event loop, all fields except the counters are only accessed in the loop
+    private class LoopSock {
+        final EventLoopWrapper loop;
+        final DatagramFD sock;
+        final DatagramBatch recvBatch;
+        final DatagramBatch sendBatch;
+        boolean batchingResponses = false;
+        // the sendBatch holds packets not sent, and the sock is watching writable events
+        boolean watchingWritable = false;
+        // answers of the servers in the rrsets, see fastPath()
+        final Map<ServerGroup.ServerHandle, AnswerTemplate> templates = new WeakHashMap<>();
+        PeriodicEvent counting = null;
+        private boolean closed = false;
+        volatile long queries = 0;
+        volatile long qps = 0;
+        private long lastQueries = 0;
+
+        LoopSock(EventLoopWrapper loop, DatagramFD sock) {
+            this.loop = loop;
+            this.sock = sock;
+            this.recvBatch = new DatagramBatch(Config.udpBatchSize, Config.udpMtu);
+            // a udp dns response is usually less than 512 bytes, or 4096 when using edns
+            // larger responses are sent directly
+            this.sendBatch = new DatagramBatch(Config.udpBatchSize, 4096);
+        }
+
+        // called every second
+        void count() {
+            long n = queries;
+            qps = n - lastQueries;
+            lastQueries = n;
+        }
+
+        // must be called on the loop, the loop may still be using the batches otherwise
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (counting != null) {
+                counting.cancel();
+            }
+            try {
+                sock.close();
+            } catch (IOException ignore) {
+            }
+            recvBatch.clean();
+            sendBatch.clean();
+        }
+    }
+
+    /**
+     * queries handled by the socket bound on an event loop
+     */
+    public static class LoopStats {
+        public final String eventLoop;
+        public final long queries;
+        // queries handled in the last second
+        public final long qps;
+
+        LoopStats(String eventLoop, long queries, long qps) {
+            this.eventLoop = eventLoop;
+            this.queries = queries;
+            this.qps = qps;
+        }
+    }
+
     class Attach implements EventLoopGroupAttach {
         @Override
         public String id() {
@@ -80,7 +158,7 @@ public class DNSServer {
         }
     }
 
-    private void handleRequest(DNSPacket p, InetSocketAddress remote) {
+    protected void handleRequest(DNSPacket p, InetSocketAddress remote) {
         Map<String, Map<DNSType, List<Record>>> addresses = new LinkedHashMap<>();
         for (DNSQuestion q : p.questions) {
             String domain = q.qname;
@@ -251,9 +329,26 @@ public class DNSServer {
                 resp.additionalResources.add(r);
             }
         }
+        for (DNSResource r : p.additionalResources) {
+            if (r.type == DNSType.OPT) {
+                resp.additionalResources.add(ednsResource());
+                break;
+            }
+        }
         sendPacket(p.id, remote, resp);
     }
 
+    // the OPT record of the responses, the same as the one used by the fast path
+    private static DNSResource ednsResource() {
+        DNSResource r = new DNSResource();
+        r.name = "";
+        r.type = DNSType.OPT;
+        r.clazz = DNSClass.NOT_CLASS;
+        r.rdataBytes = ByteArray.from(new byte[0]);
+        r.rawBytes = ByteArray.from(AnswerTemplate.OPT);
+        return r;
+    }
+
     protected InetAddress getLocalAddressFor(InetSocketAddress remote) {
         // we may create a new sock to respond to the remote
         {
@@ -316,9 +411,16 @@ public class DNSServer {
     }
 
     protected void runRecursive(DNSPacket p, InetSocketAddress remote) {
+        DNSPacket cached = answerCache.get(p);
+        if (cached != null) {
+            assert Logger.lowLevelDebug("respond " + p.questions + " to " + remote + " from cache");
+            sendPacket(p.id, remote, cached);
+            return;
+        }
         client.request(p, new Callback<>() {
             @Override
             protected void onSucceeded(DNSPacket value) {
+                answerCache.put(p, value);
                 sendPacket(p.id, remote, value);
             }
 
@@ -329,13 +431,242 @@ public class DNSServer {
         });
     }
 
+    private void handlePacket(LoopSock ls, ByteBuffer buffer, InetSocketAddress remote) {
+        ++ls.queries;
+        if (!securityGroup.allow(Protocol.UDP, remote.getAddress(), remote.getPort())) {
+            assert Logger.lowLevelDebug("remote " + remote + " rejected by security-group " + securityGroup.alias);
+            return;
+        }
+        if (fastPath(ls, buffer, remote)) {
+            return;
+        }
+        int read = buffer.limit();
+        if (read == 0) {
+            return;
+        }
+        byte[] bytes = new byte[read];
+        buffer.get(bytes);
+        ByteArray array = ByteArray.from(bytes);
+
+        List<DNSPacket> packets;
+        try {
+            packets = Formatter.parsePackets(array);
+        } catch (InvalidDNSPacketException e) {
+            Logger.error(LogType.INVALID_EXTERNAL_DATA, "got malformed dns packet", e);
+            return;
+        }
+        assert Logger.lowLevelDebug("received dns packets: " + packets);
+        for (DNSPacket p : packets) {
+            if (p.isResponse) {
+                Logger.error(LogType.INVALID_EXTERNAL_DATA, "received dns packet response from " + remote);
+                continue;
+            }
+            if (p.opcode != DNSPacket.Opcode.QUERY) {
+                runRecursive(p, remote);
+                continue;
+            }
+            handleRequest(p, remote);
+        }
+    }
+
+    /**
+     * Respond A/AAAA questions answered by the rrsets without parsing the packet into objects.<br>
+     * The response is written into the send batch directly, with the pre-encoded answer of the chosen server.
+     * Only the request with one question and without other records (except the OPT record of edns version 0) is handled,
+     * otherwise the packet goes through the normal path.
+     * The response is the same as the one built by {@link #handleRequest(DNSPacket, InetSocketAddress)},
+     * except that the name of the answer is a pointer to the question.
+     *
+     * @return true if responded
+     */
+    private boolean fastPath(LoopSock ls, ByteBuffer req, InetSocketAddress remote) {
+        int len = req.limit();
+        if (len < AnswerTemplate.HEADER_LEN + 5 || !ls.batchingResponses) {
+            return false;
+        }
+        if ((req.get(2) & 0b11111010) != 0) { // QR=0, opcode=QUERY, TC=0
+            return false;
+        }
+        if (req.getShort(4) != 1 || req.getShort(6) != 0 || req.getShort(8) != 0 || (req.getShort(10) & 0xffff) > 1) {
+            return false;
+        }
+        // read the qname, the same format as Formatter.parseDomainName
+        StringBuilder sb = new StringBuilder();
+        int off = AnswerTemplate.HEADER_LEN;
+        while (true) {
+            if (off >= len) {
+                return false;
+            }
+            int labelLen = req.get(off) & 0xff;
+            ++off;
+            if (labelLen == 0) {
+                break;
+            }
+            if (labelLen > 63 || off + labelLen > len) {
+                return false; // pointers are not expected in the question
+            }
+            for (int i = 0; i < labelLen; ++i) {
+                sb.append((char) (req.get(off + i) & 0xff));
+            }
+            sb.append('.');
+            off += labelLen;
+        }
+        if (sb.length() == 0 || off + 4 > len) {
+            return false;
+        }
+        int qtype = req.getShort(off) & 0xffff;
+        int qclass = req.getShort(off + 2) & 0xffff;
+        int questionEnd = off + 4;
+        if ((qtype != DNSType.A.code && qtype != DNSType.AAAA.code) || qclass != DNSClass.IN.code) {
+            return false;
+        }
+        boolean edns = req.getShort(10) == 1;
+        if (edns) {
+            // the additional record must be an OPT record of version 0:
+            // name(root), type(2), udp payload size(2), extended rcode(1), version(1), flags(2), rdlength(2), options
+            if (questionEnd + 11 > len
+                || req.get(questionEnd) != 0
+                || (req.getShort(questionEnd + 1) & 0xffff) != DNSType.OPT.code
+                || req.get(questionEnd + 6) != 0
+                || questionEnd + 11 + (req.getShort(questionEnd + 9) & 0xffff) != len) {
+                return false;
+            }
+        } else if (questionEnd != len) {
+            return false;
+        }
+
+        // same as handleRequest()
+        String domain = sb.toString();
+        if (hosts.containsKey(domain)) {
+            return false;
+        }
+        domain = domain.substring(0, domain.length() - 1);
+        Upstream.ServerGroupHandle gh = rrsets.searchForGroup(new Hint(domain));
+        if (gh == null) {
+            return false;
+        }
+        Connector connector = qtype == DNSType.A.code ? gh.group.nextIPv4(remote) : gh.group.nextIPv6(remote);
+        if (!(connector instanceof SvrHandleConnector)) {
+            return false; // the normal path will respond with no answer
+        }
+
+        int ttl = Math.max(this.ttl, 0);
+        ServerGroup.ServerHandle h = ((SvrHandleConnector) connector).getServerHandle();
+        AnswerTemplate tpl = ls.templates.get(h);
+        if (tpl == null || tpl.ttl != ttl) {
+            tpl = new AnswerTemplate(h.server.getAddress(), ttl);
+            ls.templates.put(h, tpl);
+        }
+
+        if (ls.sendBatch.isFull()) {
+            flushResponses(ls);
+        }
+        ByteBuffer out = ls.sendBatch.nextSlot();
+        if (out == null) {
+            return false; // the unsent packets still occupy the batch, let the normal path send it directly
+        }
+        if (!tpl.write(req, questionEnd, edns, out)) {
+            return false; // should not happen, the question is smaller than the slot
+        }
+        ls.sendBatch.commit(out.limit(), remote);
+        return true;
+    }
+
+    // send the responses generated when handling a batch of requests
+    // the packets not sent because the socket buffer is full are kept in the batch,
+    // and will be sent when the socket is writable
+    private void flushResponses(LoopSock ls) {
+        DatagramBatch sendBatch = ls.sendBatch;
+        if (sendBatch.size() == 0) {
+            watchWritable(ls, false);
+            return;
+        }
+        int sent;
+        try {
+            sent = ls.sock.sendBatch(sendBatch);
+        } catch (IOException e) {
+            // one of the packets cannot be sent, send them one by one to skip the failed ones
+            sent = sendResponsesOneByOne(ls, e);
+        }
+        sendBatch.removeFirst(sent);
+        if (sendBatch.size() != 0) {
+            assert Logger.lowLevelDebug("the send buffer of dns sock " + ls.sock + " is full, " +
+                sendBatch.size() + " response packets are kept until it's writable");
+        }
+        watchWritable(ls, sendBatch.size() != 0);
+    }
+
+    // returns the count of packets handled, failed packets are counted as well
+    private int sendResponsesOneByOne(LoopSock ls, IOException batchErr) {
+        DatagramBatch sendBatch = ls.sendBatch;
+        int failed = 0;
+        IOException lastErr = batchErr;
+        int n = 0;
+        for (; n < sendBatch.size(); ++n) {
+            ByteBuffer buf = sendBatch.get(n);
+            int len = buf.limit();
+            int sent;
+            try {
+                sent = ls.sock.send(buf, sendBatch.getAddress(n));
+            } catch (IOException e) {
+                ++failed;
+                lastErr = e;
+                continue;
+            }
+            if (sent == 0) {
+                break; // the socket buffer is full
+            }
+            if (sent != len) {
+                ++failed;
+            }
+        }
+        // only log once for the batch
+        Logger.error(LogType.CONN_ERROR, "sending " + failed + "/" + n + " dns response packets failed", lastErr);
+        return n;
+    }
+
+    private void watchWritable(LoopSock ls, boolean watch) {
+        if (ls.watchingWritable == watch || ls.closed) {
+            return;
+        }
+        ls.watchingWritable = watch;
+        if (watch) {
+            ls.loop.getSelectorEventLoop().addOps(ls.sock, EventSet.write());
+        } else {
+            ls.loop.getSelectorEventLoop().rmOps(ls.sock, EventSet.write());
+        }
+    }
+
     protected void sendPacket(int id, InetSocketAddress remote, DNSPacket p) {
+        // all sockets are bound on the same address, so the response can be sent via any of them
+        // use the socket of the current loop if possible
+        SelectorEventLoop current = SelectorEventLoop.current();
+        LoopSock ls = current == null ? null : socks.get(current);
+        boolean onLoop = ls != null;
+        if (ls == null) {
+            Iterator<LoopSock> ite = socks.values().iterator();
+            if (!ite.hasNext()) {
+                assert Logger.lowLevelDebug("dns server " + alias + " is stopped, drop the response to " + remote);
+                return;
+            }
+            ls = ite.next();
+        }
+
         p.id = id;
         ByteBuffer buf = ByteBuffer.wrap(p.toByteArray().toJavaArray());
+        if (onLoop && ls.batchingResponses) {
+            if (ls.sendBatch.isFull()) {
+                flushResponses(ls);
+            }
+            if (ls.sendBatch.add(buf, remote)) {
+                return;
+            }
+            // the packet is too large for the batch, send it directly
+        }
         int len = buf.limit();
         int sent;
         try {
-            sent = sock.send(buf, remote);
+            sent = ls.sock.send(buf, remote);
         } catch (IOException e) {
             Logger.error(LogType.CONN_ERROR, "sending dns response packet to " + remote + " failed", e);
             return;
@@ -359,8 +690,8 @@ public class DNSServer {
         sendPacket(p.id, remote, p);
     }
 
-    public void start() throws IOException {
-        if (sock == null) { // udp sock not created yet
+    public synchronized void start() throws IOException {
+        if (socks.isEmpty()) { // udp sock not created yet
             // need to check whether it's bond
             ServerSock.checkBind(bindAddress);
         }
@@ -376,104 +707,141 @@ public class DNSServer {
         }
 
         needToStart = true;
-        loop = eventLoopGroup.next();
-        if (loop == null) {
+        bindLoops(null);
+    }
+
+    // bind sockets on the loops not bound yet
+    private void bindLoops(SelectorEventLoop excluded) throws IOException {
+        List<EventLoopWrapper> loops = eventLoopGroup.list();
+        if (loops.isEmpty()) {
             assert Logger.lowLevelDebug("no event loop in the group for now, will start later when loop available");
             return;
         }
-        if (sock != null) { // already started
-            return;
+        boolean reusePortLB = ServerSock.supportReusePort() && Config.supportReusePortLB();
+        for (EventLoopWrapper w : loops) {
+            if (!reusePortLB && !socks.isEmpty()) {
+                return; // only one socket can receive the packets
+            }
+            SelectorEventLoop selectorEventLoop = w.getSelectorEventLoop();
+            if (selectorEventLoop == excluded || socks.containsKey(selectorEventLoop)) {
+                continue;
+            }
+            bind(w);
         }
-        Logger.alert("dns server " + alias + " " + bindAddress + " starts on loop " + ((EventLoopWrapper) loop).alias);
+    }
 
-        sock = FDProvider.get().openDatagramFD();
-        sock.configureBlocking(false);
-        if (ServerSock.supportReusePort()) {
-            sock.setOption(StandardSocketOptions.SO_REUSEPORT, true);
-        }
-        sock.bind(bindAddress);
-        loop.getSelectorEventLoop().add(sock, EventSet.read(), null, new Handler<>() {
-            @Override
-            public void accept(HandlerContext<DatagramFD> ctx) {
-                // will not fire
-            }
+    private void bind(EventLoopWrapper w) throws IOException {
+        Logger.alert("dns server " + alias + " " + bindAddress + " starts on loop " + w.alias);
 
-            @Override
-            public void connected(HandlerContext<DatagramFD> ctx) {
-                // will not fire
+        DatagramFD sock = FDProvider.get().openDatagramFD();
+        LoopSock ls;
+        try {
+            sock.configureBlocking(false);
+            if (ServerSock.supportReusePort()) {
+                sock.setOption(StandardSocketOptions.SO_REUSEPORT, true);
             }
+            sock.bind(bindAddress);
+            ls = new LoopSock(w, sock);
+        } catch (IOException e) {
+            sock.close();
+            throw e;
+        }
+        SelectorEventLoop selectorEventLoop = w.getSelectorEventLoop();
+        socks.put(selectorEventLoop, ls);
+        try {
+            selectorEventLoop.add(sock, EventSet.read(), null, new Handler<>() {
+                @Override
+                public void accept(HandlerContext<DatagramFD> ctx) {
+                    // will not fire
+                }
 
-            @Override
-            public void readable(HandlerContext<DatagramFD> ctx) {
-                while (true) { // read until no packet available
-                    buffer.limit(buffer.capacity()).position(0);
-                    InetSocketAddress remote;
-                    try {
-                        remote = (InetSocketAddress) ctx.getChannel().receive(buffer);
-                    } catch (IOException e) {
-                        Logger.error(LogType.CONN_ERROR, "reading data from dns sock " + ctx.getChannel() + " failed", e);
-                        return;
-                    }
-                    if (remote == null) {
-                        return; // nothing received
-                    }
-                    if (!securityGroup.allow(Protocol.UDP, remote.getAddress(), remote.getPort())) {
-                        assert Logger.lowLevelDebug("remote " + remote + " rejected by security-group " + securityGroup.alias);
-                        continue;
-                    }
-                    int read = buffer.position();
-                    if (read == 0) {
-                        return;
-                    }
-                    buffer.flip();
-                    byte[] bytes = new byte[read];
-                    buffer.get(bytes);
-                    ByteArray array = ByteArray.from(bytes);
+                @Override
+                public void connected(HandlerContext<DatagramFD> ctx) {
+                    // will not fire
+                }
 
-                    List<DNSPacket> packets;
+                @Override
+                public void readable(HandlerContext<DatagramFD> ctx) {
+                    ls.batchingResponses = true;
                     try {
-                        packets = Formatter.parsePackets(array);
-                    } catch (InvalidDNSPacketException e) {
-                        Logger.error(LogType.INVALID_EXTERNAL_DATA, "got malformed dns packet", e);
-                        return;
-                    }
-                    assert Logger.lowLevelDebug("received dns packets: " + packets);
-                    for (DNSPacket p : packets) {
-                        if (p.isResponse) {
-                            Logger.error(LogType.INVALID_EXTERNAL_DATA, "received dns packet response from " + remote);
-                            continue;
-                        }
-                        if (p.opcode != DNSPacket.Opcode.QUERY) {
-                            runRecursive(p, remote);
-                            continue;
+                        while (true) { // read until no packet available
+                            int n;
+                            try {
+                                n = ctx.getChannel().receiveBatch(ls.recvBatch);
+                            } catch (IOException e) {
+                                Logger.error(LogType.CONN_ERROR, "reading data from dns sock " + ctx.getChannel() + " failed", e);
+                                return;
+                            }
+                            for (int i = 0; i < n; ++i) {
+                                handlePacket(ls, ls.recvBatch.get(i), ls.recvBatch.getAddress(i));
+                            }
+                            if (n < ls.recvBatch.capacity()) {
+                                return; // nothing more to receive
+                            }
                         }
-                        handleRequest(p, remote);
+                    } finally {
+                        ls.batchingResponses = false;
+                        flushResponses(ls);
                     }
                 }
-            }
 
-            @Override
-            public void writable(HandlerContext<DatagramFD> ctx) {
-                // will not fire
-            }
+                @Override
+                public void writable(HandlerContext<DatagramFD> ctx) {
+                    // fires when some responses were not sent
+                    flushResponses(ls);
+                }
 
-            @Override
-            public void removed(HandlerContext<DatagramFD> ctx) {
-                Logger.alert("the current dns server (" + alias + ") is removed from event loop");
-                stop();
-                try {
-                    start();
-                } catch (IOException e) {
-                    Logger.error(LogType.IMPROPER_USE, "starting dns-server (" + alias + ") failed");
+                @Override
+                public void removed(HandlerContext<DatagramFD> ctx) {
+                    unbound(ls);
                 }
-            }
-        });
+            });
+        } catch (IOException e) {
+            socks.remove(selectorEventLoop, ls);
+            ls.close();
+            throw e;
+        }
+        ls.counting = selectorEventLoop.period(1000, ls::count);
 
+        if (loop == null) {
+            useLoop(w);
+        }
+    }
+
+    private void useLoop(EventLoopWrapper w) {
+        loop = w;
         // start reloading hosts
-        loop.getSelectorEventLoop().period(30_000, () -> hosts = Resolver.getHosts());
+        reloadHosts = w.getSelectorEventLoop().period(30_000, () -> hosts = Resolver.getHosts());
+    }
+
+    // the socket is removed from the loop, which is usually because the loop is closed
+    private synchronized void unbound(LoopSock ls) {
+        SelectorEventLoop selectorEventLoop = ls.loop.getSelectorEventLoop();
+        if (!socks.remove(selectorEventLoop, ls)) {
+            ls.close(); // removed by stop(), the closing task may not run if the loop is closed
+            return;
+        }
+        Logger.alert("the dns server " + alias + " is removed from loop " + ls.loop.alias);
+        ls.close();
+        if (loop == ls.loop) {
+            reloadHosts.cancel();
+            loop = null;
+            reloadHosts = null;
+            for (LoopSock other : socks.values()) {
+                useLoop(other.loop);
+                break;
+            }
+        }
+        if (needToStart) {
+            try {
+                bindLoops(selectorEventLoop); // the loop is being closed
+            } catch (IOException e) {
+                Logger.error(LogType.IMPROPER_USE, "starting dns-server (" + alias + ") failed", e);
+            }
+        }
     }
 
-    public void stop() {
+    public synchronized void stop() {
         if (!needToStart) {
             return;
         }
@@ -484,20 +852,38 @@ public class DNSServer {
         } catch (NotFoundException ignore) {
         }
 
-        if (sock != null) {
-            if (loop != null) {
+        for (LoopSock ls : new ArrayList<>(socks.values())) {
+            SelectorEventLoop selectorEventLoop = ls.loop.getSelectorEventLoop();
+            socks.remove(selectorEventLoop);
+            if (selectorEventLoop.isClosed()) {
+                ls.close(); // the loop is not running any more
+                continue;
+            }
+            // the batches may be in use on the loop, so release them there
+            selectorEventLoop.runOnLoop(() -> {
                 try {
-                    loop.getSelectorEventLoop().remove(sock);
+                    selectorEventLoop.remove(ls.sock);
                 } catch (Throwable ignore) {
                 }
-            }
-            try {
-                sock.close();
-            } catch (IOException ignore) {
-            }
+                ls.close();
+            });
+        }
+        if (reloadHosts != null) {
+            reloadHosts.cancel();
+            reloadHosts = null;
         }
         loop = null;
-        sock = null;
         assert Logger.lowLevelDebug("dns server " + alias + " stopped");
     }
+
+    /**
+     * @return queries handled on each event loop
+     */
+    public List<LoopStats> loopStats() {
+        List<LoopStats> ret = new ArrayList<>();
+        for (LoopSock ls : socks.values()) {
+            ret.add(new LoopStats(ls.loop.alias, ls.queries, ls.qps));
+        }
+        return ret;
+    }
 }
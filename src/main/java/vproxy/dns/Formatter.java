@@ -4,6 +4,7 @@ import vproxy.dns.rdata.RData;
 import vproxy.util.ByteArray;
 import vproxy.util.Logger;
 
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -15,7 +16,7 @@ public class Formatter {
 
     public static ByteArray format(DNSPacket packet) {
         fillPacket(packet);
-        ByteArray ret = formatHeader(packet);
+        ByteArray ret = ByteArray.rope(formatHeader(packet));
         for (DNSQuestion q : packet.questions) {
             ret = ret.concat(formatQuestion(q));
         }
@@ -103,7 +104,7 @@ public class Formatter {
         if (!domain.endsWith(".")) {
             domain += ".";
         }
-        ByteArray ret = null;
+        ByteArray ret = ByteArray.rope();
         int start = 0;
         int end;
         while (start < domain.length()) {
@@ -111,18 +112,12 @@ public class Formatter {
             assert end != -1;
             String sub = domain.substring(start, end);
             start = end + 1;
-            byte[] bytes = sub.getBytes();
-            ByteArray arr = ByteArray.from((byte) bytes.length);
+            byte[] bytes = sub.getBytes(StandardCharsets.ISO_8859_1); // one char for each byte, see parseDomainName
+            ret = ret.concat(ByteArray.from((byte) bytes.length));
             if (bytes.length > 0) {
-                arr = arr.concat(ByteArray.from(bytes));
-            }
-            if (ret == null) {
-                ret = arr;
-            } else {
-                ret = ret.concat(arr);
+                ret = ret.concat(ByteArray.from(bytes));
             }
         }
-        assert ret != null;
         return ret.concat(ByteArray.from((byte) 0));
     }
 
@@ -141,7 +136,7 @@ public class Formatter {
         ByteArray qtype_qclass = ByteArray.allocate(4);
         qtype_qclass.int16(0, q.qtype.code);
         qtype_qclass.int16(2, q.qclass.code);
-        return qname.concat(qtype_qclass);
+        return ByteArray.rope(qname, qtype_qclass);
     }
 
     public static ByteArray formatResource(DNSResource r) {
@@ -154,7 +149,7 @@ public class Formatter {
         type_class_ttl_rdlen.int16(2, r.clazz.code);
         type_class_ttl_rdlen.int32(4, r.ttl);
         type_class_ttl_rdlen.int16(8, r.rdlen);
-        ByteArray ret = name.concat(type_class_ttl_rdlen).concat(r.rdataBytes);
+        ByteArray ret = ByteArray.rope(name, type_class_ttl_rdlen, r.rdataBytes);
         r.rawBytes = ret;
         return ret;
     }
@@ -244,7 +239,7 @@ public class Formatter {
                     len = b & 0xff;
                 }
             } else {
-                sb.append((char) b);
+                sb.append((char) (b & 0xff));
                 --len;
                 if (len == 0) {
                     sb.append(".");
@@ -0,0 +1,16 @@
+package vproxy.dns;
+
+import java.net.UnknownHostException;
+
+/**
+ * the name server responds NXDOMAIN, which means the domain does not exist
+ */
+public class NXDomainException extends UnknownHostException {
+    // seconds that the negative answer can be cached, -1 if not provided by the name server
+    public final int ttl;
+
+    public NXDomainException(String domain, int ttl) {
+        super(domain);
+        this.ttl = ttl;
+    }
+}
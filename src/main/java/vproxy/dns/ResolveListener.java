@@ -4,4 +4,9 @@ public interface ResolveListener {
     void onResolve(Cache cache);
 
     void onRemove(Cache cache);
+
+    // called when the cache is evicted because the cache of the resolver is full
+    default void onEvict(Cache cache) {
+        onRemove(cache);
+    }
 }
@@ -0,0 +1,79 @@
+package vproxy.dns;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the lookups of a resolver.<br>
+ * A lookup either hits the cache (maybe a stale entry, see {@link vproxy.app.Config#dnsServeStale}),
+ * or misses and waits for a resolving process, which may be coalesced into another one of the same host.
+ * Prefetches are the resolving processes started in background to refresh the cache entries.
+ * Negative hits are the hits of cached NXDOMAIN answers, and evictions are the entries removed because the cache is full.
+ */
+public class ResolveStats {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder prefetches = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ResolveStats() {
+    }
+
+    void hit() {
+        hits.increment();
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    void coalesced() {
+        coalesced.increment();
+    }
+
+    void stale() {
+        stale.increment();
+    }
+
+    void prefetch() {
+        prefetches.increment();
+    }
+
+    void negativeHit() {
+        negativeHits.increment();
+    }
+
+    void evict() {
+        evictions.increment();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getStale() {
+        return stale.sum();
+    }
+
+    public long getPrefetches() {
+        return prefetches.sum();
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,18 @@
+package vproxy.dns;
+
+import java.net.InetAddress;
+import java.util.List;
+
+/**
+ * addresses of a domain and the ttl of them
+ */
+public class Resolved {
+    public final List<InetAddress> addresses;
+    // seconds, -1 if unknown
+    public final int ttl;
+
+    public Resolved(List<InetAddress> addresses, int ttl) {
+        this.addresses = addresses;
+        this.ttl = ttl;
+    }
+}
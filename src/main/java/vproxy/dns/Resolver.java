@@ -26,6 +26,8 @@ public interface Resolver {
 
     void copyCache(Collection<? super Cache> cacheList);
 
+    ResolveStats stats();
+
     static Resolver getDefault() {
         return AbstractResolver.getDefault();
     }
@@ -11,6 +11,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -106,10 +107,25 @@ public class VResolver extends AbstractResolver {
 
     @Override
     protected void getAllByName(String domain, Callback<InetAddress[], UnknownHostException> cb) {
+        lookup(domain, new Callback<>() {
+            @Override
+            protected void onSucceeded(Resolved value) {
+                cb.succeeded(listToArray(value.addresses));
+            }
+
+            @Override
+            protected void onFailed(UnknownHostException err) {
+                cb.failed(err);
+            }
+        });
+    }
+
+    @Override
+    protected void lookup(String domain, Callback<Resolved, UnknownHostException> cb) {
         {
             InetAddress[] result = searchInHosts(domain);
             if (result != null) {
-                cb.succeeded(result);
+                cb.succeeded(new Resolved(Arrays.asList(result), -1));
                 return;
             }
         }
@@ -117,32 +133,40 @@ public class VResolver extends AbstractResolver {
         List<InetAddress> addresses = new ArrayList<>();
         final int MAX_STEP = 2;
         int[] step = {0};
-        class TmpCB extends Callback<List<InetAddress>, UnknownHostException> {
+        int[] ttl = {-1};
+        UnknownHostException[] nxdomain = {null};
+        class TmpCB extends Callback<Resolved, UnknownHostException> {
             @Override
-            protected void onSucceeded(List<InetAddress> value) {
-                addresses.addAll(value);
+            protected void onSucceeded(Resolved value) {
+                addresses.addAll(value.addresses);
+                if (value.ttl != -1 && (ttl[0] == -1 || value.ttl < ttl[0])) {
+                    ttl[0] = value.ttl;
+                }
                 ++step[0];
                 if (step[0] == MAX_STEP) {
                     // should end the process
-                    cb.succeeded(listToArray(addresses));
+                    cb.succeeded(new Resolved(addresses, ttl[0]));
                 }
             }
 
             @Override
             protected void onFailed(UnknownHostException err) {
+                if (err instanceof NXDomainException) {
+                    nxdomain[0] = err;
+                }
                 ++step[0];
                 if (step[0] == MAX_STEP) {
                     // should end the process
                     if (addresses.isEmpty()) { // no process found address, so raise the exception
-                        cb.failed(err);
+                        cb.failed(nxdomain[0] == null ? err : nxdomain[0]);
                     } else {
-                        cb.succeeded(listToArray(addresses));
+                        cb.succeeded(new Resolved(addresses, ttl[0]));
                     }
                 }
             }
         }
-        client.resolveIPv4(domain, new TmpCB());
-        client.resolveIPv6(domain, new TmpCB());
+        client.resolve(domain, true, new TmpCB());
+        client.resolve(domain, false, new TmpCB());
     }
 
     @Override
@@ -1,5 +1,6 @@
 package vproxy.pool;
 
+import vproxy.app.Config;
 import vproxy.connection.*;
 import vproxy.selector.SelectorEventLoop;
 import vproxy.util.LogType;
@@ -8,13 +9,25 @@ import vproxy.util.ThreadSafe;
 import vproxy.util.Utils;
 
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.function.Consumer;
 
+/**
+ * A pool of connections in one event loop. There are two kinds of pools:
+ * <ul>
+ * <li>connections are provided by the {@link ConnectionPoolHandler} to fill the pool,
+ * and the pool runs keepalive on them. Use {@link #get(SelectorEventLoop, Consumer)} to retrieve one.</li>
+ * <li>connections are released by the user code when they are idle, see {@link #release(ConnectableConnection)},
+ * and retrieved in the event loop of the pool with {@link #poll()}.
+ * The user code should call {@link #evict()} periodically to close connections exceeding the idle timeout.</li>
+ * </ul>
+ */
 public class ConnectionPool {
     static class ConnWrap {
         final ConnectableConnection conn;
         boolean isHandshaking = true;
+        long idleSince; // only used for released connections
 
         ConnWrap(ConnectableConnection conn) {
             this.conn = conn;
@@ -55,7 +68,12 @@ public class ConnectionPool {
 
         @Override
         public void closed(ConnectionHandlerContext ctx) {
-            Logger.warn(LogType.CONN_ERROR, "pooled connection " + ctx.connection + " closed");
+            if (idleTimeout < 0) {
+                Logger.warn(LogType.CONN_ERROR, "pooled connection " + ctx.connection + " closed");
+            } else {
+                // it's normal for servers to close idle connections
+                assert Logger.lowLevelDebug("idle connection " + ctx.connection + " closed");
+            }
             removeConnection(ctx.connection);
         }
 
@@ -69,6 +87,7 @@ public class ConnectionPool {
     private final ConnectionPoolHandler handler;
     private final LinkedList<ConnWrap> connections = new LinkedList<>();
     private final int capacity;
+    private final int idleTimeout; // -1 if connections are provided by the handler
 
     private final PoolConnHandler poolConnHandler = new PoolConnHandler();
     private boolean isPendingProviding = false;
@@ -77,13 +96,33 @@ public class ConnectionPool {
         this.loop = loop;
         this.capacity = capacity;
         this.handler = handlerProvider.provide(new PoolCallback(this));
+        this.idleTimeout = -1;
 
         fill();
         // run keepalive for every 15 seconds
         loop.getSelectorEventLoop().period(15_000, this::keepalive);
     }
 
+    /**
+     * create a pool for idle connections released by the user code,
+     * no connection will be provided by the handler and no keepalive will run
+     *
+     * @param loop        the event loop which the pool runs on
+     * @param handler     the handler, {@link ConnectionPoolHandler#valid(ConnectableConnection)} is checked before reusing
+     * @param capacity    max idle connections
+     * @param idleTimeout connections idle longer than the timeout (ms) are closed by {@link #evict()}
+     */
+    public ConnectionPool(NetEventLoop loop, ConnectionPoolHandler handler, int capacity, int idleTimeout) {
+        this.loop = loop;
+        this.capacity = capacity;
+        this.handler = handler;
+        this.idleTimeout = idleTimeout;
+    }
+
     private void fill() {
+        if (idleTimeout >= 0) {
+            return; // the pool is filled by connections released by the user code
+        }
         assert Logger.lowLevelDebug("try to fill the pool");
         if (connections.size() >= capacity) {
             assert Logger.lowLevelDebug("the pool is full now, do not create more");
@@ -151,6 +190,76 @@ public class ConnectionPool {
         }
     }
 
+    public int size() {
+        return connections.size();
+    }
+
+    /**
+     * put an idle connection into the pool, can only be called in the event loop of the pool.
+     * the connection must be connected and removed from its event loop
+     *
+     * @param conn the idle connection
+     * @return true if the pool takes the connection, false if the pool is full,
+     * in which case the caller should close the connection
+     */
+    public boolean release(ConnectableConnection conn) {
+        if (connections.size() >= capacity) {
+            assert Logger.lowLevelDebug("the pool is full, cannot take " + conn);
+            return false;
+        }
+        // the key of the channel may be just canceled,
+        // the event loop registers it after the key is removed, see SelectorEventLoop#add0
+        try {
+            loop.addConnectableConnection(conn, null, poolConnHandler);
+        } catch (IOException e) {
+            Logger.error(LogType.EVENT_LOOP_ADD_FAIL, "register idle connection with poolConnHandler failed", e);
+            return false;
+        }
+        ConnWrap w = new ConnWrap(conn);
+        w.isHandshaking = false;
+        w.idleSince = Config.currentTimestamp;
+        connections.addFirst(w); // the most recently used is polled first
+        assert Logger.lowLevelDebug("idle connection released into the pool: " + conn);
+        return true;
+    }
+
+    /**
+     * retrieve an idle connection, can only be called in the event loop of the pool.
+     * the returned connection is removed from the event loop, and can be registered again directly
+     *
+     * @return the connection, or null if no valid connection in the pool
+     */
+    public ConnectableConnection poll() {
+        ConnWrap w;
+        while ((w = connections.pollFirst()) != null) {
+            loop.removeConnection(w.conn);
+            if (w.conn.isClosed() || w.conn.isRemoteClosed() || !handler.valid(w.conn)) {
+                w.conn.close();
+                continue;
+            }
+            assert Logger.lowLevelDebug("idle connection retrieved: " + w.conn);
+            return w.conn;
+        }
+        return null;
+    }
+
+    /**
+     * close the idle connections exceeding the idle timeout or no longer valid,
+     * can only be called in the event loop of the pool
+     */
+    public void evict() {
+        long now = Config.currentTimestamp;
+        Iterator<ConnWrap> ite = connections.iterator();
+        while (ite.hasNext()) {
+            ConnWrap w = ite.next();
+            if (now - w.idleSince > idleTimeout || !handler.valid(w.conn)) {
+                assert Logger.lowLevelDebug("evict idle connection " + w.conn);
+                ite.remove();
+                w.conn.close();
+            }
+        }
+    }
+
     @ThreadSafe
     public void get(SelectorEventLoop callerLoop, Consumer<ConnectableConnection> cb) {
         loop.getSelectorEventLoop().runOnLoop(() -> {
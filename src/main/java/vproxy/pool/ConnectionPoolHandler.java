@@ -14,4 +14,9 @@ public interface ConnectionPoolHandler {
     void keepaliveReadable(ConnectableConnection conn);
 
     void keepalive(ConnectableConnection conn);
+
+    // whether the connection in the pool can still be used, invalid connections will be closed
+    default boolean valid(@SuppressWarnings("unused") ConnectableConnection conn) {
+        return true;
+    }
 }
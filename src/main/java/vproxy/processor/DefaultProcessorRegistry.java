@@ -5,6 +5,8 @@ import vproxy.processor.dubbo.DubboProcessor;
 import vproxy.processor.http.GeneralHttpProcessor;
 import vproxy.processor.http1.HttpProcessor;
 import vproxy.processor.http2.Http2Processor;
+import vproxy.processor.memcached.MemcachedProcessor;
+import vproxy.processor.redis.RedisProcessor;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -20,6 +22,8 @@ public class DefaultProcessorRegistry implements ProcessorRegistry {
         register(new DubboProcessor());
         register(new HttpProcessor());
         register(new GeneralHttpProcessor());
+        register(new RedisProcessor());
+        register(new MemcachedProcessor());
     }
 
     public static DefaultProcessorRegistry getInstance() {
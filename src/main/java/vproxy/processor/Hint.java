@@ -6,13 +6,20 @@ import vproxy.util.Utils;
 import java.util.Map;
 
 public class Hint {
-    public final String hint;
+    public final String hint; // null for slot hints
 
-    private final String host;
-    private final String port;
+    public final String host; // null for slot hints
+    public final String port; // may be null
+    public final String uri; // may be null, e.g. the :path of a grpc call
+    public final int slot; // -1 if it's not a slot hint
 
     public Hint(String hint) {
+        this(hint, null);
+    }
+
+    public Hint(String hint, String uri) {
         this.hint = hint;
+        this.uri = uri;
         if (Utils.isIpv6(hint) || !hint.contains(":")) {
             // consider as hostname or ip
             host = hint;
@@ -22,17 +29,38 @@ public class Hint {
             host = hint.substring(0, hint.lastIndexOf(':'));
             port = hint.substring(hint.lastIndexOf(':') + 1);
         }
+        slot = -1;
+    }
+
+    private Hint(int slot) {
+        this.hint = null;
+        this.host = null;
+        this.port = null;
+        this.uri = null;
+        this.slot = slot;
+    }
+
+    /**
+     * a hint for choosing the backend with a redis cluster style hash slot,
+     * see {@link vproxy.component.svrgroup.ServerGroup#nextBySlot(int)}
+     *
+     * @param slot the hash slot in [0, 16384)
+     * @return the hint
+     */
+    public static Hint ofSlot(int slot) {
+        return new Hint(slot);
     }
 
     public static final int MAX_MATCH_LEVEL = 3;
 
     @SuppressWarnings("unchecked")
     public int matchLevel(Map<String, String>... annotations) {
-        if (annotations == null) {
+        if (annotations == null || host == null) {
             return 0;
         }
         String annoHost = null;
         String annoPort = null;
+        String annoUri = null;
 
         for (Map<String, String> a : annotations) {
             if (a == null) {
@@ -44,6 +72,9 @@ public class Hint {
             if (annoPort == null) {
                 annoPort = a.get(AnnotationKeys.ServerGroup_HintPort);
             }
+            if (annoUri == null) {
+                annoUri = a.get(AnnotationKeys.ServerGroup_HintUri);
+            }
         }
 
         if (annoHost == null && annoPort == null) {
@@ -58,6 +89,11 @@ public class Hint {
                 return 0;
             }
         }
+        if (annoUri != null) {
+            if (this.uri == null || !this.uri.startsWith(annoUri)) { // uri not matched, so nothing matches
+                return 0;
+            }
+        }
         if (this.host.equals(annoHost)) { // exact match
             return 3;
         }
@@ -74,6 +110,8 @@ public class Hint {
     public String toString() {
         return "Hint{" +
             "hint=" + hint +
+            ", uri=" + uri +
+            ", slot=" + slot +
             '}';
     }
 }
@@ -9,4 +9,18 @@ public abstract class OOContext<SUB extends OOSubContext> extends Processor.Cont
     public abstract Hint connectionHint(SUB front);
 
     public abstract void chosen(SUB front, SUB subCtx);
+
+    public void resumeWith(Runnable resume) {
+    }
+
+    public void closed() {
+    }
+
+    public String reuseKey() {
+        return null;
+    }
+
+    public boolean keepFrontendWriteOrder() {
+        return false;
+    }
 }
@@ -23,6 +23,11 @@ public abstract class OOProcessor<CTX extends OOContext<SUB>, SUB extends OOSubC
         return sub.feed(data);
     }
 
+    @Override
+    public ByteArray split(CTX ctx, SUB front) {
+        return front.split();
+    }
+
     @Override
     public ByteArray produce(CTX ctx, SUB sub) {
         return sub.produce();
@@ -52,4 +57,34 @@ public abstract class OOProcessor<CTX extends OOContext<SUB>, SUB extends OOSubC
     public ByteArray connected(CTX ctx, SUB sub) {
         return sub.connected();
     }
+
+    @Override
+    public int requestsInFlight(CTX ctx, SUB sub) {
+        return sub.requestsInFlight();
+    }
+
+    @Override
+    public void resumeWith(CTX ctx, Runnable resume) {
+        ctx.resumeWith(resume);
+    }
+
+    @Override
+    public void closed(CTX ctx) {
+        ctx.closed();
+    }
+
+    @Override
+    public String reuseKey(CTX ctx) {
+        return ctx.reuseKey();
+    }
+
+    @Override
+    public boolean reusable(CTX ctx, SUB sub) {
+        return sub.reusable();
+    }
+
+    @Override
+    public boolean keepFrontendWriteOrder(CTX ctx) {
+        return ctx.keepFrontendWriteOrder();
+    }
 }
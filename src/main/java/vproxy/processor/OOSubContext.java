@@ -19,9 +19,21 @@ public abstract class OOSubContext<CTX extends OOContext> extends Processor.SubC
 
     public abstract ByteArray feed(ByteArray data) throws Exception;
 
+    public ByteArray split() {
+        return null;
+    }
+
     public abstract ByteArray produce();
 
     public abstract void proxyDone();
 
     public abstract ByteArray connected();
+
+    public int requestsInFlight() {
+        return -1;
+    }
+
+    public boolean reusable() {
+        return false;
+    }
 }
@@ -32,6 +32,18 @@ public interface Processor<CTX extends Processor.Context, SUB extends Processor.
      */
     CTX init(InetSocketAddress clientAddress);
 
+    /**
+     * create a context object for a frontend connection accepted by the proxy
+     *
+     * @param clientAddress the client address
+     * @param scope         the scope of the frontend connection, e.g. alias of the tcp-lb, or null if not specified.
+     *                      States shared by the contexts (e.g. cached responses) must not be shared across different scopes
+     * @return the context
+     */
+    default CTX init(InetSocketAddress clientAddress, String scope) {
+        return init(clientAddress);
+    }
+
     /**
      * create a sub context object
      *
@@ -91,6 +103,21 @@ public interface Processor<CTX extends Processor.Context, SUB extends Processor.
      */
     ByteArray feed(CTX ctx, SUB sub, ByteArray data) throws Exception;
 
+    /**
+     * retrieve the next part of data to be sent to backends.<br>
+     * this method will be called repeatedly after `feed` until it returns null,
+     * so that one input can be split into parts for different backends.
+     * For each part, `connection` and `connectionHint` are called to retrieve the backend,
+     * and an empty part only retrieves the backend (and `chosen` is called as usual) without sending anything
+     *
+     * @param ctx   context
+     * @param front frontend sub context
+     * @return the part to send, or null if got nothing to send
+     */
+    default ByteArray split(CTX ctx, SUB front) {
+        return null;
+    }
+
     /**
      * produce some data to the connection represented by the sub context<br>
      * this method will be checked after `feed` is called
@@ -147,6 +174,82 @@ public interface Processor<CTX extends Processor.Context, SUB extends Processor.
      */
     ByteArray connected(CTX ctx, SUB sub);
 
+    /**
+     * retrieve the count of requests in flight on the backend connection represented by the sub context,
+     * e.g. streams of h2.<br>
+     * The lib checks the value when data is exchanged with the backend, and reports the changes to the connector,
+     * so that load balancing methods can choose the server with less requests in flight
+     *
+     * @param ctx context
+     * @param sub sub context of the backend connection
+     * @return count of requests in flight, or -1 if the processor does not recognize requests
+     */
+    default int requestsInFlight(CTX ctx, SUB sub) {
+        return -1;
+    }
+
+    /**
+     * the lib provides a callback to resume handling the frontend connection.<br>
+     * A processor may hold the data of the frontend connection (`connection` returns 0) to wait for events
+     * other than the connection input, e.g. the response of an identical request sent by another frontend connection.
+     * When the waiting ends, the processor calls the callback, and the lib feeds an empty array to the frontend sub context
+     * on the next tick, then handles the result of `feed` and `produce` as usual.<br>
+     * The callback must be called in the event loop of the frontend connection.
+     *
+     * @param ctx    context
+     * @param resume the callback
+     */
+    default void resumeWith(CTX ctx, Runnable resume) {
+    }
+
+    /**
+     * the frontend connection and all backend connections are closed
+     *
+     * @param ctx context
+     */
+    default void closed(CTX ctx) {
+    }
+
+    /**
+     * retrieve the key of the protocol running on the backend connections of the context.<br>
+     * Idle backend connections with the same key (and the same server) can be shared by different frontend connections:
+     * the lib releases the reusable connections into a pool when the frontend connection closes,
+     * and takes connections from the pool before making new ones.
+     * A sub context is created by {@link #initSub(Context, int, InetSocketAddress)} for a reused connection as usual.
+     *
+     * @param ctx context
+     * @return the key, or null if the backend connections cannot be shared
+     */
+    default String reuseKey(CTX ctx) {
+        return null;
+    }
+
+    /**
+     * check whether the backend connection can be used by other frontend connections from now on,
+     * e.g. all responses are received and the server did not ask to close the connection.<br>
+     * Only called when {@link #reuseKey(Context)} returns non-null value.
+     *
+     * @param ctx context
+     * @param sub sub context of the backend connection
+     * @return true if reusable
+     */
+    default boolean reusable(CTX ctx, SUB sub) {
+        return false;
+    }
+
+    /**
+     * check whether the data from different backend connections should be sent to the frontend in the order they arrive,
+     * e.g. replies of pipelined commands which are routed to different backends.<br>
+     * When enabled, the data from a backend arriving while another backend is writing to the frontend
+     * will be appended after the data being written, if both connections are on frame boundaries.
+     *
+     * @param ctx context
+     * @return true if the order should be kept
+     */
+    default boolean keepFrontendWriteOrder(CTX ctx) {
+        return false;
+    }
+
     /**
      * zero copy is not free.
      * e.g. when processing http2 frames, the frame header is 9 bytes, and with uint24 payload length,
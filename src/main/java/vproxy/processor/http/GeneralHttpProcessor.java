@@ -33,6 +33,11 @@ public class GeneralHttpProcessor implements Processor<GeneralHttpContext, Gener
         return new GeneralHttpContext(httpProcessor.init(clientAddress), http2Processor.init(clientAddress));
     }
 
+    @Override
+    public GeneralHttpContext init(InetSocketAddress clientAddress, String scope) {
+        return new GeneralHttpContext(httpProcessor.init(clientAddress, scope), http2Processor.init(clientAddress, scope));
+    }
+
     @Override
     public GeneralHttpSubContext initSub(GeneralHttpContext ctx, int id, InetSocketAddress associatedAddress) {
         return new GeneralHttpSubContext(
@@ -92,6 +97,14 @@ public class GeneralHttpProcessor implements Processor<GeneralHttpContext, Gener
         }
     }
 
+    @Override
+    public ByteArray split(GeneralHttpContext ctx, GeneralHttpSubContext front) {
+        if (ctx.useHttp) return httpProcessor.split(ctx.httpContext, front.httpSubContext);
+        if (ctx.useHttp2) return http2Processor.split(ctx.http2Context, front.http2SubContext);
+        // if (ctx.willUseHttp2)
+        return null;
+    }
+
     @Override
     public ByteArray produce(GeneralHttpContext ctx, GeneralHttpSubContext subCtx) {
         if (ctx.useHttp) return httpProcessor.produce(ctx.httpContext, subCtx.httpSubContext);
@@ -144,4 +157,38 @@ public class GeneralHttpProcessor implements Processor<GeneralHttpContext, Gener
         // if (ctx.willUseHttp2)
         return null;
     }
+
+    @Override
+    public int requestsInFlight(GeneralHttpContext ctx, GeneralHttpSubContext subCtx) {
+        if (ctx.useHttp) return httpProcessor.requestsInFlight(ctx.httpContext, subCtx.httpSubContext);
+        if (ctx.useHttp2) return http2Processor.requestsInFlight(ctx.http2Context, subCtx.http2SubContext);
+        // if (ctx.willUseHttp2)
+        return -1;
+    }
+
+    @Override
+    public void resumeWith(GeneralHttpContext ctx, Runnable resume) {
+        // the protocol is not decided yet
+        httpProcessor.resumeWith(ctx.httpContext, resume);
+        http2Processor.resumeWith(ctx.http2Context, resume);
+    }
+
+    @Override
+    public void closed(GeneralHttpContext ctx) {
+        if (ctx.useHttp) httpProcessor.closed(ctx.httpContext);
+        if (ctx.useHttp2) http2Processor.closed(ctx.http2Context);
+    }
+
+    @Override
+    public String reuseKey(GeneralHttpContext ctx) {
+        // h2 backend connections are bound to the client handshake and stream ids of the frontend connection
+        if (ctx.useHttp) return httpProcessor.reuseKey(ctx.httpContext);
+        return null;
+    }
+
+    @Override
+    public boolean reusable(GeneralHttpContext ctx, GeneralHttpSubContext subCtx) {
+        if (ctx.useHttp) return httpProcessor.reusable(ctx.httpContext, subCtx.httpSubContext);
+        return false;
+    }
 }
@@ -0,0 +1,622 @@
+package vproxy.processor.http1;
+
+import vproxy.app.Config;
+import vproxy.processor.http1.builder.HeaderBuilder;
+import vproxy.processor.http1.builder.ResponseBuilder;
+import vproxy.util.ByteArray;
+import vproxy.util.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * The response cache of the http/1.x processor, shared by all event loops.
+ * The default instance used by the registered processor is enabled by -DhttpCacheSize.<br>
+ * Only GET requests without a body are looked up, keyed by the scope of the context (the tcp-lb), Host and uri.
+ * A response is stored when it's `200` with `Content-Length`, without `Set-Cookie` or `Vary`,
+ * and has an explicit freshness lifetime (`s-maxage`, `max-age` or `Expires`),
+ * or an `ETag` to revalidate with (`no-cache`).<br>
+ * Fresh entries are served directly, stale entries with an ETag are revalidated with `If-None-Match`,
+ * and a `304` from the backend is answered with the cached response.<br>
+ * Each response is stored in its own direct buffer which is never modified,
+ * so hits are served from the buffer without copying, even if the entry is evicted before the response is sent.<br>
+ * The keys are distributed to {@link #STRIPES} stripes, each stripe holds a part of the capacity and has its own lock.
+ * Entries of a stripe are evicted in LRU order, and a new entry is only admitted if it's used more frequently than
+ * the entries to be evicted (TinyLFU), the frequencies are estimated with a count-min sketch.
+ */
+public class HttpCache {
+    private static final int STRIPES = 8;
+    private static final int AVG_ENTRY = 1024; // used to estimate count of entries
+    private static final ByteArray AGE = ByteArray.from("age: ".getBytes());
+    private static final ByteArray CRLF = ByteArray.from("\r\n".getBytes());
+    private static volatile HttpCache instance;
+
+    static class Entry {
+        final String key;
+        final String etag;
+        final ByteArray bytes; // backed by a read-only direct buffer
+        final int headLen; // status line and headers without the last CRLF
+        long lifetime; // ms
+        long responseTime;
+        long initialAge; // seconds
+        long freshUntil;
+
+        Entry(String key, String etag, ByteArray bytes, int headLen) {
+            this.key = key;
+            this.etag = etag;
+            this.bytes = bytes;
+            this.headLen = headLen;
+        }
+
+        void fresh(long lifetime, long initialAge) {
+            this.lifetime = lifetime;
+            this.initialAge = initialAge;
+            this.responseTime = Config.currentTimestamp;
+            this.freshUntil = responseTime + lifetime - initialAge * 1000;
+        }
+
+        long age() {
+            return initialAge + (Config.currentTimestamp - responseTime) / 1000;
+        }
+    }
+
+    /**
+     * the result of looking up a request
+     */
+    static class Lookup {
+        final String key;
+        // the response served from the cache, null if the request should be forwarded
+        ByteArray response;
+        // the stale entry being revalidated with If-None-Match, null if not revalidating
+        String etag;
+        // the entry may be removed before the backend responds, but it's not modified, so it can still be used
+        private Entry stale;
+
+        Lookup(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * a part of the cache, all fields are guarded by the stripe itself
+     */
+    private static class Stripe {
+        final long capacity;
+        long used; // including the reserved bytes
+        long reserved; // bytes of entries being stored, which are not in the map yet
+        final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        final FrequencySketch sketch;
+
+        long lookups;
+        long hits;
+        long revalidated;
+        long bytesSaved;
+        long evictions;
+        long rejected;
+
+        Stripe(long capacity) {
+            this.capacity = capacity;
+            this.sketch = new FrequencySketch((int) (capacity / AVG_ENTRY));
+        }
+
+        void remove(String key) {
+            Entry e = entries.remove(key);
+            if (e != null) {
+                used -= e.bytes.length();
+            }
+        }
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final int maxEntry;
+
+    public HttpCache(int capacity) {
+        for (int i = 0; i < STRIPES; ++i) {
+            stripes[i] = new Stripe(capacity / STRIPES);
+        }
+        this.maxEntry = capacity / 16;
+    }
+
+    /**
+     * @return the default cache, or null if it's disabled
+     */
+    public static HttpCache get() {
+        if (Config.httpCacheSize == 0) {
+            return null;
+        }
+        HttpCache cache = instance;
+        if (cache == null) {
+            synchronized (HttpCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    cache = new HttpCache(Config.httpCacheSize * 1024 * 1024);
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    private Stripe stripe(String key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * @param scope    scope of the context, responses are not shared across scopes
+     * @param canServe false if the response cannot be served from the cache, e.g. former requests are still in flight
+     * @return null if the request cannot use the cache
+     */
+    Lookup request(String scope, String host, String uri, List<HeaderBuilder> headers, boolean canServe) {
+        boolean revalidate = false;
+        String ifNoneMatch = null;
+        for (HeaderBuilder h : headers) {
+            String k = h.key.toString().trim().toLowerCase();
+            String v = h.value.toString().trim();
+            switch (k) {
+                case "cache-control":
+                    String cc = v.toLowerCase();
+                    if (cc.contains("no-store")) {
+                        return null;
+                    }
+                    if (cc.contains("no-cache") || cc.contains("max-age=0")) {
+                        revalidate = true;
+                    }
+                    break;
+                case "pragma":
+                    if (v.toLowerCase().contains("no-cache")) {
+                        revalidate = true;
+                    }
+                    break;
+                case "if-none-match":
+                    ifNoneMatch = v;
+                    break;
+                case "authorization":
+                case "range":
+                case "if-match":
+                case "if-modified-since":
+                case "if-unmodified-since":
+                case "if-range":
+                case "content-length":
+                case "transfer-encoding":
+                    return null;
+            }
+        }
+        // the host cannot contain spaces
+        String key = (scope == null ? "" : scope) + " " + host.toLowerCase() + uri;
+        Lookup lookup = new Lookup(key);
+        Stripe s = stripe(key);
+        synchronized (s) {
+            ++s.lookups;
+            s.sketch.increment(key.hashCode());
+
+            Entry e = s.entries.get(key);
+            if (e == null) {
+                return lookup;
+            }
+            if (!revalidate && Config.currentTimestamp < e.freshUntil) {
+                if (!canServe) {
+                    return lookup;
+                }
+                ++s.hits;
+                s.bytesSaved += e.bytes.length();
+                if (ifNoneMatch != null && e.etag != null && etagMatches(ifNoneMatch, e.etag)) {
+                    lookup.response = ByteArray.from(("HTTP/1.1 304 Not Modified\r\n" +
+                        "etag: " + e.etag + "\r\n" +
+                        "age: " + e.age() + "\r\n" +
+                        "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                } else {
+                    lookup.response = response(e, e.age());
+                }
+                assert Logger.lowLevelDebug("http cache hit: " + key);
+                return lookup;
+            }
+            if (e.etag != null && ifNoneMatch == null) {
+                lookup.etag = e.etag;
+                lookup.stale = e;
+            }
+        }
+        return lookup;
+    }
+
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch.equals("*")) {
+            return true;
+        }
+        String strong = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String s : ifNoneMatch.split(",")) {
+            s = s.trim();
+            if (s.startsWith("W/")) {
+                s = s.substring(2);
+            }
+            if (s.equals(strong)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return freshness lifetime (ms) of the response, or -1 if it cannot be stored
+     */
+    long storable(ResponseBuilder resp) {
+        if (!resp.statusCode.toString().trim().equals("200") || resp.headers == null) {
+            return -1;
+        }
+        long contentLength = -1;
+        boolean hasEtag = false;
+        for (HeaderBuilder h : resp.headers) {
+            switch (h.key.toString().trim().toLowerCase()) {
+                case "content-length":
+                    try {
+                        contentLength = Long.parseLong(h.value.toString().trim());
+                    } catch (NumberFormatException e) {
+                        return -1;
+                    }
+                    break;
+                case "etag":
+                    hasEtag = true;
+                    break;
+                case "transfer-encoding":
+                case "set-cookie":
+                case "vary":
+                    return -1;
+            }
+        }
+        if (contentLength < 0 || contentLength > maxEntry) {
+            return -1;
+        }
+        long lifetime = lifetime(resp.headers);
+        if (lifetime < 0) {
+            return -1; // not allowed, or no explicit freshness (no heuristic freshness)
+        }
+        if (lifetime == 0 && !hasEtag) {
+            return -1; // cannot be used without revalidation
+        }
+        return lifetime;
+    }
+
+    /**
+     * @return freshness lifetime (ms), -1 if storing is not allowed (or the max-age is invalid), -2 if not specified
+     */
+    private static long lifetime(List<HeaderBuilder> headers) {
+        boolean noCache = false;
+        long maxAge = -1;
+        long sMaxAge = -1;
+        ZonedDateTime date = null;
+        ZonedDateTime expires = null;
+        boolean hasExpires = false;
+        for (HeaderBuilder h : headers) {
+            String k = h.key.toString().trim().toLowerCase();
+            String v = h.value.toString().trim();
+            switch (k) {
+                case "cache-control":
+                    for (String d : v.toLowerCase().split(",")) {
+                        d = d.trim();
+                        if (d.equals("no-store") || d.equals("private")) {
+                            return -1;
+                        } else if (d.equals("no-cache")) {
+                            noCache = true;
+                        } else if (d.startsWith("max-age=")) {
+                            maxAge = seconds(d.substring("max-age=".length()));
+                            if (maxAge < 0) {
+                                return -1;
+                            }
+                        } else if (d.startsWith("s-maxage=")) {
+                            sMaxAge = seconds(d.substring("s-maxage=".length()));
+                            if (sMaxAge < 0) {
+                                return -1;
+                            }
+                        }
+                    }
+                    break;
+                case "date":
+                    date = httpDate(v);
+                    break;
+                case "expires":
+                    hasExpires = true;
+                    expires = httpDate(v);
+                    break;
+            }
+        }
+        if (noCache) {
+            return 0;
+        } else if (sMaxAge >= 0) {
+            return sMaxAge * 1000;
+        } else if (maxAge >= 0) {
+            return maxAge * 1000;
+        } else if (hasExpires) {
+            if (expires == null) { // invalid dates mean already expired
+                return 0;
+            }
+            long from = date == null ? Config.currentTimestamp : date.toInstant().toEpochMilli();
+            return Math.max(0, expires.toInstant().toEpochMilli() - from);
+        }
+        return -2;
+    }
+
+    /**
+     * @return the delta-seconds, or -1 if invalid
+     */
+    private static long seconds(String s) {
+        try {
+            long n = Long.parseLong(s.trim());
+            // avoid overflow when converting to ms
+            return n < 0 ? -1 : Math.min(n, Integer.MAX_VALUE);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static ZonedDateTime httpDate(String s) {
+        try {
+            return ZonedDateTime.parse(s, DateTimeFormatter.RFC_1123_DATE_TIME);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static long ageHeader(List<HeaderBuilder> headers) {
+        for (HeaderBuilder h : headers) {
+            if (h.key.toString().trim().equalsIgnoreCase("age")) {
+                return Math.max(0, seconds(h.value.toString()));
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * store the response which is fully received
+     *
+     * @param lifetime the result of {@link #storable(ResponseBuilder)}
+     */
+    void store(Lookup lookup, ResponseBuilder resp, long lifetime) {
+        String etag = null;
+        for (HeaderBuilder h : resp.headers) {
+            if (h.key.toString().trim().equalsIgnoreCase("etag")) {
+                etag = h.value.toString().trim();
+            }
+        }
+        ByteArray bytes = serialize(resp);
+        int headLen = bytes.length() - (resp.body == null ? 0 : resp.body.length()) - 2;
+
+        int len = bytes.length();
+        if (!reserve(lookup.key, len)) {
+            return;
+        }
+        Entry e;
+        try {
+            // copy into the direct buffer out of the lock
+            ByteBuffer buf = ByteBuffer.allocateDirect(len);
+            bytes.byteBufferPut(buf, 0, len);
+            buf.flip();
+            e = new Entry(lookup.key, etag, ByteArray.from(buf.asReadOnlyBuffer()), headLen);
+            e.fresh(lifetime, ageHeader(resp.headers));
+        } catch (Throwable t) {
+            release(lookup.key, len);
+            throw t;
+        }
+        Stripe s = stripe(lookup.key);
+        synchronized (s) {
+            s.reserved -= len;
+            s.remove(lookup.key); // may be stored by another loop when copying
+            s.entries.put(lookup.key, e);
+        }
+        assert Logger.lowLevelDebug("http cache stored: " + lookup.key + ", len=" + bytes.length());
+    }
+
+    /**
+     * remove the entry of the key, and reserve space for the new entry of the key,
+     * entries are evicted if the new entry is used more frequently than them.<br>
+     * The reserved space is counted as used, but cannot be evicted until the entry is put into the map.
+     *
+     * @return false if the new entry is not admitted
+     */
+    public boolean reserve(String key, int len) {
+        Stripe s = stripe(key);
+        synchronized (s) {
+            s.remove(key);
+            if (len > s.capacity) {
+                return false;
+            }
+            // evict in LRU order, only when the new entry is used more frequently than the victims
+            int freq = s.sketch.frequency(key.hashCode());
+            while (s.capacity - s.used < len) {
+                Iterator<Map.Entry<String, Entry>> ite = s.entries.entrySet().iterator();
+                if (!ite.hasNext()) { // the space is held by entries being stored
+                    ++s.rejected;
+                    return false;
+                }
+                Entry victim = ite.next().getValue();
+                if (s.sketch.frequency(victim.key.hashCode()) >= freq) {
+                    ++s.rejected;
+                    return false;
+                }
+                ite.remove();
+                s.used -= victim.bytes.length();
+                ++s.evictions;
+            }
+            s.used += len;
+            s.reserved += len;
+        }
+        return true;
+    }
+
+    /**
+     * release the space reserved by {@link #reserve(String, int)} for an entry which is not stored
+     */
+    public void release(String key, int len) {
+        Stripe s = stripe(key);
+        synchronized (s) {
+            s.used -= len;
+            s.reserved -= len;
+        }
+    }
+
+    /**
+     * @return the response which is fully received, without hop-by-hop headers and the age header
+     */
+    static ByteArray serialize(ResponseBuilder resp) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(resp.version.toString().trim()).append(" ")
+            .append(resp.statusCode.toString().trim()).append(" ")
+            .append(resp.reason.toString().trim()).append("\r\n");
+        for (HeaderBuilder h : resp.headers) {
+            String k = h.key.toString().trim();
+            switch (k.toLowerCase()) {
+                // hop-by-hop headers, and the age header calculated when serving
+                case "connection":
+                case "keep-alive":
+                case "proxy-connection":
+                case "te":
+                case "trailer":
+                case "upgrade":
+                case "age":
+                    continue;
+            }
+            sb.append(k).append(": ").append(h.value.toString().trim()).append("\r\n");
+        }
+        sb.append("\r\n");
+        // the builders hold one char for each byte
+        ByteArray head = ByteArray.from(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        return resp.body == null ? head : head.concat(resp.body);
+    }
+
+    /**
+     * the backend responds 304 for the revalidation
+     *
+     * @return the response to send to the client
+     */
+    ByteArray revalidated(Lookup lookup, ResponseBuilder resp) {
+        Entry e = lookup.stale;
+        long lifetime = resp.headers == null ? -2 : lifetime(resp.headers);
+        if (lifetime < 0) {
+            lifetime = e.lifetime; // the 304 does not update the freshness
+        }
+        Stripe s = stripe(lookup.key);
+        synchronized (s) {
+            if (s.entries.get(lookup.key) == e) {
+                e.fresh(lifetime, resp.headers == null ? 0 : ageHeader(resp.headers));
+            }
+            ++s.revalidated;
+            s.bytesSaved += e.bytes.length();
+        }
+        return response(e, 0);
+    }
+
+    void remove(String key) {
+        Stripe s = stripe(key);
+        synchronized (s) {
+            s.remove(key);
+        }
+    }
+
+    private static ByteArray response(Entry e, long age) {
+        ByteArray head = e.bytes.sub(0, e.headLen);
+        ByteArray body = e.bytes.sub(e.headLen, e.bytes.length() - e.headLen); // starts with the last CRLF
+        return ByteArray.rope(head, AGE, ByteArray.from(("" + age).getBytes()), CRLF, body);
+    }
+
+    private long sum(ToLongFunction<Stripe> f) {
+        long n = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                n += f.applyAsLong(s);
+            }
+        }
+        return n;
+    }
+
+    public long getCapacity() {
+        return sum(s -> s.capacity);
+    }
+
+    public long getUsed() {
+        return sum(s -> s.used);
+    }
+
+    public long getReserved() {
+        return sum(s -> s.reserved);
+    }
+
+    public int getEntries() {
+        return (int) sum(s -> s.entries.size());
+    }
+
+    public long getLookups() {
+        return sum(s -> s.lookups);
+    }
+
+    public long getHits() {
+        return sum(s -> s.hits);
+    }
+
+    public long getRevalidated() {
+        return sum(s -> s.revalidated);
+    }
+
+    public long getBytesSaved() {
+        return sum(s -> s.bytesSaved);
+    }
+
+    public long getEvictions() {
+        return sum(s -> s.evictions);
+    }
+
+    public long getRejected() {
+        return sum(s -> s.rejected);
+    }
+
+    /**
+     * 4-bit counters in a count-min sketch, all counters are halved periodically to keep the frequencies recent
+     */
+    private static class FrequencySketch {
+        private static final int[] SEEDS = {0x97cb3127, 0xb2d6bd2b, 0x72f3bd6d, 0xc7bf0b59};
+        private final byte[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maxEntries) {
+            int size = Integer.highestOneBit(Math.max(64, maxEntries) * 4 - 1) << 1;
+            table = new byte[size];
+            mask = size - 1;
+            sampleSize = size * 10;
+        }
+
+        private int index(int hash, int i) {
+            int h = (hash + SEEDS[i]) * 0x9e3779b9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        int frequency(int hash) {
+            int min = 15;
+            for (int i = 0; i < 4; ++i) {
+                min = Math.min(min, table[index(hash, i)]);
+            }
+            return min;
+        }
+
+        void increment(int hash) {
+            for (int i = 0; i < 4; ++i) {
+                int idx = index(hash, i);
+                if (table[idx] < 15) {
+                    ++table[idx];
+                }
+            }
+            if (++additions == sampleSize) {
+                for (int i = 0; i < table.length; ++i) {
+                    table[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+    }
+}
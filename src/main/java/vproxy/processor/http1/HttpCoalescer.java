@@ -0,0 +1,294 @@
+package vproxy.processor.http1;
+
+import vproxy.app.Config;
+import vproxy.processor.http1.builder.HeaderBuilder;
+import vproxy.processor.http1.builder.ResponseBuilder;
+import vproxy.selector.SelectorEventLoop;
+import vproxy.selector.TimerEvent;
+import vproxy.util.ByteArray;
+import vproxy.util.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces identical GET requests of the http/1.x processor in each event loop.
+ * The coalescers used by the registered processor are enabled by -DhttpCoalesceTimeout.<br>
+ * The first request is sent to the backend as usual, and identical requests (decided by {@link Config#httpCoalesceKey})
+ * in the same scope of the contexts (the tcp-lb) received before it's responded wait for its response instead of being sent.
+ * Requests with credentials (`Authorization` or `Cookie`) are not coalesced.
+ * When the response can be shared (200 with `Content-Length`, without `Set-Cookie`, `Vary` or `Cache-Control: private`),
+ * it's written to all waiting clients. Otherwise, or when the waiting takes longer than the timeout,
+ * the waiting requests are sent to backends.<br>
+ * At most `maxWaiters` requests wait for the same request, others are sent to backends directly.
+ * A request only waits when no former requests of the connection are in flight, so that responses are kept in order.<br>
+ * All methods must be called in the event loop.
+ */
+class HttpCoalescer {
+    private static final int MAX_BODY = 1024 * 1024;
+    private static final String[] keyParts;
+    private static volatile Group defaultGroup;
+
+    static {
+        List<String> parts = new ArrayList<>();
+        for (String s : Config.httpCoalesceKey.split(",")) {
+            s = s.trim().toLowerCase();
+            if (!s.isEmpty()) {
+                parts.add(s);
+            }
+        }
+        keyParts = parts.toArray(new String[0]);
+    }
+
+    /**
+     * a request waiting for the response of the in-flight request
+     */
+    static class Waiter {
+        private final Flight flight;
+        private final Runnable resume;
+        // set to true when the waiting ends
+        boolean done;
+        // the response of the in-flight request, null if the request should be sent to backends
+        ByteArray response;
+
+        Waiter(Flight flight, Runnable resume) {
+            this.flight = flight;
+            this.resume = resume;
+        }
+
+        /**
+         * the connection is closed when waiting
+         */
+        void cancel() {
+            if (done) {
+                return;
+            }
+            done = true;
+            flight.waiters.remove(this);
+        }
+    }
+
+    /**
+     * a request sent to the backend, which identical requests are waiting for
+     */
+    class Flight {
+        final String key;
+        private final List<Waiter> waiters = new LinkedList<>();
+        private final TimerEvent timer;
+        private boolean done;
+
+        Flight(String key) {
+            this.key = key;
+            this.timer = loop.delay(timeout, () -> {
+                assert Logger.lowLevelDebug("coalesced requests of " + key + " timed out");
+                complete(null);
+            });
+        }
+
+        /**
+         * the in-flight request is responded, or failed
+         *
+         * @param response the response to write to the waiting clients, null if the requests should be sent to backends
+         */
+        void complete(ByteArray response) {
+            if (done) {
+                return;
+            }
+            done = true;
+            timer.cancel();
+            if (flights.get(key) == this) {
+                flights.remove(key);
+            }
+            assert Logger.lowLevelDebug("in-flight request of " + key + " completed, " + waiters.size() + " waiting, "
+                + (response == null ? "sending to backends" : "responding len=" + response.length()));
+            for (Waiter w : waiters) {
+                w.done = true;
+                w.response = response;
+                w.resume.run();
+            }
+            waiters.clear();
+        }
+    }
+
+    /**
+     * coalescers of each event loop with the same settings
+     */
+    static class Group {
+        private final int timeout;
+        private final int maxWaiters;
+        private final ConcurrentHashMap<SelectorEventLoop, HttpCoalescer> loopCoalescers = new ConcurrentHashMap<>();
+
+        Group(int timeout, int maxWaiters) {
+            this.timeout = timeout;
+            this.maxWaiters = maxWaiters;
+        }
+
+        /**
+         * @return the coalescer of the current event loop, or null if not running in an event loop
+         */
+        HttpCoalescer get() {
+            SelectorEventLoop loop = SelectorEventLoop.current();
+            if (loop == null) {
+                return null;
+            }
+            HttpCoalescer coalescer = loopCoalescers.get(loop);
+            if (coalescer != null) {
+                return coalescer;
+            }
+            // remove coalescers of closed loops when a new loop comes
+            loopCoalescers.keySet().removeIf(SelectorEventLoop::isClosed);
+            return loopCoalescers.computeIfAbsent(loop, l -> new HttpCoalescer(l, timeout, maxWaiters));
+        }
+    }
+
+    private final SelectorEventLoop loop;
+    private final int timeout;
+    private final int maxWaiters;
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    /**
+     * @param loop       the event loop which the coalescer runs in
+     * @param timeout    max time (ms) to wait for the in-flight request
+     * @param maxWaiters max count of requests waiting for the same request
+     */
+    HttpCoalescer(SelectorEventLoop loop, int timeout, int maxWaiters) {
+        this.loop = loop;
+        this.timeout = timeout;
+        this.maxWaiters = maxWaiters;
+    }
+
+    /**
+     * @return the group configured by -DhttpCoalesceTimeout and -DhttpCoalesceWaiters, or null if it's disabled
+     */
+    static Group defaultGroup() {
+        if (Config.httpCoalesceTimeout == 0) {
+            return null;
+        }
+        Group group = defaultGroup;
+        if (group == null) {
+            synchronized (HttpCoalescer.class) {
+                group = defaultGroup;
+                if (group == null) {
+                    group = new Group(Config.httpCoalesceTimeout, Config.httpCoalesceWaiters);
+                    defaultGroup = group;
+                }
+            }
+        }
+        return group;
+    }
+
+    /**
+     * @param scope scope of the context, requests are not coalesced across scopes
+     * @return the key of the request, or null if the request cannot be coalesced
+     */
+    static String key(String scope, String method, String host, String uri, List<HeaderBuilder> headers) {
+        for (HeaderBuilder h : headers) {
+            switch (h.key.toString().trim().toLowerCase()) {
+                // responses of these requests depend on the client
+                case "authorization":
+                case "cookie":
+                case "range":
+                case "if-match":
+                case "if-none-match":
+                case "if-modified-since":
+                case "if-unmodified-since":
+                case "if-range":
+                    // requests with body
+                case "content-length":
+                case "transfer-encoding":
+                    return null;
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        if (scope != null) {
+            sb.append(scope);
+        }
+        sb.append('\n');
+        for (String part : keyParts) {
+            if (part.equals("method")) {
+                sb.append(method);
+            } else if (part.equals("host")) {
+                sb.append(host.toLowerCase());
+            } else if (part.equals("uri")) {
+                sb.append(uri);
+            } else if (part.equals("path")) {
+                int idx = uri.indexOf('?');
+                sb.append(idx == -1 ? uri : uri.substring(0, idx));
+            } else if (part.startsWith("header:")) {
+                String name = part.substring("header:".length());
+                for (HeaderBuilder h : headers) {
+                    if (h.key.toString().trim().equalsIgnoreCase(name)) {
+                        sb.append(h.value.toString().trim());
+                    }
+                }
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the in-flight request of the key, or null if not found
+     */
+    Flight flight(String key) {
+        return flights.get(key);
+    }
+
+    /**
+     * the request is sent to the backend, identical requests will wait for it
+     */
+    Flight lead(String key) {
+        Flight f = new Flight(key);
+        flights.put(key, f);
+        return f;
+    }
+
+    /**
+     * @param resume called when the waiting ends
+     * @return the waiter, or null if too many requests are waiting
+     */
+    Waiter await(Flight f, Runnable resume) {
+        if (f.waiters.size() >= maxWaiters) {
+            return null;
+        }
+        Waiter w = new Waiter(f, resume);
+        f.waiters.add(w);
+        return w;
+    }
+
+    /**
+     * @return true if the response can be written to other clients
+     */
+    static boolean shareable(ResponseBuilder resp) {
+        if (!resp.statusCode.toString().trim().equals("200") || resp.headers == null) {
+            return false;
+        }
+        long contentLength = -1;
+        for (HeaderBuilder h : resp.headers) {
+            switch (h.key.toString().trim().toLowerCase()) {
+                case "content-length":
+                    try {
+                        contentLength = Long.parseLong(h.value.toString().trim());
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                    break;
+                case "cache-control":
+                    String cc = h.value.toString().toLowerCase();
+                    if (cc.contains("private") || cc.contains("no-store")) {
+                        return false;
+                    }
+                    break;
+                case "transfer-encoding":
+                case "set-cookie":
+                case "vary":
+                    return false;
+            }
+        }
+        return contentLength >= 0 && contentLength <= MAX_BODY;
+    }
+}
@@ -6,24 +6,50 @@ import vproxy.util.Logger;
 import vproxy.util.Utils;
 
 import java.net.InetSocketAddress;
+import java.util.LinkedList;
 
 public class HttpContext extends OOContext<HttpSubContext> {
     final String clientAddress;
     final String clientPort;
+    // responses are cached, and requests are coalesced in the scope
+    final String scope;
+    final HttpCache cache; // null if caching is disabled
+    final HttpCoalescer.Group coalescers; // null if coalescing is disabled
 
     int currentBackend = -1;
 
+    // requests forwarded to backends without a final response
+    int inFlight = 0;
+    // cache lookups of the forwarded requests in order, null if the request does not use the cache
+    final LinkedList<HttpCache.Lookup> lookups = new LinkedList<>();
+    // the coalesced in-flight requests led by the forwarded requests in order, null if the request does not lead one
+    final LinkedList<HttpCoalescer.Flight> flights = new LinkedList<>();
+    // the request waiting for an identical in-flight request, and the callback to resume when the waiting ends
+    HttpCoalescer.Waiter waiter;
+    Runnable resume;
+    // responses may come back out of order if requests are sent to different backends,
+    // so the responses cannot be matched with the lookups
+    private int firstBackend = -1;
+    boolean multipleBackends = false;
+
     private boolean hintExists = false;
     private Hint hint;
 
-    public HttpContext(InetSocketAddress clientSock) {
+    public HttpContext(InetSocketAddress clientSock, String scope) {
+        this(clientSock, scope, HttpCache.get(), HttpCoalescer.defaultGroup());
+    }
+
+    HttpContext(InetSocketAddress clientSock, String scope, HttpCache cache, HttpCoalescer.Group coalescers) {
         clientAddress = clientSock == null ? null : Utils.ipStr(clientSock.getAddress().getAddress());
         clientPort = clientSock == null ? null : "" + clientSock.getPort();
+        this.scope = scope;
+        this.cache = cache;
+        this.coalescers = coalescers;
     }
 
     @Override
     public int connection(HttpSubContext front) {
-        if (!front.hostHeaderRetrieved) {
+        if (!front.hostHeaderRetrieved || front.nothingToSend) {
             return 0; // do not send data for now
         }
         if (front.isIdle()) {
@@ -65,6 +91,39 @@ public class HttpContext extends OOContext<HttpSubContext> {
 
     @Override
     public void chosen(HttpSubContext front, HttpSubContext subCtx) {
-        currentBackend = subCtx.connId;
+        // when the frontend is idle, the whole request is already fed and sent to the chosen backend,
+        // so the connection has nothing more to send, otherwise the frontend would be considered
+        // still sending data to the backend when it closes, and the backend could not be reused
+        currentBackend = front.isIdle() ? -1 : subCtx.connId;
+        if (firstBackend == -1) {
+            firstBackend = subCtx.connId;
+        } else if (firstBackend != subCtx.connId) {
+            multipleBackends = true;
+        }
+    }
+
+    @Override
+    public void resumeWith(Runnable resume) {
+        this.resume = resume;
+    }
+
+    @Override
+    public void closed() {
+        if (waiter != null) {
+            waiter.cancel();
+            waiter = null;
+        }
+        // the waiting requests should be sent by themselves
+        for (HttpCoalescer.Flight f : flights) {
+            if (f != null) {
+                f.complete(null);
+            }
+        }
+        flights.clear();
+    }
+
+    @Override
+    public String reuseKey() {
+        return "http/1.x";
     }
 }
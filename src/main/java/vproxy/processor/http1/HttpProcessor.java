@@ -5,6 +5,31 @@ import vproxy.processor.OOProcessor;
 import java.net.InetSocketAddress;
 
 public class HttpProcessor extends OOProcessor<HttpContext, HttpSubContext> {
+    private final HttpCache cache;
+    private final HttpCoalescer.Group coalescers;
+
+    public HttpProcessor() {
+        this(HttpCache.get());
+    }
+
+    /**
+     * @param cache the response cache used by contexts of this processor, null to disable caching
+     */
+    public HttpProcessor(HttpCache cache) {
+        this.cache = cache;
+        this.coalescers = HttpCoalescer.defaultGroup();
+    }
+
+    /**
+     * @param cache           the response cache used by contexts of this processor, null to disable caching
+     * @param coalesceTimeout max time (ms) for identical requests to wait for the in-flight one, 0 to disable coalescing
+     * @param coalesceWaiters max count of requests waiting for the same in-flight request
+     */
+    public HttpProcessor(HttpCache cache, int coalesceTimeout, int coalesceWaiters) {
+        this.cache = cache;
+        this.coalescers = coalesceTimeout == 0 ? null : new HttpCoalescer.Group(coalesceTimeout, coalesceWaiters);
+    }
+
     @Override
     public String name() {
         return "http/1.x";
@@ -17,7 +42,12 @@ public class HttpProcessor extends OOProcessor<HttpContext, HttpSubContext> {
 
     @Override
     public HttpContext init(InetSocketAddress clientAddress) {
-        return new HttpContext(clientAddress);
+        return new HttpContext(clientAddress, null, cache, coalescers);
+    }
+
+    @Override
+    public HttpContext init(InetSocketAddress clientAddress, String scope) {
+        return new HttpContext(clientAddress, scope, cache, coalescers);
     }
 
     @Override
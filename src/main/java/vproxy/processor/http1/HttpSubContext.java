@@ -58,12 +58,12 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         HttpSubContext.this::state7,
         HttpSubContext.this::state8,
         HttpSubContext.this::state9,
-        HttpSubContext.this::state10,
+        b -> HttpSubContext.this.state10(ByteArray.from((byte) b)),
         HttpSubContext.this::state11,
         HttpSubContext.this::state12,
         HttpSubContext.this::state13,
         HttpSubContext.this::state14,
-        HttpSubContext.this::state15,
+        b -> HttpSubContext.this.state15(ByteArray.from((byte) b)),
         HttpSubContext.this::state16,
         HttpSubContext.this::state17,
         HttpSubContext.this::state18,
@@ -76,7 +76,7 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
     };
 
     interface Handler {
-        void handle(ByteArray b) throws Exception;
+        void handle(int b) throws Exception;
     }
 
     private byte[] buf;
@@ -105,6 +105,33 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
     boolean hostHeaderRetrieved;
     boolean parserMode;
 
+    // set to true when the last feed() returns nothing to send
+    boolean nothingToSend;
+
+    // the bytes of the current message are held until it's known where they go, when using the cache:
+    // requests are held until the cache is looked up, and responses are held when revalidating
+    private boolean holding;
+    // drop the held bytes of the current message, and send these bytes instead
+    private ByteArray dropWith;
+    // the cache lookup of the current message
+    private HttpCache.Lookup lookup;
+    // bytes to write back to the frontend, i.e. responses from the cache or of coalesced requests
+    private ByteArray produced;
+    // bytes received when the request is waiting for an identical in-flight request,
+    // they are fed after the waiting ends
+    private ByteArray pending;
+
+    // the following fields are only used by backend sub contexts
+    // freshness lifetime of the response to store into the cache, -1 if not storing
+    private long storeLifetime = -1;
+    private boolean revalidated;
+    // the coalesced request led by the request of the response, and whether the response will be shared
+    private HttpCoalescer.Flight flight;
+    private boolean share;
+    // whether the connection can be used for more requests,
+    // when it is set to false, it will not be set to true again
+    private boolean keepAlive = true;
+
     public HttpSubContext(HttpContext httpContext, int connId) {
         super(httpContext, connId);
         frontend = connId == 0;
@@ -136,6 +163,11 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         return state == 10 || state == 11;
     }
 
+    @Override
+    public boolean reusable() {
+        return !frontend && state == 0 && ctx.inFlight == 0 && keepAlive;
+    }
+
     @Override
     public Processor.Mode mode() {
         switch (state) {
@@ -164,6 +196,8 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
             case 24:
                 return Processor.Mode.handle;
             case 10:
+                // the body is fed when storing into the cache or sharing with coalesced requests
+                return storeLifetime >= 0 || share ? Processor.Mode.handle : Processor.Mode.proxy;
             case 15:
                 return Processor.Mode.proxy;
         }
@@ -186,8 +220,35 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
 
     @Override
     public ByteArray feed(ByteArray data) throws Exception {
+        ByteArray released = null; // bytes of the messages which are not held
+        if (ctx.waiter != null && state == 0) {
+            if (!ctx.waiter.done) {
+                pending = join(pending, data);
+                nothingToSend = true;
+                return null;
+            }
+            released = endWaiting();
+            data = join(pending, data);
+            pending = null;
+            if (data == null) {
+                data = ByteArray.from(new byte[0]);
+            }
+        }
+        int cut = 0; // bytes before the index are already handled
         int consumedBytes = 0;
         while (consumedBytes < data.length()) {
+            if (state == 0 && shouldHold()) {
+                // a new message starts, release the bytes before it
+                released = join(released, join(storedBytes, data.sub(cut, consumedBytes - cut)));
+                storedBytes = null;
+                cut = consumedBytes;
+                holding = true;
+            }
+            int n = feedBulk(data, consumedBytes);
+            if (n > 0) {
+                consumedBytes += n;
+                continue;
+            }
             feed(data.get(consumedBytes++));
 
             if (passParam_TryFillAdditionalHeaders) {
@@ -224,57 +285,256 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
                         appendData = appendData.concat(b);
                     }
                 }
+                if (holding) {
+                    lookup();
+                    if (lookup != null && lookup.etag != null) {
+                        ByteArray b = ByteArray.from(("" +
+                            "if-none-match: " + lookup.etag + "\r\n" +
+                            "").getBytes());
+                        assert Logger.lowLevelDebug("revalidate with if-none-match: " + lookup.etag);
+                        appendData = appendData == null ? b : appendData.concat(b);
+                    }
+                }
                 if (appendData != null) {
                     // insert the appendData into data
-                    data = data.sub(0, consumedBytes - 1)
-                        .concat(appendData)
-                        .concat(data.sub(consumedBytes - 1, data.length() - (consumedBytes - 1)));
+                    data = ByteArray.rope(data.sub(0, consumedBytes - 1),
+                        appendData,
+                        data.sub(consumedBytes - 1, data.length() - (consumedBytes - 1)));
                     consumedBytes += appendData.length();
                 }
                 passParam_TryFillAdditionalHeaders = false;
             }
-            if (proxyLen > 0) {
-                // need to do proxy
-                int originalCursor = consumedBytes;
-                consumedBytes += proxyLen;
-                if (consumedBytes > data.length()) {
-                    // input data has fewer bytes than required
-                    // so still need to do proxy later
-                    consumedBytes = data.length();
+            if (dropWith != null) {
+                // the held message is answered from the cache
+                storedBytes = null;
+                cut = consumedBytes;
+                if (frontend) {
+                    produced = join(produced, dropWith);
+                } else {
+                    released = join(released, dropWith);
                 }
-                for (int i = originalCursor; i < consumedBytes; ++i) {
-                    feed(data.get(i));
+                dropWith = null;
+            }
+            if (ctx.waiter != null && state == 0) {
+                // the request is waiting for an identical in-flight request
+                storedBytes = join(storedBytes, data.sub(cut, consumedBytes - cut));
+                cut = consumedBytes;
+                if (!ctx.waiter.done) {
+                    pending = data.sub(consumedBytes, data.length() - consumedBytes);
+                    cut = data.length();
+                    break;
                 }
+                released = join(released, endWaiting());
             }
+            // if proxyLen > 0, the body bytes will be fed by feedBulk() in the next round
         }
-        if (hostHeaderRetrieved) {
-            if (storedBytes == null) {
-                return data;
-            } else {
-                ByteArray arr = storedBytes;
-                storedBytes = null;
-                return arr.concat(data);
-            }
+        ByteArray rest = cut == 0 ? data : data.sub(cut, data.length() - cut);
+        if (hostHeaderRetrieved && !holding && ctx.waiter == null) {
+            released = join(released, join(storedBytes, rest));
+            storedBytes = null;
         } else {
-            if (storedBytes == null) {
-                storedBytes = data;
-            } else {
-                storedBytes = storedBytes.concat(data);
+            storedBytes = join(storedBytes, rest);
+        }
+        nothingToSend = released == null;
+        return released;
+    }
+
+    private static ByteArray join(ByteArray a, ByteArray b) {
+        if (a == null || a.length() == 0) {
+            return b == null || b.length() == 0 ? null : b;
+        }
+        if (b == null || b.length() == 0) {
+            return a;
+        }
+        return ByteArray.rope(a).concat(b);
+    }
+
+    private boolean shouldHold() {
+        if (parserMode) {
+            return false;
+        }
+        if (frontend) {
+            return ctx.cache != null || ctx.coalescers != null;
+        }
+        // the 304 response of the revalidation will be replaced
+        HttpCache.Lookup l = ctx.lookups.peek();
+        return l != null && l.etag != null && !ctx.multipleBackends;
+    }
+
+    // called when all request headers are received and the request is held
+    private void lookup() {
+        holding = false;
+        if (theHostHeader == null || headers == null) {
+            return;
+        }
+        String uri = req.uri.toString().trim();
+        HttpCache cache = ctx.cache;
+        if (cache != null) {
+            lookup = cache.request(ctx.scope, theHostHeader, uri, headers, ctx.inFlight == 0);
+            if (lookup != null && lookup.response != null) {
+                return; // served from the cache
             }
+        }
+        HttpCoalescer coalescer = ctx.coalescers == null ? null : ctx.coalescers.get();
+        if (coalescer == null) {
+            return;
+        }
+        String key = HttpCoalescer.key(ctx.scope, req.method.toString(), theHostHeader, uri, headers);
+        if (key == null) {
+            return;
+        }
+        HttpCoalescer.Flight f = coalescer.flight(key);
+        if (f == null) {
+            flight = coalescer.lead(key);
+        } else if (ctx.inFlight == 0 && ctx.resume != null) {
+            // the response is written when the waiting ends, so former responses must be already received
+            ctx.waiter = coalescer.await(f, ctx.resume);
+        }
+    }
+
+    // the waiting ends, the request is either responded or forwarded
+    // returns the request bytes to forward
+    private ByteArray endWaiting() {
+        HttpCoalescer.Waiter w = ctx.waiter;
+        ctx.waiter = null;
+        ByteArray held = storedBytes;
+        storedBytes = null;
+        if (w.response != null) {
+            produced = join(produced, w.response);
             return null;
         }
+        ++ctx.inFlight;
+        ctx.lookups.add(lookup);
+        ctx.flights.add(null);
+        return held;
+    }
+
+    /**
+     * Feed a run of bytes which do not cause state transferring in one call.
+     * Texts are scanned until the delimiters of the current state,
+     * and body bytes are cut with the expected length.
+     *
+     * @return bytes consumed, 0 means the byte at `off` should be handled by feed(byte)
+     */
+    private int feedBulk(ByteArray data, int off) {
+        int n;
+        switch (state) {
+            case 10:
+            case 15:
+                if (proxyLen <= 0) {
+                    return 0;
+                }
+                n = Math.min(proxyLen, data.length() - off);
+                ByteArray body = data.sub(off, n);
+                if (state == 10) {
+                    state10(parserMode ? body : body.copy()); // parser mode copies the bytes by itself
+                } else {
+                    state15(body.copy());
+                }
+                return n;
+            case 1:
+                n = scan(data, off, ' ', ' ', ' ');
+                append(req.method, data, off, n, false);
+                return n;
+            case 2:
+                n = scan(data, off, ' ', '\r', '\n');
+                append(req.uri, data, off, n, false);
+                return n;
+            case 3:
+                n = scan(data, off, '\r', '\n', '\n');
+                if (n > 0) {
+                    if (req.version == null) {
+                        req.version = new StringBuilder();
+                    }
+                    append(req.version, data, off, n, false);
+                }
+                return n;
+            case 5:
+                if (header == null) {
+                    header = new HeaderBuilder();
+                }
+                n = scan(data, off, ':', ':', ':');
+                append(header.key, data, off, n, false);
+                return n;
+            case 7:
+                n = scan(data, off, '\r', '\n', '\n');
+                append(header.value, data, off, n, true);
+                return n;
+            case 11:
+                if (chunk == null) {
+                    chunk = new ChunkBuilder();
+                }
+                n = scan(data, off, ';', '\r', '\n');
+                append(chunk.size, data, off, n, false);
+                return n;
+            case 13:
+                n = scan(data, off, '\r', '\n', '\n');
+                append(chunk.extension, data, off, n, false);
+                return n;
+            case 17:
+                if (trailer == null) {
+                    trailer = new HeaderBuilder();
+                }
+                n = scan(data, off, ':', ':', ':');
+                append(trailer.key, data, off, n, false);
+                return n;
+            case 19:
+                n = scan(data, off, '\r', '\n', '\n');
+                append(trailer.value, data, off, n, true);
+                return n;
+            case 22:
+                n = scan(data, off, ' ', ' ', ' ');
+                append(resp.version, data, off, n, false);
+                return n;
+            case 23:
+                n = scan(data, off, ' ', ' ', ' ');
+                append(resp.statusCode, data, off, n, false);
+                return n;
+            case 24:
+                n = scan(data, off, '\r', '\n', '\n');
+                append(resp.reason, data, off, n, false);
+                return n;
+            default:
+                return 0;
+        }
+    }
+
+    // count the bytes before any of the delimiters
+    private static int scan(ByteArray data, int off, char d0, char d1, char d2) {
+        int len = data.length();
+        int i = off;
+        for (; i < len; ++i) {
+            int b = data.uint8(i);
+            if (b == d0 || b == d1 || b == d2) {
+                break;
+            }
+        }
+        return i - off;
+    }
+
+    private static void append(StringBuilder sb, ByteArray data, int off, int n, boolean ignoreLeadingSpaces) {
+        for (int i = off; i < off + n; ++i) {
+            char c = (char) data.uint8(i);
+            if (ignoreLeadingSpaces && c == ' ' && sb.length() == 0) {
+                continue;
+            }
+            sb.append(c);
+        }
     }
 
     public void feed(byte b) throws Exception {
         if (state < 0 || state >= handlers.length) {
             throw new IllegalStateException("BUG: unexpected state " + state);
         }
-        handlers[state].handle(ByteArray.from(b));
+        handlers[state].handle(b & 0xff);
     }
 
     @Override
     public ByteArray produce() {
-        return null; // never produce data
+        // responses from the cache
+        ByteArray ret = produced;
+        produced = null;
+        return ret;
     }
 
     @Override
@@ -296,31 +556,139 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
 
     private void end() {
         state = 0;
+        if (parserMode) {
+            return;
+        }
+        if (frontend) {
+            if (lookup != null && lookup.response != null) {
+                dropWith = lookup.response;
+            }
+        } else if (resp != null) {
+            responseEnd();
+        }
     }
 
-    private void state0(ByteArray data) {
+    // called when all headers are received
+    private void headersEnd() {
+        if (parserMode) {
+            return;
+        }
+        if (frontend) {
+            holding = false; // the request may end without CRLF, in which case it's not looked up
+            if (ctx.waiter != null) {
+                return; // counted when the waiting ends
+            }
+            if (lookup == null || lookup.response == null) {
+                // the request is forwarded
+                ++ctx.inFlight;
+                ctx.lookups.add(lookup);
+                ctx.flights.add(flight);
+            }
+            return;
+        }
+        String status = resp.statusCode.toString().trim();
+        if (status.startsWith("1") && !status.equals("101")) {
+            holding = false;
+            return; // interim response
+        }
+        lookup = ctx.multipleBackends ? null : ctx.lookups.peek();
+        flight = ctx.multipleBackends ? null : ctx.flights.peek();
+        if (holding) {
+            holding = false;
+            revalidated = status.equals("304");
+        } else {
+            if (lookup != null) {
+                storeLifetime = ctx.cache.storable(resp);
+            }
+            if (flight != null) {
+                share = HttpCoalescer.shareable(resp);
+            }
+        }
+    }
+
+    private void responseEnd() {
+        String status = resp.statusCode.toString().trim();
+        if (status.startsWith("1") && !status.equals("101")) {
+            return; // interim response, the final response will follow
+        }
+        HttpCoalescer.Flight f = null;
+        if (ctx.inFlight > 0) {
+            --ctx.inFlight;
+            ctx.lookups.poll();
+            f = ctx.flights.poll();
+        }
+        if (revalidated) {
+            dropWith = ctx.cache.revalidated(lookup, resp);
+        } else if (storeLifetime >= 0) {
+            ctx.cache.store(lookup, resp, storeLifetime);
+        } else if (lookup != null && status.equals("200")) {
+            ctx.cache.remove(lookup.key); // the stored response is replaced by a response which cannot be stored
+        }
+        if (f != null) {
+            ByteArray shared = null;
+            if (f == flight) {
+                if (revalidated) {
+                    shared = dropWith;
+                } else if (share) {
+                    shared = HttpCache.serialize(resp);
+                }
+            }
+            f.complete(shared);
+        }
+        if (!keepAlive) {
+            return;
+        }
+        // the response must be delimited by the headers, otherwise the server may close the connection to end it
+        boolean delimited = status.equals("204") || status.equals("304");
+        boolean close = status.equals("101") || resp.version.toString().trim().equals("HTTP/1.0"); // http/1.0 closes by default
+        if (headers != null) {
+            for (var h : headers) {
+                String hdr = h.key.toString().trim().toLowerCase();
+                if (hdr.equals("content-length") || hdr.equals("transfer-encoding")) {
+                    delimited = true;
+                } else if (hdr.equals("connection")) {
+                    String v = h.value.toString().trim().toLowerCase();
+                    if (v.contains("close")) {
+                        close = true;
+                    } else if (v.contains("keep-alive")) {
+                        close = false;
+                    }
+                }
+            }
+        }
+        keepAlive = delimited && !close;
+    }
+
+    private void state0(int b) {
+        headers = null; // headers of the last message
+        lookup = null;
+        storeLifetime = -1;
+        revalidated = false;
+        flight = null;
+        share = false;
         if (frontend) {
             req = new RequestBuilder();
             state = 1;
-            state1(data);
+            state1(b);
         } else {
             resp = new ResponseBuilder();
             state = 22;
-            state22(data);
+            state22(b);
         }
     }
 
-    private void state1(ByteArray data) {
-        int b = data.uint8(0);
+    private void state1(int b) {
         if (b == ' ') {
             state = 2;
+            if (holding && !req.method.toString().equals("GET")) {
+                holding = false; // only GET requests use the cache
+            }
         } else {
             req.method.append((char) b);
         }
     }
 
-    private void state2(ByteArray data) {
-        int b = data.uint8(0);
+    private void state2(int b) {
         if (b == ' ') {
             state = 3;
         } else if (b == '\r') {
@@ -332,8 +700,7 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         }
     }
 
-    private void state3(ByteArray data) {
-        int b = data.uint8(0);
+    private void state3(int b) {
         if (b == '\r') {
             // do nothing
         } else if (b == '\n') {
@@ -346,35 +713,32 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         }
     }
 
-    private void state4(ByteArray data) throws Exception {
-        int b = data.uint8(0);
+    private void state4(int b) throws Exception {
         if (b == '\r') {
             // do nothing
         } else if (b == '\n') {
             state = 9;
-            state9(null);
+            state9(-1);
         } else {
             state = 5;
-            state5(data);
+            state5(b);
         }
     }
 
-    private void state5(ByteArray data) throws Exception {
+    private void state5(int b) throws Exception {
         if (header == null) {
             header = new HeaderBuilder();
         }
 
-        int b = data.uint8(0);
         if (b == ':') {
             state = 6;
-            state6(data);
+            state6(b);
         } else {
             header.key.append((char) b);
         }
     }
 
-    private void state6(ByteArray data) throws Exception {
-        int b = data.uint8(0);
+    private void state6(int b) throws Exception {
         if (b == ':') {
             state = 7;
         } else {
@@ -382,8 +746,7 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         }
     }
 
-    private void state7(ByteArray data) {
-        int b = data.uint8(0);
+    private void state7(int b) {
         if (b == '\r') {
             // ignore
         } else if (b == '\n') {
@@ -395,7 +758,7 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         }
     }
 
-    private void state8(ByteArray data) throws Exception {
+    private void state8(int b) throws Exception {
         if (headers == null) {
             headers = new LinkedList<>();
             if (frontend) {
@@ -415,28 +778,35 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
             header = null;
         }
 
-        int b = data.uint8(0);
         if (b == '\r') {
             // ignore
             passParam_TryFillAdditionalHeaders = frontend; // only add header if it's from frontend
         } else if (b == '\n') {
             state = 9;
-            state9(null);
+            state9(-1);
         } else {
             state = 5;
-            state5(data);
+            state5(b);
         }
     }
 
     // this method should be called before entering state 9
     // it's for state transferring
-    private void state9(@SuppressWarnings("unused") ByteArray data) {
+    private void state9(@SuppressWarnings("unused") int b) {
         // ignore the data
         hostHeaderRetrieved = true;
+        headersEnd();
         if (headers == null) {
             end();
             return;
         }
+        if (!frontend) {
+            String status = resp.statusCode.toString().trim();
+            if (status.equals("204") || status.equals("304")) {
+                end(); // never has a body, even if Content-Length is present
+                return;
+            }
+        }
         for (var h : headers) {
             String hdr = h.key.toString().trim().toLowerCase();
             if (hdr.equals("content-length")) {
@@ -474,14 +844,13 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
                     bufOffset = 0;
                     req.body = ByteArray.from(buf);
                 }
-                for (int i = 0; i < data.length(); ++i) {
-                    buf[bufOffset++] = data.get(i);
-                }
+                data.toNewJavaArray(buf, bufOffset);
+                bufOffset += data.length();
             } else {
                 if (req.body == null) {
                     req.body = data;
                 } else {
-                    req.body = req.body.concat(data);
+                    req.body = ByteArray.rope(req.body).concat(data);
                 }
             }
         } else {
@@ -491,14 +860,13 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
                     bufOffset = 0;
                     resp.body = ByteArray.from(buf);
                 }
-                for (int i = 0; i < data.length(); ++i) {
-                    buf[bufOffset++] = data.get(i);
-                }
+                data.toNewJavaArray(buf, bufOffset);
+                bufOffset += data.length();
             } else {
                 if (resp.body == null) {
                     resp.body = data;
                 } else {
-                    resp.body = resp.body.concat(data);
+                    resp.body = ByteArray.rope(resp.body).concat(data);
                 }
             }
         }
@@ -510,30 +878,28 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         }
     }
 
-    private void state11(ByteArray data) throws Exception {
+    private void state11(int b) throws Exception {
         if (chunk == null) {
             chunk = new ChunkBuilder();
         }
-        int b = data.uint8(0);
         if (b == ';') {
             state = 12;
         } else if (b == '\r') {
             // ignore
         } else if (b == '\n') {
             state = 14;
-            state14(null);
+            state14(-1);
         } else {
             chunk.size.append((char) b);
         }
     }
 
-    private void state12(ByteArray data) throws Exception {
-        int b = data.uint8(0);
+    private void state12(int b) throws Exception {
         if (b == '\r') {
             // ignore
         } else if (b == '\n') {
             state = 14;
-            state14(null);
+            state14(-1);
         } else {
             state = 13;
             if (chunk.extension == null) {
@@ -543,13 +909,12 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         }
     }
 
-    private void state13(ByteArray data) throws Exception {
-        int b = data.uint8(0);
+    private void state13(int b) throws Exception {
         if (b == '\r') {
             // ignore
         } else if (b == '\n') {
             state = 14;
-            state14(null);
+            state14(-1);
         } else {
             chunk.extension.append((char) b);
         }
@@ -557,13 +922,13 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
 
     // this method may be called before entering state 9
     // it's for state transferring
-    private void state14(ByteArray data) throws Exception {
+    private void state14(int b) throws Exception {
         int size = chunk == null ? 0 : Integer.parseInt(chunk.size.toString().trim(), 16);
         if (size != 0) {
             state = 15;
             proxyLen = size;
         } else {
-            if (data == null) { // called from other states
+            if (b == -1) { // called from other states
                 // end chunk
                 if (chunks == null) {
                     chunks = new LinkedList<>();
@@ -577,15 +942,14 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
                 }
                 chunks = null;
             } else {
-                int b = data.uint8(0);
                 if (b == '\r') {
                     // ignore
                 } else if (b == '\n') {
                     state = 21;
-                    state21(null);
+                    state21(-1);
                 } else {
                     state = 17;
-                    state17(data);
+                    state17(b);
                 }
             }
         }
@@ -597,7 +961,7 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         if (chunk.content == null) {
             chunk.content = data;
         } else {
-            chunk.content = chunk.content.concat(data);
+            chunk.content = ByteArray.rope(chunk.content).concat(data);
         }
         if (proxyLen == 0) {
             // this method will not be called if using the Proxy lib
@@ -607,7 +971,7 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         }
     }
 
-    private void state16(ByteArray data) throws Exception {
+    private void state16(int b) throws Exception {
         if (chunks == null) {
             chunks = new LinkedList<>();
         }
@@ -616,7 +980,6 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
             chunk = null;
         }
 
-        int b = data.uint8(0);
         if (b == '\r') {
             // ignore
         } else if (b == '\n') {
@@ -626,22 +989,20 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         }
     }
 
-    private void state17(ByteArray data) throws Exception {
+    private void state17(int b) throws Exception {
         if (trailer == null) {
             trailer = new HeaderBuilder();
         }
 
-        int b = data.uint8(0);
         if (b == ':') {
             state = 18;
-            state18(data);
+            state18(b);
         } else {
             trailer.key.append((char) b);
         }
     }
 
-    private void state18(ByteArray data) throws Exception {
-        int b = data.uint8(0);
+    private void state18(int b) throws Exception {
         if (b == ':') {
             state = 19;
         } else {
@@ -649,8 +1010,7 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         }
     }
 
-    private void state19(ByteArray data) {
-        int b = data.uint8(0);
+    private void state19(int b) {
         if (b == '\r') {
             // ignore
         } else if (b == '\n') {
@@ -662,7 +1022,7 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         }
     }
 
-    private void state20(ByteArray data) throws Exception {
+    private void state20(int b) throws Exception {
         if (trailers == null) {
             trailers = new LinkedList<>();
         }
@@ -672,7 +1032,6 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
             trailer = null;
         }
 
-        int b = data.uint8(0);
         if (b == '\r') {
             // ignore
         } else if (b == '\n') {
@@ -683,21 +1042,20 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
                 resp.trailers = trailers;
             }
             trailers = null;
-            state21(null);
+            state21(-1);
         } else {
             state = 17;
-            state17(data);
+            state17(b);
         }
     }
 
     // this method should be called before entering state 9
     // it's for state transferring
-    private void state21(@SuppressWarnings("unused") ByteArray data) {
+    private void state21(@SuppressWarnings("unused") int b) {
         end();
     }
 
-    private void state22(ByteArray data) {
-        int b = data.uint8(0);
+    private void state22(int b) {
         if (b == ' ') {
             state = 23;
         } else {
@@ -705,8 +1063,7 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         }
     }
 
-    private void state23(ByteArray data) {
-        int b = data.uint8(0);
+    private void state23(int b) {
         if (b == ' ') {
             state = 24;
         } else {
@@ -714,8 +1071,7 @@ public class HttpSubContext extends OOSubContext<HttpContext> {
         }
     }
 
-    private void state24(ByteArray data) {
-        int b = data.uint8(0);
+    private void state24(int b) {
         if (b == '\r') {
             // ignore
         } else if (b == '\n') {
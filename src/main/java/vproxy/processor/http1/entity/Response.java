@@ -25,18 +25,17 @@ public class Response {
             }
         }
         textPart.append("\r\n");
-        ByteArray ret = ByteArray.from(textPart.toString().getBytes());
+        ByteArray ret = ByteArray.rope(ByteArray.from(textPart.toString().getBytes()));
         if (body != null) {
             ret = ret.concat(body);
         }
         if (chunks != null) {
             for (Chunk ch : chunks) {
-                ByteArray chBytes = ByteArray.from((Integer.toHexString(ch.size) + ";" + ch.extension + "\r\n").getBytes());
+                ret = ret.concat(ByteArray.from((Integer.toHexString(ch.size) + ";" + ch.extension + "\r\n").getBytes()));
                 if (ch.size != 0) {
-                    chBytes = chBytes.concat(ch.content);
-                    chBytes = chBytes.concat(ByteArray.from("\r\n".getBytes()));
+                    ret = ret.concat(ch.content);
+                    ret = ret.concat(ByteArray.from("\r\n".getBytes()));
                 }
-                ret = ret.concat(chBytes);
             }
         }
         if (trailers != null) {
@@ -0,0 +1,106 @@
+package vproxy.processor.http2;
+
+import vproxy.util.BoundedNameRegistry;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of grpc calls proxied by the {@link Http2Processor},
+ * shared by all h2 connections.<br>
+ * A stream is considered a grpc call when the request headers contain
+ * `content-type: application/grpc*`, and the call is recorded with its `:path`, i.e. /{service}/{method}.<br>
+ * The call finishes when the stream ends from the backend, the status is retrieved from `grpc-status` in the trailers,
+ * the call is recorded as {@link #NO_STATUS} if the stream is reset or the connection is closed before the trailers.<br>
+ * At most {@link #MAX_METHODS} methods are recorded,
+ * others are recorded as {@link #OTHER}.
+ */
+public class GrpcStats {
+    public static final String OTHER = "OTHER";
+    public static final int NO_STATUS = -1;
+    public static final int MAX_STATUS = 16; // UNAUTHENTICATED
+    private static final int MAX_METHODS = 1024;
+    private static final BoundedNameRegistry<GrpcStats> stats = new BoundedNameRegistry<>(MAX_METHODS, OTHER, GrpcStats::new);
+
+    public final String method;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder[] statuses = new LongAdder[MAX_STATUS + 2]; // [0] is NO_STATUS, [1] is OK(0) ...
+
+    private GrpcStats(String method) {
+        this.method = method;
+        for (int i = 0; i < statuses.length; ++i) {
+            statuses[i] = new LongAdder();
+        }
+    }
+
+    static GrpcStats of(String method) {
+        return stats.get(method);
+    }
+
+    void start() {
+        calls.increment();
+        inFlight.increment();
+    }
+
+    void finish(int status, long nanos) {
+        inFlight.decrement();
+        totalNanos.add(nanos);
+        if (status < 0 || status > MAX_STATUS) {
+            status = NO_STATUS;
+        }
+        statuses[status + 1].increment();
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * @param status the grpc-status code, or {@link #NO_STATUS}
+     * @return count of finished calls with the status
+     */
+    public long getFinished(int status) {
+        if (status < 0 || status > MAX_STATUS) {
+            status = NO_STATUS;
+        }
+        return statuses[status + 1].sum();
+    }
+
+    /**
+     * @return stats of all recorded methods
+     */
+    public static List<GrpcStats> getAll() {
+        return stats.values();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < statuses.length; ++i) {
+            long n = statuses[i].sum();
+            if (n == 0) {
+                continue;
+            }
+            if (sb.length() != 0) {
+                sb.append(",");
+            }
+            sb.append(i - 1).append(":").append(n);
+        }
+        return "GrpcStats{" +
+            "method=" + method +
+            ", calls=" + getCalls() +
+            ", inFlight=" + getInFlight() +
+            ", statuses={" + sb + "}" +
+            '}';
+    }
+}
@@ -7,33 +7,216 @@ import vproxy.util.io.ArrayInputStream;
 import vproxy.util.io.ArrayOutputStream;
 
 import java.io.IOException;
-import java.util.function.Consumer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
 
+/**
+ * Decodes header blocks from the frontend.<br>
+ * By default, each fragment is re-encoded immediately without the dynamic table.
+ * When deferred (the backend header table size of the processor is set), the decoded headers of the whole block are collected into a {@link Block},
+ * which is encoded by the encoder of the backend connection that the stream is dispatched to.
+ */
 class HPackTransformer {
     private final int BUFFER_SIZE = 65536; // make the buffer big enough for almost all cases
+    private static final int STATIC_TABLE_LENGTH = 61; // rfc7541 appendix A
+
+    static class Field {
+        final byte[] name;
+        final byte[] value;
+        final boolean sensitive;
+
+        Field(byte[] name, byte[] value, boolean sensitive) {
+            this.name = name;
+            this.value = value;
+            this.sensitive = sensitive;
+        }
+    }
+
+    // a header block decoded from the frontend
+    static class Block {
+        final List<Field> fields;
+        // the header block fragments received from the frontend
+        final ByteArray raw;
+        // count of the headers added by vproxy, which are the last ones of the fields
+        final int added;
+
+        Block(List<Field> fields, ByteArray raw, int added) {
+            this.fields = fields;
+            this.raw = raw;
+            this.added = added;
+        }
+    }
 
     private final Decoder decoder;
     private final SyncOutputListener lsn;
+    private final boolean deferred;
     private final ArrayOutputStream outBuffer = ArrayOutputStream.to(ByteArray.from(new byte[BUFFER_SIZE]));
+    // encodes the added headers of the blocks sent as is, without the dynamic table
+    private final Encoder literalEncoder = new Encoder(0);
+    private List<Field> fields;
+    private ByteArray raw;
 
     HPackTransformer(int maxHeaderTableSize,
                      Header[] additionalHeaders,
-                     Consumer<String> hostHeaderListener) {
+                     BiConsumer<String, String> headerListener,
+                     boolean deferred) {
         this.decoder = new Decoder(BUFFER_SIZE, maxHeaderTableSize);
-        Encoder encoder = new Encoder(0);
-        this.lsn = new SyncOutputListener(encoder, outBuffer, additionalHeaders, hostHeaderListener);
+        this.deferred = deferred;
+        if (deferred) {
+            this.fields = new ArrayList<>();
+            this.lsn = new SyncOutputListener((name, value, sensitive) -> fields.add(new Field(name, value, sensitive)),
+                additionalHeaders, headerListener);
+        } else {
+            Encoder encoder = new Encoder(0);
+            this.lsn = new SyncOutputListener(encoder, outBuffer, additionalHeaders, headerListener);
+        }
+    }
+
+    boolean isDeferred() {
+        return deferred;
     }
 
+    /**
+     * @return the re-encoded fragment, or null if the block is deferred
+     */
     ByteArray transform(ByteArray array, boolean addHeaders) throws IOException {
+        HeaderStats.received(array.length());
+        if (deferred) {
+            // the fragment may be a part of the input buffer, so copy it
+            ByteArray copy = ByteArray.from(array.toJavaArray());
+            raw = raw == null ? copy : raw.concat(copy);
+        }
         decoder.decode(ArrayInputStream.from(array), lsn);
         if (addHeaders) {
             lsn.addHeaders();
         }
-        return outBuffer.get();
+        if (deferred) {
+            return null;
+        }
+        ByteArray out = outBuffer.get();
+        HeaderStats.sent(out.length());
+        return out;
     }
 
-    public void endHeaders() {
+    /**
+     * @return the decoded block if it's deferred, otherwise null
+     */
+    public Block endHeaders() {
+        HeaderStats.decoded(lsn.getDecodedBytes());
+        Block block = null;
+        if (deferred) {
+            block = new Block(fields, raw, lsn.getAddedCount());
+            fields = new ArrayList<>();
+            raw = null;
+        }
         lsn.endHeaders();
         decoder.endHeaderBlock();
+        return block;
+    }
+
+    /**
+     * encode the deferred block for a backend connection.<br>
+     * The block is sent as is when it does not use the dynamic table,
+     * and the headers added by vproxy are appended as literals without indexing
+     *
+     * @param block              the decoded block
+     * @param encoder            encoder of the backend connection
+     * @param maxHeaderTableSize the table size to use, a dynamic table size update is sent if it's changed
+     * @return the encoded block
+     */
+    ByteArray encode(Block block, Encoder encoder, int maxHeaderTableSize) throws IOException {
+        encoder.setMaxHeaderTableSize(outBuffer, maxHeaderTableSize);
+        ByteArray out;
+        if (stateless(block.raw)) {
+            HeaderStats.passthrough();
+            ByteArray update = outBuffer.get();
+            out = update.length() == 0 ? block.raw : update.concat(block.raw);
+            if (block.added > 0) {
+                for (int i = block.fields.size() - block.added; i < block.fields.size(); ++i) {
+                    Field f = block.fields.get(i);
+                    literalEncoder.encodeHeader(outBuffer, f.name, f.value, f.sensitive);
+                }
+                out = out.concat(outBuffer.get());
+            }
+        } else {
+            for (Field f : block.fields) {
+                encoder.encodeHeader(outBuffer, f.name, f.value, f.sensitive);
+            }
+            out = outBuffer.get();
+        }
+        HeaderStats.sent(out.length());
+        return out;
+    }
+
+    /**
+     * check whether the block can be decoded without the dynamic table,
+     * in which case it can be sent to any connection without re-encoding
+     *
+     * @param block the header block
+     * @return true if the block only refers to the static table and does not add entries into the dynamic table
+     */
+    static boolean stateless(ByteArray block) {
+        int[] off = {0};
+        int len = block.length();
+        while (off[0] < len) {
+            int b = block.uint8(off[0]);
+            long index;
+            if ((b & 0x80) != 0) { // indexed header field
+                index = readInt(block, off, 7);
+                if (index == 0 || index > STATIC_TABLE_LENGTH) {
+                    return false;
+                }
+                continue;
+            }
+            if ((b & 0xc0) == 0x40 || (b & 0xe0) == 0x20) { // incremental indexing, or dynamic table size update
+                return false;
+            }
+            // literal without indexing, or never indexed
+            index = readInt(block, off, 4);
+            if (index < 0 || index > STATIC_TABLE_LENGTH) {
+                return false;
+            }
+            if (index == 0 && !skipString(block, off)) { // literal name
+                return false;
+            }
+            if (!skipString(block, off)) { // value
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean skipString(ByteArray block, int[] off) {
+        if (off[0] >= block.length()) {
+            return false;
+        }
+        long len = readInt(block, off, 7);
+        if (len < 0 || off[0] + len > block.length()) {
+            return false;
+        }
+        off[0] += (int) len;
+        return true;
+    }
+
+    // rfc7541 5.1, returns -1 if the integer is invalid
+    private static long readInt(ByteArray block, int[] off, int prefix) {
+        int mask = (1 << prefix) - 1;
+        long n = block.uint8(off[0]++) & mask;
+        if (n < mask) {
+            return n;
+        }
+        int shift = 0;
+        while (true) {
+            if (off[0] >= block.length() || shift > 28) {
+                return -1;
+            }
+            int b = block.uint8(off[0]++);
+            n += (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+            shift += 7;
+        }
     }
 }
@@ -0,0 +1,67 @@
+package vproxy.processor.http2;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the header blocks decoded from the frontends and sent to the backends by the {@link Http2Processor},
+ * shared by all h2 connections.<br>
+ * The decoded size of a header block is the sum of the lengths of the names and values,
+ * so the compression ratio of the headers sent to backends is decodedBytes / sentBytes.<br>
+ * A header block is passed through when it does not use the dynamic table,
+ * so it can be sent to the backend without re-encoding, only the headers added by vproxy are encoded.
+ */
+public class HeaderStats {
+    private static final LongAdder blocks = new LongAdder();
+    private static final LongAdder passthrough = new LongAdder();
+    private static final LongAdder decodedBytes = new LongAdder();
+    private static final LongAdder receivedBytes = new LongAdder();
+    private static final LongAdder sentBytes = new LongAdder();
+
+    private HeaderStats() {
+    }
+
+    static void received(int len) {
+        receivedBytes.add(len);
+    }
+
+    static void decoded(int len) {
+        blocks.increment();
+        decodedBytes.add(len);
+    }
+
+    static void sent(int len) {
+        sentBytes.add(len);
+    }
+
+    static void passthrough() {
+        passthrough.increment();
+    }
+
+    public static long getBlocks() {
+        return blocks.sum();
+    }
+
+    public static long getPassthrough() {
+        return passthrough.sum();
+    }
+
+    public static long getDecodedBytes() {
+        return decodedBytes.sum();
+    }
+
+    public static long getReceivedBytes() {
+        return receivedBytes.sum();
+    }
+
+    public static long getSentBytes() {
+        return sentBytes.sum();
+    }
+
+    /**
+     * @return decodedBytes / sentBytes, 0 if nothing is sent
+     */
+    public static double getCompressionRatio() {
+        long sent = getSentBytes();
+        return sent == 0 ? 0d : (double) getDecodedBytes() / sent;
+    }
+}
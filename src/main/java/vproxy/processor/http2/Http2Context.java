@@ -1,16 +1,38 @@
 package vproxy.processor.http2;
 
+import com.twitter.hpack.Decoder;
+import vproxy.app.Config;
 import vproxy.processor.Hint;
 import vproxy.processor.OOContext;
 import vproxy.util.ByteArray;
 import vproxy.util.Logger;
 import vproxy.util.Utils;
+import vproxy.util.io.ArrayInputStream;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Streams are dispatched to backends one by one, see {@link Http2SubContext} for the details.<br>
+ * When a stream is a grpc call (`content-type: application/grpc*`), the `:path` of the call
+ * is attached to the hint as the uri, and the call is recorded in {@link GrpcStats} until the stream ends.<br>
+ * Each backend sub context counts its streams, which are reported as requests in flight,
+ * so the `lor` method can choose the backend with the least outstanding streams.
+ */
 public class Http2Context extends OOContext<Http2SubContext> {
+    static class GrpcCall {
+        final GrpcStats stats;
+        final long start;
+        int status = GrpcStats.NO_STATUS;
+
+        GrpcCall(GrpcStats stats, long start) {
+            this.stats = stats;
+            this.start = start;
+        }
+    }
+
     boolean frontendHandshaking = true;
     boolean backendHandshaking = true;
     ByteArray clientHandshake = null; // PRI * ..... and SETTINGS frame as well
@@ -25,6 +47,8 @@ public class Http2Context extends OOContext<Http2SubContext> {
     final Map<Integer, Integer> streamIdFront2Back = new HashMap<>();
 
     final HPackTransformer hPackTransformer;
+    // max size of the dynamic table used to encode headers for backends, 0 if not using the dynamic table
+    final int backendHeaderTableSize;
 
     ByteArray settingsFrameHeader = null; // this is a temporary field
 
@@ -32,13 +56,46 @@ public class Http2Context extends OOContext<Http2SubContext> {
     private boolean hintExists = false;
     private Hint hint;
 
+    // headers of the header block being decoded from the frontend
+    private String path;
+    private String contentType;
+    private Hint uriHint; // made from the host hint and the path of the grpc call
+    // the streamMap keys => calls
+    private final Map<Integer, GrpcCall> grpcCalls = new HashMap<>();
+    // used to decode trailers of grpc calls, the backend does not use dynamic table
+    private Decoder trailersDecoder;
+
     public Http2Context(InetSocketAddress clientAddress) {
+        this(clientAddress, Config.http2BackendHeaderTableSize);
+    }
+
+    public Http2Context(InetSocketAddress clientAddress, int backendHeaderTableSize) {
+        this.backendHeaderTableSize = backendHeaderTableSize;
         String clientIpStr = Utils.ipStr(clientAddress.getAddress().getAddress());
         hPackTransformer = new HPackTransformer(Http2SubContext.SIZE_DEFAULT_HEADER_TABLE_SIZE,
             new Header[]{
                 new Header("x-forwarded-for", clientIpStr),
                 new Header("x-client-port", "" + clientAddress.getPort())
-            }, host -> this.host = host);
+            }, this::header, backendHeaderTableSize > 0);
+    }
+
+    private void header(String name, String value) {
+        switch (name) {
+            case "host":
+            case ":authority":
+                this.host = value;
+                break;
+            case ":path":
+                this.path = value;
+                break;
+            case "content-type":
+                this.contentType = value;
+                break;
+        }
+    }
+
+    private boolean isGrpc() {
+        return path != null && contentType != null && contentType.startsWith("application/grpc");
     }
 
     @Override
@@ -49,6 +106,9 @@ public class Http2Context extends OOContext<Http2SubContext> {
             if (!frontendSettingsSent) { // the first settings frame should pass freely
                 return -1;
             }
+            if (front.decodingHeaders()) {
+                return 0; // wait until the headers are decoded, so that the hint of the stream can be made
+            }
             if (front.hostHeaderRetrieved) {
                 return -1;
             }
@@ -60,6 +120,17 @@ public class Http2Context extends OOContext<Http2SubContext> {
 
     @Override
     public Hint connectionHint(Http2SubContext front) {
+        Hint hint = hostHint();
+        if (hint == null || !isGrpc()) {
+            return hint;
+        }
+        if (uriHint == null) {
+            uriHint = new Hint(hint.hint, path);
+        }
+        return uriHint;
+    }
+
+    private Hint hostHint() {
         if (hintExists) {
             return hint;
         }
@@ -87,15 +158,90 @@ public class Http2Context extends OOContext<Http2SubContext> {
     public void chosen(Http2SubContext front, Http2SubContext subCtx) {
         Integer streamId = front.currentStreamId();
         assert Logger.lowLevelDebug("recording a stream " + streamId + " => " + subCtx.connId);
-        streamMap.put(streamId, subCtx);
+        putStream(streamId, subCtx);
     }
 
     void tryRecordStream(Http2SubContext subCtx) {
         Integer streamId = subCtx.currentStreamId();
         if (subCtx.connId != 0 /* not the frontend connection */ && !streamMap.containsKey(streamId)) {
             assert Logger.lowLevelDebug("recording a new stream from sub context (backend)" + streamId + " => " + subCtx.connId);
-            streamMap.put(streamId, subCtx);
+            putStream(streamId, subCtx);
+        }
+    }
+
+    private void putStream(Integer streamId, Http2SubContext subCtx) {
+        Http2SubContext old = streamMap.put(streamId, subCtx);
+        if (old != null) {
+            --old.streams;
+        }
+        ++subCtx.streams;
+    }
+
+    void removeStream(Integer streamId) {
+        Http2SubContext sub = streamMap.remove(streamId);
+        if (sub != null) {
+            --sub.streams;
+        }
+        GrpcCall call = grpcCalls.remove(streamId);
+        if (call != null) {
+            call.stats.finish(call.status, System.nanoTime() - call.start);
+        }
+    }
+
+    // a header block from the frontend starts
+    void headersStart() {
+        path = null;
+        contentType = null;
+        uriHint = null;
+    }
+
+    // the header block from the frontend ends
+    void headersEnd(Integer streamId) {
+        if (isGrpc() && !grpcCalls.containsKey(streamId)) {
+            assert Logger.lowLevelDebug("grpc call " + path + " on stream " + streamId);
+            GrpcStats stats = GrpcStats.of(path);
+            stats.start();
+            grpcCalls.put(streamId, new GrpcCall(stats, System.nanoTime()));
+        }
+    }
+
+    boolean isGrpcCall(Integer streamId) {
+        return grpcCalls.containsKey(streamId);
+    }
+
+    // retrieve grpc-status from the trailers of a grpc call
+    void trailers(Integer streamId, ByteArray headerBlock) {
+        GrpcCall call = grpcCalls.get(streamId);
+        if (call == null) {
+            return;
+        }
+        if (trailersDecoder == null) {
+            trailersDecoder = new Decoder(65536, 0);
+        }
+        try {
+            trailersDecoder.decode(ArrayInputStream.from(headerBlock), (name, value, sensitive) -> {
+                if (new String(name).equals("grpc-status")) {
+                    try {
+                        call.status = Integer.parseInt(new String(value));
+                    } catch (NumberFormatException e) {
+                        assert Logger.lowLevelDebug("invalid grpc-status " + new String(value));
+                    }
+                }
+            });
+            trailersDecoder.endHeaderBlock();
+        } catch (IOException e) {
+            // the trailers are still proxied to the frontend, only the status is not recorded
+            assert Logger.lowLevelDebug("decoding trailers of stream " + streamId + " failed: " + e);
+            trailersDecoder = null;
+        }
+    }
+
+    @Override
+    public void closed() {
+        for (GrpcCall call : grpcCalls.values()) {
+            call.stats.finish(GrpcStats.NO_STATUS, System.nanoTime() - call.start);
         }
+        grpcCalls.clear();
     }
 
     Integer nextServerStreamId() {
@@ -22,6 +22,20 @@ public class Http2Processor extends OOProcessor<Http2Context, Http2SubContext> {
         }
     }
 
+    private final int backendHeaderTableSize;
+
+    public Http2Processor() {
+        this(Config.http2BackendHeaderTableSize);
+    }
+
+    /**
+     * @param backendHeaderTableSize max size of the hpack dynamic table used to encode the headers sent to backends,
+     *                               0 to encode without the dynamic table
+     */
+    public Http2Processor(int backendHeaderTableSize) {
+        this.backendHeaderTableSize = backendHeaderTableSize;
+    }
+
     @Override
     public String name() {
         return "h2";
@@ -34,7 +48,7 @@ public class Http2Processor extends OOProcessor<Http2Context, Http2SubContext> {
 
     @Override
     public Http2Context init(InetSocketAddress clientAddress) {
-        return new Http2Context(clientAddress);
+        return new Http2Context(clientAddress, backendHeaderTableSize);
     }
 
     @Override
@@ -1,10 +1,12 @@
 package vproxy.processor.http2;
 
+import com.twitter.hpack.Encoder;
 import vproxy.processor.OOSubContext;
 import vproxy.processor.Processor;
 import vproxy.util.ByteArray;
 import vproxy.util.Logger;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -25,6 +27,8 @@ import java.util.Map;
  * 2. header dynamic table for backend (however, dynamic table for frontend is supported)
  * 3. exchange settings (except the first exchange, which is forced according to rfc)
  * 4. http clear text upgrade
+ * 5. grpc calls are only recognized when the frontend headers are decoded (the default header table size is not 0),
+ * -- and grpc-status is only retrieved from trailers sent in one HEADERS frame
  * These limitations will not affect how user uses http/2.
  * The not-supported-frames will be modified, dropped, or faked
  * and will not affect the application level code.
@@ -40,15 +44,23 @@ import java.util.Map;
  *
  * 2. header dynamic table for backend
  * We only support to decompress headers from frontend connection, and
- * the header (de)compression for backend connection is not supported.
+ * the header decompression for backend connection is not supported.
  * So vproxy will attach a setting to the first SETTINGS frame
  * which must be sent by both client and server.
  * SETTINGS_HEADER_TABLE_SIZE would be set to 0 for backend connections.
  * In this way, the backend will not compress the headers, and can work well with vproxy.
+ * The headers sent to backends are compressed without the dynamic table by default.
+ * When the backend header table size of the processor is set (-Dhttp2BackendHeaderTableSize by default), the header blocks from frontend are decoded as a whole,
+ * and encoded by an encoder of the backend connection which the stream is dispatched to,
+ * using a dynamic table of the configured size (limited by SETTINGS_HEADER_TABLE_SIZE of the backend).
+ * Blocks which do not use the dynamic table are sent without re-encoding,
+ * and the headers added by vproxy are appended to them as literals.
  *
  * 3. exchange settings
  * The first exchange is forced according to rfc, so it's supported.
  * And vproxy will drop SETTINGS frames after the first exchange.
+ * The dropped SETTINGS frames from backends are acked by vproxy,
+ * and SETTINGS_HEADER_TABLE_SIZE in them is applied to the encoder of the backend connection.
  *
  * 4. http clear text upgrade
  * The user can use "with-prior-knowledge" way to connect to vproxy.
@@ -78,7 +90,7 @@ import java.util.Map;
  * -- and sends the previously recorded "clientHandshake" data to the backend B.
  * -- Then, vproxy would parse the frontend headers frame, decompress and encode it, and sent to B.
  * 7. The backend B returns a SETTINGS frame and an "ack-SETTINGS" frame, vproxy will send an
- * -- "ack-SETTINGS" frame to the backend B when receiving the first SETTINGS frame from backend B,
+ * -- "ack-SETTINGS" frame to the backend B when receiving the SETTINGS frame from backend B,
  * -- and drop these received SETTINGS frames.
  * 8. The backend B responds with the following frames: "PUSH_PROMISE", "HEADERS", "DATA", where the
  * -- HEADERS frame is the response headers, and data frame is the response data. The stream id in
@@ -171,6 +183,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
     private static final int LEN_E_STREAMDEPENDENCY_WEIGHT = 5; // 1 + 31 + 8
     private static final int LEN_R_PROMISED_STREAM_ID = 4; // 1 + 31
     private static final int LEN_SETTING = 6; // 2 + 4
+    private static final int SIZE_MAX_FRAME = 16384; // the initial value of SETTINGS_MAX_FRAME_SIZE
 
     // we do not set 2^31 - 1, in case the flow control method went wrong and exceeds 2^31-1
     // will send window increase of size SIZE_CONNECTION_WINDOW - SIZE_DEFAULT_CONNECTION_WINDOW
@@ -223,23 +236,25 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
      * 6 -> (push-promise) the first few bits of a push-promise frame -> 7
      * 7 -> (push-promise) proxy the bits after first few bits -> 1
      * 8 -> (hpack) content of headers or continuation for hpack to process -> 1
+     * 9 -> (trailers) content of the trailers of a grpc call from backend, retrieve grpc-status and send -> 1
      */
 
     private Map<Integer, Integer> streamIdBack2Front = new HashMap<>();
     private Integer backendIdForStreamToRemove = null;
+    private Integer frontendIdForStreamToRemove = null; // the stream is reset by the frontend
+    private ByteArray trailersFrameHead = null; // used in state 9
 
-    // the ack of settings frame
-    private ByteArray syntheticAck = null;
-    private boolean syntheticAckFlag;
-    // When receiving the first settings frame from backend and this field is true,
-    // this field will be set to false and syntheticAck will be set
-    // also, this field will be set to false for the frontend connection and the first backend connection
-    // In this way, syntheticAck will only be sent when doing the backend handshaking except the first one
-    //
+    // count of streams dispatched to this backend connection, maintained by the ctx
+    int streams = 0;
+
+    // the ack of settings frames
+    // When receiving a settings frame (not ack) from backend which is not proxied to the frontend,
+    // an ack will be appended to this field.
     // The first handshaking is fully proxied between frontend and backend,
-    // so no need to make synthetic ack for the first backend connection
+    // so no need to make synthetic ack for the first settings frame of the first backend connection
     //
-    // this field will be used by handleSettingsFramePart()
+    // this field will be set by handleSettingsFramePart()
+    private ByteArray syntheticAck = null;
 
     // record the first settings frame head and send all when the whole frame is received
     private ByteArray theSettingsFrameHead;
@@ -250,16 +265,27 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
     // when this field is set to true, it will not be set to false again
     boolean hostHeaderRetrieved;
 
+    // the header block decoded from the frontend, waiting to be encoded for the backend, see split()
+    // only used when the block is deferred
+    private HPackTransformer.Block pendingBlock;
+    private Integer pendingStreamId;
+    private boolean pendingEndStream;
+    private boolean headersEndStream; // END_STREAM of the HEADERS frame of the block being decoded
+    private boolean choosingBackend;
+
+    // encoder of the headers sent to this backend connection, created when the first block is sent
+    private Encoder encoder;
+    // SETTINGS_HEADER_TABLE_SIZE of the backend, the dynamic table is not used before the SETTINGS frame is received
+    private int peerHeaderTableSize = -1;
+
     public Http2SubContext(Http2Context ctx, int connId) {
         super(ctx, connId);
 
         if (connId == 0) {
             state = 0;
-            syntheticAckFlag = false; // this field will not be used if it's frontend connection
             hostHeaderRetrieved = false;
         } else {
             state = 1;
-            syntheticAckFlag = !ctx.backendHandshaking; // this field will only be used when the first backend handshaking is done
             hostHeaderRetrieved = true; // backend can always respond data to the frontend
         }
     }
@@ -285,6 +311,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
             case 4:
             case 6:
             case 8:
+            case 9:
             case -1:
                 return Processor.Mode.handle;
             case 2:
@@ -337,6 +364,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
             case 7:
                 return frame.length - (frame.padded ? LEN_PADDING : 0) - LEN_R_PROMISED_STREAM_ID;
             case 8:
+            case 9:
                 //noinspection DuplicateBranchesInSwitch
                 return frame.length;
             case -1:
@@ -364,13 +392,13 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
             } else {
                 ByteArray stored = storedBytes;
                 storedBytes = null;
-                return stored.concat(arr);
+                return ByteArray.rope(stored, arr);
             }
         } else {
             if (storedBytes == null) {
                 storedBytes = arr;
             } else if (arr != null) {
-                storedBytes = storedBytes.concat(data);
+                storedBytes = ByteArray.rope(storedBytes).concat(data);
             }
             return null;
         }
@@ -408,6 +436,9 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
                     return null; // not padded, so return nothing
                 }
             case 4:
+                if (connId != 0) {
+                    recordPeerHeaderTableSize(data);
+                }
                 data = handleSettings(data);
                 ctx.frontendSettingsSent = true;
                 lastFrame = frame;
@@ -419,12 +450,17 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
                 state = 7;
                 return data;
             case -1:
+                if (connId != 0 && frame.type == Http2Frame.Type.SETTINGS && !frame.ack) {
+                    recordPeerHeaderTableSize(data);
+                }
                 lastFrame = frame;
                 frame = null;
                 state = 1;
                 return null; // ignore
             case 8:
                 return handleHeaderHPack(data);
+            case 9:
+                return handleTrailers(data);
             case 2:
             case 5:
             case 7:
@@ -502,6 +538,13 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
             // those headers with continuation frames are not handled, let it leak, will be GC-ed when connection closes
             backendIdForStreamToRemove = frame.streamIdentifier;
         }
+        if (type == 0x3) { // RST_STREAM
+            if (connId == 0) {
+                frontendIdForStreamToRemove = frame.streamIdentifier;
+            } else {
+                backendIdForStreamToRemove = frame.streamIdentifier;
+            }
+        }
 
         this.frame = frame;
         assert Logger.lowLevelDebug("get http2 frame: " + frame + " in connection = " + connId);
@@ -552,8 +595,28 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
             && SIZE_DEFAULT_HEADER_TABLE_SIZE != 0 // would be compressed
         ) {
             assert Logger.lowLevelDebug("got HEADERS frame from frontend");
+            if (frame.type == Http2Frame.Type.HEADERS) {
+                ctx.headersStart();
+                headersEndStream = frame.endStream;
+            }
             state = 8;
             return null; // send nothing for now
+        } else if (connId != 0 // backend
+            && frame.type == Http2Frame.Type.HEADERS && frame.endStream && frame.endHeaders // trailers
+            && ctx.isGrpcCall(frame.streamIdentifier)
+        ) {
+            assert Logger.lowLevelDebug("got trailers of grpc call on stream " + frame.streamIdentifier);
+            state = 9;
+            if (frame.priority) {
+                // grpc servers (e.g. netty) may send trailers with priority,
+                // remove the priority the same way as other HEADERS frames,
+                // the stream dependency and weight are removed from the payload in the handle method.
+                // the frame.length is kept because the whole payload is read in state 9
+                utilModifyFrameLength(frameBytes, frame.length - LEN_E_STREAMDEPENDENCY_WEIGHT);
+                frameBytes.set(4, (byte) (frameBytes.get(4) & 0b1101_1111));
+            }
+            trailersFrameHead = frameBytes;
+            return null; // send with the payload
         } else if (frame.type == Http2Frame.Type.HEADERS && frame.priority) {
             assert Logger.lowLevelDebug("got HEADERS frame with priority, we should remove the priority");
             state = 3;
@@ -622,9 +685,8 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
                 }
             }
         }
-        if (syntheticAckFlag) {
-            syntheticAckFlag = false;
-            syntheticAck = SEQ_SETTINGS_ACK;
+        if (connId != 0 && !frame.ack) {
+            syntheticAck = syntheticAck == null ? SEQ_SETTINGS_ACK : syntheticAck.concat(SEQ_SETTINGS_ACK);
             // though it's only reading the frame part, but it is absolutely followed by a payload part
             // so sending ack here is fine and will correspond to the remote server state machine
         }
@@ -657,7 +719,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
                 extraLength += LEN_SETTING;
                 assert Logger.lowLevelDebug("add LEN_SETTING to the frame coming from frontend, " +
                     "now the frame length is " + frame.length + extraLength);
-                payload = payload.concat(ByteArray.from(new byte[LEN_SETTING]));
+                payload = ByteArray.rope(payload).concat(ByteArray.from(new byte[LEN_SETTING]));
             }
             // the identifier part
             payload.int16(offsetOfSetting, VALUE_SETTINGS_HEADER_TABLE_SIZE);
@@ -684,7 +746,7 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
                 extraLength += LEN_SETTING;
                 assert Logger.lowLevelDebug("add LEN_SETTING to the frame coming from frontend, " +
                     "now the frame length is " + frame.length + extraLength);
-                payload = payload.concat(ByteArray.from(new byte[LEN_SETTING]));
+                payload = ByteArray.rope(payload).concat(ByteArray.from(new byte[LEN_SETTING]));
             }
             // the identifier part
             payload.int16(offsetOfSetting, VALUE_SETTINGS_INITIAL_WINDOW_SIZE);
@@ -698,12 +760,25 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         // record the handshake if it's connection from client
         if (connId == 0) {
             ByteArray head = ctx.settingsFrameHeader;
-            ByteArray handshake = SEQ_PREFACE_MAGIC.concat(head).concat(payload).arrange();
+            ByteArray handshake = ByteArray.rope(SEQ_PREFACE_MAGIC, head, payload).arrange();
             ctx.settingsFrameHeader = null;
             ctx.clientHandshake = handshake;
         }
 
-        return theSettingsFrameHead.concat(payload);
+        return ByteArray.rope(theSettingsFrameHead, payload);
+    }
+
+    // called for every SETTINGS frame (not ack) of the backend, the value is kept if it's not in the frame
+    // the encoder sends a dynamic table size update in the next block when the value is changed
+    private void recordPeerHeaderTableSize(ByteArray payload) {
+        int size = peerHeaderTableSize == -1 ? 4096 : peerHeaderTableSize; // 4096 is the initial value defined in rfc7540
+        for (int i = 0; i + LEN_SETTING <= payload.length(); i += LEN_SETTING) {
+            if (payload.uint16(i) == VALUE_SETTINGS_HEADER_TABLE_SIZE) {
+                size = payload.int32(i + 2);
+            }
+        }
+        assert Logger.lowLevelDebug("backend " + connId + " SETTINGS_HEADER_TABLE_SIZE=" + size);
+        peerHeaderTableSize = size;
     }
 
     private void translatePromisedStreamId(ByteArray data, int offset) {
@@ -737,18 +812,28 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
             // data is simple and can be directly transformed for continuation frames
             transformed = ctx.hPackTransformer.transform(data, frame.endHeaders && connId == 0);
         }
-        ByteArray result = ByteArray.from(new byte[]{
-            0, 0, 0, // length, will be set later
-            frameType,
-            (byte) (frame.endHeaders ? 4 : 0), // flags
-            0, 0, 0, 0 // stream id, will be set later
-        }).concat(transformed);
-        result.int24(0, transformed.length());
-        result.int32(5, frame.streamIdentifier);
+        ByteArray result = null;
+        if (transformed != null) {
+            result = ByteArray.from(new byte[]{
+                0, 0, 0, // length, will be set later
+                frameType,
+                (byte) ((frame.endHeaders ? 4 : 0) | (frame.endStream ? 1 : 0)), // flags
+                0, 0, 0, 0 // stream id, will be set later
+            }).concat(transformed);
+            result.int24(0, transformed.length());
+            result.int32(5, frame.streamIdentifier);
+        }
 
         // set header end before return the result
         if (frame.endHeaders) {
-            ctx.hPackTransformer.endHeaders();
+            HPackTransformer.Block block = ctx.hPackTransformer.endHeaders();
+            if (block != null) {
+                // the block will be encoded for the backend in split()
+                pendingBlock = block;
+                pendingStreamId = frame.streamIdentifier;
+                pendingEndStream = headersEndStream;
+            }
+            ctx.headersEnd(frame.streamIdentifier);
             hostHeaderRetrieved = true; // headers frame ends, connection related headers must have been retrieved, so send data
         }
         // set state to idle
@@ -757,6 +842,87 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         return result;
     }
 
+    @Override
+    public ByteArray split() {
+        if (pendingBlock == null) {
+            return null;
+        }
+        Http2SubContext backend = ctx.streamMap.get(pendingStreamId);
+        if (backend == null) {
+            if (choosingBackend) {
+                Logger.shouldNotHappen("the backend is not recorded for stream " + pendingStreamId);
+                pendingBlock = null;
+                choosingBackend = false;
+                return null;
+            }
+            // let the lib choose a backend for the stream, the frame is still being handled so connection() returns -1
+            choosingBackend = true;
+            return ByteArray.from(new byte[0]);
+        }
+        choosingBackend = false;
+        HPackTransformer.Block block = pendingBlock;
+        pendingBlock = null;
+        return backend.headersFrames(block, pendingStreamId, pendingEndStream);
+    }
+
+    // encode the block with the encoder of this backend connection, and build HEADERS and CONTINUATION frames
+    private ByteArray headersFrames(HPackTransformer.Block block, int streamId, boolean endStream) {
+        if (encoder == null) {
+            encoder = new Encoder(4096); // the initial value of the backend decoder
+        }
+        int tableSize = 0; // not using the dynamic table before the backend settings are received
+        if (peerHeaderTableSize != -1) {
+            tableSize = Math.min(ctx.backendHeaderTableSize, Math.min(peerHeaderTableSize, 4096));
+        }
+        ByteArray encoded;
+        try {
+            encoded = ctx.hPackTransformer.encode(block, encoder, tableSize);
+        } catch (IOException e) {
+            // the output buffer is not big enough, which should not happen for normal headers
+            Logger.shouldNotHappen("encoding headers of stream " + streamId + " for backend " + connId + " failed", e);
+            encoded = ByteArray.from(new byte[0]);
+        }
+        ByteArray result = null;
+        int offset = 0;
+        do {
+            int len = Math.min(SIZE_MAX_FRAME, encoded.length() - offset);
+            boolean first = offset == 0;
+            boolean last = offset + len == encoded.length();
+            ByteArray head = ByteArray.from(new byte[]{
+                0, 0, 0, // length
+                (byte) (first ? 1 : 9), // headers or continuation
+                (byte) ((last ? 4 : 0) | (first && endStream ? 1 : 0)), // flags
+                0, 0, 0, 0 // stream id
+            });
+            head.int24(0, len);
+            head.int32(5, streamId);
+            ByteArray f = len == 0 ? head : head.concat(encoded.sub(offset, len));
+            result = result == null ? f : result.concat(f);
+            offset += len;
+        } while (offset < encoded.length());
+        return result;
+    }
+
+    private ByteArray handleTrailers(ByteArray data) {
+        if (frame.priority) {
+            // [padLen] [E + stream dependency + weight] [header block] [padding]
+            int off = frame.padded ? LEN_PADDING : 0;
+            ByteArray rest = data.sub(off + LEN_E_STREAMDEPENDENCY_WEIGHT, data.length() - off - LEN_E_STREAMDEPENDENCY_WEIGHT);
+            data = off == 0 ? rest : data.sub(0, off).concat(rest);
+        }
+        ByteArray headerBlock = data;
+        if (frame.padded) {
+            headerBlock = data.sub(1, data.length() - 1 - data.get(0));
+        }
+        ctx.trailers(frame.streamIdentifier, headerBlock);
+
+        ByteArray head = trailersFrameHead;
+        trailersFrameHead = null;
+        // the whole frame is handled, which is the same as a frame being proxied
+        proxyDone();
+        return ByteArray.rope(head, data);
+    }
+
     private static void utilModifyStreamId(ByteArray data, int offset, int streamId) {
         data.int32(offset, streamId);
     }
@@ -808,7 +974,16 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         if (front == null) {
             front = back;
         }
-        ctx.streamMap.remove(front);
+        ctx.removeStream(front);
+    }
+
+    void removeStreamMappingByFrontendId(Integer front) {
+        Integer back = ctx.streamIdFront2Back.remove(front);
+        Http2SubContext sub = ctx.streamMap.get(front);
+        if (back != null && sub != null) {
+            sub.streamIdBack2Front.remove(back);
+        }
+        ctx.removeStream(front);
     }
 
     @Override
@@ -820,6 +995,10 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
             removeStreamMappingByBackendId(backendIdForStreamToRemove);
             backendIdForStreamToRemove = null;
         }
+        if (frontendIdForStreamToRemove != null) {
+            removeStreamMappingByFrontendId(frontendIdForStreamToRemove);
+            frontendIdForStreamToRemove = null;
+        }
         // all proxy states goes to state 1
         // so simply set the frame to null and state 1 here
         state = 1;
@@ -827,6 +1006,18 @@ public class Http2SubContext extends OOSubContext<Http2Context> {
         frame = null;
     }
 
+    boolean decodingHeaders() {
+        return state == 8;
+    }
+
+    @Override
+    public int requestsInFlight() {
+        if (connId == 0) {
+            return -1;
+        }
+        return streams;
+    }
+
     @Override
     public ByteArray connected() {
         if (connId == 0) {
@@ -6,31 +6,43 @@ import vproxy.util.Logger;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.function.Consumer;
+import java.util.function.BiConsumer;
 
 public class SyncOutputListener implements HeaderListener {
-    private final Encoder encoder;
-    private final OutputStream out;
+    public interface Output {
+        void header(byte[] name, byte[] value, boolean sensitive) throws IOException;
+    }
+
+    private final Output output;
     private final Header[] headers;
-    private final Consumer<String> hostHeaderListener;
+    private final BiConsumer<String, String> headerListener;
     private final boolean[] added; // whether it's already added into the header list
+    private int addedCount = 0; // count of headers added into the current header block
+    private int decodedBytes = 0; // lengths of names and values in the current header block
 
     public SyncOutputListener(Encoder encoder,
                               OutputStream out,
                               Header[] additionalHeaders,
-                              Consumer<String> hostHeaderListener) {
-        this.encoder = encoder;
-        this.out = out;
+                              BiConsumer<String, String> headerListener) {
+        this((name, value, sensitive) -> encoder.encodeHeader(out, name, value, sensitive), additionalHeaders, headerListener);
+    }
+
+    public SyncOutputListener(Output output,
+                              Header[] additionalHeaders,
+                              BiConsumer<String, String> headerListener) {
+        this.output = output;
         this.headers = additionalHeaders;
-        this.hostHeaderListener = hostHeaderListener;
+        this.headerListener = headerListener;
         this.added = new boolean[additionalHeaders == null ? 0 : additionalHeaders.length];
     }
 
     @Override
     public void addHeader(byte[] name, byte[] value, boolean sensitive) throws IOException {
-        // we need to search for the header `host` can call the callback
-        if (new String(name).equalsIgnoreCase("host")) { // h2 headers must be lower-case strings
-            hostHeaderListener.accept(new String(value));
+        // we need to search for the headers used by the processor and call the callback
+        // h2 headers must be lower-case strings
+        String nameStr = new String(name);
+        if (nameStr.equals("host") || nameStr.equals(":authority") || nameStr.equals(":path") || nameStr.equals("content-type")) {
+            headerListener.accept(nameStr, new String(value));
         }
 
         // do adding or replacement for additional headers
@@ -38,7 +50,8 @@ public class SyncOutputListener implements HeaderListener {
         if (replaced != null) {
             value = replaced;
         }
-        encoder.encodeHeader(out, name, value, sensitive);
+        decodedBytes += name.length + value.length;
+        output.header(name, value, sensitive);
     }
 
     private byte[] checkAndGet(byte[] key, byte[] value) {
@@ -72,14 +85,26 @@ public class SyncOutputListener implements HeaderListener {
             assert Logger.lowLevelDebug("adding header " +
                 "new header: " + h.keyStr + ": " + new String(h.value));
             added[i] = true;
-            encoder.encodeHeader(out, h.key, h.value, false);
+            ++addedCount;
+            decodedBytes += h.key.length + h.value.length;
+            output.header(h.key, h.value, false);
         }
     }
 
+    int getAddedCount() {
+        return addedCount;
+    }
+
+    int getDecodedBytes() {
+        return decodedBytes;
+    }
+
     void endHeaders() {
         // set everything to not added (added[n]=false)
         for (int i = 0; i < added.length; ++i) {
             added[i] = false;
         }
+        addedCount = 0;
+        decodedBytes = 0;
     }
 }
@@ -0,0 +1,180 @@
+package vproxy.processor.memcached;
+
+import vproxy.processor.Hint;
+import vproxy.processor.OOContext;
+import vproxy.util.ByteArray;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Commands of one client may be sent to different backends,
+ * so the replies may come back in a different order.<br>
+ * Every command expecting a reply is recorded in {@link #pending} in the order of the client,
+ * and the replies are only sent to the client when all replies before them are ready.<br>
+ * A multi-key get split into batches is recorded as one {@link Pending},
+ * the values from all batches are merged in the order of the keys in the original command.
+ */
+public class MemcachedContext extends OOContext<MemcachedSubContext> {
+    private static final ByteArray END = ByteArray.from("END\r\n".getBytes());
+
+    static class Item {
+        final byte[] key;
+        final ByteArray value; // the VALUE line and the data block
+
+        Item(byte[] key, ByteArray value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    static class Pending {
+        ByteArray reply;
+
+        // the following fields are only used when the command is split into batches
+        private byte[][] keys;
+        private int[] keyBatch; // index of the batch for each key
+        private List<List<Item>> items; // items of each batch
+        private ByteArray error;
+        private int left;
+
+        void split(byte[][] keys, int[] keyBatch, int batches) {
+            this.keys = keys;
+            this.keyBatch = keyBatch;
+            this.items = new ArrayList<>(Collections.nCopies(batches, null));
+            this.left = batches;
+        }
+
+        void batchDone(int batch, List<Item> items, ByteArray error) {
+            if (error != null && this.error == null) {
+                this.error = error;
+            }
+            this.items.set(batch, items);
+            if (--left == 0) {
+                reply = this.error == null ? merge() : this.error;
+            }
+        }
+
+        private ByteArray merge() {
+            ByteArray ret = null;
+            int[] cursors = new int[items.size()];
+            for (int i = 0; i < keys.length; ++i) {
+                int b = keyBatch[i];
+                List<Item> batchItems = items.get(b);
+                // missing keys are simply absent from the reply
+                if (cursors[b] < batchItems.size() && Arrays.equals(batchItems.get(cursors[b]).key, keys[i])) {
+                    ByteArray value = batchItems.get(cursors[b]++).value;
+                    ret = ret == null ? value : ByteArray.rope(ret).concat(value);
+                }
+            }
+            for (int b = 0; b < items.size(); ++b) {
+                List<Item> batchItems = items.get(b);
+                // should not happen, but do not drop any value
+                for (int i = cursors[b]; i < batchItems.size(); ++i) {
+                    ByteArray value = batchItems.get(i).value;
+                    ret = ret == null ? value : ByteArray.rope(ret).concat(value);
+                }
+            }
+            return ret == null ? END : ByteArray.rope(ret).concat(END);
+        }
+    }
+
+    /**
+     * a request sent to a backend, waiting for the reply
+     */
+    static class Waiting {
+        final Pending pending; // null if the reply should not be sent to the client
+        final int batch; // -1 if the command is not split
+        final int kind;
+        final boolean quiet;
+        final int opcode;
+        final int opaque;
+
+        // the values are recorded when it's a batch
+        private List<byte[]> itemKeys;
+        private int[] itemOffsets; // [start, end) in the reply
+        boolean error;
+
+        Waiting(Pending pending, int batch, int kind, boolean quiet, int opcode, int opaque) {
+            this.pending = pending;
+            this.batch = batch;
+            this.kind = kind;
+            this.quiet = quiet;
+            this.opcode = opcode;
+            this.opaque = opaque;
+        }
+
+        void item(byte[] key, int start, int end) {
+            if (batch == -1) {
+                return;
+            }
+            if (itemKeys == null) {
+                itemKeys = new ArrayList<>();
+                itemOffsets = new int[8];
+            }
+            int idx = itemKeys.size() * 2;
+            if (idx == itemOffsets.length) {
+                itemOffsets = Arrays.copyOf(itemOffsets, idx * 2);
+            }
+            itemKeys.add(key);
+            itemOffsets[idx] = start;
+            itemOffsets[idx + 1] = end;
+        }
+
+        void done(ByteArray reply) {
+            if (pending == null) {
+                return;
+            }
+            if (batch == -1) {
+                pending.reply = reply;
+                return;
+            }
+            if (error) {
+                pending.batchDone(batch, null, reply);
+                return;
+            }
+            List<Item> items = new ArrayList<>(itemKeys == null ? 0 : itemKeys.size());
+            if (itemKeys != null) {
+                for (int i = 0; i < itemKeys.size(); ++i) {
+                    int start = itemOffsets[i * 2];
+                    int end = itemOffsets[i * 2 + 1];
+                    items.add(new Item(itemKeys.get(i), reply.sub(start, end - start)));
+                }
+            }
+            pending.batchDone(batch, items, null);
+        }
+    }
+
+    final ArrayDeque<Pending> pending = new ArrayDeque<>();
+
+    @Override
+    public int connection(MemcachedSubContext front) {
+        return front.connection();
+    }
+
+    @Override
+    public Hint connectionHint(MemcachedSubContext front) {
+        return front.connectionHint();
+    }
+
+    @Override
+    public void chosen(MemcachedSubContext front, MemcachedSubContext subCtx) {
+        front.chosen(subCtx);
+    }
+
+    // retrieve the replies which are ready to be sent to the client
+    ByteArray flush() {
+        ByteArray ret = null;
+        while (!pending.isEmpty() && pending.peekFirst().reply != null) {
+            ByteArray reply = pending.pollFirst().reply;
+            if (reply.length() == 0) {
+                continue; // e.g. quiet binary commands
+            }
+            ret = ret == null ? reply : ByteArray.rope(ret).concat(reply);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,29 @@
+package vproxy.processor.memcached;
+
+import vproxy.processor.OOProcessor;
+
+import java.net.InetSocketAddress;
+
+/**
+ * The processor for memcached, both the text protocol and the binary protocol.<br>
+ * Each command from the client is routed separately with the hash slot of its key,
+ * and a multi-key get is split into one batched get for each backend,
+ * see {@link MemcachedSubContext} for how commands are split and replies are framed,
+ * and {@link MemcachedContext} for how replies are merged and put back in order.
+ */
+public class MemcachedProcessor extends OOProcessor<MemcachedContext, MemcachedSubContext> {
+    @Override
+    public String name() {
+        return "memcached";
+    }
+
+    @Override
+    public MemcachedContext init(InetSocketAddress clientAddress) {
+        return new MemcachedContext();
+    }
+
+    @Override
+    public MemcachedSubContext initSub(MemcachedContext ctx, int id, InetSocketAddress associatedAddress) {
+        return new MemcachedSubContext(ctx, id);
+    }
+}
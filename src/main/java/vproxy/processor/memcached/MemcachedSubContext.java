@@ -0,0 +1,752 @@
+package vproxy.processor.memcached;
+
+import vproxy.processor.Hint;
+import vproxy.processor.OOSubContext;
+import vproxy.processor.Processor;
+import vproxy.util.ByteArray;
+
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * For the frontend connection, the sub context consumes any data, and splits it into commands,
+ * a command starting with 0x80 is in the binary protocol, otherwise it's in the text protocol.
+ * Only the command line (or the binary header) and the keys are parsed,
+ * the commands themselves are passed to the backends as they are.
+ * The key is hashed into a slot, which is used as the connection hint.<br>
+ * A multi-key get (get/gets/gat/gats) is handled in two steps:
+ * first the backend of each key is retrieved with an empty part (see {@link Processor#split(Processor.Context, Processor.SubContext)}),
+ * then the keys are grouped by backend and one batched get is sent to each backend by connection id.<br>
+ * Quiet binary commands may get no reply, so before any other command,
+ * a noop is sent to each backend which still holds quiet commands,
+ * and the quiet commands without replies are considered done when the noop reply comes.<br>
+ * For backend connections, the sub context consumes any data, and splits it into replies,
+ * then the replies ready to be sent are retrieved from the {@link MemcachedContext}.
+ */
+public class MemcachedSubContext extends OOSubContext<MemcachedContext> {
+    // count of hash slots, see vproxy.component.svrgroup.ServerGroup#nextBySlot
+    public static final int SLOT_COUNT = 16384;
+
+    static final int KIND_SINGLE = 0; // one line
+    static final int KIND_RETRIEVAL = 1; // VALUE ... END
+    static final int KIND_STATS = 2; // STAT ... END
+    static final int KIND_BINARY = 3;
+
+    private static final int MAGIC_REQUEST = 0x80;
+    private static final int MAGIC_RESPONSE = 0x81;
+    private static final int LEN_HEADER = 24;
+    private static final int OP_NOOP = 0x0a;
+    private static final int OP_STAT = 0x10;
+    private static final int MAX_LINE_LEN = 1024 * 1024;
+
+    private static final ByteArray EMPTY = ByteArray.from(new byte[0]);
+    private static final byte[] NOOP = new byte[LEN_HEADER];
+
+    static {
+        NOOP[0] = (byte) MAGIC_REQUEST;
+        NOOP[1] = (byte) OP_NOOP;
+    }
+
+    public MemcachedSubContext(MemcachedContext ctx, int connId) {
+        super(ctx, connId);
+    }
+
+    @Override
+    public Processor.Mode mode() {
+        return Processor.Mode.handle;
+    }
+
+    @Override
+    public boolean expectNewFrame() {
+        // only full replies are returned from feed()
+        return true;
+    }
+
+    @Override
+    public int len() {
+        return -1; // consume all data
+    }
+
+    @Override
+    public ByteArray feed(ByteArray data) throws Exception {
+        return connId == 0 ? feedFrontend(data) : feedBackend(data);
+    }
+
+    @Override
+    public ByteArray split() {
+        current = nextPart();
+        if (current == null) {
+            return null;
+        }
+        if (current.backend != null && current.waiting != null) {
+            // the backend is already known, so `chosen` will not be called
+            current.backend.waiting.add(current.waiting);
+        }
+        return current.data;
+    }
+
+    @Override
+    public ByteArray produce() {
+        return null;
+    }
+
+    @Override
+    public void proxyDone() {
+        // will not proxy
+    }
+
+    @Override
+    public ByteArray connected() {
+        return null;
+    }
+
+    // ---------------
+    // START frontend
+    // ---------------
+
+    private static class Command {
+        final ByteArray data;
+        final int kind;
+        final boolean quiet; // binary quiet commands, which may get no reply
+        final boolean noreply; // no reply at all
+        final int opcode;
+        final int opaque;
+        byte[][] keys; // null if keyless
+        byte[] prefix; // the command line before the keys of a retrieval command
+
+        Command(ByteArray data, int kind, boolean quiet, boolean noreply, int opcode, int opaque) {
+            this.data = data;
+            this.kind = kind;
+            this.quiet = quiet;
+            this.noreply = noreply;
+            this.opcode = opcode;
+            this.opaque = opaque;
+        }
+    }
+
+    private static class Part {
+        final ByteArray data;
+        final MemcachedSubContext backend; // null if the backend should be retrieved with the hint
+        final Hint hint;
+        final MemcachedContext.Waiting waiting; // null if no reply
+        final int probeSlot; // -1 if it's not for retrieving the backend of a slot
+
+        Part(ByteArray data, MemcachedSubContext backend, Hint hint, MemcachedContext.Waiting waiting, int probeSlot) {
+            this.data = data;
+            this.backend = backend;
+            this.hint = hint;
+            this.waiting = waiting;
+            this.probeSlot = probeSlot;
+        }
+    }
+
+    private ByteArray input; // bytes not parsed yet
+    private int scanned; // bytes of the current line already scanned
+    private int[] tokens = new int[16]; // [start, end) of each token in the line
+    private int tokenCount;
+
+    private final ArrayDeque<Command> commands = new ArrayDeque<>();
+    private final ArrayDeque<Part> parts = new ArrayDeque<>();
+    private Part current;
+    private final Set<MemcachedSubContext> quietBackends = new LinkedHashSet<>();
+
+    // the multi-key get of which the backends are being retrieved
+    private Command probing;
+    private MemcachedContext.Pending probingPending;
+    private int[] probingSlots;
+    private int probeIdx;
+    private MemcachedSubContext[] probed;
+    private final Map<Integer, MemcachedSubContext> slotBackends = new HashMap<>();
+
+    private ByteArray feedFrontend(ByteArray data) throws Exception {
+        input = input == null ? data : ByteArray.rope(input).concat(data);
+        int off = 0;
+        int len = input.length();
+        while (off < len) {
+            int n = input.uint8(off) == MAGIC_REQUEST ? parseBinary(off, len) : parseText(off, len);
+            if (n == 0) {
+                break; // the command is not complete
+            }
+            off += n;
+        }
+        if (off == len) {
+            input = null;
+        } else if (off > 0) {
+            input = input.sub(off, len - off);
+        }
+        // the commands are sent in split()
+        return null;
+    }
+
+    private int parseBinary(int off, int len) throws Exception {
+        if (len - off < LEN_HEADER) {
+            return 0;
+        }
+        int bodyLen = input.int32(off + 8);
+        if (bodyLen < 0) {
+            throw new Exception("invalid body length " + (bodyLen & 0xffffffffL));
+        }
+        if (len - off - LEN_HEADER < bodyLen) {
+            return 0;
+        }
+        int total = LEN_HEADER + bodyLen;
+        int opcode = input.uint8(off + 1);
+        int keyLen = input.uint16(off + 2);
+        int extLen = input.uint8(off + 4);
+        if (extLen + keyLen > bodyLen) {
+            throw new Exception("invalid key length " + keyLen + " and extras length " + extLen + " with body length " + bodyLen);
+        }
+        Command cmd = new Command(input.sub(off, total), KIND_BINARY, isQuiet(opcode), false, opcode, input.int32(off + 12));
+        if (keyLen > 0) {
+            cmd.keys = new byte[][]{input.sub(off + LEN_HEADER + extLen, keyLen).toNewJavaArray()};
+        }
+        commands.add(cmd);
+        return total;
+    }
+
+    private static boolean isQuiet(int opcode) {
+        switch (opcode) {
+            case 0x09: // getq
+            case 0x0d: // getkq
+            case 0x11: // setq
+            case 0x12: // addq
+            case 0x13: // replaceq
+            case 0x14: // deleteq
+            case 0x15: // incrementq
+            case 0x16: // decrementq
+            case 0x17: // quitq
+            case 0x18: // flushq
+            case 0x19: // appendq
+            case 0x1a: // prependq
+            case 0x1e: // gatq
+            case 0x24: // gatkq
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private int parseText(int off, int len) throws Exception {
+        int nl = -1;
+        for (int i = off + scanned; i < len; ++i) {
+            if (input.get(i) == '\n') {
+                nl = i;
+                break;
+            }
+        }
+        if (nl == -1) {
+            scanned = len - off;
+            if (scanned > MAX_LINE_LEN) {
+                throw new Exception("command line too long");
+            }
+            return 0;
+        }
+        scanned = 0;
+        int lineEnd = nl > off && input.get(nl - 1) == '\r' ? nl - 1 : nl;
+        tokenize(off, lineEnd);
+        int total = nl + 1 - off;
+        String name = tokenCount == 0 ? "" : token(0);
+
+        int kind = KIND_SINGLE;
+        int keyStart = -1; // index of the first key token
+        boolean multiKey = false;
+        boolean noreply = tokenCount > 1 && tokenEquals(tokenCount - 1, "noreply");
+        switch (name) {
+            case "get":
+            case "gets":
+                kind = KIND_RETRIEVAL;
+                keyStart = 1;
+                multiKey = true;
+                noreply = false;
+                break;
+            case "gat":
+            case "gats":
+                kind = KIND_RETRIEVAL;
+                keyStart = 2;
+                multiKey = true;
+                noreply = false;
+                break;
+            case "set":
+            case "add":
+            case "replace":
+            case "append":
+            case "prepend":
+            case "cas":
+                if (tokenCount < 5) {
+                    throw new Exception("invalid storage command: " + name);
+                }
+                keyStart = 1;
+                total += parseInt(4) + 2; // with the data block
+                if (len - off < total) {
+                    return 0;
+                }
+                break;
+            case "delete":
+            case "incr":
+            case "decr":
+            case "touch":
+                keyStart = 1;
+                break;
+            case "stats":
+                kind = KIND_STATS;
+                noreply = false;
+                break;
+            case "quit":
+                noreply = true;
+                break;
+        }
+        Command cmd = new Command(input.sub(off, total), kind, false, noreply, -1, 0);
+        if (keyStart != -1 && keyStart < tokenCount) {
+            int keyCount = multiKey ? tokenCount - keyStart : 1;
+            cmd.keys = new byte[keyCount][];
+            for (int i = 0; i < keyCount; ++i) {
+                int t = keyStart + i;
+                cmd.keys[i] = input.sub(tokens[t * 2], tokens[t * 2 + 1] - tokens[t * 2]).toNewJavaArray();
+            }
+            if (keyCount > 1) {
+                cmd.prefix = input.sub(off, tokens[keyStart * 2] - off).toNewJavaArray();
+            }
+        }
+        commands.add(cmd);
+        return total;
+    }
+
+    private void tokenize(int off, int end) {
+        tokenCount = 0;
+        int start = -1;
+        for (int i = off; i <= end; ++i) {
+            boolean space = i == end || input.get(i) == ' ';
+            if (space && start != -1) {
+                if (tokenCount * 2 == tokens.length) {
+                    tokens = Arrays.copyOf(tokens, tokens.length * 2);
+                }
+                tokens[tokenCount * 2] = start;
+                tokens[tokenCount * 2 + 1] = i;
+                ++tokenCount;
+                start = -1;
+            } else if (!space && start == -1) {
+                start = i;
+            }
+        }
+    }
+
+    private String token(int idx) {
+        int start = tokens[idx * 2];
+        int end = tokens[idx * 2 + 1];
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; ++i) {
+            byte b = input.get(start + i);
+            chars[i] = (char) (b >= 'A' && b <= 'Z' ? b + 32 : b & 0xff);
+        }
+        return new String(chars);
+    }
+
+    private boolean tokenEquals(int idx, String s) {
+        int start = tokens[idx * 2];
+        int end = tokens[idx * 2 + 1];
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); ++i) {
+            if (input.get(start + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int parseInt(int idx) throws Exception {
+        int start = tokens[idx * 2];
+        int end = tokens[idx * 2 + 1];
+        int n = 0;
+        for (int i = start; i < end; ++i) {
+            int d = input.get(i) - '0';
+            if (d < 0 || d > 9 || n > (Integer.MAX_VALUE - 2 - d) / 10) {
+                throw new Exception("invalid number: " + new String(input.sub(start, end - start).toJavaArray()));
+            }
+            n = n * 10 + d;
+        }
+        return n;
+    }
+
+    private Part nextPart() {
+        while (true) {
+            if (!parts.isEmpty()) {
+                return parts.poll();
+            }
+            if (probing != null) {
+                while (probeIdx < probed.length) {
+                    MemcachedSubContext backend = slotBackends.get(probingSlots[probeIdx]);
+                    if (backend == null) {
+                        // retrieve the backend, and check again when it's chosen
+                        return new Part(EMPTY, null, Hint.ofSlot(probingSlots[probeIdx]), null, probingSlots[probeIdx]);
+                    }
+                    probed[probeIdx++] = backend;
+                }
+                batch();
+                continue;
+            }
+            Command cmd = commands.poll();
+            if (cmd == null) {
+                return null;
+            }
+            prepare(cmd);
+        }
+    }
+
+    private void prepare(Command cmd) {
+        if (!cmd.quiet && !quietBackends.isEmpty()) {
+            for (MemcachedSubContext backend : quietBackends) {
+                parts.add(new Part(ByteArray.from(NOOP), backend, null,
+                    new MemcachedContext.Waiting(null, -1, KIND_BINARY, false, OP_NOOP, 0), -1));
+            }
+            quietBackends.clear();
+        }
+        MemcachedContext.Pending pending = null;
+        if (!cmd.noreply) {
+            pending = new MemcachedContext.Pending();
+            ctx.pending.add(pending);
+        }
+        if (cmd.keys != null && cmd.keys.length > 1) {
+            probing = cmd;
+            probingPending = pending;
+            probingSlots = new int[cmd.keys.length];
+            for (int i = 0; i < cmd.keys.length; ++i) {
+                probingSlots[i] = slot(cmd.keys[i]);
+            }
+            probeIdx = 0;
+            probed = new MemcachedSubContext[cmd.keys.length];
+            slotBackends.clear();
+            return;
+        }
+        MemcachedContext.Waiting waiting = pending == null ? null
+            : new MemcachedContext.Waiting(pending, -1, cmd.kind, cmd.quiet, cmd.opcode, cmd.opaque);
+        Hint hint = cmd.keys == null ? null : Hint.ofSlot(slot(cmd.keys[0]));
+        parts.add(new Part(cmd.data, null, hint, waiting, -1));
+    }
+
+    // group the keys of the probing command by backend
+    private void batch() {
+        Command cmd = probing;
+        MemcachedContext.Pending pending = probingPending;
+        probing = null;
+        probingPending = null;
+
+        LinkedHashMap<MemcachedSubContext, Integer> batches = new LinkedHashMap<>();
+        int[] keyBatch = new int[probed.length];
+        for (int i = 0; i < probed.length; ++i) {
+            Integer b = batches.get(probed[i]);
+            if (b == null) {
+                b = batches.size();
+                batches.put(probed[i], b);
+            }
+            keyBatch[i] = b;
+        }
+        if (batches.size() == 1) {
+            // all keys are on the same backend, send the command as it is
+            MemcachedSubContext backend = probed[0];
+            parts.add(new Part(cmd.data, backend, null,
+                new MemcachedContext.Waiting(pending, -1, cmd.kind, false, -1, 0), -1));
+            return;
+        }
+        pending.split(cmd.keys, keyBatch, batches.size());
+        for (Map.Entry<MemcachedSubContext, Integer> entry : batches.entrySet()) {
+            int b = entry.getValue();
+            int len = cmd.prefix.length + 2;
+            for (int i = 0; i < keyBatch.length; ++i) {
+                if (keyBatch[i] == b) {
+                    len += cmd.keys[i].length + 1;
+                }
+            }
+            byte[] bytes = new byte[len - 1];
+            System.arraycopy(cmd.prefix, 0, bytes, 0, cmd.prefix.length);
+            int off = cmd.prefix.length;
+            for (int i = 0; i < keyBatch.length; ++i) {
+                if (keyBatch[i] != b) {
+                    continue;
+                }
+                if (off > cmd.prefix.length) {
+                    bytes[off++] = ' ';
+                }
+                System.arraycopy(cmd.keys[i], 0, bytes, off, cmd.keys[i].length);
+                off += cmd.keys[i].length;
+            }
+            bytes[off++] = '\r';
+            bytes[off] = '\n';
+            parts.add(new Part(ByteArray.from(bytes), entry.getKey(), null,
+                new MemcachedContext.Waiting(pending, b, cmd.kind, false, -1, 0), -1));
+        }
+    }
+
+    void chosen(MemcachedSubContext backend) {
+        if (current == null) {
+            return;
+        }
+        if (current.probeSlot != -1) {
+            slotBackends.put(current.probeSlot, backend);
+            return;
+        }
+        if (current.waiting == null) {
+            return;
+        }
+        backend.waiting.add(current.waiting);
+        if (current.waiting.quiet) {
+            quietBackends.add(backend);
+        }
+    }
+
+    int connection() {
+        if (current == null) {
+            return 0; // nothing to send
+        }
+        return current.backend == null ? -1 : current.backend.connId;
+    }
+
+    Hint connectionHint() {
+        return current == null ? null : current.hint;
+    }
+
+    // ---------------
+    // END frontend
+    // ---------------
+
+    // ---------------
+    // START backend
+    // ---------------
+
+    /*
+     * 0 ---> start of a reply
+     * ----->(0x81)------> binary header --------> 3
+     * ----->(otherwise)-> text line ------------> 1
+     * 1 ---> text line
+     * ----->(\n)--> VALUE line ---------------------> 2
+     *               STAT line ----------------------> 1
+     *               otherwise ----------------------> reply done
+     * 2 ---> value data block
+     * ----->for bytes+2 times, read data ------------> 1
+     * 3 ---> binary header
+     * ----->for 24 times, read data --> body length == 0 -> packet done, otherwise -> 4
+     * 4 ---> binary body
+     * ----->for body length times, read data -------> packet done
+     *
+     * packet done: the reply is done unless it's a STAT packet with a key
+     */
+    final ArrayDeque<MemcachedContext.Waiting> waiting = new ArrayDeque<>();
+    private int replyState = 0;
+    private byte[] line = new byte[64];
+    private int lineLen;
+    private int lineStart; // offset of the line in the reply
+    private byte[] valueKey;
+    private long valueLeft; // including the tailing \r\n
+    private final byte[] header = new byte[LEN_HEADER];
+    private int headerLen;
+    private long bodyLeft;
+    private ByteArray partialReply;
+
+    private ByteArray feedBackend(ByteArray data) throws Exception {
+        int start = 0;
+        int off = 0;
+        int len = data.length();
+        while (off < len) {
+            if (replyState == 2) {
+                int n = (int) Math.min(valueLeft, len - off);
+                off += n;
+                valueLeft -= n;
+                if (valueLeft == 0) {
+                    head(-1, -1).item(valueKey, lineStart, replyOffset(start, off));
+                    valueKey = null;
+                    lineLen = 0;
+                    replyState = 1;
+                }
+                continue;
+            }
+            if (replyState == 4) {
+                int n = (int) Math.min(bodyLeft, len - off);
+                off += n;
+                bodyLeft -= n;
+                if (bodyLeft == 0 && packetDone()) {
+                    reply(data, start, off);
+                    start = off;
+                }
+                continue;
+            }
+            byte b = data.get(off++);
+            if (replyState == 0) {
+                if ((b & 0xff) == MAGIC_RESPONSE) {
+                    headerLen = 0;
+                    replyState = 3;
+                } else {
+                    lineLen = 0;
+                    replyState = 1;
+                }
+            }
+            if (replyState == 3) {
+                header[headerLen++] = b;
+                if (headerLen == LEN_HEADER) {
+                    bodyLeft = int32(header, 8) & 0xffffffffL;
+                    replyState = 4;
+                    if (bodyLeft == 0 && packetDone()) {
+                        reply(data, start, off);
+                        start = off;
+                    }
+                }
+                continue;
+            }
+            // replyState == 1
+            if (lineLen == 0) {
+                lineStart = replyOffset(start, off - 1);
+            }
+            if (b != '\n') {
+                if (lineLen == line.length) {
+                    if (lineLen >= MAX_LINE_LEN) {
+                        throw new Exception("reply line too long");
+                    }
+                    line = Arrays.copyOf(line, lineLen * 2);
+                }
+                line[lineLen++] = b;
+                continue;
+            }
+            if (lineDone()) {
+                reply(data, start, off);
+                start = off;
+            } else {
+                lineLen = 0;
+            }
+        }
+        if (start < len) {
+            ByteArray rest = data.sub(start, len - start);
+            partialReply = partialReply == null ? rest : ByteArray.rope(partialReply).concat(rest);
+        }
+        return ctx.flush();
+    }
+
+    private int replyOffset(int start, int off) {
+        return (partialReply == null ? 0 : partialReply.length()) + off - start;
+    }
+
+    // retrieve the waiting request of the reply,
+    // the quiet commands before it are considered done without replies
+    private MemcachedContext.Waiting head(int opcode, int opaque) throws Exception {
+        while (true) {
+            MemcachedContext.Waiting w = waiting.peek();
+            if (w == null) {
+                throw new Exception("unexpected reply, no request is waiting");
+            }
+            if (!w.quiet || (w.opcode == opcode && w.opaque == opaque)) {
+                return w;
+            }
+            waiting.poll();
+            w.done(EMPTY);
+        }
+    }
+
+    // return true if the reply is complete
+    private boolean lineDone() throws Exception {
+        int len = lineLen > 0 && line[lineLen - 1] == '\r' ? lineLen - 1 : lineLen;
+        MemcachedContext.Waiting w = head(-1, -1);
+        switch (w.kind) {
+            case KIND_RETRIEVAL:
+                if (startsWith(len, "VALUE ")) {
+                    value(len);
+                    return false;
+                }
+                if (!startsWith(len, "END") || len != 3) {
+                    w.error = true;
+                }
+                return true;
+            case KIND_STATS:
+                return !startsWith(len, "STAT ");
+            default:
+                return true;
+        }
+    }
+
+    // VALUE <key> <flags> <bytes> [<cas unique>]
+    private void value(int len) throws Exception {
+        int idx = 0;
+        int start = -1;
+        long bytes = -1;
+        for (int i = 0; i <= len; ++i) {
+            boolean space = i == len || line[i] == ' ';
+            if (space && start != -1) {
+                if (idx == 1) {
+                    valueKey = Arrays.copyOfRange(line, start, i);
+                } else if (idx == 3) {
+                    bytes = 0;
+                    for (int j = start; j < i; ++j) {
+                        int d = line[j] - '0';
+                        if (d < 0 || d > 9 || bytes > Integer.MAX_VALUE) {
+                            throw new Exception("invalid length in reply: " + new String(line, 0, len));
+                        }
+                        bytes = bytes * 10 + d;
+                    }
+                }
+                ++idx;
+                start = -1;
+            } else if (!space && start == -1) {
+                start = i;
+            }
+        }
+        if (bytes == -1) {
+            throw new Exception("invalid VALUE line in reply: " + new String(line, 0, len));
+        }
+        valueLeft = bytes + 2;
+        replyState = 2;
+    }
+
+    private boolean startsWith(int len, String s) {
+        if (len < s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); ++i) {
+            if (line[i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // return true if the reply is complete
+    private boolean packetDone() throws Exception {
+        replyState = 0;
+        int opcode = header[1] & 0xff;
+        int keyLen = ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+        int opaque = int32(header, 12);
+        head(opcode, opaque);
+        // stat replies end with a packet without key
+        return opcode != OP_STAT || keyLen == 0;
+    }
+
+    private static int int32(byte[] bytes, int off) {
+        return ((bytes[off] & 0xff) << 24)
+            | ((bytes[off + 1] & 0xff) << 16)
+            | ((bytes[off + 2] & 0xff) << 8)
+            | (bytes[off + 3] & 0xff);
+    }
+
+    private void reply(ByteArray data, int start, int end) {
+        replyState = 0;
+        ByteArray reply = data.sub(start, end - start);
+        if (partialReply != null) {
+            reply = ByteArray.rope(partialReply).concat(reply);
+            partialReply = null;
+        }
+        waiting.poll().done(reply);
+    }
+
+    // ---------------
+    // END backend
+    // ---------------
+
+    /**
+     * calculate the hash slot of the key: crc32 of the key mod 16384
+     *
+     * @param key the key
+     * @return the slot
+     */
+    public static int slot(byte[] key) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(key, 0, key.length);
+        return (int) (crc32.getValue() & (SLOT_COUNT - 1));
+    }
+}
@@ -0,0 +1,70 @@
+package vproxy.processor.redis;
+
+import vproxy.util.BoundedNameRegistry;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency counters of redis commands proxied by the {@link RedisProcessor},
+ * shared by all redis connections.<br>
+ * The latency is measured from the command being sent to the backend
+ * to the reply being received from the backend.<br>
+ * At most {@link #MAX_COMMANDS} command names are recorded,
+ * others are recorded as {@link #OTHER}.
+ */
+public class RedisCommandStats {
+    public static final String OTHER = "OTHER";
+    private static final int MAX_COMMANDS = 1024;
+    private static final BoundedNameRegistry<RedisCommandStats> stats = new BoundedNameRegistry<>(MAX_COMMANDS, OTHER, RedisCommandStats::new);
+
+    public final String command;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    private RedisCommandStats(String command) {
+        this.command = command;
+    }
+
+    static RedisCommandStats of(String command) {
+        return stats.get(command);
+    }
+
+    void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @return stats of all recorded commands
+     */
+    public static List<RedisCommandStats> getAll() {
+        return stats.values();
+    }
+
+    @Override
+    public String toString() {
+        long count = getCount();
+        return "RedisCommandStats{" +
+            "command=" + command +
+            ", count=" + count +
+            ", avgNanos=" + (count == 0 ? 0 : getTotalNanos() / count) +
+            ", maxNanos=" + getMaxNanos() +
+            '}';
+    }
+}
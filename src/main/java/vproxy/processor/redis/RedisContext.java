@@ -0,0 +1,65 @@
+package vproxy.processor.redis;
+
+import vproxy.processor.Hint;
+import vproxy.processor.OOContext;
+import vproxy.util.ByteArray;
+
+import java.util.ArrayDeque;
+
+/**
+ * Commands of one client may be sent to different backends,
+ * so the replies may come back in a different order.<br>
+ * Every command sent to a backend is recorded in {@link #pending} in the order of the client,
+ * and the replies are only sent to the client when all replies before them are ready.
+ */
+public class RedisContext extends OOContext<RedisSubContext> {
+    static class Pending {
+        final RedisCommandStats stats; // null if the reply is not an answer to a command, e.g. pubsub messages
+        final long start;
+        ByteArray reply;
+
+        Pending(RedisCommandStats stats, long start) {
+            this.stats = stats;
+            this.start = start;
+        }
+    }
+
+    final ArrayDeque<Pending> pending = new ArrayDeque<>();
+
+    @Override
+    public int connection(RedisSubContext front) {
+        return front.connection();
+    }
+
+    @Override
+    public Hint connectionHint(RedisSubContext front) {
+        return front.connectionHint();
+    }
+
+    @Override
+    public void chosen(RedisSubContext front, RedisSubContext subCtx) {
+        if (!front.commandComplete()) {
+            return;
+        }
+        Pending p = new Pending(RedisCommandStats.of(front.commandName()), System.nanoTime());
+        pending.add(p);
+        subCtx.waiting.add(p);
+    }
+
+    @Override
+    public boolean keepFrontendWriteOrder() {
+        // the replies are put in order here,
+        // they must not be reordered when written by different backend connections
+        return true;
+    }
+
+    // retrieve the replies which are ready to be sent to the client
+    ByteArray flush() {
+        ByteArray ret = null;
+        while (!pending.isEmpty() && pending.peekFirst().reply != null) {
+            ByteArray reply = pending.pollFirst().reply;
+            ret = ret == null ? reply : ByteArray.rope(ret).concat(reply);
+        }
+        return ret;
+    }
+}
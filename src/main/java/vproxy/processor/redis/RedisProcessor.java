@@ -0,0 +1,28 @@
+package vproxy.processor.redis;
+
+import vproxy.processor.OOProcessor;
+
+import java.net.InetSocketAddress;
+
+/**
+ * The processor for redis (RESP).<br>
+ * Each command from the client is routed separately with the hash slot of its key,
+ * see {@link RedisSubContext} for how commands and replies are framed,
+ * and {@link RedisContext} for how replies from different backends are put back in order.
+ */
+public class RedisProcessor extends OOProcessor<RedisContext, RedisSubContext> {
+    @Override
+    public String name() {
+        return "redis";
+    }
+
+    @Override
+    public RedisContext init(InetSocketAddress clientAddress) {
+        return new RedisContext();
+    }
+
+    @Override
+    public RedisSubContext initSub(RedisContext ctx, int id, InetSocketAddress associatedAddress) {
+        return new RedisSubContext(ctx, id);
+    }
+}
@@ -0,0 +1,566 @@
+package vproxy.processor.redis;
+
+import vproxy.processor.Hint;
+import vproxy.processor.OOSubContext;
+import vproxy.processor.Processor;
+import vproxy.util.ByteArray;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * For the frontend connection, the sub context reads exactly one command at a time:
+ * the data is read line by line (a few bytes each time, to never read into the next command),
+ * and bulk strings are read with their lengths. Only the command name and the key are copied,
+ * the command itself is passed to the backend as it is.
+ * The key is hashed into a slot in the same way as redis cluster, which is used as the connection hint.<br>
+ * For backend connections, the sub context consumes any data, and splits it into replies,
+ * then the replies ready to be sent are retrieved from the {@link RedisContext}.
+ */
+public class RedisSubContext extends OOSubContext<RedisContext> {
+    public static final int SLOT_COUNT = 16384;
+    private static final int MAX_NAME_LEN = 32;
+    private static final Set<String> KEYLESS_COMMANDS = Set.of(
+        "AUTH", "BGREWRITEAOF", "BGSAVE", "CLIENT", "CLUSTER", "COMMAND", "CONFIG", "DBSIZE",
+        "DISCARD", "ECHO", "EXEC", "FLUSHALL", "FLUSHDB", "HELLO", "INFO", "LASTSAVE", "MONITOR",
+        "MULTI", "PING", "QUIT", "RANDOMKEY", "READONLY", "READWRITE", "ROLE", "SAVE", "SCAN",
+        "SCRIPT", "SELECT", "SLOWLOG", "TIME", "UNWATCH");
+
+    public RedisSubContext(RedisContext ctx, int connId) {
+        super(ctx, connId);
+    }
+
+    @Override
+    public Processor.Mode mode() {
+        return Processor.Mode.handle;
+    }
+
+    @Override
+    public boolean expectNewFrame() {
+        // only full commands and full replies are returned from feed()
+        return true;
+    }
+
+    @Override
+    public int len() {
+        return connId == 0 ? frontendLen() : -1;
+    }
+
+    @Override
+    public ByteArray feed(ByteArray data) throws Exception {
+        return connId == 0 ? feedFrontend(data) : feedBackend(data);
+    }
+
+    @Override
+    public ByteArray produce() {
+        return null;
+    }
+
+    @Override
+    public void proxyDone() {
+        // will not proxy
+    }
+
+    @Override
+    public ByteArray connected() {
+        return null;
+    }
+
+    // ---------------
+    // START frontend
+    // ---------------
+
+    /*
+     * 0 ---> the initial state
+     * ----->(*)---> multi bulk, read the count line -----> 1
+     * ----->(otherwise)---> inline, read the line -------> 1
+     * 1 ---> line
+     * ----->(\r\n) -> count line: -------> 1, or drop the command if count <= 0 -> 0
+     *                 bulk length line: -> 2
+     *                 inline line: ------> 3, or drop the command if empty ----> 0
+     * ----->(otherwise)--> append ---------> 1
+     * 2 ---> bulk string
+     * ----->for $len+2 times, read data ---> 2
+     * then--> if it's the last argument ---> 3, otherwise -> 1
+     * 3 ---> the command is complete
+     */
+    private int state = 0;
+    private ByteArray command;
+    private boolean inline;
+    private int argc = -1;
+    private int argIdx;
+    private int bulkLeft; // including the tailing \r\n
+    private byte[] line = new byte[16];
+    private int lineLen;
+
+    private byte[] name = new byte[MAX_NAME_LEN];
+    private int nameLen;
+    private boolean eval;
+    private int numKeys;
+    private byte[] key;
+    private int keyLen = -1; // -1 means no key
+    private boolean capturingKey;
+    private String nameStr;
+
+    private int frontendLen() {
+        switch (state) {
+            case 0:
+            case 3: // feed() resets the state to 0 when the next command comes
+                return 2; // at least \r\n
+            case 1:
+                if (lineLen == 0) {
+                    return 4; // at least $0\r\n
+                }
+                return line[lineLen - 1] == '\r' ? 1 : 2;
+            default: // 2
+                // when it's not the last argument, also read the head of the next bulk length line
+                return bulkLeft + (argIdx + 1 < argc ? 4 : 0);
+        }
+    }
+
+    private void resetCommand() {
+        state = 0;
+        command = null;
+        inline = false;
+        argc = -1;
+        lineLen = 0;
+        nameLen = 0;
+        eval = false;
+        numKeys = 0;
+        keyLen = -1;
+        nameStr = null;
+    }
+
+    private ByteArray feedFrontend(ByteArray data) throws Exception {
+        if (state == 3) {
+            resetCommand();
+        }
+        command = command == null ? data : ByteArray.rope(command).concat(data);
+
+        int off = 0;
+        int len = data.length();
+        while (off < len) {
+            if (state == 2) {
+                int n = Math.min(bulkLeft, len - off);
+                capture(data, off, n);
+                off += n;
+                bulkLeft -= n;
+                if (bulkLeft == 0) {
+                    capturingKey = false;
+                    ++argIdx;
+                    state = argIdx == argc ? 3 : 1;
+                }
+                continue;
+            }
+            if (state == 3) {
+                throw new Exception("unexpected data after the command");
+            }
+            byte b = data.get(off++);
+            if (state == 0) {
+                inline = b != '*';
+                state = 1;
+                if (inline) {
+                    appendLine(b);
+                }
+                continue;
+            }
+            // state == 1
+            if (b == '\n' && lineLen > 0 && line[lineLen - 1] == '\r') {
+                handleLine(lineLen - 1);
+                lineLen = 0;
+            } else {
+                appendLine(b);
+            }
+        }
+
+        if (state == 3) {
+            return command;
+        }
+        if (state == 0) {
+            resetCommand(); // dropped
+        }
+        return null;
+    }
+
+    private void appendLine(byte b) {
+        if (lineLen == line.length) {
+            line = Arrays.copyOf(line, lineLen * 2);
+        }
+        line[lineLen++] = b;
+    }
+
+    private void handleLine(int len) throws Exception {
+        if (inline) {
+            handleInline(len);
+            return;
+        }
+        if (argc == -1) {
+            int count = parseInt(line, 0, len);
+            if (count <= 0) {
+                state = 0; // nothing to run, e.g. *0
+            } else {
+                argc = count;
+                argIdx = 0;
+            }
+            return;
+        }
+        if (len == 0 || line[0] != '$') {
+            throw new Exception("invalid bulk length line, expecting $, but got " + new String(line, 0, len));
+        }
+        int n = parseInt(line, 1, len);
+        if (n < 0) {
+            throw new Exception("invalid bulk length " + n);
+        }
+        bulkLeft = n + 2;
+        state = 2;
+        if ((argIdx == 1 && !eval) || (argIdx == 3 && eval && numKeys > 0)) {
+            keyLen = 0;
+            capturingKey = true;
+        }
+    }
+
+    private void handleInline(int len) {
+        int start = 0;
+        int idx = 0;
+        for (int i = 0; i <= len; ++i) {
+            if (i == len || line[i] == ' ') {
+                if (i > start) {
+                    if (idx == 0) {
+                        nameLen = Math.min(i - start, MAX_NAME_LEN);
+                        System.arraycopy(line, start, name, 0, nameLen);
+                    } else if (idx == 1) {
+                        key = Arrays.copyOfRange(line, start, i);
+                        keyLen = key.length;
+                    }
+                    ++idx;
+                }
+                start = i + 1;
+            }
+        }
+        state = idx == 0 ? 0 : 3;
+    }
+
+    private static int parseInt(byte[] bytes, int off, int end) throws Exception {
+        if (off == end) {
+            throw new Exception("invalid number: empty");
+        }
+        boolean neg = bytes[off] == '-';
+        if (neg) {
+            ++off;
+        }
+        int n = 0;
+        for (int i = off; i < end; ++i) {
+            int d = bytes[i] - '0';
+            if (d < 0 || d > 9 || n > (Integer.MAX_VALUE - d) / 10) {
+                throw new Exception("invalid number: " + new String(bytes, 0, end));
+            }
+            n = n * 10 + d;
+        }
+        return neg ? -n : n;
+    }
+
+    // copy the command name and the key, and the numkeys of EVAL/EVALSHA
+    private void capture(ByteArray data, int off, int n) throws Exception {
+        // the \r\n is not captured
+        int contentLeft = bulkLeft - 2;
+        if (contentLeft <= 0) {
+            return;
+        }
+        int m = Math.min(n, contentLeft);
+        if (argIdx == 0) {
+            int c = Math.min(m, MAX_NAME_LEN - nameLen);
+            for (int i = 0; i < c; ++i) {
+                name[nameLen++] = data.get(off + i);
+            }
+            if (contentLeft == m && nameLen == 4) {
+                eval = nameEquals("EVAL");
+            } else if (contentLeft == m && nameLen == 7) {
+                eval = nameEquals("EVALSHA");
+            }
+        } else if (capturingKey) {
+            int total = keyLen + contentLeft;
+            if (key == null || key.length < total) {
+                key = key == null ? new byte[total] : Arrays.copyOf(key, total);
+            }
+            data.sub(off, m).toNewJavaArray(key, keyLen);
+            keyLen += m;
+        } else if (argIdx == 2 && eval) {
+            for (int i = 0; i < m; ++i) {
+                int d = data.get(off + i) - '0';
+                if (d < 0 || d > 9) {
+                    throw new Exception("invalid numkeys");
+                }
+                numKeys = numKeys * 10 + d;
+            }
+        }
+    }
+
+    private boolean nameEquals(String s) {
+        for (int i = 0; i < nameLen; ++i) {
+            if ((name[i] & ~0x20) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean commandComplete() {
+        return state == 3;
+    }
+
+    String commandName() {
+        if (nameStr != null) {
+            return nameStr;
+        }
+        char[] chars = new char[nameLen];
+        for (int i = 0; i < nameLen; ++i) {
+            byte b = name[i];
+            chars[i] = (char) (b >= 'a' && b <= 'z' ? b - 32 : b & 0xff);
+        }
+        nameStr = new String(chars);
+        return nameStr;
+    }
+
+    int connection() {
+        // wait until the command is complete
+        // and it's -1 before the first byte of a command is received, so that it's `no current backend`
+        return state == 1 || state == 2 ? 0 : -1;
+    }
+
+    Hint connectionHint() {
+        if (state != 3 || keyLen == -1) {
+            return null;
+        }
+        if (!eval && KEYLESS_COMMANDS.contains(commandName())) {
+            return null;
+        }
+        return Hint.ofSlot(slot(key, keyLen));
+    }
+
+    // ---------------
+    // END frontend
+    // ---------------
+
+    // ---------------
+    // START backend
+    // ---------------
+
+    /*
+     * 0 ---> type
+     * ----->($ = !)-----------> bulk length, read line -------> 1
+     * ----->(* ~ > % |)-------> aggregate length, read line --> 1
+     * ----->(otherwise)-------> simple, read line ------------> 1
+     * 1 ---> line
+     * ----->(\r)---> 2
+     * 2 ---> line end
+     * ----->(\n)---> bulk: -1 -> element done, otherwise -----> 3
+     *                aggregate: 0 or -1 -> element done, otherwise push the count -> 0
+     *                simple: element done
+     * 3 ---> bulk string
+     * ----->for $len+2 times, read data --> element done
+     *
+     * element done: decrease the count on stack top, and pop when reaching 0,
+     *               the reply is complete when the stack becomes empty
+     */
+    final ArrayDeque<RedisContext.Pending> waiting = new ArrayDeque<>();
+    private int replyState = 0;
+    private byte type;
+    private boolean neg;
+    private long num;
+    private long replyBulkLeft;
+    private int[] stack = new int[8];
+    private int depth = 0;
+    private ByteArray partialReply;
+
+    private ByteArray feedBackend(ByteArray data) throws Exception {
+        int start = 0;
+        int off = 0;
+        int len = data.length();
+        while (off < len) {
+            if (replyState == 3) {
+                int n = (int) Math.min(replyBulkLeft, len - off);
+                off += n;
+                replyBulkLeft -= n;
+                if (replyBulkLeft == 0 && elementDone()) {
+                    reply(data, start, off);
+                    start = off;
+                }
+                continue;
+            }
+            byte b = data.get(off++);
+            switch (replyState) {
+                case 0:
+                    type = b;
+                    neg = false;
+                    num = 0;
+                    replyState = 1;
+                    break;
+                case 1:
+                    if (b == '\r') {
+                        replyState = 2;
+                    } else if (isLengthType(type)) {
+                        if (b == '-') {
+                            neg = true;
+                        } else if (b >= '0' && b <= '9') {
+                            num = num * 10 + (b - '0');
+                        } else {
+                            throw new Exception("invalid length in reply: " + (char) b);
+                        }
+                    }
+                    break;
+                default: // 2
+                    if (b != '\n') {
+                        throw new Exception("invalid reply, expecting \\n, but got " + (char) b);
+                    }
+                    if (lineDone()) {
+                        reply(data, start, off);
+                        start = off;
+                    }
+            }
+        }
+        if (start < len) {
+            ByteArray rest = data.sub(start, len - start);
+            partialReply = partialReply == null ? rest : ByteArray.rope(partialReply).concat(rest);
+        }
+        return ctx.flush();
+    }
+
+    private static boolean isLengthType(byte type) {
+        switch (type) {
+            case '$':
+            case '=':
+            case '!':
+            case '*':
+            case '~':
+            case '>':
+            case '%':
+            case '|':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // return true if the reply is complete
+    private boolean lineDone() throws Exception {
+        switch (type) {
+            case '$':
+            case '=':
+            case '!':
+                if (neg) {
+                    return elementDone();
+                }
+                replyBulkLeft = num + 2;
+                replyState = 3;
+                return false;
+            case '*':
+            case '~':
+            case '>':
+                return aggregate(neg ? 0 : num);
+            case '%':
+                return aggregate(neg ? 0 : num * 2);
+            case '|':
+                // the attributes are followed by the actual reply
+                return aggregate(num * 2 + 1);
+            default:
+                return elementDone();
+        }
+    }
+
+    private boolean aggregate(long count) throws Exception {
+        if (count == 0) {
+            return elementDone();
+        }
+        if (count > Integer.MAX_VALUE) {
+            throw new Exception("too many elements in reply: " + count);
+        }
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = (int) count;
+        replyState = 0;
+        return false;
+    }
+
+    private boolean elementDone() {
+        replyState = 0;
+        while (depth > 0) {
+            if (--stack[depth - 1] > 0) {
+                return false;
+            }
+            --depth;
+        }
+        return true;
+    }
+
+    private void reply(ByteArray data, int start, int end) {
+        ByteArray reply = data.sub(start, end - start);
+        if (partialReply != null) {
+            reply = ByteArray.rope(partialReply).concat(reply);
+            partialReply = null;
+        }
+        RedisContext.Pending p = waiting.poll();
+        if (p == null) {
+            // not a reply of a command, e.g. messages of subscribed channels
+            p = new RedisContext.Pending(null, 0);
+            ctx.pending.add(p);
+        } else {
+            p.stats.record(System.nanoTime() - p.start);
+        }
+        p.reply = reply;
+    }
+
+    // ---------------
+    // END backend
+    // ---------------
+
+    /**
+     * calculate the hash slot of the key in the same way as redis cluster:
+     * crc16 of the key (or the {hash tag} in the key) mod 16384
+     *
+     * @param key the key
+     * @param len length of the key
+     * @return the slot
+     */
+    public static int slot(byte[] key, int len) {
+        int start = 0;
+        int end = len;
+        for (int i = 0; i < len; ++i) {
+            if (key[i] == '{') {
+                for (int j = i + 1; j < len; ++j) {
+                    if (key[j] == '}') {
+                        if (j > i + 1) { // {} is not a hash tag
+                            start = i + 1;
+                            end = j;
+                        }
+                        break;
+                    }
+                }
+                break;
+            }
+        }
+        return crc16(key, start, end) & (SLOT_COUNT - 1);
+    }
+
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        // crc16 xmodem, poly 0x1021
+        for (int i = 0; i < 256; ++i) {
+            int crc = i << 8;
+            for (int j = 0; j < 8; ++j) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC16_TABLE[i] = crc & 0xffff;
+        }
+    }
+
+    private static int crc16(byte[] bytes, int start, int end) {
+        int crc = 0;
+        for (int i = start; i < end; ++i) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ bytes[i]) & 0xff]) & 0xffff;
+        }
+        return crc;
+    }
+}
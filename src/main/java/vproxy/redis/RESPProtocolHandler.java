@@ -26,6 +26,16 @@ public class RESPProtocolHandler implements ProtocolHandler<RESPContext> {
 
     @Override
     public void readable(ProtocolHandlerContext<RESPContext> ctx) {
+        // the client may send multiple commands at once (pipelining)
+        while (ctx.inBuffer.used() != 0) {
+            if (!handleOne(ctx)) {
+                return;
+            }
+        }
+    }
+
+    // return false if want more data
+    private boolean handleOne(ProtocolHandlerContext<RESPContext> ctx) {
         if (ctx.data.parser == null) {
             ctx.data.parser = new RESPParser(config.maxParseLen);
         }
@@ -33,11 +43,11 @@ public class RESPProtocolHandler implements ProtocolHandler<RESPContext> {
         if (r == -1) {
             String error = ctx.data.parser.getErrorMessage();
             if (error == null)
-                return; // no error and -1 means want more data
+                return false; // no error and -1 means want more data
             ctx.inBuffer.clear(); // remove pending input data
             ctx.data.parser = null; // remove the parser
             ctx.write(Serializer.fromErrorString(error));
-            return;
+            return false;
         }
         Object o = ctx.data.parser.getResult().getJavaObject();
         ctx.data.parser = null; // remove the parser
@@ -72,6 +82,7 @@ public class RESPProtocolHandler implements ProtocolHandler<RESPContext> {
             Logger.error(LogType.IMPROPER_USE, "user handle function thrown error", t);
             ctx.write(Serializer.fromErrorString("Internal Error"));
         }
+        return true;
     }
 
     @Override
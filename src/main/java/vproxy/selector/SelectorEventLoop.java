@@ -4,12 +4,14 @@ import vfd.*;
 import vproxy.app.Config;
 import vproxy.selector.wrap.WrappedSelector;
 import vproxy.util.*;
+import vproxy.util.ringbuffer.DirectBufferPool;
 
 import java.io.IOException;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ClosedSelectorException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Function;
 
@@ -25,6 +27,17 @@ public class SelectorEventLoop {
         }
     }
 
+    // a channel which cannot be registered for now, see add0()
+    private static class PendingAdd {
+        volatile EventSet ops;
+        final RegisterData registerData;
+
+        PendingAdd(EventSet ops, RegisterData registerData) {
+            this.ops = ops;
+            this.registerData = registerData;
+        }
+    }
+
     private static final ThreadLocal<SelectorEventLoop> loopThreadLocal = new ThreadLocal<>();
 
     public static SelectorEventLoop current() {
@@ -33,9 +46,12 @@ public class SelectorEventLoop {
 
     public final WrappedSelector selector;
     public final FDs fds;
-    private final TimeQueue<Runnable> timeQueue = new TimeQueue<>();
+    public final DirectBufferPool bufferPool = new DirectBufferPool(this);
+    private final TimeQueue<Runnable> timeQueue;
+    private final ArrayList<Runnable> timeEventsToRun = new ArrayList<>(); // always reuse the list
     private final ConcurrentLinkedQueue<Runnable> runOnLoopEvents = new ConcurrentLinkedQueue<>();
     private final HandlerContext ctx = new HandlerContext(this); // always reuse the ctx object
+    private final ConcurrentHashMap<FD, PendingAdd> pendingAdds = new ConcurrentHashMap<>();
     public volatile Thread runningThread;
 
     // these locks are a little tricky
@@ -43,9 +59,10 @@ public class SelectorEventLoop {
     private final Lock CLOSE_LOCK;
     private List<Tuple<FD, RegisterData>> THE_KEY_SET_BEFORE_SELECTOR_CLOSE;
 
-    private SelectorEventLoop(FDs fds) throws IOException {
+    private SelectorEventLoop(FDs fds, TimeQueue<Runnable> timeQueue) throws IOException {
         this.selector = new WrappedSelector(fds.openSelector());
         this.fds = fds;
+        this.timeQueue = timeQueue;
         if (VFDConfig.useFStack) {
             CLOSE_LOCK = Lock.createMock();
         } else {
@@ -61,6 +78,10 @@ public class SelectorEventLoop {
     private static volatile SelectorEventLoop theLoop = null; // this field is used when using fstack
 
     public static SelectorEventLoop open() throws IOException {
+        return open(TimeQueue.create());
+    }
+
+    public static SelectorEventLoop open(TimeQueue<Runnable> timeQueue) throws IOException {
         if (VFDConfig.useFStack) {
             // we use only one event loop if it's using f-stack
             // considering the program code base, it will take too much time
@@ -70,7 +91,7 @@ public class SelectorEventLoop {
             if (theLoop == null) {
                 synchronized (SelectorEventLoop.class) {
                     if (theLoop == null) {
-                        theLoop = new SelectorEventLoop(FDProvider.get().getProvided());
+                        theLoop = new SelectorEventLoop(FDProvider.get().getProvided(), timeQueue);
                     }
                 }
             }
@@ -78,16 +99,20 @@ public class SelectorEventLoop {
             // no need to consider whether the loop would be closed
             // when the loop closes, the program will exit
         }
-        return new SelectorEventLoop(FDProvider.get().getProvided());
+        return new SelectorEventLoop(FDProvider.get().getProvided(), timeQueue);
     }
 
     public static SelectorEventLoop open(FDs fds) throws IOException {
+        return open(fds, TimeQueue.create());
+    }
+
+    public static SelectorEventLoop open(FDs fds, TimeQueue<Runnable> timeQueue) throws IOException {
         if (VFDConfig.useFStack) {
             if (FDProvider.get().getProvided() == fds) {
                 throw new IllegalArgumentException("should not call SelectorEventLoop.open(fds) with the default fds impl");
             }
         }
-        return new SelectorEventLoop(fds);
+        return new SelectorEventLoop(fds, timeQueue);
     }
 
     private void tryRunnable(Runnable r) {
@@ -114,14 +139,21 @@ public class SelectorEventLoop {
     }
 
     private void handleTimeEvents() {
-        List<Runnable> toRun = new LinkedList<>();
+        // retrieve all expired events before running them
+        // new events added by the callbacks will be handled in the next round
+        ArrayList<Runnable> toRun = timeEventsToRun;
         while (timeQueue.nextTime() == 0) {
             Runnable r = timeQueue.pop();
+            if (r == null) {
+                break;
+            }
             toRun.add(r);
         }
-        for (Runnable r : toRun) {
-            tryRunnable(r);
+        int size = toRun.size();
+        for (int i = 0; i < size; ++i) {
+            tryRunnable(toRun.get(i));
         }
+        toRun.clear();
     }
 
     @SuppressWarnings("unchecked")
@@ -189,6 +221,7 @@ public class SelectorEventLoop {
             RegisterData att = tuple.right;
             triggerRemovedCallback(channel, att);
         }
+        bufferPool.close();
     }
 
     @Blocking // will block until the loop actually starts
@@ -376,15 +409,25 @@ public class SelectorEventLoop {
             // so we re-run this in next-next tick
             // the next tick to ensure this key is removed
             // then next next tick we can register
+            //
+            // the channel is considered added in the meantime:
+            // the ops are recorded and modified in the PendingAdd,
+            // and it can be removed before actually registered
 
             assert Logger.lowLevelDebug("key already canceled, we register it on next tick after keys are handled");
 
+            PendingAdd pending = new PendingAdd(ops, registerData);
+            pendingAdds.put(channel, pending);
             nextTick(() -> nextTick(() -> {
+                if (!pendingAdds.remove(channel, pending)) {
+                    return; // already removed
+                }
                 try {
-                    selector.register(channel, ops, registerData);
+                    selector.register(channel, pending.ops, registerData);
                 } catch (ClosedChannelException e1) {
-                    // will not happen, if the channel is closed, this statement will not run
-                    throw new RuntimeException(e1);
+                    // the channel is closed without being removed from the loop
+                    assert Logger.lowLevelDebug("channel " + channel + " closed before registered");
+                    triggerRemovedCallback(channel, registerData);
                 }
             }));
             return false;
@@ -393,6 +436,13 @@ public class SelectorEventLoop {
     }
 
     private void doModify(FD fd, EventSet ops) {
+        if (!pendingAdds.isEmpty()) {
+            PendingAdd pending = pendingAdds.get(fd);
+            if (pending != null) {
+                pending.ops = ops;
+                return;
+            }
+        }
         if (selector.events(fd).equals(ops)) {
             return; // no need to update if they are the same
         }
@@ -409,18 +459,26 @@ public class SelectorEventLoop {
 
     @ThreadSafe
     public void addOps(FD channel, EventSet ops) {
-        var old = selector.events(channel);
+        var old = getOps(channel);
         doModify(channel, old.combine(ops));
     }
 
     @ThreadSafe
     public void rmOps(FD channel, EventSet ops) {
-        var old = selector.events(channel);
+        var old = getOps(channel);
         doModify(channel, old.reduce(ops));
     }
 
     @ThreadSafe
     public void remove(FD channel) {
+        if (!pendingAdds.isEmpty()) {
+            PendingAdd pending = pendingAdds.remove(channel);
+            if (pending != null) {
+                triggerRemovedCallback(channel, pending.registerData);
+                return;
+            }
+        }
+
         RegisterData att;
 
         // synchronize the channel
@@ -441,11 +499,23 @@ public class SelectorEventLoop {
 
     @ThreadSafe
     public EventSet getOps(FD channel) {
+        if (!pendingAdds.isEmpty()) {
+            PendingAdd pending = pendingAdds.get(channel);
+            if (pending != null) {
+                return pending.ops;
+            }
+        }
         return selector.events(channel);
     }
 
     @ThreadSafe
     public Object getAtt(FD channel) {
+        if (!pendingAdds.isEmpty()) {
+            PendingAdd pending = pendingAdds.get(channel);
+            if (pending != null) {
+                return pending.registerData.att;
+            }
+        }
         return ((RegisterData) selector.attachment(channel)).att;
     }
 
@@ -484,6 +554,9 @@ public class SelectorEventLoop {
                     for (RegisterEntry key : keys) {
                         THE_KEY_SET_BEFORE_SELECTOR_CLOSE.add(new Tuple<>(key.fd, (RegisterData) key.attachment));
                     }
+                    for (Map.Entry<FD, PendingAdd> e : pendingAdds.entrySet()) {
+                        THE_KEY_SET_BEFORE_SELECTOR_CLOSE.add(new Tuple<>(e.getKey(), e.getValue().registerData));
+                    }
                 } catch (ConcurrentModificationException ignore) {
                     // there might be adding and removing occur when closing the selector
                     // but we do not lock them for performance concern
@@ -49,8 +49,13 @@ public class WrappedSelector implements FDSelector {
         return selector.isOpen();
     }
 
+    // return null if no virtual fd fires
+    // the set is allocated only when necessary to keep the select path allocation free
     private Set<SelectedEntry> calcVirtual() {
-        Set<SelectedEntry> ret = new HashSet<>();
+        if (virtualSocketFDs.isEmpty()) {
+            return null;
+        }
+        Set<SelectedEntry> ret = null;
         //noinspection unused
         try (var unused = VIRTUAL_LOCK.lock()) {
             for (Map.Entry<VirtualFD, REntry> e : virtualSocketFDs.entrySet()) {
@@ -82,6 +87,9 @@ public class WrappedSelector implements FDSelector {
                     eventSet = null;
                 }
                 if (eventSet != null) {
+                    if (ret == null) {
+                        ret = new HashSet<>();
+                    }
                     ret.add(new SelectedEntry(fd, eventSet, entry.attachment));
                 }
             }
@@ -103,7 +111,7 @@ public class WrappedSelector implements FDSelector {
     @Override
     public Collection<SelectedEntry> select() throws IOException {
         var set = calcVirtual();
-        if (set.isEmpty()) {
+        if (set == null) {
             return handleRealSelect(selector.select());
         } else {
             set.addAll(handleRealSelect(selector.selectNow()));
@@ -114,6 +122,9 @@ public class WrappedSelector implements FDSelector {
     @Override
     public Collection<SelectedEntry> selectNow() throws IOException {
         var set = calcVirtual();
+        if (set == null) {
+            return handleRealSelect(selector.selectNow());
+        }
         set.addAll(handleRealSelect(selector.selectNow()));
         return set;
     }
@@ -121,7 +132,7 @@ public class WrappedSelector implements FDSelector {
     @Override
     public Collection<SelectedEntry> select(long millis) throws IOException {
         var set = calcVirtual();
-        if (set.isEmpty()) {
+        if (set == null) {
             return handleRealSelect(selector.select(millis));
         } else {
             set.addAll(handleRealSelect(selector.selectNow()));
@@ -81,7 +81,7 @@ public class KCPHandler extends ArqUDPHandler {
                 if (array == null) {
                     array = a;
                 } else {
-                    array = array.concat(a);
+                    array = ByteArray.rope(array).concat(a);
                 }
             }
         }
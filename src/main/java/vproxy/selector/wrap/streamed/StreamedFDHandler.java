@@ -214,7 +214,7 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
             if (array == null) {
                 array = a;
             } else {
-                array = array.concat(a);
+                array = ByteArray.rope(array).concat(a);
             }
         }
         return array;
@@ -230,7 +230,7 @@ public abstract class StreamedFDHandler implements Handler<SocketFD> {
         if (cachedReceivedMessage == null) {
             cachedReceivedMessage = arr;
         } else {
-            cachedReceivedMessage = cachedReceivedMessage.concat(arr);
+            cachedReceivedMessage = ByteArray.rope(cachedReceivedMessage).concat(arr);
         }
     }
 
@@ -24,7 +24,7 @@ public final class ServerDatagramFD implements FD, ServerSocketFD, WritableAware
     private final SelectorEventLoop loop;
     private final WrappedSelector selector;
 
-    private final ByteBuffer buf = ByteBuffer.allocate(Config.udpMtu); // enough for any udp packet
+    private DatagramBatch batch; // allocated when the first accept() is called
     private final Deque<VirtualDatagramFD> acceptQ = new LinkedList<>();
     private final Map<SocketAddress, VirtualDatagramFD> acceptMap = new HashMap<>();
     private final Map<SocketAddress, VirtualDatagramFD> conns = new HashMap<>();
@@ -48,15 +48,14 @@ public final class ServerDatagramFD implements FD, ServerSocketFD, WritableAware
     @SuppressWarnings("Java8MapApi")
     @Override
     public VirtualDatagramFD accept() throws IOException {
+        if (batch == null) {
+            batch = new DatagramBatch(Config.udpBatchSize, Config.udpMtu); // enough for any udp packet
+        }
         while (true) {
-            try {
-                SocketAddress addr = server.receive(buf);
-                if (addr == null) {
-                    // no data for now
-                    break;
-                }
-
-                buf.flip();
+            int n = server.receiveBatch(batch);
+            for (int i = 0; i < n; ++i) {
+                ByteBuffer buf = batch.get(i);
+                SocketAddress addr = batch.getAddress(i);
 
                 boolean fireReadable = false;
                 VirtualDatagramFD fd;
@@ -83,10 +82,10 @@ public final class ServerDatagramFD implements FD, ServerSocketFD, WritableAware
                 if (fireReadable) {
                     fd.setReadable();
                 }
-            } finally {
-                // reset buf
-                buf.limit(buf.capacity());
-                buf.position(0);
+            }
+            if (n < batch.capacity()) {
+                // no data for now
+                break;
             }
         }
 
@@ -125,6 +124,10 @@ public final class ServerDatagramFD implements FD, ServerSocketFD, WritableAware
     @Override
     public void close() throws IOException {
         server.close();
+        if (batch != null) {
+            batch.clean();
+            batch = null;
+        }
         for (VirtualDatagramFD fd : conns.values()) {
             // the fd is accepted by user code
             // it's user's responsibility to close it
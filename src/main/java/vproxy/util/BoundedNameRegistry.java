@@ -0,0 +1,71 @@
+package vproxy.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A registry of objects (usually counters) keyed by names taken from the traffic,
+ * e.g. redis command names or grpc methods, shared by all connections.<br>
+ * At most `max` names are recorded, objects of other names are recorded
+ * with the fallback name, which is not counted in the limit.<br>
+ * The limit is strict even when names are added concurrently.
+ *
+ * @param <T> type of the objects
+ */
+public class BoundedNameRegistry<T> {
+    private final int max;
+    private final String fallback;
+    private final Function<String, T> constructor;
+    private final ConcurrentHashMap<String, T> map = new ConcurrentHashMap<>();
+    private final AtomicInteger count = new AtomicInteger(0); // count of names except the fallback
+
+    public BoundedNameRegistry(int max, String fallback, Function<String, T> constructor) {
+        this.max = max;
+        this.fallback = fallback;
+        this.constructor = constructor;
+    }
+
+    /**
+     * retrieve the object of the name, and create one if absent
+     *
+     * @param name the name
+     * @return the object of the name, or the object of the fallback name if too many names are recorded
+     */
+    public T get(String name) {
+        T t = map.get(name);
+        if (t != null) {
+            return t;
+        }
+        if (!name.equals(fallback)) {
+            // the function is called at most once for the absent name,
+            // so a name never takes more than one place in the limit
+            t = map.computeIfAbsent(name, n -> reserve() ? constructor.apply(n) : null);
+            if (t != null) {
+                return t;
+            }
+        }
+        return map.computeIfAbsent(fallback, constructor);
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int n = count.get();
+            if (n >= max) {
+                return false;
+            }
+            if (count.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return all recorded objects
+     */
+    public List<T> values() {
+        return new ArrayList<>(map.values());
+    }
+}
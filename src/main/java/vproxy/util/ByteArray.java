@@ -1,7 +1,9 @@
 package vproxy.util;
 
+import vproxy.util.bytearray.ByteBufferByteArray;
 import vproxy.util.bytearray.CompositeByteArray;
 import vproxy.util.bytearray.OneByteArray;
+import vproxy.util.bytearray.RopeByteArray;
 import vproxy.util.bytearray.SimpleByteArray;
 import vproxy.util.bytearray.SubByteArray;
 import vproxy.util.nio.ByteArrayChannel;
@@ -28,6 +30,13 @@ public interface ByteArray {
         return new SimpleByteArray(array);
     }
 
+    /**
+     * @return an array of bytes in [position, limit) of the buffer, the buffer is shared instead of copied
+     */
+    static ByteArray from(ByteBuffer buffer) {
+        return new ByteBufferByteArray(buffer);
+    }
+
     static ByteArray from(int... array) {
         byte[] bytes = new byte[array.length];
         for (int i = 0; i < array.length; ++i) {
@@ -36,6 +45,17 @@ public interface ByteArray {
         return from(bytes);
     }
 
+    /**
+     * @return a rope of the arrays, concatenating more arrays to the rope is cheap.
+     * The input array is returned directly if it's already a rope.
+     */
+    static ByteArray rope(ByteArray... arrays) {
+        if (arrays.length == 1 && arrays[0] instanceof RopeByteArray) {
+            return arrays[0];
+        }
+        return new RopeByteArray(arrays);
+    }
+
     byte get(int idx);
 
     ByteArray set(int idx, byte value);
@@ -47,6 +67,9 @@ public interface ByteArray {
     }
 
     default ByteArray concat(ByteArray array) {
+        if (array instanceof RopeByteArray) {
+            return new RopeByteArray(this, array);
+        }
         return new CompositeByteArray(this, array);
     }
 
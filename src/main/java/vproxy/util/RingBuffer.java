@@ -15,6 +15,10 @@ public interface RingBuffer {
         return SimpleRingBuffer.allocateDirect(cap);
     }
 
+    static SimpleRingBuffer allocateDirectPooled(int cap) {
+        return SimpleRingBuffer.allocateDirectPooled(cap);
+    }
+
     static SimpleRingBuffer allocate(int cap) {
         return SimpleRingBuffer.allocate(cap);
     }
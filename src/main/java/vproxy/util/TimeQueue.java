@@ -1,37 +1,46 @@
 package vproxy.util;
 
 import vproxy.app.Config;
+import vproxy.util.timer.PriorityTimeQueue;
+import vproxy.util.timer.TimingWheelTimeQueue;
 
-import java.util.PriorityQueue;
-
-public class TimeQueue<T> {
-    PriorityQueue<TimeElem<T>> queue = new PriorityQueue<>((a, b) -> (int) (a.triggerTime - b.triggerTime));
-
-    public TimeElem<T> push(int timeout, T elem) {
-        TimeElem<T> event = new TimeElem<>(Config.currentTimestamp + timeout, elem, this);
-        queue.add(event);
-        return event;
+public interface TimeQueue<T> {
+    /**
+     * create the default time queue, see {@link Config#timeQueue}
+     */
+    static <T> TimeQueue<T> create() {
+        if ("wheel".equals(Config.timeQueue)) {
+            return createTimingWheel();
+        } else {
+            return createPriorityQueue();
+        }
     }
 
-    public T pop() {
-        TimeElem<T> elem = queue.poll();
-        if (elem == null)
-            return null;
-        return elem.elem;
+    static <T> TimeQueue<T> createPriorityQueue() {
+        return new PriorityTimeQueue<>();
     }
 
-    public boolean isEmpty() {
-        return queue.isEmpty();
+    static <T> TimeQueue<T> createTimingWheel() {
+        return new TimingWheelTimeQueue<>();
     }
 
+    TimeElem<T> push(int timeout, T elem);
+
     /**
-     * @return time left to the nearest timeout, Integer.MAX_VALUE means no timer event
+     * retrieve and remove an element.
+     * should only be called when {@link #nextTime()} returns 0,
+     * otherwise the implementation may return null
+     *
+     * @return the element, or null if no element can be retrieved
      */
-    public int nextTime() {
-        TimeElem<T> elem = queue.peek();
-        if (elem == null)
-            return Integer.MAX_VALUE;
-        long triggerTime = elem.triggerTime;
-        return Math.max((int) (triggerTime - Config.currentTimestamp), 0);
-    }
+    T pop();
+
+    boolean isEmpty();
+
+    /**
+     * @return time left to the nearest timeout, Integer.MAX_VALUE means no timer event.
+     * the implementation may return a smaller value than the actual one,
+     * but it will never return a bigger value
+     */
+    int nextTime();
 }
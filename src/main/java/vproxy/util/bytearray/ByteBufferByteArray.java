@@ -0,0 +1,62 @@
+package vproxy.util.bytearray;
+
+import vproxy.util.ByteArray;
+
+import java.nio.ByteBuffer;
+
+public class ByteBufferByteArray extends AbstractByteArray implements ByteArray {
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int len;
+
+    public ByteBufferByteArray(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.offset = buffer.position();
+        this.len = buffer.limit() - buffer.position();
+    }
+
+    @Override
+    public byte get(int idx) {
+        checkBoundForOffset(idx);
+        return buffer.get(offset + idx);
+    }
+
+    @Override
+    public ByteArray set(int idx, byte value) {
+        checkBoundForOffset(idx);
+        buffer.put(offset + idx, value);
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return len;
+    }
+
+    // position and limit of the buffer are not modified, so use a duplicate to access bytes in bulk
+    private ByteBuffer view(int off, int len) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + off + len).position(offset + off);
+        return view;
+    }
+
+    @Override
+    public void byteBufferPut(ByteBuffer dst, int off, int len) {
+        checkBoundForByteBufferAndOffsetAndLength(dst, off, len);
+        dst.put(view(off, len));
+    }
+
+    @Override
+    public void byteBufferGet(ByteBuffer src, int off, int len) {
+        checkBoundForByteBufferAndOffsetAndLength(src, off, len);
+        ByteBuffer s = src.duplicate();
+        s.limit(s.position() + len);
+        view(off, len).put(s);
+        src.position(src.position() + len);
+    }
+
+    @Override
+    protected void doToNewJavaArray(byte[] dst, int dstOff, int srcOff, int srcLen) {
+        view(srcOff, srcLen).get(dst, dstOff, srcLen);
+    }
+}
@@ -0,0 +1,186 @@
+package vproxy.util.bytearray;
+
+import vproxy.util.ByteArray;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A flat list of segments, instead of a binary tree built by {@link CompositeByteArray}.<br>
+ * The segment containing an index is found with binary search,
+ * and sequential access hits the last used segment directly.<br>
+ * Appending to the rope is cheap: the segment list is shared between the rope
+ * and the ropes concatenated from it, and a new segment is appended in place
+ * if the rope is the last one appended to the list, otherwise the list is copied.<br>
+ * Bulk operations (byteBufferPut, toNewJavaArray ...) go through the segments one by one,
+ * so all segments are written into the destination in one pass.
+ */
+public class RopeByteArray extends AbstractByteArray implements ByteArray {
+    private static class Segments {
+        ByteArray[] arrays;
+        int[] offsets; // offsets[i] is the start index of arrays[i]
+        int size;
+
+        Segments(int cap) {
+            arrays = new ByteArray[cap];
+            offsets = new int[cap];
+        }
+
+        void add(ByteArray array, int offset) {
+            if (size == arrays.length) {
+                int cap = Math.max(4, size * 2);
+                arrays = Arrays.copyOf(arrays, cap);
+                offsets = Arrays.copyOf(offsets, cap);
+            }
+            arrays[size] = array;
+            offsets[size] = offset;
+            ++size;
+        }
+    }
+
+    private final Segments segments;
+    private final int count; // number of segments of this rope
+    private final int len;
+    private int lastSeg = 0; // the segment accessed last time
+
+    public RopeByteArray(ByteArray... arrays) {
+        Segments segments = new Segments(Math.max(4, arrays.length));
+        int len = 0;
+        for (ByteArray a : arrays) {
+            len = add(segments, len, a);
+        }
+        this.segments = segments;
+        this.count = segments.size;
+        this.len = len;
+    }
+
+    private RopeByteArray(Segments segments, int count, int len) {
+        this.segments = segments;
+        this.count = count;
+        this.len = len;
+    }
+
+    // add the array to the segments, and return the new length
+    private static int add(Segments segments, int len, ByteArray array) {
+        if (array instanceof RopeByteArray) {
+            RopeByteArray rope = (RopeByteArray) array;
+            for (int i = 0; i < rope.count; ++i) {
+                segments.add(rope.segments.arrays[i], len + rope.segments.offsets[i]);
+            }
+            return len + rope.len;
+        }
+        if (array.length() != 0) {
+            segments.add(array, len);
+        }
+        return len + array.length();
+    }
+
+    @Override
+    public ByteArray concat(ByteArray array) {
+        if (array.length() == 0) {
+            return this;
+        }
+        Segments segments = this.segments;
+        if (segments.size != count) {
+            // other ropes were appended to the list, so copy the segments of this rope
+            segments = new Segments(count + 4);
+            System.arraycopy(this.segments.arrays, 0, segments.arrays, 0, count);
+            System.arraycopy(this.segments.offsets, 0, segments.offsets, 0, count);
+            segments.size = count;
+        }
+        int len = add(segments, this.len, array);
+        return new RopeByteArray(segments, segments.size, len);
+    }
+
+    // find the segment containing the index
+    private int segment(int idx) {
+        int[] offsets = segments.offsets;
+        int last = lastSeg;
+        if (offsets[last] <= idx && (last + 1 == count || idx < offsets[last + 1])) {
+            return last;
+        }
+        int lo = 0;
+        int hi = count - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets[mid] <= idx) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        lastSeg = lo;
+        return lo;
+    }
+
+    @Override
+    public byte get(int idx) {
+        checkBoundForOffset(idx);
+        int seg = segment(idx);
+        return segments.arrays[seg].get(idx - segments.offsets[seg]);
+    }
+
+    @Override
+    public ByteArray set(int idx, byte value) {
+        checkBoundForOffset(idx);
+        int seg = segment(idx);
+        segments.arrays[seg].set(idx - segments.offsets[seg], value);
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return len;
+    }
+
+    @Override
+    public void byteBufferPut(ByteBuffer dst, int off, int len) {
+        checkBoundForByteBufferAndOffsetAndLength(dst, off, len);
+        if (len == 0) {
+            return;
+        }
+        int seg = segment(off);
+        int inner = off - segments.offsets[seg];
+        while (len > 0) {
+            ByteArray a = segments.arrays[seg++];
+            int n = Math.min(len, a.length() - inner);
+            a.byteBufferPut(dst, inner, n);
+            len -= n;
+            inner = 0;
+        }
+    }
+
+    @Override
+    public void byteBufferGet(ByteBuffer src, int off, int len) {
+        checkBoundForByteBufferAndOffsetAndLength(src, off, len);
+        if (len == 0) {
+            return;
+        }
+        int seg = segment(off);
+        int inner = off - segments.offsets[seg];
+        while (len > 0) {
+            ByteArray a = segments.arrays[seg++];
+            int n = Math.min(len, a.length() - inner);
+            a.byteBufferGet(src, inner, n);
+            len -= n;
+            inner = 0;
+        }
+    }
+
+    @Override
+    protected void doToNewJavaArray(byte[] dst, int dstOff, int srcOff, int srcLen) {
+        if (srcLen == 0) {
+            return;
+        }
+        int seg = segment(srcOff);
+        int inner = srcOff - segments.offsets[seg];
+        while (srcLen > 0) {
+            AbstractByteArray a = (AbstractByteArray) segments.arrays[seg++];
+            int n = Math.min(srcLen, a.length() - inner);
+            a.doToNewJavaArray(dst, dstOff, inner, n);
+            dstOff += n;
+            srcLen -= n;
+            inner = 0;
+        }
+    }
+}
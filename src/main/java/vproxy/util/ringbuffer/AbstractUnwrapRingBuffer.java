@@ -42,7 +42,7 @@ public abstract class AbstractUnwrapRingBuffer extends AbstractRingBuffer {
         // we add a handler to the plain buffer
         plainBufferForApp.addHandler(writableHandler);
 
-        this.encryptedBufferForInput = RingBuffer.allocateDirect(plainBufferForApp.capacity());
+        this.encryptedBufferForInput = RingBuffer.allocateDirectPooled(plainBufferForApp.capacity());
     }
 
     private void checkException() throws IOException {
@@ -39,7 +39,7 @@ public abstract class AbstractWrapRingBuffer extends AbstractRingBuffer implemen
     public AbstractWrapRingBuffer(ByteBufferRingBuffer plainBytesBuffer) {
         this.plainBufferForApp = plainBytesBuffer;
 
-        this.encryptedBufferForOutput = RingBuffer.allocateDirect(plainBytesBuffer.capacity());
+        this.encryptedBufferForOutput = RingBuffer.allocateDirectPooled(plainBytesBuffer.capacity());
 
         // we add a handler to the plain buffer
         plainBufferForApp.addHandler(readableHandler);
@@ -0,0 +1,198 @@
+package vproxy.util.ringbuffer;
+
+import vproxy.selector.SelectorEventLoop;
+import vproxy.util.Logger;
+import vproxy.util.ThreadSafe;
+import vproxy.util.Utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct byte buffers, each event loop has its own pool.<br>
+ * Buffers are retrieved from the pool of the current event loop,
+ * and always go back to the pool where they are retrieved from.<br>
+ * Only buffers with the size of the size classes are pooled, other sizes
+ * are directly allocated and released.<br>
+ * A buffer given back to the pool is handed out to another connection,
+ * so the buffer must not be touched after it's released.
+ */
+public class DirectBufferPool {
+    private static final int[] SIZE_CLASSES = {16384, 24576, 65536};
+    // max bytes to be kept for each size class
+    private static final int MAX_POOLED_BYTES = 16 * 1024 * 1024;
+
+    private final SelectorEventLoop loop;
+    private final List<ArrayDeque<ByteBuffer>> pooled = new ArrayList<>(SIZE_CLASSES.length);
+    // buffers released on other threads, and count of them for each size class
+    private final List<ConcurrentLinkedQueue<ByteBuffer>> returned = new ArrayList<>(SIZE_CLASSES.length);
+    private final List<AtomicInteger> returnedCount = new ArrayList<>(SIZE_CLASSES.length);
+    private volatile boolean closed = false;
+
+    // statistics, only modified on the loop thread,
+    // and they are volatile because they are read by other threads
+    private volatile long hit = 0;
+    private volatile long miss = 0;
+    private volatile int pooledCount = 0;
+    private volatile int highWater = 0;
+
+    public DirectBufferPool(SelectorEventLoop loop) {
+        this.loop = loop;
+        for (int i = 0; i < SIZE_CLASSES.length; ++i) {
+            pooled.add(new ArrayDeque<>());
+            returned.add(new ConcurrentLinkedQueue<>());
+            returnedCount.add(new AtomicInteger(0));
+        }
+    }
+
+    private static int sizeClass(int cap) {
+        for (int i = 0; i < SIZE_CLASSES.length; ++i) {
+            if (SIZE_CLASSES[i] == cap) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the pool of current event loop, or null if not running on an event loop
+     */
+    public static DirectBufferPool current() {
+        SelectorEventLoop loop = SelectorEventLoop.current();
+        if (loop == null) {
+            return null;
+        }
+        return loop.bufferPool;
+    }
+
+    /**
+     * retrieve a buffer from the pool, must be called on the loop thread
+     *
+     * @param cap capacity of the buffer
+     * @return the buffer, or null if the size is not pooled
+     */
+    public ByteBuffer allocate(int cap) {
+        int idx = sizeClass(cap);
+        if (idx == -1 || closed) {
+            return null;
+        }
+        ByteBuffer buf = pooled.get(idx).poll();
+        if (buf == null && returnedCount.get(idx).get() > 0) {
+            drainReturned(idx);
+            buf = pooled.get(idx).poll();
+        }
+        if (buf == null) {
+            ++miss;
+            return ByteBuffer.allocateDirect(cap);
+        }
+        ++hit;
+        --pooledCount;
+        buf.clear();
+        return buf;
+    }
+
+    private void drainReturned(int idx) {
+        ByteBuffer buf;
+        while ((buf = returned.get(idx).poll()) != null) {
+            returnedCount.get(idx).decrementAndGet();
+            pool(idx, buf);
+        }
+    }
+
+    private void pool(int idx, ByteBuffer buf) {
+        if (closed || pooled.get(idx).size() * SIZE_CLASSES[idx] >= MAX_POOLED_BYTES) {
+            Utils.clean(buf);
+            return;
+        }
+        pooled.get(idx).push(buf);
+        ++pooledCount;
+        if (pooledCount > highWater) {
+            highWater = pooledCount;
+        }
+    }
+
+    /**
+     * give back the buffer to this pool
+     *
+     * @param buf the buffer retrieved from {@link #allocate(int)}
+     */
+    @ThreadSafe
+    public void release(ByteBuffer buf) {
+        int idx = sizeClass(buf.capacity());
+        if (idx == -1 || closed) {
+            Utils.clean(buf);
+            return;
+        }
+        if (SelectorEventLoop.current() == loop) {
+            pool(idx, buf);
+        } else {
+            AtomicInteger count = returnedCount.get(idx);
+            if (count.incrementAndGet() * SIZE_CLASSES[idx] > MAX_POOLED_BYTES) {
+                count.decrementAndGet();
+                Utils.clean(buf);
+                return;
+            }
+            returned.get(idx).add(buf);
+            if (closed) {
+                // the pool may be closed after checking, and the queue may be already drained
+                cleanReturned(idx);
+            }
+        }
+    }
+
+    // may be called on any thread, each buffer is polled and cleaned only once
+    private void cleanReturned(int idx) {
+        ByteBuffer buf;
+        while ((buf = returned.get(idx).poll()) != null) {
+            returnedCount.get(idx).decrementAndGet();
+            Utils.clean(buf);
+        }
+    }
+
+    /**
+     * release all pooled buffers, must be called on the loop thread or when the loop is not running
+     */
+    public void close() {
+        closed = true;
+        for (int i = 0; i < SIZE_CLASSES.length; ++i) {
+            ByteBuffer buf;
+            while ((buf = pooled.get(i).poll()) != null) {
+                Utils.clean(buf);
+            }
+            cleanReturned(i);
+        }
+        pooledCount = 0;
+        assert Logger.lowLevelDebug("direct buffer pool of " + loop + " closed");
+    }
+
+    public long getHit() {
+        return hit;
+    }
+
+    public long getMiss() {
+        return miss;
+    }
+
+    public int getPooledCount() {
+        return pooledCount;
+    }
+
+    public int getHighWater() {
+        return highWater;
+    }
+
+    /**
+     * @return count of buffers released on other threads and not yet taken back by the loop
+     */
+    public int getReturnedCount() {
+        int n = 0;
+        for (AtomicInteger c : returnedCount) {
+            n += c.get();
+        }
+        return n;
+    }
+}
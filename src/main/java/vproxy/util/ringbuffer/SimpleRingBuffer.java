@@ -8,7 +8,9 @@ import vproxy.util.nio.ByteArrayChannel;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
@@ -32,12 +34,19 @@ import java.util.Set;
  * [----------------------ePos,sPos--------]
  */
 public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
+    // replaces the released buffer, any further operation fails instead of touching memory that may be reused
+    private static final ByteBuffer CLEANED = ByteBuffer.allocate(0);
+
     private final boolean isDirect;
-    private /*may change after defragment*/ ByteBuffer buffer;
+    private final DirectBufferPool pool; // the pool where the buffer is retrieved from, or null if not pooled
+    private /*may change after defragment or clean*/ ByteBuffer buffer;
     private int ePos; // end pos
     private int sPos; // start pos
     private final int cap;
     private boolean ePosIsAfterSPos = true; // true then end is limit, otherwise start is limit
+    // two views of the buffer for scattering/gathering io, created when first used
+    private ByteBuffer[] views;
+    private ByteBuffer viewsOf;
 
     private boolean notFirstOperator = false;
     private boolean operating = false;
@@ -47,19 +56,37 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
     private Set<RingBufferETHandler> handlerToRemove = new HashSet<>();
 
     public static SimpleRingBuffer allocateDirect(int cap) {
-        return new SimpleRingBuffer(true, ByteBuffer.allocateDirect(cap), 0, 0);
+        return new SimpleRingBuffer(true, null, ByteBuffer.allocateDirect(cap), 0, 0);
+    }
+
+    /**
+     * retrieve the direct memory from the {@link DirectBufferPool} of current event loop,
+     * the memory will be returned to the pool when calling {@link #clean()}.<br>
+     * if not running on an event loop or the capacity is not pooled,
+     * it's the same as {@link #allocateDirect(int)}
+     */
+    public static SimpleRingBuffer allocateDirectPooled(int cap) {
+        DirectBufferPool pool = DirectBufferPool.current();
+        if (pool != null) {
+            ByteBuffer buf = pool.allocate(cap);
+            if (buf != null) {
+                return new SimpleRingBuffer(true, pool, buf, 0, 0);
+            }
+        }
+        return allocateDirect(cap);
     }
 
     public static SimpleRingBuffer allocate(int cap) {
-        return new SimpleRingBuffer(false, ByteBuffer.allocate(cap), 0, 0);
+        return new SimpleRingBuffer(false, null, ByteBuffer.allocate(cap), 0, 0);
     }
 
     public static SimpleRingBuffer wrap(ByteBuffer b) {
-        return new SimpleRingBuffer(false, b, b.position(), b.limit());
+        return new SimpleRingBuffer(false, null, b, b.position(), b.limit());
     }
 
-    private SimpleRingBuffer(boolean isDirect, ByteBuffer buffer, int sPos, int ePos) {
+    private SimpleRingBuffer(boolean isDirect, DirectBufferPool pool, ByteBuffer buffer, int sPos, int ePos) {
         this.isDirect = isDirect;
+        this.pool = pool;
         this.buffer = buffer;
         this.cap = buffer.capacity();
         this.sPos = sPos;
@@ -97,6 +124,10 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
      */
     @Override
     public int storeBytesFrom(ReadableByteChannel channel) throws IOException {
+        if (ePosIsAfterSPos && sPos != 0 && channel instanceof ScatteringByteChannel) {
+            // the free space wraps around the end of the buffer
+            return scatteringStoreIn((ScatteringByteChannel) channel);
+        }
         return operateOnByteBufferStoreIn(b -> channel.read(b) != -1);
     }
 
@@ -109,9 +140,123 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
 
     @Override
     public int writeTo(WritableByteChannel channel, int maxBytesToWrite) throws IOException {
+        if (!ePosIsAfterSPos && ePos != 0 && maxBytesToWrite > cap - sPos && channel instanceof GatheringByteChannel) {
+            // the data wraps around the end of the buffer
+            return gatheringWriteOut((GatheringByteChannel) channel, maxBytesToWrite);
+        }
         return operateOnByteBufferWriteOut(maxBytesToWrite, channel::write);
     }
 
+    private ByteBuffer[] views() {
+        if (views == null || viewsOf != buffer) {
+            views = new ByteBuffer[]{buffer.duplicate(), buffer.duplicate()};
+            viewsOf = buffer;
+        }
+        return views;
+    }
+
+    // write [sPos, cap) and [0, ePos) with one call
+    private int gatheringWriteOut(GatheringByteChannel channel, int maxBytesToWrite) throws IOException {
+        if (operatingBuffer) {
+            throw new IllegalStateException("this buffer is operating");
+        }
+
+        boolean firstOperator = isFirstOperate();
+        operatingBuffer = true;
+
+        boolean triggerWritable = false;
+
+        assert Logger.lowLevelNetDebug("before gathering write out, sPos=" + sPos);
+
+        try { // only use try-finally here, we do not catch
+
+            // is for triggering writable event
+            boolean triggerWritablePre = free() == 0;
+
+            int lim = cap - sPos;
+            ByteBuffer[] views = views();
+            views[0].limit(cap).position(sPos);
+            views[1].limit(Math.min(ePos, maxBytesToWrite - lim)).position(0);
+
+            int write = (int) channel.write(views, 0, 2);
+            if (write < lim) {
+                sPos += write;
+            } else {
+                sPos = write - lim;
+                ePosIsAfterSPos = true;
+            }
+
+            triggerWritable = triggerWritablePre && write > 0;
+
+            if (retrieveLimit() == 0) {
+                resetCursors();
+            }
+            return write;
+        } finally { // do trigger here
+            assert Logger.lowLevelNetDebug("after gathering write out, sPos=" + sPos);
+
+            operatingBuffer = false;
+            if (triggerWritable) {
+                assert Logger.lowLevelNetDebug("trigger writable for " + handler.size() + " times");
+                for (RingBufferETHandler aHandler : handler) {
+                    aHandler.writableET();
+                }
+            }
+            resetFirst(firstOperator);
+        }
+    }
+
+    // read into [ePos, cap) and [0, sPos) with one call
+    private int scatteringStoreIn(ScatteringByteChannel channel) throws IOException {
+        if (operatingBuffer) {
+            throw new IllegalStateException("this buffer is operating");
+        }
+
+        boolean firstOperator = isFirstOperate();
+        operatingBuffer = true;
+
+        boolean triggerReadable = false;
+
+        assert Logger.lowLevelNetDebug("before scattering store in, ePos=" + ePos);
+
+        try { // only use try-finally here, we do not catch
+
+            // is for triggering readable event
+            boolean triggerReadablePre = used() == 0;
+
+            int lim = cap - ePos;
+            ByteBuffer[] views = views();
+            views[0].limit(cap).position(ePos);
+            views[1].limit(sPos).position(0);
+
+            long n = channel.read(views, 0, 2);
+            if (n == -1)
+                return -1; // EOF
+            int read = (int) n;
+            if (read < lim) {
+                ePos += read;
+            } else {
+                ePos = read - lim;
+                ePosIsAfterSPos = false;
+            }
+
+            triggerReadable = triggerReadablePre && read > 0;
+
+            return read;
+        } finally { // do trigger here
+            assert Logger.lowLevelNetDebug("after scattering store in, ePos=" + ePos);
+
+            operatingBuffer = false;
+            if (triggerReadable) {
+                assert Logger.lowLevelNetDebug("trigger readable for " + handler.size() + " times");
+                for (RingBufferETHandler aHandler : handler) {
+                    aHandler.readableET();
+                }
+            }
+            resetFirst(firstOperator);
+        }
+    }
+
     @Override
     public int free() {
         return cap - used();
@@ -184,8 +329,16 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
 
     private boolean cleaned = false;
 
+    private void releaseDirect(ByteBuffer buffer) {
+        if (pool == null) {
+            Utils.clean(buffer);
+        } else {
+            pool.release(buffer);
+        }
+    }
+
     /**
-     * release the direct memory<br>
+     * release the direct memory, or return it to the pool<br>
      * PLEASE BE VERY CAREFUL
      */
     @Override
@@ -194,7 +347,10 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
             return;
         cleaned = true;
         if (isDirect) {
-            Utils.clean(buffer);
+            releaseDirect(buffer);
+            buffer = CLEANED;
+            views = null;
+            viewsOf = null;
         }
     }
 
@@ -446,7 +602,7 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         }
 
         if (isDirect) {
-            Utils.clean(buffer); // clean the old buffer
+            releaseDirect(buffer); // clean the old buffer
         }
 
         sPos = 0;
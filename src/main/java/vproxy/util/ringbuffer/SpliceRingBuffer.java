@@ -0,0 +1,200 @@
+package vproxy.util.ringbuffer;
+
+import vfd.FD;
+import vfd.posix.SplicePipe;
+import vproxy.util.Logger;
+import vproxy.util.Utils;
+import vproxy.util.nio.ByteArrayChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A ring buffer backed by a kernel pipe.<br>
+ * Bytes are spliced from a posix socket into the pipe, then spliced from the pipe
+ * into another posix socket, so they never enter the user space.<br>
+ * Only posix socket fds can be read from or written to this buffer,
+ * except that the bytes can be retrieved into a {@link ByteArrayChannel}.
+ */
+public class SpliceRingBuffer extends AbstractRingBuffer {
+    // size of the buffer for copying bytes into user space, one of the pooled sizes
+    private static final int COPY_BUFFER_SIZE = 16384;
+
+    private final SplicePipe pipe;
+    // the kernel stores spliced data by pages, so the pipe might be full
+    // before `used` reaches the capacity
+    private boolean pipeFull = false;
+
+    private SpliceRingBuffer(SplicePipe pipe) {
+        this.pipe = pipe;
+    }
+
+    /**
+     * @param fd  the fd to be spliced
+     * @param cap expected capacity of the buffer
+     * @return the buffer, or null if splice is not supported for the fd
+     */
+    public static SpliceRingBuffer allocate(FD fd, int cap) {
+        if (!SplicePipe.supports(fd)) {
+            return null;
+        }
+        SplicePipe pipe;
+        try {
+            pipe = SplicePipe.open(fd, cap);
+        } catch (IOException e) {
+            assert Logger.lowLevelDebug("open splice pipe failed: " + e);
+            return null;
+        }
+        return new SpliceRingBuffer(pipe);
+    }
+
+    private FD toFD(Object channel) throws IOException {
+        if (!(channel instanceof FD) || !SplicePipe.supports((FD) channel)) {
+            throw new IOException("splice not supported on " + channel);
+        }
+        return (FD) channel;
+    }
+
+    @Override
+    public int storeBytesFrom(ReadableByteChannel channel) throws IOException {
+        FD fd = toFD(channel);
+        int free = free();
+        if (free == 0) {
+            return 0;
+        }
+        boolean triggerReadable = used() == 0;
+        int n;
+        // the handlers may operate on this buffer again, e.g. quick write
+        boolean firstOperator = !isOperating();
+        setOperating(true);
+        try {
+            n = pipe.spliceFrom(fd, free);
+            if (n == 0 && used() != 0) {
+                // the socket is readable but nothing moved into the pipe
+                // consider the pipe as full
+                pipeFull = true;
+            }
+            if (n > 0 && triggerReadable) {
+                triggerReadable();
+            }
+        } finally {
+            if (firstOperator) {
+                setOperating(false);
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public int writeTo(WritableByteChannel channel, int maxBytesToWrite) throws IOException {
+        int len = Math.min(used(), maxBytesToWrite);
+        if (len == 0) {
+            return 0;
+        }
+        boolean triggerWritable = free() == 0;
+        int n;
+        boolean firstOperator = !isOperating();
+        setOperating(true);
+        try {
+            if (channel instanceof ByteArrayChannel) {
+                n = writeToByteArrayChannel((ByteArrayChannel) channel, len);
+            } else {
+                n = pipe.spliceTo(toFD(channel), len);
+            }
+            if (n > 0) {
+                pipeFull = false;
+                if (triggerWritable) {
+                    triggerWritable();
+                }
+            }
+        } finally {
+            if (firstOperator) {
+                setOperating(false);
+            }
+        }
+        return n;
+    }
+
+    private int writeToByteArrayChannel(ByteArrayChannel chnl, int len) throws IOException {
+        len = Math.min(len, chnl.free());
+        if (len == 0) {
+            return 0;
+        }
+        // the bytes are copied chunk by chunk with a buffer from the pool of current loop
+        DirectBufferPool pool = DirectBufferPool.current();
+        ByteBuffer buf = pool == null ? null : pool.allocate(COPY_BUFFER_SIZE);
+        boolean pooled = buf != null;
+        if (!pooled) {
+            buf = ByteBuffer.allocateDirect(Math.min(len, COPY_BUFFER_SIZE));
+        }
+        try {
+            int total = 0;
+            while (total < len) {
+                buf.limit(Math.min(buf.capacity(), len - total)).position(0);
+                int n = pipe.read(buf);
+                if (n == 0) {
+                    break;
+                }
+                buf.flip();
+                chnl.write(buf);
+                total += n;
+            }
+            return total;
+        } finally {
+            if (pooled) {
+                pool.release(buf);
+            } else {
+                Utils.clean(buf);
+            }
+        }
+    }
+
+    @Override
+    public int free() {
+        if (pipeFull) {
+            return 0;
+        }
+        // a pipe buffer may hold more than one page of data when splicing from a socket,
+        // so the used bytes may exceed the capacity
+        return Math.max(0, capacity() - used());
+    }
+
+    @Override
+    public int used() {
+        return pipe.used();
+    }
+
+    @Override
+    public int capacity() {
+        return pipe.capacity();
+    }
+
+    @Override
+    public void clean() {
+        pipe.close();
+    }
+
+    @Override
+    public void clear() {
+        if (pipe.isClosed()) {
+            return;
+        }
+        boolean triggerWritable = free() == 0;
+        try {
+            pipe.clear();
+        } catch (IOException e) {
+            Logger.shouldNotHappen("clearing splice pipe failed", e);
+        }
+        pipeFull = false;
+        if (triggerWritable && free() != 0) {
+            triggerWritable();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SpliceRingBuffer(" + pipe + ")";
+    }
+}
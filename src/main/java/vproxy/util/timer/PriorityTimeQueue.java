@@ -0,0 +1,67 @@
+package vproxy.util.timer;
+
+import vproxy.app.Config;
+import vproxy.util.TimeElem;
+import vproxy.util.TimeQueue;
+
+import java.util.PriorityQueue;
+
+public class PriorityTimeQueue<T> implements TimeQueue<T> {
+    private final PriorityQueue<Elem<T>> queue = new PriorityQueue<>((a, b) -> (int) (a.triggerTime - b.triggerTime));
+
+    @Override
+    public TimeElem<T> push(int timeout, T elem) {
+        Elem<T> event = new Elem<>(Config.currentTimestamp + timeout, elem, this);
+        queue.add(event);
+        return event;
+    }
+
+    @Override
+    public T pop() {
+        Elem<T> elem = queue.poll();
+        if (elem == null)
+            return null;
+        return elem.elem;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    @Override
+    public int nextTime() {
+        Elem<T> elem = queue.peek();
+        if (elem == null)
+            return Integer.MAX_VALUE;
+        long triggerTime = elem.triggerTime;
+        return Math.max((int) (triggerTime - Config.currentTimestamp), 0);
+    }
+
+    private static class Elem<T> implements TimeElem<T> {
+        final long triggerTime;
+        final T elem;
+        private final PriorityTimeQueue<T> queue;
+
+        Elem(long triggerTime, T elem, PriorityTimeQueue<T> queue) {
+            this.triggerTime = triggerTime;
+            this.elem = elem;
+            this.queue = queue;
+        }
+
+        @Override
+        public long triggerTime() {
+            return triggerTime;
+        }
+
+        @Override
+        public T get() {
+            return elem;
+        }
+
+        @Override
+        public void removeSelf() {
+            queue.queue.remove(this);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package vproxy.util.timer;
+
+import vproxy.app.Config;
+import vproxy.util.TimeElem;
+import vproxy.util.TimeQueue;
+
+/**
+ * A hashed hierarchical timing wheel.<br>
+ * There are 5 levels in the wheel. Level 0 has 256 slots and each slot stands for 1 ms,
+ * level 1 to 4 have 64 slots each and one slot covers a whole round of the previous level,
+ * so the wheel is able to hold timers up to 2^32 ms.<br>
+ * Adding and removing a timer are both O(1). When time goes by, slots of the
+ * higher levels are cascaded into the lower levels, and a whole level 0 slot
+ * is moved into the expired list at once.<br>
+ * This class is not thread safe, it should only be used on the event loop.
+ */
+public class TimingWheelTimeQueue<T> implements TimeQueue<T> {
+    private static final int LV0_BITS = 8;
+    private static final int LVN_BITS = 6;
+    private static final int LV0_SIZE = 1 << LV0_BITS;
+    private static final int LVN_SIZE = 1 << LVN_BITS;
+    private static final long LV0_MASK = LV0_SIZE - 1;
+    private static final long LVN_MASK = LVN_SIZE - 1;
+    private static final int LEVELS = 5;
+
+    private final Slot<T>[][] wheel;
+    // one bit for each slot, set when the slot is not empty
+    private final long[][] bitmaps;
+    private final Slot<T> expired = new Slot<>(-1, -1);
+    private long current; // the next tick to be processed
+    private int wheelSize = 0; // elements in the wheel, expired elements not included
+
+    @SuppressWarnings("unchecked")
+    public TimingWheelTimeQueue() {
+        wheel = (Slot<T>[][]) new Slot<?>[LEVELS][];
+        bitmaps = new long[LEVELS][];
+        for (int lv = 0; lv < LEVELS; ++lv) {
+            int size = lv == 0 ? LV0_SIZE : LVN_SIZE;
+            wheel[lv] = (Slot<T>[]) new Slot<?>[size];
+            for (int i = 0; i < size; ++i) {
+                wheel[lv][i] = new Slot<>(lv, i);
+            }
+            bitmaps[lv] = new long[(size + 63) / 64];
+        }
+        current = Config.currentTimestamp;
+    }
+
+    @Override
+    public TimeElem<T> push(int timeout, T elem) {
+        if (wheelSize == 0) {
+            // nothing in the wheel, so it's safe to move the wheel to current time
+            // then we do not need to step through the idle period
+            current = Config.currentTimestamp;
+        }
+        Node<T> node = new Node<>(this, Config.currentTimestamp + timeout, elem);
+        place(node);
+        return node;
+    }
+
+    @Override
+    public T pop() {
+        Node<T> node = expired.head;
+        if (node == null) {
+            advance();
+            node = expired.head;
+            if (node == null) {
+                return null;
+            }
+        }
+        unlink(node);
+        return node.elem;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return wheelSize == 0 && expired.head == null;
+    }
+
+    @Override
+    public int nextTime() {
+        advance();
+        if (expired.head != null)
+            return 0;
+        if (wheelSize == 0)
+            return Integer.MAX_VALUE;
+        long delta = nextTickToProcess() - Config.currentTimestamp;
+        if (delta > Integer.MAX_VALUE)
+            return Integer.MAX_VALUE;
+        return Math.max((int) delta, 0);
+    }
+
+    private void place(Node<T> node) {
+        long expire = node.triggerTime;
+        long delta = expire - current;
+        Slot<T> slot;
+        if (delta < 0) {
+            slot = expired;
+        } else if (delta < LV0_SIZE) {
+            slot = wheel[0][(int) (expire & LV0_MASK)];
+        } else {
+            // the timeout is an int, so it will never exceed the max level
+            int lv = 1;
+            int shift = LV0_BITS;
+            while (lv < LEVELS - 1 && delta >= (1L << (shift + LVN_BITS))) {
+                ++lv;
+                shift += LVN_BITS;
+            }
+            slot = wheel[lv][(int) ((expire >>> shift) & LVN_MASK)];
+        }
+        link(slot, node);
+    }
+
+    // process all ticks till now
+    private void advance() {
+        long now = Config.currentTimestamp;
+        while (current <= now) {
+            if (wheelSize == 0) {
+                current = now + 1;
+                return;
+            }
+            int idx = (int) (current & LV0_MASK);
+            if (idx == 0) {
+                cascade();
+            }
+            Slot<T> slot = wheel[0][idx];
+            Node<T> node = slot.head;
+            while (node != null) {
+                Node<T> next = node.next;
+                unlink(node);
+                link(expired, node);
+                node = next;
+            }
+            // skip the empty slots
+            int nextIdx = nextBit0(idx + 1);
+            long nextTick;
+            if (nextIdx == -1) {
+                nextTick = (current | LV0_MASK) + 1;
+            } else {
+                nextTick = (current & ~LV0_MASK) + nextIdx;
+            }
+            current = Math.min(nextTick, now + 1);
+        }
+    }
+
+    private void cascade() {
+        for (int lv = 1; lv < LEVELS; ++lv) {
+            int shift = LV0_BITS + (lv - 1) * LVN_BITS;
+            int idx = (int) ((current >>> shift) & LVN_MASK);
+            Slot<T> slot = wheel[lv][idx];
+            Node<T> node = slot.head;
+            while (node != null) {
+                Node<T> next = node.next;
+                unlink(node);
+                place(node);
+                node = next;
+            }
+            if (idx != 0) {
+                break;
+            }
+        }
+    }
+
+    // the nearest tick when the wheel has something to do
+    private long nextTickToProcess() {
+        long c = current;
+        int idx0 = (int) (c & LV0_MASK);
+        if (idx0 == 0) {
+            return c; // cascading is not done yet
+        }
+        int idx = nextBit0(idx0);
+        if (idx != -1) {
+            // the elements in higher levels will not expire before the next round
+            return (c & ~LV0_MASK) + idx;
+        }
+        long min = Long.MAX_VALUE;
+        idx = nextBit0(0);
+        if (idx != -1) {
+            min = (c | LV0_MASK) + 1 + idx;
+        }
+        for (int lv = 1; lv < LEVELS; ++lv) {
+            long bitmap = bitmaps[lv][0];
+            if (bitmap == 0) {
+                continue;
+            }
+            int shift = LV0_BITS + (lv - 1) * LVN_BITS;
+            // the first round of this level which is not processed yet
+            long round = (c + (1L << shift) - 1) >>> shift;
+            int offset = Long.numberOfTrailingZeros(Long.rotateRight(bitmap, (int) (round & LVN_MASK)));
+            long tick = (round + offset) << shift;
+            if (tick < min) {
+                min = tick;
+            }
+        }
+        return min;
+    }
+
+    // find the first non-empty slot in [from, LV0_SIZE) of level 0
+    private int nextBit0(int from) {
+        long[] bitmap = bitmaps[0];
+        int i = from >>> 6;
+        if (i >= bitmap.length) {
+            return -1;
+        }
+        long word = bitmap[i] & (-1L << (from & 63));
+        while (true) {
+            if (word != 0) {
+                return i * 64 + Long.numberOfTrailingZeros(word);
+            }
+            if (++i == bitmap.length) {
+                return -1;
+            }
+            word = bitmap[i];
+        }
+    }
+
+    private void link(Slot<T> slot, Node<T> node) {
+        node.slot = slot;
+        node.prev = slot.tail;
+        node.next = null;
+        if (slot.tail == null) {
+            slot.head = node;
+            if (slot.level >= 0) {
+                bitmaps[slot.level][slot.index >>> 6] |= (1L << (slot.index & 63));
+            }
+        } else {
+            slot.tail.next = node;
+        }
+        slot.tail = node;
+        if (slot.level >= 0) {
+            ++wheelSize;
+        }
+    }
+
+    private void unlink(Node<T> node) {
+        Slot<T> slot = node.slot;
+        if (node.prev == null) {
+            slot.head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next == null) {
+            slot.tail = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+        node.slot = null;
+        node.prev = null;
+        node.next = null;
+        if (slot.level >= 0) {
+            --wheelSize;
+            if (slot.head == null) {
+                bitmaps[slot.level][slot.index >>> 6] &= ~(1L << (slot.index & 63));
+            }
+        }
+    }
+
+    private static class Slot<T> {
+        final int level; // -1 for the expired list
+        final int index;
+        Node<T> head;
+        Node<T> tail;
+
+        Slot(int level, int index) {
+            this.level = level;
+            this.index = index;
+        }
+    }
+
+    private static class Node<T> implements TimeElem<T> {
+        private final TimingWheelTimeQueue<T> queue;
+        final long triggerTime;
+        final T elem;
+        Slot<T> slot; // null when it's already removed from the queue
+        Node<T> prev;
+        Node<T> next;
+
+        Node(TimingWheelTimeQueue<T> queue, long triggerTime, T elem) {
+            this.queue = queue;
+            this.triggerTime = triggerTime;
+            this.elem = elem;
+        }
+
+        @Override
+        public long triggerTime() {
+            return triggerTime;
+        }
+
+        @Override
+        public T get() {
+            return elem;
+        }
+
+        @Override
+        public void removeSelf() {
+            if (slot == null)
+                return;
+            queue.unlink(this);
+        }
+    }
+}
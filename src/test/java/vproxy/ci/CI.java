@@ -2155,6 +2155,7 @@ public class CI {
             "                            \"currentIp\": \"127.0.0.1\",\n" +
             "                            \"status\": \"DOWN\",\n" +
             "                            \"cost\": -1,\n" +
+            "                            \"latency\": -1,\n" +
             "                            \"downReason\": \"ConnectException: Connection refused\"\n" +
             "                        },\n" +
             "                        {\n" +
@@ -2164,6 +2165,7 @@ public class CI {
             "                            \"currentIp\": \"127.0.0.1\",\n" +
             "                            \"status\": \"DOWN\",\n" +
             "                            \"cost\": -1," +
+            "                            \"latency\": -1,\n" +
             "                            \"downReason\": \"ConnectException: Connection refused\"\n" +
             "                        }\n" +
             "                    ]\n" +
@@ -2197,6 +2199,7 @@ public class CI {
             "                            \"currentIp\": \"127.0.0.1\",\n" +
             "                            \"status\": \"DOWN\",\n" +
             "                            \"cost\": -1," +
+            "                            \"latency\": -1,\n" +
             "                            \"downReason\": \"ConnectException: Connection refused\"\n" +
             "                        },\n" +
             "                        {\n" +
@@ -2206,6 +2209,7 @@ public class CI {
             "                            \"currentIp\": \"127.0.0.1\",\n" +
             "                            \"status\": \"DOWN\",\n" +
             "                            \"cost\": -1," +
+            "                            \"latency\": -1,\n" +
             "                            \"downReason\": \"ConnectException: Connection refused\"\n" +
             "                        }\n" +
             "                    ]\n" +
@@ -2295,6 +2299,7 @@ public class CI {
             "                            \"currentIp\": \"127.0.0.1\",\n" +
             "                            \"status\": \"DOWN\",\n" +
             "                            \"cost\": -1," +
+            "                            \"latency\": -1,\n" +
             "                            \"downReason\": \"ConnectException: Connection refused\"\n" +
             "                        },\n" +
             "                        {\n" +
@@ -2304,6 +2309,7 @@ public class CI {
             "                            \"currentIp\": \"127.0.0.1\",\n" +
             "                            \"status\": \"DOWN\",\n" +
             "                            \"cost\": -1," +
+            "                            \"latency\": -1,\n" +
             "                            \"downReason\": \"ConnectException: Connection refused\"\n" +
             "                        }\n" +
             "                    ]\n" +
@@ -2337,6 +2343,7 @@ public class CI {
             "                            \"currentIp\": \"127.0.0.1\",\n" +
             "                            \"status\": \"DOWN\",\n" +
             "                            \"cost\": -1," +
+            "                            \"latency\": -1,\n" +
             "                            \"downReason\": \"ConnectException: Connection refused\"\n" +
             "                        },\n" +
             "                        {\n" +
@@ -2346,6 +2353,7 @@ public class CI {
             "                            \"currentIp\": \"127.0.0.1\",\n" +
             "                            \"status\": \"DOWN\",\n" +
             "                            \"cost\": -1," +
+            "                            \"latency\": -1,\n" +
             "                            \"downReason\": \"ConnectException: Connection refused\"\n" +
             "                        }\n" +
             "                    ]\n" +
@@ -2429,6 +2437,7 @@ public class CI {
             "                            \"currentIp\": \"127.0.0.1\",\n" +
             "                            \"status\": \"DOWN\",\n" +
             "                            \"cost\": -1," +
+            "                            \"latency\": -1,\n" +
             "                            \"downReason\": \"ConnectException: Connection refused\"\n" +
             "                        },\n" +
             "                        {\n" +
@@ -2438,6 +2447,7 @@ public class CI {
             "                            \"currentIp\": \"127.0.0.1\",\n" +
             "                            \"status\": \"DOWN\",\n" +
             "                            \"cost\": -1," +
+            "                            \"latency\": -1,\n" +
             "                            \"downReason\": \"ConnectException: Connection refused\"\n" +
             "                        }\n" +
             "                    ]\n" +
@@ -2471,6 +2481,7 @@ public class CI {
             "                            \"currentIp\": \"127.0.0.1\",\n" +
             "                            \"status\": \"DOWN\",\n" +
             "                            \"cost\": -1," +
+            "                            \"latency\": -1,\n" +
             "                            \"downReason\": \"ConnectException: Connection refused\"\n" +
             "                        },\n" +
             "                        {\n" +
@@ -2480,6 +2491,7 @@ public class CI {
             "                            \"currentIp\": \"127.0.0.1\",\n" +
             "                            \"status\": \"DOWN\",\n" +
             "                            \"cost\": -1," +
+            "                            \"latency\": -1,\n" +
             "                            \"downReason\": \"ConnectException: Connection refused\"\n" +
             "                        }\n" +
             "                    ]\n" +
@@ -2548,6 +2560,7 @@ public class CI {
             "                \"currentIp\": \"127.0.0.1\",\n" +
             "                \"status\": \"DOWN\",\n" +
             "                \"cost\": -1," +
+            "                \"latency\": -1,\n" +
             "                \"downReason\": \"ConnectException: Connection refused\"\n" +
             "            },\n" +
             "            {\n" +
@@ -2557,6 +2570,7 @@ public class CI {
             "                \"currentIp\": \"127.0.0.1\",\n" +
             "                \"status\": \"DOWN\",\n" +
             "                \"cost\": -1," +
+            "                \"latency\": -1,\n" +
             "                \"downReason\": \"ConnectException: Connection refused\"\n" +
             "            }\n" +
             "        ]\n" +
@@ -2597,6 +2611,7 @@ public class CI {
             "                        \"currentIp\": \"127.0.0.1\",\n" +
             "                        \"status\": \"DOWN\",\n" +
             "                        \"cost\": -1," +
+            "                        \"latency\": -1,\n" +
             "                        \"downReason\": \"ConnectException: Connection refused\"\n" +
             "                    },\n" +
             "                    {\n" +
@@ -2606,6 +2621,7 @@ public class CI {
             "                        \"currentIp\": \"127.0.0.1\",\n" +
             "                        \"status\": \"DOWN\",\n" +
             "                        \"cost\": -1," +
+            "                        \"latency\": -1,\n" +
             "                        \"downReason\": \"ConnectException: Connection refused\"\n" +
             "                    }\n" +
             "                ]\n" +
@@ -2639,6 +2655,7 @@ public class CI {
             "                        \"currentIp\": \"127.0.0.1\",\n" +
             "                        \"status\": \"DOWN\",\n" +
             "                        \"cost\": -1," +
+            "                        \"latency\": -1,\n" +
             "                        \"downReason\": \"ConnectException: Connection refused\"\n" +
             "                    },\n" +
             "                    {\n" +
@@ -2648,6 +2665,7 @@ public class CI {
             "                        \"currentIp\": \"127.0.0.1\",\n" +
             "                        \"status\": \"DOWN\",\n" +
             "                        \"cost\": -1," +
+            "                        \"latency\": -1,\n" +
             "                        \"downReason\": \"ConnectException: Connection refused\"\n" +
             "                    }\n" +
             "                ]\n" +
@@ -2666,6 +2684,7 @@ public class CI {
             "    \"currentIp\": \"127.0.0.1\",\n" +
             "    \"status\": \"DOWN\",\n" +
             "    \"cost\": -1," +
+            "    \"latency\": -1,\n" +
             "    \"downReason\": \"ConnectException: Connection refused\"\n" +
             "}";
         pretty = requestApi(HttpMethod.GET, "/server-group/" + sg0 + "/server/" + svr00 + "/detail").pretty();
@@ -2696,6 +2715,7 @@ public class CI {
             "            \"currentIp\": \"127.0.0.1\",\n" +
             "            \"status\": \"DOWN\",\n" +
             "            \"cost\": -1," +
+            "            \"latency\": -1,\n" +
             "            \"downReason\": \"ConnectException: Connection refused\"\n" +
             "        },\n" +
             "        {\n" +
@@ -2705,6 +2725,7 @@ public class CI {
             "            \"currentIp\": \"127.0.0.1\",\n" +
             "            \"status\": \"DOWN\",\n" +
             "            \"cost\": -1," +
+            "            \"latency\": -1,\n" +
             "            \"downReason\": \"ConnectException: Connection refused\"\n" +
             "        }\n" +
             "    ]\n" +
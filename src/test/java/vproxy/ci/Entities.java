@@ -15,6 +15,10 @@ public class Entities {
         wrr,
         wlc,
         source,
+        maglev,
+        p2c,
+        ewma,
+        lor,
     }
 
     enum Protocol {
@@ -0,0 +1,76 @@
+package vproxy.poc;
+
+import vproxy.processor.Processor;
+import vproxy.processor.http1.HttpContext;
+import vproxy.processor.http1.HttpProcessor;
+import vproxy.processor.http1.HttpSubContext;
+import vproxy.util.ByteArray;
+
+import java.net.InetSocketAddress;
+
+// parse http/1.x requests and responses with typical header sets
+// and print the parsing throughput
+public class Http1ParserBenchmark {
+    private static final int ROUNDS = 500_000;
+
+    public static void main(String[] args) throws Exception {
+        String req = "" +
+            "GET /api/v1/users/12345/profile?fields=name,email,avatar HTTP/1.1\r\n" +
+            "Host: www.example.com\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/80.0 Safari/537.36\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+            "Accept-Encoding: gzip, deflate, br\r\n" +
+            "Accept-Language: en-US,en;q=0.9\r\n" +
+            "Cookie: session=0123456789abcdef0123456789abcdef; theme=dark\r\n" +
+            "Connection: keep-alive\r\n" +
+            "\r\n";
+        String resp = "" +
+            "HTTP/1.1 200 OK\r\n" +
+            "Content-Type: application/json; charset=utf-8\r\n" +
+            "Cache-Control: no-cache\r\n" +
+            "Date: Mon, 02 Mar 2020 10:00:00 GMT\r\n" +
+            "Server: nginx\r\n" +
+            "Content-Length: 64\r\n" +
+            "\r\n" +
+            "{\"name\":\"alice\",\"email\":\"alice@example.com\",\"avatar\":\"/a/1.png\"}";
+        String chunked = "" +
+            "HTTP/1.1 200 OK\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "Transfer-Encoding: chunked\r\n" +
+            "\r\n" +
+            "20\r\n0123456789abcdef0123456789abcdef\r\n" +
+            "10\r\n0123456789abcdef\r\n" +
+            "0\r\n\r\n";
+
+        for (int i = 0; i < 2; ++i) { // the first round is warm up
+            run("request", req.getBytes(), true, i == 1);
+            run("response", resp.getBytes(), false, i == 1);
+            run("chunked", chunked.getBytes(), false, i == 1);
+        }
+    }
+
+    private static void run(String name, byte[] bytes, boolean isReq, boolean print) throws Exception {
+        Processor<HttpContext, HttpSubContext> p = new HttpProcessor();
+        InetSocketAddress client = new InetSocketAddress("1.2.3.4", 1122);
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; ++i) {
+            HttpContext ctx = p.init(client);
+            HttpSubContext sub = p.initSub(ctx, isReq ? 0 : 1, null);
+            sub.setParserMode();
+            ByteArray data = ByteArray.from(bytes);
+            int off = 0;
+            while (off < bytes.length) {
+                int len = sub.len();
+                int n = len > 0 ? Math.min(len, bytes.length - off) : bytes.length - off;
+                sub.feed(data.sub(off, n));
+                off += n;
+            }
+        }
+        long cost = System.nanoTime() - start;
+        if (print) {
+            System.out.printf("%-10s %10.2f ns/msg %10.2f MB/s%n", name,
+                cost / (double) ROUNDS,
+                (double) bytes.length * ROUNDS / cost * 1_000_000_000 / 1024 / 1024);
+        }
+    }
+}
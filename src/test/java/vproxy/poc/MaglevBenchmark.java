@@ -0,0 +1,120 @@
+package vproxy.poc;
+
+import vproxy.component.svrgroup.MaglevTable;
+
+import java.util.Random;
+
+// compare the `source` method (sdbm % n) and the `maglev` method:
+// 1. how many clients are sent to another server when one server is removed or added
+// 2. how much time one lookup costs
+public class MaglevBenchmark {
+    private static final int CLIENTS = 100_000;
+    private static final int LOOKUPS = 10_000_000;
+
+    public static void main(String[] args) {
+        Random rand = new Random(1);
+        byte[][] clients = new byte[CLIENTS][4];
+        for (byte[] c : clients) {
+            rand.nextBytes(c);
+        }
+        System.out.printf("%8s %12s %12s %12s %12s %12s %12s %12s%n",
+            "servers", "mod-rm(%)", "mod-add(%)", "mod(ns/op)",
+            "mag-rm(%)", "mag-add(%)", "mag(ns/op)", "mag-max/avg");
+        for (int n : new int[]{10, 50, 100, 500, 1000}) {
+            run(n, clients);
+        }
+    }
+
+    private static void run(int n, byte[][] clients) {
+        MaglevTable table = build(n);
+        MaglevTable removed = build(n - 1);
+        MaglevTable added = build(n + 1);
+
+        int[] mod = new int[clients.length];
+        int[] mag = new int[clients.length];
+        int[] load = new int[n];
+        for (int i = 0; i < clients.length; ++i) {
+            mod[i] = sdbm(clients[i]) % n;
+            mag[i] = table.lookup(MaglevTable.hash(clients[i]));
+            ++load[mag[i]];
+        }
+        int modRm = 0, modAdd = 0, magRm = 0, magAdd = 0;
+        for (int i = 0; i < clients.length; ++i) {
+            int h = sdbm(clients[i]);
+            // clients of the removed server must move, they are not counted
+            if (mod[i] != n - 1 && h % (n - 1) != mod[i]) ++modRm;
+            if (h % (n + 1) != mod[i]) ++modAdd;
+            long mh = MaglevTable.hash(clients[i]);
+            if (mag[i] != n - 1 && removed.lookup(mh) != mag[i]) ++magRm;
+            if (added.lookup(mh) != mag[i]) ++magAdd;
+        }
+        int max = 0;
+        for (int l : load) {
+            max = Math.max(max, l);
+        }
+
+        System.out.printf("%8d %12.2f %12.2f %12.2f %12.2f %12.2f %12.2f %12.2f%n", n,
+            100.0 * modRm / clients.length, 100.0 * modAdd / clients.length, modNsPerOp(n, clients),
+            100.0 * magRm / clients.length, 100.0 * magAdd / clients.length, magNsPerOp(table, clients),
+            max / ((double) clients.length / n));
+    }
+
+    private static MaglevTable build(int n) {
+        byte[][] keys = new byte[n][];
+        int[] weights = new int[n];
+        for (int i = 0; i < n; ++i) {
+            keys[i] = new byte[]{10, 0, (byte) (i >> 8), (byte) i, 0, 80};
+            weights[i] = 10;
+        }
+        return new MaglevTable(keys, weights);
+    }
+
+    private static double modNsPerOp(int n, byte[][] clients) {
+        long sum = 0;
+        for (int round = 0; round < 2; ++round) { // the first round is warm up
+            long start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; ++i) {
+                sum += sdbm(clients[i % clients.length]) % n;
+            }
+            if (round == 1) {
+                blackhole(sum);
+                return (System.nanoTime() - start) / (double) LOOKUPS;
+            }
+        }
+        return -1;
+    }
+
+    private static double magNsPerOp(MaglevTable table, byte[][] clients) {
+        long sum = 0;
+        for (int round = 0; round < 2; ++round) {
+            long start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; ++i) {
+                sum += table.lookup(MaglevTable.hash(clients[i % clients.length]));
+            }
+            if (round == 1) {
+                blackhole(sum);
+                return (System.nanoTime() - start) / (double) LOOKUPS;
+            }
+        }
+        return -1;
+    }
+
+    // same as ServerGroup.SOURCE.hash
+    private static int sdbm(byte[] bytes) {
+        int hash = 0;
+        for (byte aByte : bytes) {
+            hash = (aByte) + (hash << 6) + (hash << 16) - hash;
+        }
+        hash = Math.abs(hash);
+        if (hash < 0) {
+            hash = 0;
+        }
+        return hash;
+    }
+
+    private static void blackhole(long v) {
+        if (v == 42) {
+            System.out.print("");
+        }
+    }
+}
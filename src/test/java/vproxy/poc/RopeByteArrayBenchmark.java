@@ -0,0 +1,68 @@
+package vproxy.poc;
+
+import vproxy.util.ByteArray;
+import vproxy.util.RingBuffer;
+import vproxy.util.ringbuffer.SimpleRingBuffer;
+
+// build arrays from many small segments with concat() (binary tree)
+// and with a rope (flat segment list), then compare
+// the cost of building, random access, and storing into a ring buffer
+public class RopeByteArrayBenchmark {
+    private static final int ROUNDS = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%8s %8s %14s %14s %14s%n", "segments", "type", "build(ns)", "get(ns/op)", "store(ns)");
+        for (int i = 0; i < 2; ++i) { // the first round is warm up
+            for (int segments : new int[]{4, 16, 64, 256}) {
+                run(segments, false, i == 1);
+                run(segments, true, i == 1);
+            }
+        }
+    }
+
+    private static ByteArray build(ByteArray[] parts, boolean rope) {
+        ByteArray ret = rope ? ByteArray.rope(parts[0]) : parts[0];
+        for (int i = 1; i < parts.length; ++i) {
+            ret = ret.concat(parts[i]);
+        }
+        return ret;
+    }
+
+    private static void run(int segments, boolean rope, boolean print) throws Exception {
+        ByteArray[] parts = new ByteArray[segments];
+        for (int i = 0; i < segments; ++i) {
+            parts[i] = ByteArray.from(("segment-" + i + "\r\n").getBytes());
+        }
+        SimpleRingBuffer rb = RingBuffer.allocate(65536);
+        long sum = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; ++i) {
+            sum += build(parts, rope).length();
+        }
+        long build = System.nanoTime() - start;
+
+        ByteArray arr = build(parts, rope);
+        int len = arr.length();
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; ++i) {
+            sum += arr.get((i * 31) % len);
+        }
+        long get = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; ++i) {
+            rb.storeBytesFrom(arr.toFullChannel());
+            rb.clear();
+        }
+        long store = System.nanoTime() - start;
+
+        if (print) {
+            System.out.printf("%8d %8s %14.2f %14.2f %14.2f%n", segments, rope ? "rope" : "concat",
+                build / (double) ROUNDS, get / (double) ROUNDS, store / (double) ROUNDS);
+        }
+        if (sum == Long.MIN_VALUE) {
+            System.out.print("");
+        }
+    }
+}
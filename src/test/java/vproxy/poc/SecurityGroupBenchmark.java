@@ -0,0 +1,101 @@
+package vproxy.poc;
+
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.secure.SecurityGroupRule;
+import vproxy.connection.Protocol;
+import vproxy.util.Utils;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Random;
+
+// compare the match latency of the security group (trie)
+// with checking the rules one by one
+public class SecurityGroupBenchmark {
+    private static final int INPUTS = 4096;
+    private static final int LOOKUPS = 5_000_000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%8s %16s %16s%n", "rules", "linear(ns/op)", "trie(ns/op)");
+        for (int n : new int[]{10, 100, 1000, 10000}) {
+            run(n);
+        }
+    }
+
+    private static void run(int n) throws Exception {
+        Random rand = new Random(n);
+        SecurityGroup secg = new SecurityGroup("secg", false);
+        for (int i = 0; i < n; ++i) {
+            byte[] ip;
+            byte[] mask;
+            if (i % 10 == 9) {
+                ip = new byte[16];
+                rand.nextBytes(ip);
+                mask = Utils.parseMask(48 + rand.nextInt(17));
+            } else {
+                ip = new byte[4];
+                rand.nextBytes(ip);
+                mask = Utils.parseMask(16 + rand.nextInt(17));
+            }
+            for (int j = 0; j < ip.length; ++j) {
+                ip[j] &= mask[j];
+            }
+            int minPort = rand.nextInt(60000);
+            secg.addRule(new SecurityGroupRule("r" + i, ip, mask, Protocol.TCP,
+                minPort, minPort + rand.nextInt(5000), rand.nextBoolean()));
+        }
+        List<SecurityGroupRule> rules = secg.getRules();
+
+        InetAddress[] inputs = new InetAddress[INPUTS];
+        int[] ports = new int[INPUTS];
+        for (int i = 0; i < INPUTS; ++i) {
+            // half of the inputs hit a rule
+            byte[] ip;
+            if (i % 2 == 0) {
+                SecurityGroupRule r = rules.get(rand.nextInt(rules.size()));
+                ip = r.ip.clone();
+                ip[ip.length - 1] |= (byte) rand.nextInt(256) & ~r.mask[r.mask.length - 1];
+                ports[i] = r.minPort;
+            } else {
+                ip = new byte[rand.nextInt(10) == 0 ? 16 : 4];
+                rand.nextBytes(ip);
+                ports[i] = rand.nextInt(65536);
+            }
+            inputs[i] = InetAddress.getByAddress(ip);
+        }
+
+        double linear = 0;
+        double trie = 0;
+        for (int round = 0; round < 2; ++round) { // the first round is warm up
+            long sum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS / Math.max(1, n / 100); ++i) {
+                int idx = i & (INPUTS - 1);
+                if (linearAllow(secg, rules, inputs[idx], ports[idx]))
+                    ++sum;
+            }
+            linear = (System.nanoTime() - start) / (double) (LOOKUPS / Math.max(1, n / 100));
+
+            start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; ++i) {
+                int idx = i & (INPUTS - 1);
+                if (secg.allow(Protocol.TCP, inputs[idx], ports[idx]))
+                    --sum;
+            }
+            trie = (System.nanoTime() - start) / (double) LOOKUPS;
+            if (sum == Long.MIN_VALUE) {
+                System.out.print("");
+            }
+        }
+        System.out.printf("%8d %16.2f %16.2f%n", n, linear, trie);
+    }
+
+    // how the security group worked before
+    private static boolean linearAllow(SecurityGroup secg, List<SecurityGroupRule> rules, InetAddress address, int port) {
+        for (SecurityGroupRule rule : rules) {
+            if (rule.match(address, port))
+                return rule.allow;
+        }
+        return secg.defaultAllow;
+    }
+}
@@ -0,0 +1,81 @@
+package vproxy.poc;
+
+import vproxy.app.Config;
+import vproxy.util.TimeElem;
+import vproxy.util.TimeQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// compare the `heap` time queue (PriorityQueue) and the `wheel` time queue (hierarchical timing wheel)
+// with the way the event loop uses timers: most of them are cancelled before they expire
+// (e.g. idle timeouts of connections), the rest are popped when time goes by
+// 1. push: add timers with random timeouts in [1, 60000) ms
+// 2. cancel: remove some of the timers before they expire
+// 3. expire: move the clock forward 1 ms at a time and pop all expired timers
+//
+// note that `heap` cancels in O(n), so only a few of the timers are cancelled
+public class TimeQueueBenchmark {
+    private static final int MAX_TIMEOUT = 60_000;
+    private static final int CANCELS = 1_000;
+
+    public static void main(String[] args) {
+        System.out.printf("%8s %8s %14s %14s %14s%n",
+            "queue", "timers", "push(ns/op)", "cancel(ns/op)", "expire(ns/op)");
+        for (int n : new int[]{10_000, 100_000, 1_000_000}) {
+            for (int round = 0; round < 2; ++round) { // the first round is warm up
+                run("heap", TimeQueue.createPriorityQueue(), n, round == 1);
+                run("wheel", TimeQueue.createTimingWheel(), n, round == 1);
+            }
+        }
+    }
+
+    private static void run(String name, TimeQueue<Integer> queue, int n, boolean print) {
+        Random rand = new Random(1);
+        long now = System.currentTimeMillis();
+        Config.currentTimestamp = now;
+
+        List<TimeElem<Integer>> elems = new ArrayList<>(n);
+        long start = System.nanoTime();
+        for (int i = 0; i < n; ++i) {
+            elems.add(queue.push(1 + rand.nextInt(MAX_TIMEOUT - 1), i));
+        }
+        long push = System.nanoTime() - start;
+
+        int cancels = Math.min(CANCELS, n);
+        start = System.nanoTime();
+        for (int i = 0; i < cancels; ++i) {
+            elems.get(rand.nextInt(n)).removeSelf();
+        }
+        long cancel = System.nanoTime() - start;
+
+        long sum = 0;
+        int popped = 0;
+        start = System.nanoTime();
+        while (!queue.isEmpty()) {
+            Config.currentTimestamp = ++now;
+            while (queue.nextTime() == 0) {
+                Integer e = queue.pop();
+                if (e == null) {
+                    break;
+                }
+                sum += e;
+                ++popped;
+            }
+        }
+        long expire = System.nanoTime() - start;
+        blackhole(sum);
+
+        if (print) {
+            System.out.printf("%8s %8d %14.2f %14.2f %14.2f%n", name, n,
+                push / (double) n, cancel / (double) cancels, expire / (double) popped);
+        }
+    }
+
+    private static void blackhole(long v) {
+        if (v == 42) {
+            System.out.print("");
+        }
+    }
+}
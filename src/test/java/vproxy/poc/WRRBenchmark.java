@@ -0,0 +1,91 @@
+package vproxy.poc;
+
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.SvrHandleConnector;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// pick servers with wrr from multiple threads (each thread acts as an event loop)
+// and print the throughput and how far the distribution of each thread is from the weights
+//
+// fairness: each thread walks through the smooth wrr sequence with its own cursor,
+// so in every `sum(weights) / gcd(weights)` picks of one thread, each server is picked
+// exactly `weight / gcd(weights)` times, and the picks are spread evenly inside the sequence.
+// the deviation printed below should be 0 when PICKS is a multiple of the sequence length.
+public class WRRBenchmark {
+    private static final int PICKS = 5_000_000;
+
+    public static void main(String[] args) throws Exception {
+        EventLoopGroup elg = new EventLoopGroup("elg");
+        ServerGroup sg = new ServerGroup("sg", elg,
+            new HealthCheckConfig(1000, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+        int[] weights = {10, 20, 30, 40};
+        for (int i = 0; i < weights.length; ++i) {
+            sg.add("s" + i, new InetSocketAddress("10.0.0." + (i + 1), 80), weights[i]);
+        }
+        for (ServerGroup.ServerHandle h : sg.getServerHandles()) {
+            h.healthy = true;
+        }
+        InetSocketAddress client = new InetSocketAddress("192.168.0.1", 12345);
+
+        System.out.printf("%8s %16s %16s%n", "threads", "picks/s", "max-deviation");
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            for (Method m : new Method[]{Method.wrr, Method.wlc}) {
+                sg.setMethod(m);
+                run(m, threads, sg, client, weights);
+            }
+        }
+        elg.close();
+    }
+
+    private static void run(Method m, int threads, ServerGroup sg, InetSocketAddress client, int[] weights) throws Exception {
+        List<ServerGroup.ServerHandle> handles = sg.getServerHandles();
+        int weightSum = 0;
+        for (int w : weights) {
+            weightSum += w;
+        }
+        @SuppressWarnings("unchecked")
+        Map<InetSocketAddress, Integer>[] results = new Map[threads];
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; ++t) {
+            int tt = t;
+            ts[t] = new Thread(() -> {
+                Map<InetSocketAddress, Integer> counts = new HashMap<>();
+                for (int i = 0; i < PICKS; ++i) {
+                    SvrHandleConnector c = sg.next(client);
+                    counts.merge(c.remote, 1, Integer::sum);
+                }
+                results[tt] = counts;
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread t : ts) {
+            t.start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+        long cost = System.nanoTime() - start;
+
+        double maxDeviation = 0;
+        for (Map<InetSocketAddress, Integer> counts : results) {
+            for (int i = 0; i < handles.size(); ++i) {
+                ServerGroup.ServerHandle h = handles.get(i);
+                double expected = (double) PICKS * h.getWeight() / weightSum;
+                int actual = counts.getOrDefault(h.server, 0);
+                maxDeviation = Math.max(maxDeviation, Math.abs(actual - expected) / expected);
+            }
+        }
+        // no connection is made in this program, so wlc always sees 0 connections
+        // and picks the servers in turn, the deviation is meaningless for wlc
+        System.out.printf("%8s %16.0f %16s  (%s)%n", threads,
+            (double) PICKS * threads / cost * 1_000_000_000,
+            m == Method.wrr ? String.format("%.4f%%", maxDeviation * 100) : "n/a", m);
+    }
+}
@@ -10,12 +10,26 @@ import vproxy.test.cases.*;
 
     TestTcpLB.class,
     TestNetMask.class,
+    TestRopeByteArray.class,
+    TestScatterGather.class,
+    TestSelectorEventLoop.class,
+    TestAESelector.class,
+    TestDatagramBatch.class,
+    TestSplice.class,
+    TestDirectBufferPool.class,
+    TestBoundedNameRegistry.class,
+    TestServerGroup.class,
+    TestSecurityGroup.class,
+    TestUpstream.class,
     TestTimer.class,
     TestResolver.class,
+    TestDNSServer.class,
+    TestAnswerCache.class,
     TestSocks5.class,
     TestConnectClient.class,
     TestSSL.class,
     TestProtocols.class,
+    TestHttpCache.class,
     TestHttp1Parser.class,
     TestHealthCheck.class,
 
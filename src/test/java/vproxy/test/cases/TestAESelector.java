@@ -0,0 +1,225 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vfd.EventSet;
+import vfd.SelectedEntry;
+import vfd.SocketFD;
+import vfd.posix.AESelector;
+import vfd.posix.Posix;
+import vfd.posix.PosixSocketFD;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestAESelector {
+    private static final int READABLE = 1;
+    private static final int WRITABLE = 2;
+    private static final int PIPE_FD = 3;
+
+    private Posix posix;
+    // the (fd, events) pairs returned by the next poll
+    private int[] fired;
+    // fds registered into the fake event loop
+    private Set<Integer> registered;
+    private int pipeReads;
+    private AESelector selector;
+
+    @Before
+    public void setUp() {
+        fired = new int[0];
+        registered = Collections.synchronizedSet(new HashSet<>());
+        pipeReads = 0;
+        posix = (Posix) Proxy.newProxyInstance(Posix.class.getClassLoader(), new Class[]{Posix.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "aeReadable":
+                    return READABLE;
+                case "aeWritable":
+                    return WRITABLE;
+                case "onlySelectNow":
+                    return false;
+                case "aeCreateFileEvent":
+                    registered.add((int) args[1]);
+                    return null;
+                case "aeDeleteFileEvent":
+                    registered.remove((int) args[1]);
+                    return null;
+                case "aeApiPollIntoBuffer":
+                    ByteBuffer buf = (ByteBuffer) args[2];
+                    for (int i = 0; i < fired.length; ++i) {
+                        buf.putInt(i * 4, fired[i]);
+                    }
+                    return fired.length / 2;
+                case "read":
+                    assertEquals(PIPE_FD, (int) args[0]);
+                    ++pipeReads;
+                    return 0;
+                case "aeDeleteEventLoop":
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        selector = new AESelector(posix, 1, new int[]{PIPE_FD, PIPE_FD});
+    }
+
+    @After
+    public void tearDown() {
+        selector.close();
+    }
+
+    private SocketFD register(int fdnum, Object att) throws Exception {
+        SocketFD fd = new PosixSocketFD(posix, fdnum, true);
+        selector.register(fd, EventSet.read(), att);
+        return fd;
+    }
+
+    private List<SelectedEntry> poll(int... fired) throws Exception {
+        this.fired = fired;
+        List<SelectedEntry> ret = new ArrayList<>();
+        for (SelectedEntry e : selector.selectNow()) {
+            ret.add(e);
+        }
+        return ret;
+    }
+
+    @Test
+    public void pollReusesEntries() throws Exception {
+        SocketFD fd10 = register(10, "a");
+        SocketFD fd11 = register(11, "b");
+
+        Collection<SelectedEntry> first = selector.selectNow();
+        assertEquals(0, first.size());
+
+        List<SelectedEntry> entries = poll(10, READABLE, 11, READABLE | WRITABLE);
+        assertEquals(2, entries.size());
+        assertSame(fd10, entries.get(0).fd);
+        assertEquals(EventSet.read(), entries.get(0).ready);
+        assertEquals("a", entries.get(0).attachment);
+        assertSame(fd11, entries.get(1).fd);
+        assertEquals(EventSet.readwrite(), entries.get(1).ready);
+        assertEquals("b", entries.get(1).attachment);
+
+        // the same collection and the same entries are returned for the same events
+        fired = new int[]{11, READABLE | WRITABLE, 10, READABLE};
+        Collection<SelectedEntry> second = selector.selectNow();
+        assertSame(first, second);
+        Iterator<SelectedEntry> it = second.iterator();
+        assertSame(entries.get(1), it.next());
+        assertSame(entries.get(0), it.next());
+        assertFalse(it.hasNext());
+
+        // a different kind of events
+        List<SelectedEntry> writable = poll(10, WRITABLE);
+        assertEquals(1, writable.size());
+        assertEquals(EventSet.write(), writable.get(0).ready);
+        assertSame(writable.get(0), poll(10, WRITABLE).get(0));
+    }
+
+    @Test
+    public void skipRemovedAndPipe() throws Exception {
+        SocketFD fd10 = register(10, "a");
+        SocketFD fd11 = register(11, "b");
+        selector.remove(fd10);
+        assertFalse(selector.isRegistered(fd10));
+        assertFalse(registered.contains(10));
+
+        // fd 20 is never registered
+        List<SelectedEntry> entries = poll(10, READABLE, PIPE_FD, READABLE, 20, READABLE, 11, WRITABLE);
+        assertEquals(1, entries.size());
+        assertSame(fd11, entries.get(0).fd);
+        assertEquals(1, pipeReads);
+
+        assertEquals(0, poll().size());
+        assertEquals(1, pipeReads);
+    }
+
+    @Test
+    public void manyEvents() throws Exception {
+        // more events than the initial size of the result collection
+        int[] ev = new int[200];
+        for (int i = 0; i < 100; ++i) {
+            register(100 + i, i);
+            ev[i * 2] = 100 + i;
+            ev[i * 2 + 1] = READABLE;
+        }
+        List<SelectedEntry> entries = poll(ev);
+        assertEquals(100, entries.size());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(i, entries.get(i).attachment);
+        }
+    }
+
+    @Test
+    public void growAttachments() throws Exception {
+        SocketFD small = register(5, "small");
+        SocketFD large = register(5000, "large");
+        assertTrue(selector.isRegistered(small));
+        assertTrue(selector.isRegistered(large));
+        assertEquals("small", selector.attachment(small));
+        assertEquals("large", selector.attachment(large));
+
+        List<SelectedEntry> entries = poll(5000, READABLE, 5, READABLE);
+        assertEquals(2, entries.size());
+        assertSame(large, entries.get(0).fd);
+        assertSame(small, entries.get(1).fd);
+
+        // removing an fd out of the range does nothing
+        selector.remove(new PosixSocketFD(posix, 100000, true));
+        assertTrue(selector.isRegistered(large));
+    }
+
+    @Test
+    public void registerOnOtherThreads() throws Exception {
+        int threads = 8;
+        int each = 500;
+        List<Throwable> errors = new ArrayList<>();
+        List<Thread> list = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            int base = 10 + t * each;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < each; ++i) {
+                        register(base + i, base + i);
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            thread.start();
+            list.add(thread);
+        }
+        // poll on the current thread while the array is growing
+        while (true) {
+            boolean alive = false;
+            for (Thread t : list) {
+                alive |= t.isAlive();
+            }
+            if (!alive) {
+                break;
+            }
+            poll(10, READABLE, 10 + threads * each - 1, READABLE);
+        }
+        assertEquals("no exceptions should be raised: " + errors, 0, errors.size());
+
+        // no registration is lost
+        for (int i = 10; i < 10 + threads * each; ++i) {
+            SocketFD fd = new PosixSocketFD(posix, i, true);
+            assertTrue("fd " + i, selector.isRegistered(fd));
+            assertEquals(i, selector.attachment(fd));
+        }
+        int[] ev = new int[threads * each * 2];
+        for (int i = 0; i < threads * each; ++i) {
+            ev[i * 2] = 10 + i;
+            ev[i * 2 + 1] = READABLE;
+        }
+        assertEquals(threads * each, poll(ev).size());
+    }
+}
@@ -0,0 +1,224 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vproxy.dns.*;
+import vproxy.dns.rdata.A;
+import vproxy.dns.rdata.CNAME;
+import vproxy.util.ByteArray;
+import vproxy.util.Utils;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestAnswerCache {
+    private static DNSPacket request(int id, String qname, boolean edns) {
+        DNSPacket p = new DNSPacket();
+        p.id = id;
+        p.opcode = DNSPacket.Opcode.QUERY;
+        p.rd = true;
+        p.rcode = DNSPacket.RCode.NoError;
+        DNSQuestion q = new DNSQuestion();
+        q.qname = qname;
+        q.qtype = DNSType.A;
+        q.qclass = DNSClass.IN;
+        p.questions.add(q);
+        if (edns) {
+            DNSResource opt = new DNSResource();
+            opt.name = "";
+            opt.type = DNSType.OPT;
+            opt.clazz = DNSClass.NOT_CLASS;
+            opt.rdataBytes = ByteArray.from(new byte[0]);
+            p.additionalResources.add(opt);
+        }
+        return p;
+    }
+
+    private static DNSPacket parse(ByteArray bytes) throws Exception {
+        List<DNSPacket> packets = Formatter.parsePackets(bytes);
+        assertEquals(1, packets.size());
+        return packets.get(0);
+    }
+
+    // the response with the header and the question of the request, and the records appended
+    private static DNSPacket response(DNSPacket req, int rcode, int ancount, int nscount, byte[] records) throws Exception {
+        byte[] q = req.toByteArray().toJavaArray();
+        ByteBuffer buf = ByteBuffer.allocate(q.length + records.length);
+        buf.put(q, 0, q.length);
+        buf.put(2, (byte) 0x81); // QR, RD
+        buf.put(3, (byte) (0x80 | rcode)); // RA
+        buf.putShort(6, (short) ancount);
+        buf.putShort(8, (short) nscount);
+        buf.putShort(10, (short) 0);
+        // the request may carry an OPT record, which is overwritten
+        buf.position(questionEnd(req));
+        buf.put(records);
+        buf.flip();
+        byte[] bytes = new byte[buf.limit()];
+        buf.get(bytes);
+        return parse(ByteArray.from(bytes));
+    }
+
+    private static int questionEnd(DNSPacket req) {
+        return 12 + Formatter.formatDomainName(req.questions.get(0).qname).length() + 4;
+    }
+
+    private static byte[] soa(DNSPacket req, int ttl, int minimum) {
+        // name(pointer to the parent domain of the qname), type, class, ttl, rdlength,
+        // mname(root), rname(root), serial, refresh, retry, expire, minimum
+        int parent = 12 + 1 + req.questions.get(0).qname.indexOf('.');
+        ByteBuffer buf = ByteBuffer.allocate(12 + 2 + 20);
+        buf.putShort((short) (0xc000 | parent)).putShort((short) DNSType.SOA.code).putShort((short) DNSClass.IN.code)
+            .putInt(ttl).putShort((short) 22);
+        buf.put((byte) 0).put((byte) 0).putInt(1).putInt(3600).putInt(600).putInt(86400).putInt(minimum);
+        return buf.array();
+    }
+
+    @Test
+    public void compressedAnswerAfterTimePasses() throws Exception {
+        AnswerCache cache = new AnswerCache(16);
+        DNSPacket req = request(1, "www.example.com.", false);
+        int qend = questionEnd(req); // 33
+        // www.example.com. CNAME web.example.com., the cname is `web` + a pointer to `example.com.`
+        // web.example.com. A 10.0.0.1, the name is a pointer to the cname
+        ByteBuffer records = ByteBuffer.allocate(18 + 16);
+        records.putShort((short) 0xc00c).putShort((short) DNSType.CNAME.code).putShort((short) DNSClass.IN.code)
+            .putInt(300).putShort((short) 6)
+            .put((byte) 3).put("web".getBytes()).putShort((short) 0xc010);
+        records.putShort((short) (0xc000 | (qend + 12))).putShort((short) DNSType.A.code).putShort((short) DNSClass.IN.code)
+            .putInt(60).putShort((short) 4).put(new byte[]{10, 0, 0, 1});
+        DNSPacket resp = response(req, 0, 2, 0, records.array());
+        assertEquals("web.example.com.", resp.answers.get(1).name);
+        cache.put(req, resp);
+        assertEquals(1, cache.size());
+
+        Thread.sleep(1100);
+
+        // the qname is case insensitive
+        DNSPacket req2 = request(2, "WWW.example.com.", false);
+        DNSPacket cached = cache.get(req2);
+        assertNotNull(cached);
+        // serve the cached answer and parse it as the client does
+        DNSPacket p = parse(cached.toByteArray());
+        assertEquals(2, p.id);
+        assertTrue(p.isResponse);
+        assertFalse(p.aa);
+        assertEquals(DNSPacket.RCode.NoError, p.rcode);
+        assertEquals("WWW.example.com.", p.questions.get(0).qname);
+        assertEquals(2, p.answers.size());
+        DNSResource cname = p.answers.get(0);
+        assertEquals("WWW.example.com.", cname.name);
+        assertEquals(DNSType.CNAME, cname.type);
+        assertEquals("web.example.com.", ((CNAME) cname.rdata).cname);
+        int elapsed = 300 - cname.ttl;
+        assertTrue("" + elapsed, elapsed >= 1 && elapsed <= 2);
+        DNSResource a = p.answers.get(1);
+        assertEquals("web.example.com.", a.name);
+        assertEquals(DNSType.A, a.type);
+        assertEquals("10.0.0.1", Utils.ipStr(((A) a.rdata).address.getAddress()));
+        assertEquals(60 - elapsed, a.ttl);
+        assertEquals(1, cache.getHits());
+
+        // the records of the response are not modified
+        DNSPacket origin = parse(resp.toByteArray());
+        assertEquals(300, origin.answers.get(0).ttl);
+        assertEquals(60, origin.answers.get(1).ttl);
+    }
+
+    @Test
+    public void negativeAnswers() throws Exception {
+        AnswerCache cache = new AnswerCache(16);
+
+        // NXDOMAIN with SOA, cached for min(ttl, MINIMUM) of the SOA
+        DNSPacket req = request(1, "nx.example.com.", false);
+        cache.put(req, response(req, DNSPacket.RCode.NameError.code, 0, 1, soa(req, 100, 20)));
+        DNSPacket p = parse(cache.get(request(2, "nx.example.com.", false)).toByteArray());
+        assertEquals(2, p.id);
+        assertEquals(DNSPacket.RCode.NameError, p.rcode);
+        assertEquals(0, p.answers.size());
+        assertEquals(1, p.nameServers.size());
+        assertEquals(DNSType.SOA, p.nameServers.get(0).type);
+        assertEquals("example.com.", p.nameServers.get(0).name);
+
+        // NXDOMAIN without SOA is not cached
+        req = request(1, "nx2.example.com.", false);
+        cache.put(req, response(req, DNSPacket.RCode.NameError.code, 0, 0, new byte[0]));
+        assertNull(cache.get(request(2, "nx2.example.com.", false)));
+
+        // NODATA
+        req = request(1, "nodata.example.com.", false);
+        cache.put(req, response(req, 0, 0, 1, soa(req, 100, 20)));
+        p = parse(cache.get(request(2, "nodata.example.com.", false)).toByteArray());
+        assertEquals(DNSPacket.RCode.NoError, p.rcode);
+        assertEquals(0, p.answers.size());
+        assertEquals(DNSType.SOA, p.nameServers.get(0).type);
+
+        // NODATA without SOA is not cached
+        req = request(1, "nodata2.example.com.", false);
+        cache.put(req, response(req, 0, 0, 0, new byte[0]));
+        assertNull(cache.get(request(2, "nodata2.example.com.", false)));
+
+        // the ttl of SOA is 0
+        req = request(1, "nx3.example.com.", false);
+        cache.put(req, response(req, DNSPacket.RCode.NameError.code, 0, 1, soa(req, 0, 20)));
+        assertNull(cache.get(request(2, "nx3.example.com.", false)));
+
+        // errors are not cached
+        req = request(1, "fail.example.com.", false);
+        cache.put(req, response(req, DNSPacket.RCode.ServerFailure.code, 0, 1, soa(req, 100, 20)));
+        assertNull(cache.get(request(2, "fail.example.com.", false)));
+
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void largeAnswerWithoutEdns() throws Exception {
+        AnswerCache cache = new AnswerCache(16);
+        DNSPacket req = request(1, "big.example.com.", true);
+        int n = 40;
+        ByteBuffer records = ByteBuffer.allocate(16 * n);
+        for (int i = 0; i < n; ++i) {
+            records.putShort((short) 0xc00c).putShort((short) DNSType.A.code).putShort((short) DNSClass.IN.code)
+                .putInt(60).putShort((short) 4).put(new byte[]{10, 0, 0, (byte) i});
+        }
+        DNSPacket resp = response(req, 0, n, 0, records.array());
+        assertTrue(resp.toByteArray().length() > 512);
+        cache.put(req, resp);
+
+        // the client without edns only accepts 512 bytes
+        assertNull(cache.get(request(2, "big.example.com.", false)));
+        assertEquals(1, cache.getMisses());
+        DNSPacket p = parse(cache.get(request(3, "big.example.com.", true)).toByteArray());
+        assertEquals(n, p.answers.size());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void eviction() throws Exception {
+        AnswerCache cache = new AnswerCache(2);
+        byte[] record = ByteBuffer.allocate(16)
+            .putShort((short) 0xc00c).putShort((short) DNSType.A.code).putShort((short) DNSClass.IN.code)
+            .putInt(60).putShort((short) 4).put(new byte[]{10, 0, 0, 1}).array();
+        for (String name : new String[]{"a.example.com.", "b.example.com."}) {
+            DNSPacket req = request(1, name, false);
+            cache.put(req, response(req, 0, 1, 0, record));
+        }
+        assertEquals(2, cache.size());
+        // `a` is used, so it gets a second chance and `b` is evicted
+        assertNotNull(cache.get(request(2, "a.example.com.", false)));
+        DNSPacket req = request(1, "c.example.com.", false);
+        cache.put(req, response(req, 0, 1, 0, record));
+        assertEquals(2, cache.size());
+        assertNull(cache.get(request(2, "b.example.com.", false)));
+        assertNotNull(cache.get(request(2, "a.example.com.", false)));
+        assertNotNull(cache.get(request(2, "c.example.com.", false)));
+
+        // disabled
+        cache = new AnswerCache(0);
+        req = request(1, "a.example.com.", false);
+        cache.put(req, response(req, 0, 1, 0, record));
+        assertEquals(0, cache.size());
+        assertNull(cache.get(req));
+    }
+}
@@ -0,0 +1,95 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vproxy.util.BoundedNameRegistry;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.*;
+
+public class TestBoundedNameRegistry {
+    static class Counter {
+        final String name;
+        final LongAdder count = new LongAdder();
+
+        Counter(String name) {
+            this.name = name;
+        }
+    }
+
+    @Test
+    public void fallbackWhenFull() {
+        BoundedNameRegistry<Counter> registry = new BoundedNameRegistry<>(3, "OTHER", Counter::new);
+        Counter a = registry.get("a");
+        assertEquals("a", a.name);
+        assertSame(a, registry.get("a"));
+        registry.get("b");
+        registry.get("c");
+
+        // names after the limit are recorded as the fallback
+        Counter d = registry.get("d");
+        assertEquals("OTHER", d.name);
+        assertSame(d, registry.get("e"));
+        // the fallback is not counted in the limit, and recorded names are still retrieved
+        assertSame(d, registry.get("OTHER"));
+        assertSame(a, registry.get("a"));
+        assertEquals(4, registry.values().size());
+    }
+
+    @Test
+    public void fallbackDoesNotTakePlace() {
+        BoundedNameRegistry<Counter> registry = new BoundedNameRegistry<>(1, "OTHER", Counter::new);
+        Counter other = registry.get("OTHER");
+        Counter a = registry.get("a");
+        assertEquals("a", a.name);
+        assertSame(other, registry.get("b"));
+    }
+
+    @Test
+    public void strictLimitWhenConcurrent() throws Exception {
+        int max = 100;
+        AtomicInteger created = new AtomicInteger();
+        BoundedNameRegistry<Counter> registry = new BoundedNameRegistry<>(max, "OTHER", n -> {
+            created.incrementAndGet();
+            return new Counter(n);
+        });
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; ++t) {
+            int tt = t;
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ignore) {
+                }
+                for (int i = 0; i < 1000; ++i) {
+                    // all threads try the same names and their own names
+                    registry.get("shared" + i).count.increment();
+                    registry.get("t" + tt + "-" + i).count.increment();
+                }
+                done.countDown();
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        List<Counter> values = registry.values();
+        assertEquals(max + 1, values.size());
+        assertEquals(max + 1, created.get());
+        Set<String> names = new HashSet<>();
+        long total = 0;
+        for (Counter c : values) {
+            assertTrue(names.add(c.name));
+            total += c.count.sum();
+        }
+        assertTrue(names.contains("OTHER"));
+        // nothing is lost
+        assertEquals(threads * 2000, total);
+    }
+}
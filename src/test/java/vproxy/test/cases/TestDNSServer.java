@@ -0,0 +1,290 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vproxy.app.Config;
+import vproxy.app.util.AnnotationKeys;
+import vproxy.component.check.CheckProtocol;
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.elgroup.EventLoopWrapper;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.connection.ServerSock;
+import vproxy.dns.*;
+import vproxy.dns.rdata.A;
+import vproxy.selector.PeriodicEvent;
+import vproxy.util.ByteArray;
+import vproxy.util.Utils;
+
+import java.lang.reflect.Field;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class TestDNSServer {
+    private static final int dnsPort = 17853;
+
+    private EventLoopGroup elg;
+    private ServerGroup sg;
+    private Upstream rrsets;
+    private CapturingDNSServer dns;
+    private DatagramSocket client;
+
+    // captures the responses of the normal path when calling handle()
+    private static class CapturingDNSServer extends DNSServer {
+        private boolean capturing = false;
+        private DNSPacket captured;
+
+        CapturingDNSServer(String alias, EventLoopGroup elg, Upstream rrsets) {
+            super(alias, new InetSocketAddress("127.0.0.1", dnsPort), elg, rrsets, 60, SecurityGroup.allowAll());
+        }
+
+        @Override
+        protected synchronized void sendPacket(int id, InetSocketAddress remote, DNSPacket p) {
+            if (capturing) {
+                p.id = id;
+                captured = p;
+                return;
+            }
+            super.sendPacket(id, remote, p);
+        }
+
+        synchronized DNSPacket handle(DNSPacket req, InetSocketAddress remote) {
+            capturing = true;
+            captured = null;
+            try {
+                handleRequest(req, remote);
+            } finally {
+                capturing = false;
+            }
+            return captured;
+        }
+
+        EventLoopWrapper loop() {
+            return (EventLoopWrapper) loop;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        elg = new EventLoopGroup("elg0");
+        elg.add("el0");
+
+        sg = new ServerGroup("sg0", elg, new HealthCheckConfig(1000, 10000, 1, 3, CheckProtocol.none), Method.wrr);
+        sg.setAnnotations(Map.of(AnnotationKeys.ServerGroup_HintHost, "example.com"));
+        sg.add("svr4", new InetSocketAddress(Utils.l3addr("10.1.2.3"), 80), 10);
+        sg.add("svr6", new InetSocketAddress(Utils.l3addr("fd00::1"), 80), 10);
+        sg.getServerHandles().forEach(h -> h.healthy = true);
+        // a hint with bytes greater than 0x7f
+        ServerGroup sg2 = new ServerGroup("sg1", elg, new HealthCheckConfig(1000, 10000, 1, 3, CheckProtocol.none), Method.wrr);
+        sg2.setAnnotations(Map.of(AnnotationKeys.ServerGroup_HintHost, "\u00e4\u00ff.example.net"));
+        sg2.add("svr4", new InetSocketAddress(Utils.l3addr("10.4.5.6"), 80), 10);
+        sg2.add("svr6", new InetSocketAddress(Utils.l3addr("fd00::2"), 80), 10);
+        sg2.getServerHandles().forEach(h -> h.healthy = true);
+        rrsets = new Upstream("ups0");
+        rrsets.add(sg, 10);
+        rrsets.add(sg2, 10);
+
+        dns = new CapturingDNSServer("dns0", elg, rrsets);
+        dns.start();
+
+        client = new DatagramSocket();
+        client.setSoTimeout(2000);
+    }
+
+    @After
+    public void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        if (dns != null) {
+            dns.stop();
+        }
+        if (elg != null) {
+            elg.close();
+        }
+    }
+
+    private static DNSResource opt(int version) {
+        DNSResource r = new DNSResource();
+        r.name = "";
+        r.type = DNSType.OPT;
+        r.clazz = DNSClass.NOT_CLASS; // udp payload size 65535
+        r.ttl = version << 16;
+        r.rdataBytes = ByteArray.from(new byte[0]);
+        return r;
+    }
+
+    private static DNSPacket request(int id, String qname, DNSType qtype, DNSResource... additional) {
+        DNSPacket p = new DNSPacket();
+        p.id = id;
+        p.opcode = DNSPacket.Opcode.QUERY;
+        p.rd = true;
+        p.rcode = DNSPacket.RCode.NoError;
+        DNSQuestion q = new DNSQuestion();
+        q.qname = qname;
+        q.qtype = qtype;
+        q.qclass = DNSClass.IN;
+        p.questions.add(q);
+        p.additionalResources.addAll(Arrays.asList(additional));
+        return p;
+    }
+
+    private byte[] query(byte[] req) throws Exception {
+        client.send(new DatagramPacket(req, req.length, new InetSocketAddress("127.0.0.1", dnsPort)));
+        DatagramPacket resp = new DatagramPacket(new byte[4096], 4096);
+        client.receive(resp);
+        return Arrays.copyOf(resp.getData(), resp.getLength());
+    }
+
+    private static DNSPacket parse(byte[] bytes) throws Exception {
+        List<DNSPacket> packets = Formatter.parsePackets(ByteArray.from(bytes));
+        assertEquals(1, packets.size());
+        return packets.get(0);
+    }
+
+    @Test
+    public void fastPathMatchesNormalPath() throws Exception {
+        InetSocketAddress remote = new InetSocketAddress("127.0.0.1", client.getLocalPort());
+        String[] names = {"example.com.", "www.example.com.", "\u00e4\u00ff.example.net."};
+        int id = 0x8001; // the id is not a positive short
+        for (String name : names) {
+            for (DNSType qtype : Arrays.asList(DNSType.A, DNSType.AAAA)) {
+                for (boolean edns : new boolean[]{false, true}) {
+                    int questionEnd = request(id, name, qtype).toByteArray().length();
+                    DNSPacket req = edns ? request(id, name, qtype, opt(0)) : request(id, name, qtype);
+                    byte[] reqBytes = req.toByteArray().toJavaArray();
+                    byte[] fast = query(reqBytes);
+                    // the name of the answer is a pointer to the question, so it's responded by the fast path
+                    assertEquals(name, (byte) 0xc0, fast[questionEnd]);
+                    // the question is copied
+                    assertArrayEquals(name, Arrays.copyOfRange(reqBytes, 12, questionEnd), Arrays.copyOfRange(fast, 12, questionEnd));
+
+                    DNSPacket normal = dns.handle(parse(reqBytes), remote);
+                    assertNotNull(normal);
+                    DNSPacket fastPacket = parse(fast);
+                    assertEquals(parse(normal.toByteArray().toJavaArray()), fastPacket);
+                    assertEquals(1, fastPacket.answers.size());
+                    assertEquals(edns ? 1 : 0, fastPacket.additionalResources.size());
+                    if (edns) {
+                        assertEquals(DNSType.OPT, fastPacket.additionalResources.get(0).type);
+                    }
+                    ++id;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fallbackToNormalPath() throws Exception {
+        DNSResource extra = new DNSResource();
+        extra.name = "example.com.";
+        extra.type = DNSType.A;
+        extra.clazz = DNSClass.IN;
+        extra.ttl = 10;
+        A a = new A();
+        a.address = (Inet4Address) Utils.l3addr("10.0.0.1");
+        extra.rdata = a;
+
+        // an additional record which is not OPT, and an OPT record of an unknown version
+        for (DNSResource additional : Arrays.asList(extra, opt(1))) {
+            int questionEnd = request(1, "example.com.", DNSType.A).toByteArray().length();
+            byte[] resp = query(request(1, "example.com.", DNSType.A, additional).toByteArray().toJavaArray());
+            DNSPacket p = parse(resp);
+            assertEquals(1, p.answers.size());
+            assertEquals("example.com.", p.answers.get(0).name);
+            assertEquals("10.1.2.3", Utils.ipStr(((A) p.answers.get(0).rdata).address.getAddress()));
+            // the normal path does not compress the name
+            assertNotEquals((byte) 0xc0, resp[questionEnd]);
+        }
+    }
+
+    private PeriodicEvent reloadHosts() throws Exception {
+        Field f = DNSServer.class.getDeclaredField("reloadHosts");
+        f.setAccessible(true);
+        return (PeriodicEvent) f.get(dns);
+    }
+
+    private static boolean running(PeriodicEvent event) throws Exception {
+        Field f = PeriodicEvent.class.getDeclaredField("running");
+        f.setAccessible(true);
+        return (boolean) f.get(event);
+    }
+
+    private static void waitFor(String msg, BooleanSupplier cond) throws Exception {
+        long start = System.currentTimeMillis();
+        while (!cond.getAsBoolean()) {
+            assertTrue(msg, System.currentTimeMillis() - start < 5000);
+            Thread.sleep(50);
+        }
+    }
+
+    private void queryExample(int n) throws Exception {
+        for (int i = 0; i < n; ++i) {
+            DNSPacket p = parse(query(request(i, "example.com.", DNSType.A).toByteArray().toJavaArray()));
+            assertEquals(i, p.id);
+            assertEquals("10.1.2.3", Utils.ipStr(((A) p.answers.get(0).rdata).address.getAddress()));
+        }
+    }
+
+    private long sumQueries() {
+        return dns.loopStats().stream().mapToLong(s -> s.queries).sum();
+    }
+
+    @Test
+    public void multipleLoops() throws Exception {
+        // a socket on each loop with reuseport load balancing, otherwise only one socket
+        int socks = ServerSock.supportReusePort() && Config.supportReusePortLB() ? 2 : 1;
+
+        // bound on the added loop
+        elg.add("el1");
+        assertEquals(socks, dns.loopStats().size());
+        queryExample(10);
+        assertEquals(10, sumQueries());
+        waitFor("qps", () -> dns.loopStats().stream().anyMatch(s -> s.qps > 0));
+
+        // remove the loop reloading the hosts
+        EventLoopWrapper hostsLoop = dns.loop();
+        assertNotNull(hostsLoop);
+        PeriodicEvent reload = reloadHosts();
+        assertTrue(running(reload));
+        elg.remove(hostsLoop.alias);
+        EventLoopWrapper remaining = elg.list().get(0);
+        waitFor("unbound", () -> dns.loop() == remaining);
+        assertFalse(running(reload));
+        PeriodicEvent reload2 = reloadHosts();
+        assertNotSame(reload, reload2);
+        assertTrue(running(reload2));
+        // the socket is bound on the remaining loop, and the stats of the removed loop are gone
+        List<DNSServer.LoopStats> stats = dns.loopStats();
+        assertEquals(1, stats.size());
+        assertEquals(remaining.alias, stats.get(0).eventLoop);
+        long before = sumQueries();
+        queryExample(5);
+        assertEquals(before + 5, sumQueries());
+
+        elg.add("el2");
+        assertEquals(socks, dns.loopStats().size());
+        queryExample(1);
+
+        dns.stop();
+        assertFalse(running(reload2));
+        assertNull(reloadHosts());
+        assertNull(dns.loop());
+        assertTrue(dns.loopStats().isEmpty());
+        // not bound again after stopped
+        elg.add("el3");
+        assertTrue(dns.loopStats().isEmpty());
+    }
+}
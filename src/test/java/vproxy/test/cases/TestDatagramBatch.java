@@ -0,0 +1,267 @@
+package vproxy.test.cases;
+
+import org.junit.Assume;
+import org.junit.Test;
+import vfd.DatagramBatch;
+import vfd.DatagramFD;
+import vfd.FDProvider;
+import vfd.posix.GeneralPosix;
+import vfd.posix.Posix;
+import vfd.posix.PosixDatagramFD;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class TestDatagramBatch {
+    private static final InetSocketAddress V4 = new InetSocketAddress("10.1.2.3", 53);
+    private static final InetSocketAddress V6 = new InetSocketAddress("fd00::1:2", 5353);
+
+    private static ByteBuffer packet(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String str(ByteBuffer buf) {
+        byte[] b = new byte[buf.limit() - buf.position()];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void metaLayout() {
+        DatagramBatch batch = new DatagramBatch(4, 16);
+        assertTrue(batch.add(packet("hello"), V4));
+        assertTrue(batch.add(packet("world!"), V6));
+        assertEquals(2, batch.size());
+
+        // the layout shared with the native code
+        ByteBuffer meta = batch.metaBuffer();
+        assertEquals(ByteOrder.nativeOrder(), meta.order());
+        assertEquals(4 * DatagramBatch.META_LEN, meta.capacity());
+        assertEquals(5, meta.getInt(0));
+        assertEquals(53, meta.getInt(4));
+        assertEquals(4, meta.getInt(8));
+        assertArrayEquals(new byte[]{10, 1, 2, 3}, bytes(meta, 16, 4));
+        int off = DatagramBatch.META_LEN;
+        assertEquals(6, meta.getInt(off));
+        assertEquals(5353, meta.getInt(off + 4));
+        assertEquals(16, meta.getInt(off + 8));
+        assertArrayEquals(V6.getAddress().getAddress(), bytes(meta, off + 16, 16));
+
+        // each packet starts at the beginning of its slot
+        ByteBuffer data = batch.dataBuffer();
+        assertEquals(4 * 16, data.capacity());
+        assertEquals("hello", new String(bytes(data, 0, 5), StandardCharsets.UTF_8));
+        assertEquals("world!", new String(bytes(data, 16, 6), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void readFilledByNative() throws Exception {
+        DatagramBatch batch = new DatagramBatch(4, 16);
+        // simulate the native code filling the buffers
+        ByteBuffer data = batch.dataBuffer();
+        ByteBuffer meta = batch.metaBuffer();
+        byte[] p0 = "abc".getBytes(StandardCharsets.UTF_8);
+        byte[] p1 = "defgh".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < p0.length; ++i) {
+            data.put(i, p0[i]);
+        }
+        for (int i = 0; i < p1.length; ++i) {
+            data.put(16 + i, p1[i]);
+        }
+        meta.putInt(0, 3);
+        meta.putInt(4, 1234);
+        meta.putInt(8, 4);
+        byte[] ip0 = InetAddress.getByName("192.168.0.1").getAddress();
+        for (int i = 0; i < 4; ++i) {
+            meta.put(16 + i, ip0[i]);
+        }
+        int off = DatagramBatch.META_LEN;
+        meta.putInt(off, 5);
+        meta.putInt(off + 4, 65535);
+        meta.putInt(off + 8, 16);
+        byte[] ip1 = InetAddress.getByName("::1").getAddress();
+        for (int i = 0; i < 16; ++i) {
+            meta.put(off + 16 + i, ip1[i]);
+        }
+        batch.setSize(2);
+
+        assertEquals("abc", str(batch.get(0)));
+        assertEquals(new InetSocketAddress("192.168.0.1", 1234), batch.getAddress(0));
+        assertEquals("defgh", str(batch.get(1)));
+        assertEquals(new InetSocketAddress("::1", 65535), batch.getAddress(1));
+        // the address is cached
+        assertSame(batch.getAddress(1), batch.getAddress(1));
+
+        try {
+            batch.get(2);
+            fail();
+        } catch (IndexOutOfBoundsException ignore) {
+        }
+        try {
+            batch.setSize(5);
+            fail();
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+
+    @Test
+    public void addAndCommit() {
+        DatagramBatch batch = new DatagramBatch(3, 8);
+        // too large for the slot
+        ByteBuffer large = packet("123456789");
+        assertFalse(batch.add(large, V4));
+        assertEquals(0, large.position());
+
+        ByteBuffer slot = batch.nextSlot();
+        assertEquals(0, slot.position());
+        assertEquals(8, slot.limit());
+        slot.put("xyz".getBytes(StandardCharsets.UTF_8));
+        batch.commit(slot.position(), V6);
+        assertTrue(batch.add(packet("12345678"), V4));
+        assertTrue(batch.add(packet(""), V4));
+        assertTrue(batch.isFull());
+        assertNull(batch.nextSlot());
+        assertFalse(batch.add(packet("a"), V4));
+        try {
+            batch.commit(1, V4);
+            fail();
+        } catch (IllegalStateException ignore) {
+        }
+
+        assertEquals("xyz", str(batch.get(0)));
+        assertEquals(V6, batch.getAddress(0));
+        assertEquals("12345678", str(batch.get(1)));
+        assertEquals("", str(batch.get(2)));
+
+        batch.clear();
+        assertEquals(0, batch.size());
+        assertTrue(batch.add(packet("again"), V6));
+        assertEquals("again", str(batch.get(0)));
+    }
+
+    @Test
+    public void removeFirst() {
+        DatagramBatch batch = new DatagramBatch(4, 8);
+        batch.add(packet("p0"), V4);
+        batch.add(packet("p1-long"), V6);
+        batch.add(packet("p2"), V4);
+        batch.add(packet("p3"), V6);
+
+        batch.removeFirst(0);
+        assertEquals(4, batch.size());
+
+        // the packets not sent are moved to the front
+        batch.removeFirst(1);
+        assertEquals(3, batch.size());
+        assertEquals("p1-long", str(batch.get(0)));
+        assertEquals(V6, batch.getAddress(0));
+        assertEquals("p2", str(batch.get(1)));
+        assertEquals("p3", str(batch.get(2)));
+        assertEquals(2, batch.metaBuffer().getInt(2 * DatagramBatch.META_LEN));
+
+        // new packets are appended after the kept ones
+        assertTrue(batch.add(packet("p4"), V4));
+        assertTrue(batch.isFull());
+
+        batch.removeFirst(3);
+        assertEquals(1, batch.size());
+        assertEquals("p4", str(batch.get(0)));
+        assertEquals(V4, batch.getAddress(0));
+        // the address is decoded from the meta buffer as well
+        assertEquals(V4, new InetSocketAddress(batch.getAddress(0).getAddress(), batch.metaBuffer().getInt(4)));
+
+        batch.removeFirst(1);
+        assertEquals(0, batch.size());
+        try {
+            batch.removeFirst(1);
+            fail();
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+
+    private static void roundTrip(DatagramFD server, DatagramFD client, InetSocketAddress serverAddr) throws Exception {
+        DatagramBatch send = new DatagramBatch(8, 64);
+        for (int i = 0; i < 5; ++i) {
+            assertTrue(send.add(packet("packet-" + i), serverAddr));
+        }
+        assertEquals(5, client.sendBatch(send));
+        InetSocketAddress clientAddr = (InetSocketAddress) client.getLocalAddress();
+
+        DatagramBatch recv = new DatagramBatch(8, 64);
+        int n = 0;
+        long start = System.currentTimeMillis();
+        while (n < 5 && System.currentTimeMillis() - start < 5000) {
+            int got = server.receiveBatch(recv);
+            for (int i = 0; i < got; ++i) {
+                assertEquals("packet-" + n, str(recv.get(i)));
+                assertEquals(clientAddr.getPort(), recv.getAddress(i).getPort());
+                assertEquals(serverAddr.getAddress(), recv.getAddress(i).getAddress());
+                ++n;
+            }
+            if (got == 0) {
+                Thread.sleep(10);
+            }
+        }
+        assertEquals(5, n);
+        // nothing more
+        assertEquals(0, server.receiveBatch(recv));
+        send.clean();
+        recv.clean();
+    }
+
+    @Test
+    public void defaultImplementation() throws Exception {
+        DatagramFD server = FDProvider.get().openDatagramFD();
+        DatagramFD client = FDProvider.get().openDatagramFD();
+        try {
+            server.configureBlocking(false);
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            client.configureBlocking(false);
+            client.bind(new InetSocketAddress("127.0.0.1", 0));
+            roundTrip(server, client, (InetSocketAddress) server.getLocalAddress());
+        } finally {
+            server.close();
+            client.close();
+        }
+    }
+
+    @Test
+    public void nativeMmsg() throws Exception {
+        // the meta layout is parsed and formatted by the native recvmmsg/sendmmsg
+        boolean loaded;
+        try {
+            System.loadLibrary("vfdposix");
+            loaded = true;
+        } catch (UnsatisfiedLinkError e) {
+            loaded = false;
+        }
+        Assume.assumeTrue("libvfdposix not found on java.library.path", loaded);
+
+        Posix posix = new GeneralPosix();
+        DatagramFD server = new PosixDatagramFD(posix);
+        DatagramFD client = new PosixDatagramFD(posix);
+        try {
+            server.configureBlocking(false);
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            client.configureBlocking(false);
+            client.bind(new InetSocketAddress("127.0.0.1", 0));
+            roundTrip(server, client, (InetSocketAddress) server.getLocalAddress());
+        } finally {
+            server.close();
+            client.close();
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buf, int off, int len) {
+        byte[] b = new byte[len];
+        for (int i = 0; i < len; ++i) {
+            b[i] = buf.get(off + i);
+        }
+        return b;
+    }
+}
@@ -0,0 +1,210 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vproxy.selector.SelectorEventLoop;
+import vproxy.util.nio.ByteArrayChannel;
+import vproxy.util.ringbuffer.DirectBufferPool;
+import vproxy.util.ringbuffer.SimpleRingBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestDirectBufferPool {
+    private SelectorEventLoop loop;
+
+    @Before
+    public void setUp() throws Exception {
+        loop = SelectorEventLoop.open();
+        loop.loop(r -> new Thread(r, "TestDirectBufferPool"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        loop.close();
+    }
+
+    private <T> T onLoop(Callable<T> c) throws Exception {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        loop.runOnLoop(() -> {
+            try {
+                f.complete(c.call());
+            } catch (Throwable t) {
+                f.completeExceptionally(t);
+            }
+        });
+        return f.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void hitAndMiss() throws Exception {
+        DirectBufferPool pool = loop.bufferPool;
+        ByteBuffer buf = onLoop(() -> pool.allocate(16384));
+        assertNotNull(buf);
+        assertTrue(buf.isDirect());
+        assertEquals(0, pool.getHit());
+        assertEquals(1, pool.getMiss());
+
+        // not pooled sizes
+        assertNull(onLoop(() -> pool.allocate(1000)));
+
+        buf.position(10);
+        onLoop(() -> {
+            pool.release(buf);
+            return null;
+        });
+        assertEquals(1, pool.getPooledCount());
+        ByteBuffer buf2 = onLoop(() -> pool.allocate(16384));
+        assertSame(buf, buf2);
+        assertEquals(0, buf2.position());
+        assertEquals(1, pool.getHit());
+        assertEquals(0, pool.getPooledCount());
+        assertEquals(1, pool.getHighWater());
+
+        // other size classes do not hit
+        ByteBuffer buf3 = onLoop(() -> pool.allocate(65536));
+        assertNotSame(buf2, buf3);
+        assertEquals(2, pool.getMiss());
+    }
+
+    @Test
+    public void releaseOnOtherThreads() throws Exception {
+        DirectBufferPool pool = loop.bufferPool;
+        ByteBuffer buf = onLoop(() -> pool.allocate(24576));
+        pool.release(buf); // the main thread
+        assertEquals(1, pool.getReturnedCount());
+        assertEquals(0, pool.getPooledCount());
+
+        assertSame(buf, onLoop(() -> pool.allocate(24576)));
+        assertEquals(0, pool.getReturnedCount());
+        assertEquals(1, pool.getHit());
+    }
+
+    @Test
+    public void limitOfEachSizeClass() throws Exception {
+        DirectBufferPool pool = loop.bufferPool;
+        // 16 MB for each size class
+        for (int i = 0; i < 1024 + 10; ++i) {
+            pool.release(ByteBuffer.allocateDirect(16384));
+        }
+        assertEquals(1024, pool.getReturnedCount());
+        // not affected by buffers of other classes
+        for (int i = 0; i < 256 + 10; ++i) {
+            pool.release(ByteBuffer.allocateDirect(65536));
+        }
+        assertEquals(1024 + 256, pool.getReturnedCount());
+
+        onLoop(() -> {
+            for (int i = 0; i < 256; ++i) {
+                assertNotNull(pool.allocate(65536));
+            }
+            return null;
+        });
+        assertEquals(256, pool.getHit());
+        assertEquals(0, pool.getMiss());
+        assertEquals(1024, pool.getReturnedCount());
+        onLoop(() -> pool.allocate(65536));
+        assertEquals(1, pool.getMiss());
+    }
+
+    @Test
+    public void close() throws Exception {
+        DirectBufferPool pool = loop.bufferPool;
+        ByteBuffer buf = onLoop(() -> pool.allocate(16384));
+        onLoop(() -> {
+            pool.release(buf);
+            return null;
+        });
+        pool.release(ByteBuffer.allocateDirect(16384));
+        onLoop(() -> {
+            pool.close();
+            return null;
+        });
+        assertEquals(0, pool.getPooledCount());
+        assertEquals(0, pool.getReturnedCount());
+        assertNull(onLoop(() -> pool.allocate(16384)));
+
+        // released after closing
+        pool.release(ByteBuffer.allocateDirect(16384));
+        assertEquals(0, pool.getReturnedCount());
+    }
+
+    @Test
+    public void closeWhileReleasing() throws Exception {
+        SelectorEventLoop notRunning = SelectorEventLoop.open();
+        try {
+            for (int round = 0; round < 20; ++round) {
+                DirectBufferPool pool = new DirectBufferPool(notRunning);
+                CountDownLatch start = new CountDownLatch(1);
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < 4; ++t) {
+                    Thread thread = new Thread(() -> {
+                        try {
+                            start.await();
+                        } catch (InterruptedException ignore) {
+                        }
+                        for (int i = 0; i < 50; ++i) {
+                            pool.release(ByteBuffer.allocateDirect(16384));
+                        }
+                    });
+                    thread.start();
+                    threads.add(thread);
+                }
+                start.countDown();
+                pool.close();
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                // nothing is left in the closed pool
+                assertEquals(0, pool.getReturnedCount());
+            }
+        } finally {
+            notRunning.close();
+        }
+    }
+
+    @Test
+    public void ringBufferAfterClean() throws Exception {
+        DirectBufferPool pool = loop.bufferPool;
+        SimpleRingBuffer rb = onLoop(() -> SimpleRingBuffer.allocateDirectPooled(16384));
+        onLoop(() -> rb.storeBytesFrom(ByteArrayChannel.fromFull(new byte[]{1, 2, 3})));
+        onLoop(() -> {
+            rb.clean();
+            return null;
+        });
+        assertEquals(1, pool.getPooledCount());
+        // the memory is used by another buffer
+        SimpleRingBuffer rb2 = onLoop(() -> SimpleRingBuffer.allocateDirectPooled(16384));
+        assertEquals(1, pool.getHit());
+        onLoop(() -> rb2.storeBytesFrom(ByteArrayChannel.fromFull(new byte[]{4, 5})));
+
+        // the cleaned buffer fails instead of reading or writing the memory
+        ByteArrayChannel chnl = ByteArrayChannel.fromEmpty(16);
+        try {
+            onLoop(() -> rb.writeTo(chnl));
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        try {
+            onLoop(() -> rb.storeBytesFrom(ByteArrayChannel.fromFull(new byte[]{6})));
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertEquals(0, chnl.used());
+        assertEquals(2, rb2.used());
+        byte[] b = new byte[2];
+        onLoop(() -> rb2.writeTo(ByteArrayChannel.fromEmpty(b)));
+        assertArrayEquals(new byte[]{4, 5}, b);
+    }
+}
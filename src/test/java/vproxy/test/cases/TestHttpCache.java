@@ -0,0 +1,69 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vproxy.processor.http1.HttpCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestHttpCache {
+    private static final int STRIPE = 4096;
+    private static final int CAPACITY = STRIPE * 8;
+
+    @Test
+    public void fillStripeWithConcurrentReservations() throws Exception {
+        HttpCache cache = new HttpCache(CAPACITY);
+        int len = STRIPE / 4;
+        int threads = 16;
+
+        // the same key always goes to the same stripe, and the entries being stored are not in the map
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger reserved = new AtomicInteger();
+        List<Throwable> errors = new ArrayList<>();
+        List<Thread> list = new ArrayList<>();
+        for (int i = 0; i < threads; ++i) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    if (cache.reserve("tl0 s1.test.com/a", len)) {
+                        reserved.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            t.start();
+            list.add(t);
+        }
+        start.countDown();
+        for (Thread t : list) {
+            t.join();
+        }
+        assertEquals("no exceptions should be raised: " + errors, 0, errors.size());
+
+        assertEquals(4, reserved.get());
+        assertEquals(threads - 4, cache.getRejected());
+        assertEquals(4 * len, cache.getUsed());
+        assertEquals(4 * len, cache.getReserved());
+        assertEquals(0, cache.getEntries());
+        assertEquals(0, cache.getEvictions());
+
+        // still full, nothing to evict
+        assertFalse(cache.reserve("tl0 s1.test.com/a", 1));
+
+        // the space is available again when the reservations are released
+        for (int i = 0; i < 4; ++i) {
+            cache.release("tl0 s1.test.com/a", len);
+        }
+        assertEquals(0, cache.getUsed());
+        assertEquals(0, cache.getReserved());
+        assertTrue(cache.reserve("tl0 s1.test.com/a", STRIPE));
+        assertFalse(cache.reserve("tl0 s1.test.com/a", STRIPE + 1));
+    }
+}
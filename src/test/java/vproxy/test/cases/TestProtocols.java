@@ -1,6 +1,8 @@
 package vproxy.test.cases;
 
 import com.alibaba.dubbo.config.*;
+import com.twitter.hpack.Decoder;
+import com.twitter.hpack.Encoder;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.Server;
@@ -30,19 +32,51 @@ import vproxy.component.secure.SecurityGroup;
 import vproxy.component.svrgroup.Method;
 import vproxy.component.svrgroup.ServerGroup;
 import vproxy.component.svrgroup.Upstream;
+import vproxy.connection.NetEventLoop;
+import vproxy.connection.ServerSock;
 import vproxy.poc.dubbo.GreetingsService;
 import vproxy.poc.grpc.GreeterGrpc;
 import vproxy.poc.grpc.HelloRequest;
 import vproxy.poc.grpc.HelloResponse;
 import vproxy.poc.thrift.HelloWorldService;
+import vproxy.processor.Processor;
+import vproxy.processor.http1.HttpCache;
+import vproxy.processor.http1.HttpProcessor;
+import vproxy.processor.http2.GrpcStats;
+import vproxy.processor.http2.Http2Processor;
+import vproxy.processor.http2.HeaderStats;
+import vproxy.processor.redis.RedisCommandStats;
+import vproxy.protocol.ProtocolServerConfig;
+import vproxy.protocol.ProtocolServerHandler;
+import vproxy.redis.RESPConfig;
+import vproxy.redis.RESPHandler;
+import vproxy.redis.RESPProtocolHandler;
+import vproxy.selector.SelectorEventLoop;
+import vproxy.util.Callback;
 import vproxy.util.Utils;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.util.Map;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 public class TestProtocols {
     private static final int lbPort = 7890;
@@ -98,6 +132,13 @@ public class TestProtocols {
         lb.start();
     }
 
+    private void initLb(Processor processor) throws Exception {
+        lb = new TcpLB(
+            "tl0", elg, elg, new InetSocketAddress("0.0.0.0", lbPort), ups, 10000, 16384, 16384, processor, null, null, SecurityGroup.allowAll()
+        );
+        lb.start();
+    }
+
     private void initDubboLb() throws Exception {
         Upstream ups = new Upstream("dubboUps");
         ServerGroup sg = new ServerGroup("dubboSg", elg, new HealthCheckConfig(1000, 10000, 1, 3), Method.wrr);
@@ -232,6 +273,276 @@ public class TestProtocols {
         }
     }
 
+    private static byte[] h2Frame(int type, int flags, int streamId, byte[] payload) {
+        ByteBuffer buf = ByteBuffer.allocate(9 + payload.length);
+        buf.put((byte) (payload.length >> 16)).put((byte) (payload.length >> 8)).put((byte) payload.length);
+        buf.put((byte) type).put((byte) flags).putInt(streamId).put(payload);
+        return buf.array();
+    }
+
+    private static byte[] h2Setting(int id, int value) {
+        return ByteBuffer.allocate(6).putShort((short) id).putInt(value).array();
+    }
+
+    // returns {type, flags, streamId, payload}
+    private static Object[] readH2Frame(DataInputStream in) throws Exception {
+        byte[] head = new byte[9];
+        in.readFully(head);
+        ByteBuffer h = ByteBuffer.wrap(head);
+        byte[] payload = new byte[((head[0] & 0xff) << 16) | ((head[1] & 0xff) << 8) | (head[2] & 0xff)];
+        in.readFully(payload);
+        return new Object[]{head[3] & 0xff, head[4] & 0xff, h.getInt(5) & 0x7fffffff, payload};
+    }
+
+    private static byte[] h2Block(Encoder encoder, String... headers) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < headers.length; i += 2) {
+            encoder.encodeHeader(out, headers[i].getBytes(), headers[i + 1].getBytes(), false);
+        }
+        return out.toByteArray();
+    }
+
+    // send the block in HEADERS and CONTINUATION frames of the default max frame size
+    private static void h2Headers(OutputStream out, int streamId, byte[] block, boolean endStream) throws Exception {
+        int offset = 0;
+        do {
+            int len = Math.min(16384, block.length - offset);
+            boolean first = offset == 0;
+            boolean last = offset + len == block.length;
+            out.write(h2Frame(first ? 1 : 9, (last ? 4 : 0) | (first && endStream ? 1 : 0), streamId,
+                Arrays.copyOfRange(block, offset, offset + len)));
+            offset += len;
+        } while (offset < block.length);
+        out.flush();
+    }
+
+    // read until the response HEADERS of the stream, SETTINGS frames are acked
+    private static void h2Response(DataInputStream in, OutputStream out, int streamId) throws Exception {
+        while (true) {
+            Object[] f = readH2Frame(in);
+            int type = (int) f[0];
+            if (type == 4 && ((int) f[1] & 1) == 0) {
+                out.write(h2Frame(4, 1, 0, new byte[0]));
+            } else if (type == 1 && (int) f[2] == streamId) {
+                assertArrayEquals(new byte[]{(byte) 0x88}, (byte[]) f[3]); // :status: 200
+                return;
+            }
+        }
+    }
+
+    private static class H2Request {
+        final List<String> frames = new ArrayList<>();
+        final Map<String, String> headers = new HashMap<>();
+        boolean endStream; // END_STREAM of the HEADERS frame
+        int blockSize;
+    }
+
+    // responds :status 200 when the request stream ends,
+    // and sends a SETTINGS frame with SETTINGS_HEADER_TABLE_SIZE=n after responding a request with `x-header-table-size: n`
+    private static ServerSocket h2Server(int port, List<H2Request> requests, AtomicInteger settingsAcks) throws Exception {
+        ServerSocket server = new ServerSocket();
+        server.bind(new InetSocketAddress("127.0.0.1", port));
+        new Thread(() -> {
+            while (true) {
+                Socket sock;
+                try {
+                    sock = server.accept();
+                } catch (Exception e) {
+                    return;
+                }
+                new Thread(() -> {
+                    try (sock) {
+                        DataInputStream in = new DataInputStream(sock.getInputStream());
+                        OutputStream out = sock.getOutputStream();
+                        in.readFully(new byte[24]); // preface
+                        out.write(h2Frame(4, 0, 0, h2Setting(1, 4096))); // SETTINGS_HEADER_TABLE_SIZE
+                        Decoder decoder = new Decoder(65536, 4096);
+                        H2Request req = null;
+                        ByteArrayOutputStream block = null;
+                        int tableSize = -1; // waiting for the ack
+                        while (true) {
+                            Object[] f = readH2Frame(in);
+                            int type = (int) f[0];
+                            int flags = (int) f[1];
+                            int streamId = (int) f[2];
+                            byte[] payload = (byte[]) f[3];
+                            if (type == 4) { // SETTINGS
+                                if ((flags & 1) == 0) {
+                                    out.write(h2Frame(4, 1, 0, new byte[0]));
+                                } else if (tableSize != -1) {
+                                    decoder.setMaxHeaderTableSize(tableSize);
+                                    tableSize = -1;
+                                    settingsAcks.incrementAndGet();
+                                }
+                                continue;
+                            }
+                            if (type == 1) { // HEADERS
+                                req = new H2Request();
+                                req.endStream = (flags & 1) != 0;
+                                block = new ByteArrayOutputStream();
+                            } else if (type != 9 /* CONTINUATION */) {
+                                if (type == 0 && (flags & 1) != 0) { // DATA with END_STREAM
+                                    out.write(h2Frame(1, 5, streamId, new byte[]{(byte) 0x88}));
+                                }
+                                continue;
+                            }
+                            req.frames.add(type == 1 ? "HEADERS" : "CONTINUATION");
+                            block.write(payload);
+                            if ((flags & 4) == 0) { // not END_HEADERS
+                                continue;
+                            }
+                            H2Request r = req;
+                            r.blockSize = block.size();
+                            decoder.decode(new ByteArrayInputStream(block.toByteArray()),
+                                (name, value, sensitive) -> r.headers.put(new String(name), new String(value)));
+                            decoder.endHeaderBlock();
+                            requests.add(r);
+                            if (r.endStream) {
+                                out.write(h2Frame(1, 5, streamId, new byte[]{(byte) 0x88}));
+                            }
+                            String size = r.headers.get("x-header-table-size");
+                            if (size != null) {
+                                tableSize = Integer.parseInt(size);
+                                out.write(h2Frame(4, 0, 0, h2Setting(1, tableSize)));
+                            }
+                        }
+                    } catch (Exception ignore) {
+                    }
+                }).start();
+            }
+        }).start();
+        return server;
+    }
+
+    @Test
+    public void h2BackendHeaderTableDisabled() throws Exception {
+        List<H2Request> requests = Collections.synchronizedList(new ArrayList<>());
+        ServerSocket server = h2Server(port1, requests, new AtomicInteger());
+
+        initLb("h2");
+
+        Socket sock = new Socket("127.0.0.1", lbPort);
+        sock.setSoTimeout(3000);
+        DataInputStream in = new DataInputStream(sock.getInputStream());
+        OutputStream out = sock.getOutputStream();
+        out.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes());
+        out.write(h2Frame(4, 0, 0, h2Setting(2, 0))); // SETTINGS_ENABLE_PUSH
+
+        // the headers are re-encoded without the dynamic table by default,
+        // so the block sent to the backend does not shrink even if the frontend uses the dynamic table
+        Encoder encoder = new Encoder(4096);
+        String custom = "c".repeat(200);
+        for (int i = 0; i < 2; ++i) {
+            int streamId = 1 + i * 2;
+            h2Headers(out, streamId, h2Block(encoder,
+                ":method", "GET", ":scheme", "http", ":path", "/get", ":authority", "s1.test.com", "x-custom", custom), true);
+            h2Response(in, out, streamId);
+            H2Request r = requests.get(i);
+            assertTrue(r.endStream);
+            assertEquals(custom, r.headers.get("x-custom"));
+            assertEquals("127.0.0.1", r.headers.get("x-forwarded-for"));
+            assertTrue("" + r.blockSize, r.blockSize > 100);
+        }
+
+        sock.close();
+        server.close();
+    }
+
+    @Test
+    public void h2BackendHeaderTable() throws Exception {
+        List<H2Request> requests1 = Collections.synchronizedList(new ArrayList<>());
+        List<H2Request> requests2 = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger settingsAcks = new AtomicInteger();
+        ServerSocket server1 = h2Server(port1, requests1, settingsAcks);
+        ServerSocket server2 = h2Server(port2, requests2, settingsAcks);
+
+        initLb(new Http2Processor(4096));
+
+        Socket sock = new Socket("127.0.0.1", lbPort);
+        sock.setSoTimeout(3000);
+        DataInputStream in = new DataInputStream(sock.getInputStream());
+        OutputStream out = sock.getOutputStream();
+        out.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes());
+        out.write(h2Frame(4, 0, 0, h2Setting(2, 0))); // SETTINGS_ENABLE_PUSH
+
+        // the block only uses the static table, so it's sent as is along with the added headers,
+        // and it's bigger than the max frame size, so it's split into HEADERS and CONTINUATION frames
+        // the backend is not chosen when the block is decoded, so it's chosen by the lib first
+        Encoder stateless = new Encoder(0);
+        String big = "a".repeat(30000); // about 18KB after huffman encoding
+        long passthrough = HeaderStats.getPassthrough();
+        h2Headers(out, 1, h2Block(stateless,
+            ":method", "GET", ":scheme", "http", ":path", "/big", ":authority", "s1.test.com", "x-big", big), true);
+        h2Response(in, out, 1);
+        assertEquals(passthrough + 1, HeaderStats.getPassthrough());
+        H2Request r = requests1.get(0);
+        assertEquals(Arrays.asList("HEADERS", "CONTINUATION"), r.frames);
+        assertTrue(r.endStream);
+        assertEquals("/big", r.headers.get(":path"));
+        assertEquals(big, r.headers.get("x-big"));
+        assertEquals("127.0.0.1", r.headers.get("x-forwarded-for"));
+        assertEquals("" + sock.getLocalPort(), r.headers.get("x-client-port"));
+
+        // blocks using the dynamic table are re-encoded with the dynamic table of the backend connection
+        // END_STREAM is not set when the request has a body
+        Encoder encoder = new Encoder(4096);
+        String custom = "c".repeat(200);
+        h2Headers(out, 3, h2Block(encoder,
+            ":method", "POST", ":scheme", "http", ":path", "/post", ":authority", "s1.test.com", "x-custom", custom), false);
+        out.write(h2Frame(0, 1, 3, "hello".getBytes()));
+        h2Response(in, out, 3);
+        r = requests1.get(1);
+        assertEquals(Collections.singletonList("HEADERS"), r.frames);
+        assertFalse(r.endStream);
+        assertEquals(custom, r.headers.get("x-custom"));
+        assertTrue("" + r.blockSize, r.blockSize > 100);
+
+        // the headers are in the dynamic table of the backend connection now
+        // the backend lowers the table size after responding
+        h2Headers(out, 5, h2Block(encoder,
+            ":method", "POST", ":scheme", "http", ":path", "/post", ":authority", "s1.test.com", "x-custom", custom,
+            "x-header-table-size", "0"), true);
+        h2Response(in, out, 5);
+        r = requests1.get(2);
+        assertTrue(r.endStream);
+        assertEquals(custom, r.headers.get("x-custom"));
+        assertTrue("" + r.blockSize, r.blockSize < 60);
+
+        // the SETTINGS frame is acked by vproxy, and the table size update is sent in the next block
+        for (int i = 0; settingsAcks.get() == 0; ++i) {
+            assertTrue("the SETTINGS frame is not acked", i < 100);
+            Thread.sleep(20);
+        }
+        h2Headers(out, 7, h2Block(encoder,
+            ":method", "POST", ":scheme", "http", ":path", "/post", ":authority", "s1.test.com", "x-custom", custom), true);
+        h2Response(in, out, 7);
+        r = requests1.get(3);
+        assertEquals(custom, r.headers.get("x-custom"));
+        assertTrue("" + r.blockSize, r.blockSize > 100);
+
+        sock.close();
+
+        // the backend is chosen by the host of the first request of the frontend connection
+        sock = new Socket("127.0.0.1", lbPort);
+        sock.setSoTimeout(3000);
+        in = new DataInputStream(sock.getInputStream());
+        out = sock.getOutputStream();
+        out.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes());
+        out.write(h2Frame(4, 0, 0, h2Setting(2, 0)));
+        h2Headers(out, 1, h2Block(new Encoder(4096),
+            ":method", "GET", ":scheme", "http", ":path", "/s2", ":authority", "s2.test.com"), true);
+        h2Response(in, out, 1);
+        assertEquals(4, requests1.size());
+        r = requests2.get(0);
+        assertTrue(r.endStream);
+        assertEquals("/s2", r.headers.get(":path"));
+        assertEquals("127.0.0.1", r.headers.get("x-forwarded-for"));
+
+        sock.close();
+        server1.close();
+        server2.close();
+    }
+
     @Test
     public void grpcOverH2() throws Exception {
         class GreeterImpl extends GreeterGrpc.GreeterImplBase {
@@ -293,6 +604,79 @@ public class TestProtocols {
         }
     }
 
+    @Test
+    public void grpcCalls() throws Exception {
+        String path = "/" + GreeterGrpc.SERVICE_NAME + "/SayHello";
+        class GreeterImpl extends GreeterGrpc.GreeterImplBase {
+            private final int port;
+
+            private GreeterImpl(int port) {
+                this.port = port;
+            }
+
+            @Override
+            public void sayHello(HelloRequest request, StreamObserver<HelloResponse> responseObserver) {
+                responseObserver.onNext(HelloResponse.newBuilder().setMessage(request.getName() + "/" + port).build());
+                responseObserver.onCompleted();
+            }
+        }
+        Server svr1 = ServerBuilder.forPort(port1).addService(new GreeterImpl(port1)).build().start();
+        Server svr2 = ServerBuilder.forPort(port2).addService(new GreeterImpl(port2)).build().start();
+
+        // both groups match the host, the grpc path decides
+        ServerGroup sgOther = new ServerGroup("test-other", elg,
+            new HealthCheckConfig(1000, 10000, 1, 3, CheckProtocol.tcpDelay), Method.lor);
+        sgOther.setAnnotations(Map.of(
+            AnnotationKeys.ServerGroup_HintHost, "s1.test.com",
+            AnnotationKeys.ServerGroup_HintUri, "/other.Service/"));
+        sgOther.add("svr1", new InetSocketAddress(Utils.l3addr("127.0.0.1"), port1), 10);
+        ServerGroup sgGreeter = new ServerGroup("test-greeter", elg,
+            new HealthCheckConfig(1000, 10000, 1, 3, CheckProtocol.tcpDelay), Method.lor);
+        sgGreeter.setAnnotations(Map.of(
+            AnnotationKeys.ServerGroup_HintHost, "s1.test.com",
+            AnnotationKeys.ServerGroup_HintUri, "/" + GreeterGrpc.SERVICE_NAME + "/"));
+        sgGreeter.add("svr2", new InetSocketAddress(Utils.l3addr("127.0.0.1"), port2), 10);
+        sgOther.getServerHandles().forEach(h -> h.healthy = true);
+        sgGreeter.getServerHandles().forEach(h -> h.healthy = true);
+
+        Upstream ups = new Upstream("grpcUps");
+        ups.add(sgOther, 10);
+        ups.add(sgGreeter, 10);
+        lb = new TcpLB(
+            "tl0", elg, elg, new InetSocketAddress("0.0.0.0", lbPort), ups, 10000, 16384, 16384, "h2", null, null, SecurityGroup.allowAll()
+        );
+        lb.start();
+
+        long calls = GrpcStats.getAll().stream()
+            .filter(s -> s.method.equals(path)).mapToLong(GrpcStats::getCalls).sum();
+        long ok = GrpcStats.getAll().stream()
+            .filter(s -> s.method.equals(path)).mapToLong(s -> s.getFinished(0)).sum();
+
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("127.0.0.1", lbPort)
+            .usePlaintext()
+            .overrideAuthority("s1.test.com")
+            .build();
+        try {
+            for (int i = 0; i < 10; ++i) {
+                HelloResponse resp = GreeterGrpc.newBlockingStub(channel)
+                    .sayHello(HelloRequest.newBuilder().setName("req" + i).build());
+                assertEquals("req" + i + "/" + port2, resp.getMessage());
+            }
+
+            // all streams are finished
+            assertEquals(0, sgGreeter.getServerHandles().get(0).getActiveRequests());
+
+            GrpcStats stats = GrpcStats.getAll().stream().filter(s -> s.method.equals(path)).findFirst().orElseThrow();
+            assertEquals(calls + 10, stats.getCalls());
+            assertEquals(ok + 10, stats.getFinished(0));
+            assertEquals(0, stats.getInFlight());
+        } finally {
+            channel.shutdownNow();
+            svr1.shutdownNow();
+            svr2.shutdownNow();
+        }
+    }
+
     @Test
     public void thriftFramed() throws Exception {
         class HelloWorldImpl implements HelloWorldService.Iface {
@@ -574,6 +958,416 @@ public class TestProtocols {
         }
     }
 
+    @Test
+    public void http1BackendReuse() throws Throwable {
+        Vertx vertx = Vertx.vertx();
+        try {
+            Set<HttpConnection> backendConns = ConcurrentHashMap.newKeySet();
+            CompletableFuture<Void> listening = new CompletableFuture<>();
+            vertx.createHttpServer().requestHandler(req -> {
+                backendConns.add(req.connection());
+                req.response().end("resp-" + req.localAddress().port());
+            }).listen(port1, r -> listening.complete(null));
+            // the requests are sent directly, so wait for the backend to listen
+            listening.get(5, TimeUnit.SECONDS);
+
+            initLb("http/1.x");
+            // the pool is disabled by default
+            assertEquals(0, lb.getBackendPoolSize());
+            lb.setBackendPoolSize(16);
+
+            // each frontend connection sends one request and closes
+            for (int i = 0; i < 4; ++i) {
+                try (Socket sock = new Socket("127.0.0.1", lbPort)) {
+                    sock.setSoTimeout(3000);
+                    OutputStream out = sock.getOutputStream();
+                    out.write("GET / HTTP/1.1\r\nHost: s1.test.com\r\n\r\n".getBytes());
+                    out.flush();
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(sock.getInputStream()));
+                    assertEquals("resp-" + port1, readHttp1Body(reader));
+                    sock.shutdownOutput();
+                    assertEquals(-1, reader.read());
+                }
+                Thread.sleep(100);
+            }
+            // the idle backend connection is released when the frontend closes, and used by the next frontend
+            assertEquals(1, backendConns.size());
+
+            // pipelined requests in one packet
+            for (int i = 0; i < 2; ++i) {
+                try (Socket sock = new Socket("127.0.0.1", lbPort)) {
+                    sock.setSoTimeout(3000);
+                    OutputStream out = sock.getOutputStream();
+                    out.write(("" +
+                        "GET /a HTTP/1.1\r\nHost: s1.test.com\r\n\r\n" +
+                        "GET /b HTTP/1.1\r\nHost: s1.test.com\r\n\r\n" +
+                        "GET /c HTTP/1.1\r\nHost: s1.test.com\r\n\r\n" +
+                        "").getBytes());
+                    out.flush();
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(sock.getInputStream()));
+                    for (int j = 0; j < 3; ++j) {
+                        assertEquals("resp-" + port1, readHttp1Body(reader));
+                    }
+                    sock.shutdownOutput();
+                    assertEquals(-1, reader.read());
+                }
+                Thread.sleep(100);
+            }
+            // the connection is released only after all pipelined responses are received
+            assertEquals(1, backendConns.size());
+        } finally {
+            boolean[] closeDone = {false};
+            vertx.close(v -> closeDone[0] = true);
+            while (!closeDone[0]) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(200);
+        }
+    }
+
+    // read a response with content-length and return the body
+    private static String readHttp1Body(BufferedReader reader) throws Exception {
+        assertEquals("HTTP/1.1 200 OK", reader.readLine());
+        int len = 0;
+        String line;
+        while (!(line = reader.readLine()).isEmpty()) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                len = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+        char[] body = new char[len];
+        int n = 0;
+        while (n < len) {
+            n += reader.read(body, n, len - n);
+        }
+        return new String(body);
+    }
+
+    // read a response with content-length, the headers are in lower case, and the status line is in ":status"
+    private static Map<String, String> readHttp1Response(BufferedReader reader) throws Exception {
+        Map<String, String> resp = new HashMap<>();
+        resp.put(":status", reader.readLine());
+        int len = 0;
+        String line;
+        while (!(line = reader.readLine()).isEmpty()) {
+            String k = line.substring(0, line.indexOf(":")).trim().toLowerCase();
+            String v = line.substring(line.indexOf(":") + 1).trim();
+            resp.put(k, v);
+            if (k.equals("content-length")) {
+                len = Integer.parseInt(v);
+            }
+        }
+        char[] body = new char[len];
+        int n = 0;
+        while (n < len) {
+            n += reader.read(body, n, len - n);
+        }
+        resp.put("body", new String(body));
+        return resp;
+    }
+
+    // a http/1.1 server which records the received requests (the request line and headers),
+    // and responds with the result of the handler
+    private static ServerSocket http1Server(int port, List<List<String>> requests, Function<List<String>, String> handler) throws Exception {
+        ServerSocket server = new ServerSocket();
+        server.bind(new InetSocketAddress("127.0.0.1", port));
+        new Thread(() -> {
+            while (true) {
+                Socket sock;
+                try {
+                    sock = server.accept();
+                } catch (Exception e) {
+                    return;
+                }
+                new Thread(() -> {
+                    try (sock) {
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(sock.getInputStream()));
+                        OutputStream out = sock.getOutputStream();
+                        while (true) {
+                            List<String> req = new ArrayList<>();
+                            String line;
+                            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                                req.add(line);
+                            }
+                            if (line == null) {
+                                return;
+                            }
+                            requests.add(req);
+                            out.write(handler.apply(req).getBytes());
+                        }
+                    } catch (Exception ignore) {
+                    }
+                }).start();
+            }
+        }).start();
+        return server;
+    }
+
+    private static String header(List<String> req, String name) {
+        for (String line : req) {
+            if (line.toLowerCase().startsWith(name + ":")) {
+                return line.substring(name.length() + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static long count(List<List<String>> requests, String path) {
+        return requests.stream().filter(r -> r.get(0).split(" ")[1].equals(path)).count();
+    }
+
+    private static void send(Socket sock, String path, String... headers) throws Exception {
+        StringBuilder sb = new StringBuilder("GET " + path + " HTTP/1.1\r\nHost: s1.test.com\r\n");
+        for (String h : headers) {
+            sb.append(h).append("\r\n");
+        }
+        sb.append("\r\n");
+        sock.getOutputStream().write(sb.toString().getBytes());
+        sock.getOutputStream().flush();
+    }
+
+    private static Map<String, String> get(Socket sock, BufferedReader reader, String path, String... headers) throws Exception {
+        send(sock, path, headers);
+        return readHttp1Response(reader);
+    }
+
+    @Test
+    public void http1Cache() throws Throwable {
+        HttpCache cache = new HttpCache(1024 * 1024);
+        HttpProcessor processor = new HttpProcessor(cache);
+
+        List<List<String>> requests = Collections.synchronizedList(new ArrayList<>());
+        String bigBody = "x".repeat(60 * 1024);
+        ServerSocket server = http1Server(port1, requests, req -> {
+            String path = req.get(0).split(" ")[1];
+            String headers;
+            String body = "resp" + path;
+            switch (path) {
+                case "/max-age":
+                    headers = "Cache-Control: max-age=60\r\nETag: \"m1\"\r\n";
+                    break;
+                case "/expires":
+                    ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+                    headers = "Date: " + DateTimeFormatter.RFC_1123_DATE_TIME.format(now) + "\r\n" +
+                        "Expires: " + DateTimeFormatter.RFC_1123_DATE_TIME.format(now.plusSeconds(60)) + "\r\n";
+                    break;
+                case "/no-store":
+                    headers = "Cache-Control: no-store, max-age=60\r\n";
+                    break;
+                case "/invalid-max-age":
+                    headers = "Cache-Control: max-age=abc\r\n";
+                    break;
+                case "/etag":
+                    if ("\"e1\"".equals(header(req, "if-none-match"))) {
+                        return "HTTP/1.1 304 Not Modified\r\nETag: \"e1\"\r\n\r\n";
+                    }
+                    headers = "Cache-Control: no-cache\r\nETag: \"e1\"\r\n";
+                    break;
+                default: // /big/{n}
+                    headers = "Cache-Control: max-age=60\r\n";
+                    body = bigBody;
+            }
+            return "HTTP/1.1 200 OK\r\n" + headers + "Content-Length: " + body.length() + "\r\n\r\n" + body;
+        });
+
+        initLb(processor);
+
+        Socket sock = new Socket("127.0.0.1", lbPort);
+        sock.setSoTimeout(3000);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(sock.getInputStream()));
+
+        // fresh responses with max-age or expires are served from the cache
+        for (String path : Arrays.asList("/max-age", "/expires")) {
+            Map<String, String> resp = get(sock, reader, path);
+            assertEquals("HTTP/1.1 200 OK", resp.get(":status"));
+            assertEquals("resp" + path, resp.get("body"));
+            long hits = cache.getHits();
+            resp = get(sock, reader, path);
+            assertEquals("HTTP/1.1 200 OK", resp.get(":status"));
+            assertEquals("resp" + path, resp.get("body"));
+            assertNotNull(resp.get("age"));
+            assertEquals(hits + 1, cache.getHits());
+            assertEquals(1, count(requests, path));
+        }
+        // the client revalidates a fresh entry, and the cache responds 304 by itself
+        Map<String, String> resp = get(sock, reader, "/max-age", "If-None-Match: \"m1\"");
+        assertEquals("HTTP/1.1 304 Not Modified", resp.get(":status"));
+        assertEquals("\"m1\"", resp.get("etag"));
+        assertEquals(1, count(requests, "/max-age"));
+        // the client asks not to use the cache
+        resp = get(sock, reader, "/max-age", "Cache-Control: no-store");
+        assertEquals("resp/max-age", resp.get("body"));
+        assertEquals(2, count(requests, "/max-age"));
+
+        // responses which cannot be stored
+        for (String path : Arrays.asList("/no-store", "/invalid-max-age")) {
+            assertEquals("resp" + path, get(sock, reader, path).get("body"));
+            assertEquals("resp" + path, get(sock, reader, path).get("body"));
+            assertEquals(2, count(requests, path));
+        }
+
+        // no-cache with etag: stored, and revalidated with If-None-Match every time
+        assertEquals("resp/etag", get(sock, reader, "/etag").get("body"));
+        assertNull(header(requests.get(requests.size() - 1), "if-none-match"));
+        long revalidated = cache.getRevalidated();
+        for (int i = 0; i < 2; ++i) {
+            resp = get(sock, reader, "/etag");
+            // the 304 from the backend is answered with the cached response
+            assertEquals("HTTP/1.1 200 OK", resp.get(":status"));
+            assertEquals("resp/etag", resp.get("body"));
+            assertEquals("\"e1\"", header(requests.get(requests.size() - 1), "if-none-match"));
+        }
+        assertEquals(3, count(requests, "/etag"));
+        assertEquals(revalidated + 2, cache.getRevalidated());
+        sock.close();
+
+        // responses are not shared with other lbs
+        TcpLB lb2 = new TcpLB(
+            "tl1", elg, elg, new InetSocketAddress("0.0.0.0", lbPort + 1), ups, 10000, 16384, 16384, processor, null, null, SecurityGroup.allowAll()
+        );
+        lb2.start();
+        try (Socket sock2 = new Socket("127.0.0.1", lbPort + 1)) {
+            sock2.setSoTimeout(3000);
+            BufferedReader reader2 = new BufferedReader(new InputStreamReader(sock2.getInputStream()));
+            assertEquals("resp/expires", get(sock2, reader2, "/expires").get("body"));
+            assertEquals(2, count(requests, "/expires"));
+            assertEquals("resp/expires", get(sock2, reader2, "/expires").get("body"));
+            assertEquals(2, count(requests, "/expires"));
+        } finally {
+            lb2.destroy();
+        }
+
+        // entries are evicted when the cache is full, new entries are admitted when they are used more frequently
+        sock = new Socket("127.0.0.1", lbPort);
+        sock.setSoTimeout(3000);
+        reader = new BufferedReader(new InputStreamReader(sock.getInputStream()));
+        long evictions = cache.getEvictions();
+        for (int i = 0; i < 24; ++i) {
+            assertEquals(bigBody, get(sock, reader, "/big/a" + i).get("body"));
+        }
+        long hits = cache.getHits();
+        for (int i = 0; i < 24; ++i) {
+            for (int j = 0; j < 3; ++j) {
+                assertEquals(bigBody, get(sock, reader, "/big/b" + i).get("body"));
+            }
+        }
+        assertTrue(cache.getEvictions() > evictions);
+        assertTrue(cache.getHits() > hits);
+        assertTrue(cache.getUsed() <= cache.getCapacity());
+
+        // cleanup
+        sock.close();
+        server.close();
+    }
+
+    @Test
+    public void http1Coalesce() throws Throwable {
+        // wait for at most 500ms, and at most 2 requests wait for the same request
+        HttpProcessor processor = new HttpProcessor(null, 500, 2);
+
+        List<List<String>> requests = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger seq = new AtomicInteger();
+        ServerSocket server = http1Server(port1, requests, req -> {
+            String path = req.get(0).split(" ")[1];
+            String headers = "";
+            try {
+                switch (path) {
+                    case "/slow":
+                        Thread.sleep(300);
+                        break;
+                    case "/very-slow":
+                        Thread.sleep(1500);
+                        break;
+                    case "/set-cookie":
+                        Thread.sleep(300);
+                        headers = "Set-Cookie: a=b\r\n";
+                        break;
+                }
+            } catch (InterruptedException ignore) {
+            }
+            String body = "resp" + path + "-" + seq.incrementAndGet();
+            return "HTTP/1.1 200 OK\r\n" + headers + "Content-Length: " + body.length() + "\r\n\r\n" + body;
+        });
+
+        initLb(processor);
+
+        // the first request is sent, and the identical requests received before it's responded wait for it
+        Socket[] socks = new Socket[4];
+        BufferedReader[] readers = new BufferedReader[socks.length];
+        for (int i = 0; i < socks.length; ++i) {
+            socks[i] = new Socket("127.0.0.1", lbPort);
+            socks[i].setSoTimeout(3000);
+            readers[i] = new BufferedReader(new InputStreamReader(socks[i].getInputStream()));
+        }
+        send(socks[0], "/slow");
+        Thread.sleep(100);
+        send(socks[1], "/slow");
+        send(socks[2], "/slow");
+        String body = readHttp1Response(readers[0]).get("body");
+        assertTrue(body.startsWith("resp/slow-"));
+        // the response is written to all waiting clients
+        assertEquals(body, readHttp1Response(readers[1]).get("body"));
+        assertEquals(body, readHttp1Response(readers[2]).get("body"));
+        assertEquals(1, count(requests, "/slow"));
+        // the connections resumed after waiting can be used as usual
+        for (int i = 1; i <= 2; ++i) {
+            assertTrue(get(socks[i], readers[i], "/fast").get("body").startsWith("resp/fast-"));
+        }
+        assertEquals(2, count(requests, "/fast"));
+
+        // at most 2 requests wait for the same request, others are sent directly
+        send(socks[0], "/slow");
+        Thread.sleep(100);
+        for (int i = 1; i < socks.length; ++i) {
+            send(socks[i], "/slow");
+        }
+        Map<String, Integer> bodies = new HashMap<>();
+        for (BufferedReader r : readers) {
+            bodies.merge(readHttp1Response(r).get("body"), 1, Integer::sum);
+        }
+        assertEquals(3, count(requests, "/slow"));
+        assertEquals(2, bodies.size());
+        assertTrue(bodies.containsValue(3));
+        assertTrue(bodies.containsValue(1));
+
+        // the waiting request is sent when the waiting takes too long
+        send(socks[0], "/very-slow");
+        Thread.sleep(100);
+        send(socks[1], "/very-slow");
+        Thread.sleep(700);
+        assertEquals(2, count(requests, "/very-slow"));
+        String body0 = readHttp1Response(readers[0]).get("body");
+        String body1 = readHttp1Response(readers[1]).get("body");
+        assertTrue(body0.startsWith("resp/very-slow-"));
+        assertTrue(body1.startsWith("resp/very-slow-"));
+        assertNotEquals(body0, body1);
+
+        // the waiting requests are sent when the response cannot be shared
+        send(socks[0], "/set-cookie");
+        Thread.sleep(100);
+        send(socks[1], "/set-cookie");
+        send(socks[2], "/set-cookie");
+        Set<String> distinct = new HashSet<>();
+        for (int i = 0; i < 3; ++i) {
+            distinct.add(readHttp1Response(readers[i]).get("body"));
+        }
+        assertEquals(3, distinct.size());
+        assertEquals(3, count(requests, "/set-cookie"));
+
+        // requests with cookies are not coalesced
+        send(socks[0], "/slow");
+        Thread.sleep(100);
+        send(socks[1], "/slow", "Cookie: a=b");
+        assertNotEquals(readHttp1Response(readers[0]).get("body"), readHttp1Response(readers[1]).get("body"));
+        assertEquals(5, count(requests, "/slow"));
+
+        // cleanup
+        for (Socket sock : socks) {
+            sock.close();
+        }
+        server.close();
+    }
+
     @SuppressWarnings("deprecation")
     @Test
     public void generalHttp() throws Throwable {
@@ -662,4 +1456,380 @@ public class TestProtocols {
             Thread.sleep(200);
         }
     }
+
+    @Test
+    public void respPipelining() throws Exception {
+        SelectorEventLoop selectorEventLoop = SelectorEventLoop.open();
+        NetEventLoop loop = new NetEventLoop(selectorEventLoop);
+        ProtocolServerHandler.apply(loop,
+            ServerSock.create(new InetSocketAddress("127.0.0.1", port1)),
+            new ProtocolServerConfig(),
+            new RESPProtocolHandler(new RESPConfig(), new RESPHandler<Void>() {
+                @Override
+                public Void attachment() {
+                    return null;
+                }
+
+                @Override
+                public void handle(Object input, Void v, Callback<Object, Throwable> cb) {
+                    cb.succeeded(((List) input).get(1));
+                }
+            }));
+        new Thread(selectorEventLoop::loop).start();
+
+        // all commands arrive in one readable event
+        int n = 10;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; ++i) {
+            String key = "key" + i;
+            sb.append("*2\r\n$3\r\nGET\r\n$").append(key.length()).append("\r\n").append(key).append("\r\n");
+        }
+        // and a half command
+        sb.append("*2\r\n$3\r\nGET\r\n$2\r\n");
+        Socket sock = new Socket("127.0.0.1", port1);
+        sock.setSoTimeout(2000);
+        sock.getOutputStream().write(sb.toString().getBytes());
+        BufferedReader reader = new BufferedReader(new InputStreamReader(sock.getInputStream()));
+        for (int i = 0; i < n; ++i) {
+            assertEquals("$4", reader.readLine());
+            assertEquals("key" + i, reader.readLine());
+        }
+        // the rest of the half command
+        sock.getOutputStream().write("xx\r\n".getBytes());
+        assertEquals("$2", reader.readLine());
+        assertEquals("xx", reader.readLine());
+
+        // cleanup
+        sock.close();
+        selectorEventLoop.close();
+    }
+
+    @Test
+    public void redis() throws Exception {
+        SelectorEventLoop selectorEventLoop = SelectorEventLoop.open();
+        NetEventLoop loop = new NetEventLoop(selectorEventLoop);
+        for (int port : new int[]{port1, port2}) {
+            // reply `port:key` for each command
+            ProtocolServerHandler.apply(loop,
+                ServerSock.create(new InetSocketAddress("127.0.0.1", port)),
+                new ProtocolServerConfig(),
+                new RESPProtocolHandler(new RESPConfig(), new RESPHandler<Void>() {
+                    @Override
+                    public Void attachment() {
+                        return null;
+                    }
+
+                    @Override
+                    public void handle(Object input, Void v, Callback<Object, Throwable> cb) {
+                        cb.succeeded(port + ":" + ((List) input).get(1));
+                    }
+                }));
+        }
+        new Thread(selectorEventLoop::loop).start();
+
+        // lb
+        initLb("redis");
+
+        long getCount = RedisCommandStats.getAll().stream()
+            .filter(s -> s.command.equals("GET")).mapToLong(RedisCommandStats::getCount).sum();
+
+        // send all commands at once
+        int n = 100;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; ++i) {
+            String key = "key" + i;
+            sb.append("*2\r\n$3\r\nGET\r\n$").append(key.length()).append("\r\n").append(key).append("\r\n");
+        }
+        Socket sock = new Socket("127.0.0.1", lbPort);
+        sock.setSoTimeout(2000);
+        sock.getOutputStream().write(sb.toString().getBytes());
+        BufferedReader reader = new BufferedReader(new InputStreamReader(sock.getInputStream()));
+
+        Map<String, String> keyToPort = new HashMap<>();
+        for (int i = 0; i < n; ++i) {
+            assertTrue(reader.readLine().startsWith("$"));
+            String[] arr = reader.readLine().split(":");
+            // replies are in the same order as the commands
+            assertEquals("key" + i, arr[1]);
+            keyToPort.put(arr[1], arr[0]);
+        }
+        // keys are distributed to both servers by slot
+        assertEquals(Set.of("" + port1, "" + port2), new HashSet<>(keyToPort.values()));
+
+        // the same key goes to the same server
+        sock.getOutputStream().write(sb.toString().getBytes());
+        for (int i = 0; i < n; ++i) {
+            reader.readLine();
+            String[] arr = reader.readLine().split(":");
+            assertEquals(keyToPort.get(arr[1]), arr[0]);
+        }
+
+        assertEquals(getCount + n * 2, RedisCommandStats.getAll().stream()
+            .filter(s -> s.command.equals("GET")).mapToLong(RedisCommandStats::getCount).sum());
+
+        // cleanup
+        sock.close();
+        selectorEventLoop.close();
+    }
+
+    // a text memcached server which records the received get commands
+    private static ServerSocket memcachedServer(int port, Map<String, String> store, List<String> gets) throws Exception {
+        ServerSocket server = new ServerSocket();
+        server.bind(new InetSocketAddress("127.0.0.1", port));
+        new Thread(() -> {
+            while (true) {
+                Socket sock;
+                try {
+                    sock = server.accept();
+                } catch (Exception e) {
+                    return;
+                }
+                new Thread(() -> {
+                    try (sock) {
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(sock.getInputStream()));
+                        OutputStream out = sock.getOutputStream();
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            String[] arr = line.split(" ");
+                            StringBuilder sb = new StringBuilder();
+                            if (arr[0].equals("set")) {
+                                store.put(arr[1], reader.readLine());
+                                sb.append("STORED\r\n");
+                            } else if (arr[0].equals("get")) {
+                                gets.add(line);
+                                for (int i = 1; i < arr.length; ++i) {
+                                    String v = store.get(arr[i]);
+                                    if (v != null) {
+                                        sb.append("VALUE ").append(arr[i]).append(" 0 ").append(v.length()).append("\r\n").append(v).append("\r\n");
+                                    }
+                                }
+                                sb.append("END\r\n");
+                            } else {
+                                sb.append("ERROR\r\n");
+                            }
+                            out.write(sb.toString().getBytes());
+                        }
+                    } catch (Exception ignore) {
+                    }
+                }).start();
+            }
+        }).start();
+        return server;
+    }
+
+    @Test
+    public void memcached() throws Exception {
+        Map<String, String> store1 = new ConcurrentHashMap<>();
+        Map<String, String> store2 = new ConcurrentHashMap<>();
+        List<String> gets1 = Collections.synchronizedList(new ArrayList<>());
+        List<String> gets2 = Collections.synchronizedList(new ArrayList<>());
+        ServerSocket server1 = memcachedServer(port1, store1, gets1);
+        ServerSocket server2 = memcachedServer(port2, store2, gets2);
+
+        // lb
+        initLb("memcached");
+
+        Socket sock = new Socket("127.0.0.1", lbPort);
+        sock.setSoTimeout(2000);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(sock.getInputStream()));
+
+        // set all keys at once
+        int n = 100;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; ++i) {
+            String v = "value" + i;
+            sb.append("set key").append(i).append(" 0 0 ").append(v.length()).append("\r\n").append(v).append("\r\n");
+        }
+        sock.getOutputStream().write(sb.toString().getBytes());
+        for (int i = 0; i < n; ++i) {
+            assertEquals("STORED", reader.readLine());
+        }
+        // keys are distributed to both servers
+        assertEquals(n, store1.size() + store2.size());
+        assertTrue(store1.size() > 0);
+        assertTrue(store2.size() > 0);
+
+        // get all keys (and a missing key) with one command
+        sb = new StringBuilder("get");
+        for (int i = 0; i < n; ++i) {
+            sb.append(" key").append(i);
+            if (i == n / 2) {
+                sb.append(" missing");
+            }
+        }
+        sb.append("\r\n");
+        sock.getOutputStream().write(sb.toString().getBytes());
+        // values are in the same order as the keys
+        for (int i = 0; i < n; ++i) {
+            assertEquals("VALUE key" + i + " 0 " + ("value" + i).length(), reader.readLine());
+            assertEquals("value" + i, reader.readLine());
+        }
+        assertEquals("END", reader.readLine());
+        // one batched get for each server
+        assertEquals(1, gets1.size());
+        assertEquals(1, gets2.size());
+
+        // cleanup
+        sock.close();
+        server1.close();
+        server2.close();
+    }
+
+    // a binary memcached request or response
+    private static byte[] memcachedPacket(int magic, int opcode, int opaque, byte[] extras, String key, String value) {
+        byte[] k = key == null ? new byte[0] : key.getBytes();
+        byte[] v = value == null ? new byte[0] : value.getBytes();
+        int bodyLen = extras.length + k.length + v.length;
+        ByteBuffer buf = ByteBuffer.allocate(24 + bodyLen);
+        buf.put((byte) magic).put((byte) opcode).putShort((short) k.length)
+            .put((byte) extras.length).put((byte) 0).putShort((short) 0)
+            .putInt(bodyLen).putInt(opaque).putLong(0)
+            .put(extras).put(k).put(v);
+        return buf.array();
+    }
+
+    // a binary memcached server which records the received get commands
+    private static ServerSocket memcachedBinaryServer(int port, Map<String, String> store, List<String> gets) throws Exception {
+        ServerSocket server = new ServerSocket();
+        server.bind(new InetSocketAddress("127.0.0.1", port));
+        new Thread(() -> {
+            while (true) {
+                Socket sock;
+                try {
+                    sock = server.accept();
+                } catch (Exception e) {
+                    return;
+                }
+                new Thread(() -> {
+                    try (sock) {
+                        DataInputStream in = new DataInputStream(sock.getInputStream());
+                        OutputStream out = sock.getOutputStream();
+                        while (true) {
+                            byte[] header = new byte[24];
+                            in.readFully(header);
+                            ByteBuffer h = ByteBuffer.wrap(header);
+                            int opcode = header[1] & 0xff;
+                            int keyLen = h.getShort(2) & 0xffff;
+                            int extLen = header[4] & 0xff;
+                            int opaque = h.getInt(12);
+                            byte[] body = new byte[h.getInt(8)];
+                            in.readFully(body);
+                            String key = new String(body, extLen, keyLen);
+                            String value = new String(body, extLen + keyLen, body.length - extLen - keyLen);
+                            if (opcode == 0x01) { // set
+                                store.put(key, value);
+                                out.write(memcachedPacket(0x81, opcode, opaque, new byte[0], null, null));
+                            } else if (opcode == 0x0c || opcode == 0x0d) { // getk, getkq
+                                gets.add((opcode == 0x0c ? "getk " : "getkq ") + key);
+                                String v = store.get(key);
+                                if (v != null) {
+                                    out.write(memcachedPacket(0x81, opcode, opaque, new byte[4], key, v));
+                                } else if (opcode == 0x0c) {
+                                    byte[] miss = memcachedPacket(0x81, opcode, opaque, new byte[0], key, null);
+                                    miss[7] = 0x01; // key not found
+                                    out.write(miss);
+                                }
+                            } else if (opcode == 0x0a) { // noop
+                                gets.add("noop");
+                                out.write(memcachedPacket(0x81, opcode, opaque, new byte[0], null, null));
+                            } else {
+                                return;
+                            }
+                        }
+                    } catch (Exception ignore) {
+                    }
+                }).start();
+            }
+        }).start();
+        return server;
+    }
+
+    @Test
+    public void memcachedBinaryMultiGet() throws Exception {
+        Map<String, String> store1 = new ConcurrentHashMap<>();
+        Map<String, String> store2 = new ConcurrentHashMap<>();
+        List<String> gets1 = Collections.synchronizedList(new ArrayList<>());
+        List<String> gets2 = Collections.synchronizedList(new ArrayList<>());
+        ServerSocket server1 = memcachedBinaryServer(port1, store1, gets1);
+        ServerSocket server2 = memcachedBinaryServer(port2, store2, gets2);
+
+        // lb
+        initLb("memcached");
+
+        Socket sock = new Socket("127.0.0.1", lbPort);
+        sock.setSoTimeout(2000);
+        DataInputStream in = new DataInputStream(sock.getInputStream());
+
+        // set all keys at once
+        int n = 100;
+        ByteArrayOutputStream req = new ByteArrayOutputStream();
+        for (int i = 0; i < n; ++i) {
+            req.write(memcachedPacket(0x80, 0x01, i, new byte[8], "key" + i, "value" + i));
+        }
+        sock.getOutputStream().write(req.toByteArray());
+        for (int i = 0; i < n; ++i) {
+            byte[] header = new byte[24];
+            in.readFully(header);
+            assertEquals(0x01, header[1]);
+            assertEquals(i, ByteBuffer.wrap(header).getInt(12));
+        }
+        // keys are distributed to both servers
+        assertEquals(n, store1.size() + store2.size());
+        assertTrue(store1.size() > 0);
+        assertTrue(store2.size() > 0);
+
+        // getkq all keys (and a missing key) followed by a getk of a missing key and a noop
+        req = new ByteArrayOutputStream();
+        for (int i = 0; i < n; ++i) {
+            req.write(memcachedPacket(0x80, 0x0d, i, new byte[0], "key" + i, null));
+            if (i == n / 2) {
+                req.write(memcachedPacket(0x80, 0x0d, 1000, new byte[0], "missing", null));
+            }
+        }
+        req.write(memcachedPacket(0x80, 0x0c, 1001, new byte[0], "missing", null));
+        req.write(memcachedPacket(0x80, 0x0a, 1002, new byte[0], null, null));
+        sock.getOutputStream().write(req.toByteArray());
+        // values are in the same order as the requests, the quiet miss gets no reply
+        for (int i = 0; i < n; ++i) {
+            byte[] header = new byte[24];
+            in.readFully(header);
+            ByteBuffer h = ByteBuffer.wrap(header);
+            assertEquals(0x0d, header[1]);
+            assertEquals(i, h.getInt(12));
+            byte[] body = new byte[h.getInt(8)];
+            in.readFully(body);
+            assertEquals("key" + i + "value" + i, new String(body, 4, body.length - 4));
+        }
+        byte[] header = new byte[24];
+        in.readFully(header);
+        assertEquals(0x0c, header[1]);
+        assertEquals(0x01, header[7]);
+        assertEquals(1001, ByteBuffer.wrap(header).getInt(12));
+        in.readFully(new byte[ByteBuffer.wrap(header).getInt(8)]);
+        in.readFully(header);
+        assertEquals(0x0a, header[1]);
+        assertEquals(1002, ByteBuffer.wrap(header).getInt(12));
+
+        // each key is sent to its own server only once
+        long getkq1 = gets1.stream().filter(g -> g.startsWith("getkq ")).count();
+        long getkq2 = gets2.stream().filter(g -> g.startsWith("getkq ")).count();
+        assertEquals(n + 1, getkq1 + getkq2);
+        for (String k : store1.keySet()) {
+            assertTrue(gets1.contains("getkq " + k));
+        }
+        for (String k : store2.keySet()) {
+            assertTrue(gets2.contains("getkq " + k));
+        }
+        // both servers got a noop to finish the quiet gets before the getk
+        int getk = gets1.contains("getk missing") ? gets1.indexOf("getk missing") : gets2.indexOf("getk missing");
+        List<String> getkServer = gets1.contains("getk missing") ? gets1 : gets2;
+        List<String> otherServer = getkServer == gets1 ? gets2 : gets1;
+        assertEquals("noop", getkServer.get(getk - 1));
+        assertTrue(otherServer.contains("noop"));
+
+        // cleanup
+        sock.close();
+        server1.close();
+        server2.close();
+    }
 }
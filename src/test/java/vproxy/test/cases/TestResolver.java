@@ -9,15 +9,20 @@ import vproxy.dns.rdata.*;
 import vproxy.selector.SelectorEventLoop;
 import vproxy.util.BlockCallback;
 import vproxy.util.ByteArray;
+import vproxy.util.Callback;
 import vproxy.util.Utils;
 
 import java.io.IOException;
 import java.net.*;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestResolver {
     private SelectorEventLoop loop;
@@ -172,4 +177,133 @@ public class TestResolver {
 
         assertEquals("should still be 1 cache because already cached", 1, resolver.cacheCount());
     }
+
+    @Test
+    public void resolveCoalesced() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        AbstractResolver resolver = new AbstractResolver("TestResolverCoalesced", FDProvider.get().getProvided()) {
+            @Override
+            protected void getAllByName(String domain, Callback<InetAddress[], UnknownHostException> cb) {
+                lookups.incrementAndGet();
+                loop.getSelectorEventLoop().delay(200, () -> cb.succeeded(new InetAddress[]{Utils.l3addr(new byte[]{10, 0, 0, 1})}));
+            }
+        };
+        resolver.start();
+        try {
+            List<BlockCallback<InetAddress, UnknownHostException>> cbs = new LinkedList<>();
+            for (int i = 0; i < 10; ++i) {
+                BlockCallback<InetAddress, UnknownHostException> cb = new BlockCallback<>();
+                resolver.resolve("example.com", cb);
+                cbs.add(cb);
+            }
+            for (BlockCallback<InetAddress, UnknownHostException> cb : cbs) {
+                assertEquals("10.0.0.1", Utils.ipStr(cb.block().getAddress()));
+            }
+            assertEquals("only one lookup for the same host", 1, lookups.get());
+            assertEquals(10, resolver.stats().getMisses());
+            assertEquals(9, resolver.stats().getCoalesced());
+
+            BlockCallback<InetAddress, UnknownHostException> cb = new BlockCallback<>();
+            resolver.resolve("example.com", cb);
+            assertEquals("10.0.0.1", Utils.ipStr(cb.block().getAddress()));
+            assertEquals(1, lookups.get());
+            assertEquals(1, resolver.stats().getHits());
+        } finally {
+            resolver.stop();
+        }
+    }
+
+    @Test
+    public void resolveEvictionNotified() throws Exception {
+        AbstractResolver resolver = new AbstractResolver("TestResolverEviction", FDProvider.get().getProvided()) {
+            @Override
+            protected void getAllByName(String domain, Callback<InetAddress[], UnknownHostException> cb) {
+                cb.succeeded(new InetAddress[]{Utils.l3addr(new byte[]{10, 0, 0, 1})});
+            }
+        };
+        resolver.cacheSize = 2;
+        List<String> events = Collections.synchronizedList(new LinkedList<>());
+        resolver.addListener(new ResolveListener() {
+            @Override
+            public void onResolve(Cache cache) {
+            }
+
+            @Override
+            public void onRemove(Cache cache) {
+                events.add("remove:" + cache.host);
+            }
+        });
+        resolver.addListener(new ResolveListener() {
+            @Override
+            public void onResolve(Cache cache) {
+            }
+
+            @Override
+            public void onRemove(Cache cache) {
+            }
+
+            @Override
+            public void onEvict(Cache cache) {
+                events.add("evict:" + cache.host);
+            }
+        });
+        resolver.start();
+        try {
+            for (String host : Arrays.asList("a.example.com", "b.example.com", "c.example.com")) {
+                BlockCallback<InetAddress, UnknownHostException> cb = new BlockCallback<>();
+                resolver.resolve(host, cb);
+                assertEquals("10.0.0.1", Utils.ipStr(cb.block().getAddress()));
+            }
+            assertEquals(1, resolver.stats().getEvictions());
+            assertEquals(2, resolver.cacheCount());
+            // the listeners are notified with onRemove() by default
+            assertEquals(Arrays.asList("remove:a.example.com", "evict:a.example.com"), events);
+        } finally {
+            resolver.stop();
+        }
+    }
+
+    @Test
+    public void resolveNegativeCache() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        AbstractResolver resolver = new AbstractResolver("TestResolverNegativeCache", FDProvider.get().getProvided()) {
+            @Override
+            protected void getAllByName(String domain, Callback<InetAddress[], UnknownHostException> cb) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            protected void lookup(String domain, Callback<Resolved, UnknownHostException> cb) {
+                lookups.incrementAndGet();
+                cb.failed(new NXDomainException(domain, 1));
+            }
+        };
+        resolver.start();
+        try {
+            for (int i = 0; i < 3; ++i) {
+                BlockCallback<InetAddress, UnknownHostException> cb = new BlockCallback<>();
+                resolver.resolve("nonexistent.example.com", cb);
+                try {
+                    cb.block();
+                    fail("the host should not exist");
+                } catch (UnknownHostException ignore) {
+                }
+            }
+            assertEquals("the nxdomain answer should be cached", 1, lookups.get());
+            assertEquals(2, resolver.stats().getNegativeHits());
+
+            // wait for the ttl in the soa record to expire
+            Thread.sleep(1500);
+            BlockCallback<InetAddress, UnknownHostException> cb = new BlockCallback<>();
+            resolver.resolve("nonexistent.example.com", cb);
+            try {
+                cb.block();
+                fail("the host should not exist");
+            } catch (UnknownHostException ignore) {
+            }
+            assertEquals(2, lookups.get());
+        } finally {
+            resolver.stop();
+        }
+    }
 }
@@ -0,0 +1,229 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vproxy.util.ByteArray;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestRopeByteArray {
+    private final Random rand = new Random(1234);
+
+    private byte[] bytes(int len) {
+        byte[] b = new byte[len];
+        rand.nextBytes(b);
+        return b;
+    }
+
+    private static byte[] join(byte[]... arrays) {
+        int len = 0;
+        for (byte[] a : arrays) {
+            len += a.length;
+        }
+        byte[] ret = new byte[len];
+        int off = 0;
+        for (byte[] a : arrays) {
+            System.arraycopy(a, 0, ret, off, a.length);
+            off += a.length;
+        }
+        return ret;
+    }
+
+    // check all methods reading the rope against a plain array holding the same bytes
+    private static void check(ByteArray expected, ByteArray rope) {
+        int len = expected.length();
+        assertEquals(len, rope.length());
+        // sequential and random access
+        for (int i = 0; i < len; ++i) {
+            assertEquals("index " + i, expected.get(i), rope.get(i));
+        }
+        for (int i = len - 1; i >= 0; i -= 3) {
+            assertEquals("index " + i, expected.get(i), rope.get(i));
+        }
+        assertArrayEquals(expected.toJavaArray(), rope.toNewJavaArray());
+        // every range of the array
+        for (int off = 0; off <= len; ++off) {
+            for (int n = 0; off + n <= len; ++n) {
+                assertArrayEquals("sub " + off + "," + n,
+                    expected.sub(off, n).toJavaArray(), rope.sub(off, n).toNewJavaArray());
+
+                ByteBuffer b1 = ByteBuffer.allocate(n + 2);
+                ByteBuffer b2 = ByteBuffer.allocate(n + 2);
+                b1.position(1);
+                b2.position(1);
+                expected.byteBufferPut(b1, off, n);
+                rope.byteBufferPut(b2, off, n);
+                assertEquals(b1.position(), b2.position());
+                assertArrayEquals("byteBufferPut " + off + "," + n, b1.array(), b2.array());
+            }
+        }
+        // into a java array at a non-zero offset
+        byte[] holder = new byte[len + 3];
+        rope.toNewJavaArray(holder, 2);
+        for (int i = 0; i < len; ++i) {
+            assertEquals(expected.get(i), holder[i + 2]);
+        }
+        assertEquals(0, holder[0]);
+        assertEquals(0, holder[1]);
+        assertEquals(0, holder[len + 2]);
+    }
+
+    @Test
+    public void getAndSetAcrossSegments() {
+        byte[] a = bytes(3);
+        byte[] b = bytes(1);
+        byte[] c = bytes(5);
+        byte[] d = bytes(4);
+        ByteArray rope = ByteArray.rope(ByteArray.from(a), ByteArray.from(new byte[0]), ByteArray.from(b), ByteArray.from(c), ByteArray.from(d));
+        ByteArray expected = ByteArray.from(join(a, b, c, d));
+        check(expected, rope);
+
+        // write every byte, the bytes are written into the segments
+        for (int i = 0; i < expected.length(); ++i) {
+            byte v = (byte) (i * 7 + 1);
+            expected.set(i, v);
+            rope.set(i, v);
+        }
+        check(expected, rope);
+        assertEquals(expected.get(3), b[0]);
+        assertEquals(expected.get(expected.length() - 1), d[3]);
+
+        // out of bounds
+        try {
+            rope.get(rope.length());
+            fail();
+        } catch (ArrayIndexOutOfBoundsException ignore) {
+        }
+        try {
+            rope.set(-1, (byte) 0);
+            fail();
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+
+    @Test
+    public void divergentAppends() {
+        byte[] a = bytes(4);
+        byte[] b = bytes(6);
+        byte[] c = bytes(3);
+        byte[] d = bytes(7);
+        byte[] e = bytes(2);
+        byte[] f = bytes(5);
+        ByteArray base = ByteArray.rope(ByteArray.from(a), ByteArray.from(b));
+
+        // appended in place to the shared segment list
+        ByteArray r1 = base.concat(ByteArray.from(c));
+        // base is no longer the last one appended to the list, so the segments are copied
+        ByteArray r2 = base.concat(ByteArray.from(d));
+        // r1 is still the last one of the shared list
+        ByteArray r3 = r1.concat(ByteArray.from(e));
+        // r1 again, the list is copied
+        ByteArray r4 = r1.concat(ByteArray.from(f));
+        ByteArray r5 = r2.concat(ByteArray.from(e)).concat(ByteArray.from(f));
+
+        check(ByteArray.from(join(a, b)), base);
+        check(ByteArray.from(join(a, b, c)), r1);
+        check(ByteArray.from(join(a, b, d)), r2);
+        check(ByteArray.from(join(a, b, c, e)), r3);
+        check(ByteArray.from(join(a, b, c, f)), r4);
+        check(ByteArray.from(join(a, b, d, e, f)), r5);
+
+        // concatenating an empty array returns the same rope
+        assertSame(r5, r5.concat(ByteArray.from(new byte[0])));
+    }
+
+    @Test
+    public void subSpanningSegments() {
+        byte[] a = bytes(5);
+        byte[] b = bytes(2);
+        byte[] c = bytes(6);
+        ByteArray rope = ByteArray.rope(ByteArray.from(a), ByteArray.from(b), ByteArray.from(c));
+        ByteArray expected = ByteArray.from(join(a, b, c));
+
+        ByteArray sub = rope.sub(3, 8); // the end of a, all of b, the start of c
+        check(expected.sub(3, 8), sub);
+        // a sub array of a sub array
+        check(expected.sub(4, 4), sub.sub(1, 4));
+
+        // the sub array shares the bytes with the rope
+        sub.set(2, (byte) 99);
+        assertEquals(99, rope.get(5));
+        assertEquals(99, b[0]);
+    }
+
+    @Test
+    public void byteBufferGetAtOffsets() {
+        byte[] a = bytes(3);
+        byte[] b = bytes(4);
+        byte[] c = bytes(5);
+        ByteArray rope = ByteArray.rope(ByteArray.from(a), ByteArray.from(b),
+            ByteArray.from(ByteBuffer.wrap(c)));
+        ByteArray expected = ByteArray.from(join(a, b, c));
+
+        for (int off = 0; off <= expected.length(); ++off) {
+            for (int n = 0; off + n <= expected.length(); ++n) {
+                byte[] src = bytes(n + 2);
+                ByteBuffer b1 = ByteBuffer.wrap(src);
+                ByteBuffer b2 = ByteBuffer.wrap(src);
+                b1.position(1);
+                b2.position(1);
+                expected.byteBufferGet(b1, off, n);
+                rope.byteBufferGet(b2, off, n);
+                assertEquals(b1.position(), b2.position());
+                check(expected, rope);
+            }
+        }
+
+        // direct buffers as the destination
+        ByteBuffer direct = ByteBuffer.allocateDirect(10);
+        direct.position(2);
+        rope.byteBufferPut(direct, 1, 8);
+        assertEquals(10, direct.position());
+        direct.position(2);
+        byte[] got = new byte[8];
+        direct.get(got);
+        assertArrayEquals(expected.sub(1, 8).toJavaArray(), got);
+
+        // the buffer may not have enough space
+        try {
+            rope.byteBufferPut(ByteBuffer.allocate(3), 0, 4);
+            fail();
+        } catch (IndexOutOfBoundsException ignore) {
+        }
+    }
+
+    @Test
+    public void ropeIntoRope() {
+        byte[] a = bytes(2);
+        byte[] b = bytes(3);
+        byte[] c = bytes(4);
+        byte[] d = bytes(1);
+        byte[] e = bytes(6);
+        ByteArray inner = ByteArray.rope(ByteArray.from(b), ByteArray.from(c));
+        assertSame(inner, ByteArray.rope(inner));
+
+        // the segments of the inner rope are flattened into the outer rope
+        ByteArray outer = ByteArray.rope(ByteArray.from(a), inner, ByteArray.from(d));
+        check(ByteArray.from(join(a, b, c, d)), outer);
+
+        ByteArray appended = outer.concat(inner);
+        check(ByteArray.from(join(a, b, c, d, b, c)), appended);
+
+        // a plain array concatenating a rope also gets a rope
+        ByteArray plain = ByteArray.from(e).concat(outer);
+        check(ByteArray.from(join(e, a, b, c, d)), plain);
+
+        // a sub array of a rope is not a rope, but can be appended as one segment
+        ByteArray withSub = inner.concat(outer.sub(1, 5));
+        check(ByteArray.from(join(b, c, Arrays.copyOfRange(join(a, b, c, d), 1, 6))), withSub);
+
+        // writing through the outer rope changes the shared segments
+        outer.set(2, (byte) 42);
+        assertEquals(42, b[0]);
+        assertEquals(42, inner.get(0));
+        assertEquals(42, appended.get(10));
+    }
+}
@@ -0,0 +1,402 @@
+package vproxy.test.cases;
+
+import org.junit.Before;
+import org.junit.Test;
+import vfd.SocketFD;
+import vfd.jdk.ChannelFDs;
+import vfd.posix.Posix;
+import vfd.posix.PosixSocketFD;
+import vproxy.util.ringbuffer.SimpleRingBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestScatterGather {
+    private final Random rand = new Random(4321);
+
+    // the bytes to be read from the fd
+    private byte[] input;
+    private int inputPos;
+    // the bytes written into the fd
+    private ByteArrayOutputStream output;
+    // max bytes transferred in one call, simulating a full socket buffer
+    private int maxPerCall;
+    // the posix calls, e.g. "readv:2"
+    private List<String> calls;
+    private SocketFD fd;
+
+    @Before
+    public void setUp() {
+        input = new byte[0];
+        inputPos = 0;
+        output = new ByteArrayOutputStream();
+        maxPerCall = Integer.MAX_VALUE;
+        calls = new ArrayList<>();
+        Posix posix = (Posix) Proxy.newProxyInstance(Posix.class.getClassLoader(), new Class[]{Posix.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "read":
+                    calls.add("read");
+                    return readv(new ByteBuffer[]{(ByteBuffer) args[1]}, new int[]{(int) args[2]}, new int[]{(int) args[3]}, 1);
+                case "write":
+                    calls.add("write");
+                    return writev(new ByteBuffer[]{(ByteBuffer) args[1]}, new int[]{(int) args[2]}, new int[]{(int) args[3]}, 1);
+                case "readv":
+                    calls.add("readv:" + args[4]);
+                    return readv((ByteBuffer[]) args[1], (int[]) args[2], (int[]) args[3], (int) args[4]);
+                case "writev":
+                    calls.add("writev:" + args[4]);
+                    return writev((ByteBuffer[]) args[1], (int[]) args[2], (int[]) args[3], (int) args[4]);
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        fd = new PosixSocketFD(posix, 1, true);
+    }
+
+    private int readv(ByteBuffer[] bufs, int[] offs, int[] lens, int count) {
+        assertTrue(count <= 16);
+        if (inputPos == input.length) {
+            return -1;
+        }
+        int n = 0;
+        for (int i = 0; i < count; ++i) {
+            assertTrue(bufs[i].isDirect());
+            for (int j = 0; j < lens[i] && inputPos < input.length && n < maxPerCall; ++j) {
+                bufs[i].put(offs[i] + j, input[inputPos++]);
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    private int writev(ByteBuffer[] bufs, int[] offs, int[] lens, int count) {
+        assertTrue(count <= 16);
+        int n = 0;
+        for (int i = 0; i < count; ++i) {
+            assertTrue(bufs[i].isDirect());
+            for (int j = 0; j < lens[i] && n < maxPerCall; ++j) {
+                output.write(bufs[i].get(offs[i] + j));
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    private byte[] bytes(int len) {
+        byte[] b = new byte[len];
+        rand.nextBytes(b);
+        return b;
+    }
+
+    private static ByteBuffer[] buffers(int count, int size, boolean direct) {
+        ByteBuffer[] bufs = new ByteBuffer[count];
+        for (int i = 0; i < count; ++i) {
+            bufs[i] = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        }
+        return bufs;
+    }
+
+    // bytes in [0, position) of the buffers
+    private static byte[] filled(ByteBuffer[] bufs) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ByteBuffer b : bufs) {
+            for (int i = 0; i < b.position(); ++i) {
+                out.write(b.get(i));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void readvAtMost16Buffers() throws Exception {
+        input = bytes(20 * 4);
+        ByteBuffer[] bufs = buffers(20, 4, true);
+        bufs[1].limit(0); // empty buffers are skipped
+
+        long n = fd.read(bufs, 0, 20);
+        assertEquals(16 * 4, n);
+        assertEquals("[readv:16]", calls.toString());
+        assertEquals(0, bufs[1].position());
+        assertEquals(4, bufs[16].position());
+        assertEquals(0, bufs[17].position());
+
+        // the rest buffers
+        n = fd.read(bufs, 17, 3);
+        assertEquals(3 * 4, n);
+        bufs[1].limit(4);
+        byte[] expected = new byte[20 * 4 - 4];
+        System.arraycopy(input, 0, expected, 0, expected.length);
+        assertArrayEquals(expected, filled(bufs));
+        assertTrue(inputPos < input.length);
+    }
+
+    @Test
+    public void readvPartialAndEOF() throws Exception {
+        input = bytes(10);
+        maxPerCall = 6;
+        ByteBuffer[] bufs = buffers(3, 4, true);
+        bufs[0].position(1);
+
+        // the positions are moved by the bytes actually read
+        assertEquals(6, fd.read(bufs));
+        assertEquals(4, bufs[0].position());
+        assertEquals(3, bufs[1].position());
+        assertEquals(0, bufs[2].position());
+        assertEquals(4, fd.read(bufs));
+        assertEquals(4, bufs[1].position());
+        assertEquals(3, bufs[2].position());
+
+        // positions are not changed on EOF
+        assertEquals(-1, fd.read(bufs));
+        assertEquals(3, bufs[2].position());
+        assertEquals("[readv:3, readv:2, readv:1]", calls.toString());
+    }
+
+    @Test
+    public void writevAtMost16BuffersAndPartial() throws Exception {
+        ByteBuffer[] bufs = buffers(18, 3, true);
+        byte[] expected = bytes(18 * 3);
+        for (int i = 0; i < bufs.length; ++i) {
+            bufs[i].put(expected, i * 3, 3).flip();
+        }
+        assertEquals(16 * 3, fd.write(bufs));
+        assertEquals(0, bufs[15].remaining());
+        assertEquals(3, bufs[16].remaining());
+
+        maxPerCall = 2;
+        assertEquals(2, fd.write(bufs)); // the fully written buffers are skipped
+        assertEquals(1, bufs[16].remaining());
+        assertEquals(3, bufs[17].remaining());
+        maxPerCall = Integer.MAX_VALUE;
+        assertEquals(4, fd.write(bufs));
+        assertArrayEquals(expected, output.toByteArray());
+        assertEquals("[writev:16, writev:2, writev:2]", calls.toString());
+    }
+
+    @Test
+    public void heapBufferFallback() throws Exception {
+        input = bytes(12);
+        ByteBuffer[] bufs = buffers(3, 4, true);
+        bufs[1] = ByteBuffer.allocate(4);
+        assertEquals(12, fd.read(bufs));
+        assertArrayEquals(input, filled(bufs));
+        assertEquals("[read, read, read]", calls.toString());
+
+        calls.clear();
+        for (ByteBuffer b : bufs) {
+            b.flip();
+        }
+        assertEquals(12, fd.write(bufs));
+        assertArrayEquals(input, output.toByteArray());
+        assertEquals("[write, write, write]", calls.toString());
+
+        // stops when a buffer is not filled
+        calls.clear();
+        input = bytes(6);
+        inputPos = 0;
+        bufs = buffers(3, 4, false);
+        assertEquals(6, fd.read(bufs));
+        assertEquals(2, bufs[1].position());
+        assertEquals(0, bufs[2].position());
+        assertEquals("[read, read]", calls.toString());
+    }
+
+    // make sPos = ePos = off in a ring buffer with the capacity
+    private static SimpleRingBuffer ringBufferAt(boolean direct, int cap, int off) throws Exception {
+        SimpleRingBuffer rb = direct ? SimpleRingBuffer.allocateDirect(cap) : SimpleRingBuffer.allocate(cap);
+        if (off == 0) {
+            return rb;
+        }
+        // leave one byte in the buffer, otherwise the cursors are reset
+        byte[] b = new byte[off + 1];
+        rb.storeBytesFrom(new ByteArrayChannelReader(b));
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        rb.writeTo(new ByteArrayChannelWriter(sink), off);
+        assertEquals(1, rb.used());
+        return rb;
+    }
+
+    @Test
+    public void ringBufferWrapsOnScatteringReadAndGatheringWrite() throws Exception {
+        SimpleRingBuffer rb = ringBufferAt(true, 16, 10);
+        // [10, 11) is used, the free space is [11, 16) and [0, 10)
+        input = bytes(20);
+        assertEquals(15, rb.storeBytesFrom(fd));
+        assertEquals("[readv:2]", calls.toString());
+        assertEquals(16, rb.used());
+        assertEquals(0, rb.free());
+
+        // the used bytes are [10, 16) and [0, 10), written out with one call
+        calls.clear();
+        maxPerCall = 4; // stops in the first part
+        assertEquals(4, rb.writeTo(fd, 16));
+        maxPerCall = 5; // goes into the second part
+        assertEquals(5, rb.writeTo(fd, 16));
+        assertEquals(7, rb.used());
+        assertEquals("[writev:2, writev:2]", calls.toString());
+
+        // the rest bytes do not wrap
+        calls.clear();
+        maxPerCall = Integer.MAX_VALUE;
+        assertEquals(7, rb.writeTo(fd, 16));
+        assertEquals("[write]", calls.toString());
+        assertEquals(0, rb.used());
+
+        // the first byte was stored before the fd is used
+        byte[] expected = new byte[16];
+        System.arraycopy(input, 0, expected, 1, 15);
+        assertArrayEquals(expected, output.toByteArray());
+    }
+
+    @Test
+    public void ringBufferWrapExactlyAtTheEnd() throws Exception {
+        SimpleRingBuffer rb = ringBufferAt(true, 8, 4);
+        // [4, 5) is used, the read stops exactly at the end of the buffer
+        input = bytes(3);
+        assertEquals(3, rb.storeBytesFrom(fd));
+        assertEquals(4, rb.used());
+        input = bytes(8);
+        inputPos = 0;
+        assertEquals(4, rb.storeBytesFrom(fd));
+        assertEquals(8, rb.used());
+        assertEquals(8, rb.writeTo(fd, 8));
+        assertEquals(0, rb.used());
+    }
+
+    @Test
+    public void ringBufferRandomStream() throws Exception {
+        for (boolean direct : new boolean[]{true, false}) {
+            setUp();
+            input = bytes(64 * 1024);
+            SimpleRingBuffer rb = direct ? SimpleRingBuffer.allocateDirect(1000) : SimpleRingBuffer.allocate(1000);
+            while (true) {
+                maxPerCall = 1 + rand.nextInt(700);
+                int n = rb.storeBytesFrom(fd);
+                maxPerCall = 1 + rand.nextInt(700);
+                rb.writeTo(fd, 1 + rand.nextInt(1200));
+                if (n == -1) {
+                    break;
+                }
+            }
+            maxPerCall = Integer.MAX_VALUE;
+            while (rb.used() > 0) {
+                rb.writeTo(fd, Integer.MAX_VALUE);
+            }
+            assertArrayEquals(input, output.toByteArray());
+            if (direct) {
+                assertTrue(calls.stream().anyMatch(c -> c.equals("readv:2")));
+                assertTrue(calls.stream().anyMatch(c -> c.equals("writev:2")));
+            } else {
+                assertTrue(calls.stream().noneMatch(c -> c.startsWith("readv") || c.startsWith("writev")));
+            }
+        }
+    }
+
+    @Test
+    public void jdkChannelRandomStream() throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            SocketFD client = ChannelFDs.get().openSocketFD();
+            client.configureBlocking(true);
+            client.connect((InetSocketAddress) server.getLocalAddress());
+            try (SocketChannel accepted = server.accept()) {
+                byte[] data = bytes(64 * 1024);
+                Thread writer = new Thread(() -> {
+                    try {
+                        ByteBuffer b = ByteBuffer.wrap(data);
+                        while (b.hasRemaining()) {
+                            accepted.write(b);
+                        }
+                        accepted.shutdownOutput();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+                writer.start();
+
+                SimpleRingBuffer rb = SimpleRingBuffer.allocateDirect(1000);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ByteArrayChannelWriter sink = new ByteArrayChannelWriter(out);
+                while (rb.storeBytesFrom(client) != -1) {
+                    rb.writeTo(sink, 1 + rand.nextInt(1200));
+                }
+                while (rb.used() > 0) {
+                    rb.writeTo(sink, Integer.MAX_VALUE);
+                }
+                writer.join();
+                assertArrayEquals(data, out.toByteArray());
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    private static class ByteArrayChannelReader implements ReadableByteChannel {
+        private final ByteBuffer src;
+
+        ByteArrayChannelReader(byte[] bytes) {
+            this.src = ByteBuffer.wrap(bytes);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!src.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(dst.remaining(), src.remaining());
+            ByteBuffer b = src.duplicate();
+            b.limit(b.position() + n);
+            dst.put(b);
+            src.position(src.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class ByteArrayChannelWriter implements WritableByteChannel {
+        private final ByteArrayOutputStream out;
+
+        ByteArrayChannelWriter(ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            while (src.hasRemaining()) {
+                out.write(src.get());
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package vproxy.test.cases;
+
+import org.junit.Test;
+import vproxy.component.exception.AlreadyExistException;
+import vproxy.component.secure.SecurityGroup;
+import vproxy.component.secure.SecurityGroupRule;
+import vproxy.connection.Protocol;
+import vproxy.util.Utils;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestSecurityGroup {
+    private static SecurityGroupRule rule(String alias, String ip, int mask, Protocol protocol, int minPort, int maxPort, boolean allow) {
+        return new SecurityGroupRule(alias, Utils.blockParseAddress(ip), Utils.parseMask(mask), protocol, minPort, maxPort, allow);
+    }
+
+    private static InetAddress addr(String ip) {
+        return Utils.blockParseAddressToInet(ip);
+    }
+
+    // how the security group matched rules before the trie: check the rules one by one
+    private static boolean linearAllow(SecurityGroup secg, Protocol protocol, InetAddress address, int port) {
+        for (SecurityGroupRule r : secg.getRules()) {
+            if (r.protocol == protocol && r.match(address, port))
+                return r.allow;
+        }
+        return secg.defaultAllow;
+    }
+
+    private static void check(SecurityGroup secg, Protocol protocol, String ip, int port, boolean expected) {
+        InetAddress address = addr(ip);
+        assertEquals(ip + ":" + port, expected, secg.allow(protocol, address, port));
+        assertEquals(ip + ":" + port + " linear", expected, linearAllow(secg, protocol, address, port));
+    }
+
+    @Test
+    public void overlappingPrefixes() throws Exception {
+        SecurityGroup secg = new SecurityGroup("secg0", false);
+        secg.addRule(rule("r0", "10.1.0.0", 16, Protocol.TCP, 0, 65535, true));
+        secg.addRule(rule("r1", "10.0.0.0", 8, Protocol.TCP, 0, 65535, false));
+        secg.addRule(rule("r2", "10.1.2.0", 24, Protocol.TCP, 0, 65535, false)); // shadowed by r0
+        secg.addRule(rule("r3", "0.0.0.0", 0, Protocol.TCP, 0, 65535, true));
+        secg.addRule(rule("r4", "192.168.1.1", 32, Protocol.TCP, 0, 65535, false)); // shadowed by r3
+
+        check(secg, Protocol.TCP, "10.1.2.3", 80, true);
+        check(secg, Protocol.TCP, "10.1.255.255", 80, true);
+        check(secg, Protocol.TCP, "10.2.0.1", 80, false);
+        check(secg, Protocol.TCP, "11.0.0.1", 80, true);
+        check(secg, Protocol.TCP, "192.168.1.1", 80, true);
+        // udp has no rules
+        check(secg, Protocol.UDP, "10.2.0.1", 80, false);
+
+        // the first matching rule is removed, so the next one on the path is used
+        secg.removeRule("r0");
+        check(secg, Protocol.TCP, "10.1.2.3", 80, false);
+        check(secg, Protocol.TCP, "10.1.3.3", 80, false);
+        secg.removeRule("r1");
+        check(secg, Protocol.TCP, "10.1.2.3", 80, false);
+        check(secg, Protocol.TCP, "10.1.3.3", 80, true);
+    }
+
+    @Test
+    public void ipv6() throws Exception {
+        SecurityGroup secg = new SecurityGroup("secg0", true);
+        secg.addRule(rule("r0", "[2001:db8:1::1]", 128, Protocol.TCP, 0, 65535, true));
+        secg.addRule(rule("r1", "[2001:db8:1::]", 48, Protocol.TCP, 0, 65535, false));
+        secg.addRule(rule("r2", "[2001:db8::]", 32, Protocol.TCP, 0, 65535, false));
+        secg.addRule(rule("r3", "[fd00::]", 64, Protocol.TCP, 0, 65535, false));
+        secg.addRule(rule("r4", "10.0.0.0", 8, Protocol.TCP, 0, 65535, false));
+        // an ipv6 rule which matches ipv4-mapped addresses
+        secg.addRule(rule("r5", "[::ffff:172.16.0.0]", 108, Protocol.TCP, 0, 65535, false));
+
+        check(secg, Protocol.TCP, "[2001:db8:1::1]", 80, true);
+        check(secg, Protocol.TCP, "[2001:db8:1::2]", 80, false);
+        check(secg, Protocol.TCP, "[2001:db8:2::1]", 80, false);
+        check(secg, Protocol.TCP, "[2001:db9::1]", 80, true);
+        check(secg, Protocol.TCP, "[fd00::abcd]", 80, false);
+        check(secg, Protocol.TCP, "[fd00:0:0:1::abcd]", 80, true);
+        // ipv4 rules match the ipv4-compatible ipv6 addresses
+        check(secg, Protocol.TCP, "[::10.1.2.3]", 80, false);
+        check(secg, Protocol.TCP, "[::11.1.2.3]", 80, true);
+        check(secg, Protocol.TCP, "10.1.2.3", 80, false);
+        // ipv6 rules with the ipv4-mapped prefix match ipv4 addresses
+        check(secg, Protocol.TCP, "172.16.1.1", 80, false);
+        check(secg, Protocol.TCP, "172.32.1.1", 80, true);
+    }
+
+    @Test
+    public void portRanges() throws Exception {
+        SecurityGroup secg = new SecurityGroup("secg0", false);
+        secg.addRule(rule("r0", "10.0.0.0", 8, Protocol.TCP, 80, 80, true));
+        secg.addRule(rule("r1", "10.0.0.0", 8, Protocol.TCP, 0, 1023, false));
+        secg.addRule(rule("r2", "10.1.0.0", 16, Protocol.TCP, 1000, 2000, true));
+        secg.addRule(rule("r3", "10.0.0.0", 8, Protocol.UDP, 53, 53, true));
+
+        check(secg, Protocol.TCP, "10.1.1.1", 80, true);
+        check(secg, Protocol.TCP, "10.1.1.1", 443, false);
+        check(secg, Protocol.TCP, "10.1.1.1", 1000, false); // r1 comes first
+        check(secg, Protocol.TCP, "10.1.1.1", 1024, true);
+        check(secg, Protocol.TCP, "10.1.1.1", 2000, true);
+        check(secg, Protocol.TCP, "10.1.1.1", 2001, false);
+        check(secg, Protocol.TCP, "10.2.1.1", 1500, false);
+        check(secg, Protocol.UDP, "10.2.1.1", 53, true);
+        check(secg, Protocol.UDP, "10.2.1.1", 80, false);
+    }
+
+    @Test
+    public void randomRulesMatchTheLinearScan() throws Exception {
+        Random rand = new Random(1);
+        for (int round = 0; round < 20; ++round) {
+            SecurityGroup secg = new SecurityGroup("secg" + round, rand.nextBoolean());
+            List<SecurityGroupRule> added = new ArrayList<>();
+            for (int i = 0; i < 200; ++i) {
+                byte[] ip;
+                byte[] mask;
+                if (rand.nextInt(4) == 0) {
+                    ip = new byte[16];
+                    rand.nextBytes(ip);
+                    if (rand.nextBoolean()) {
+                        // share prefixes with other rules
+                        ip[0] = 0x20;
+                        ip[1] = 0x01;
+                    }
+                    mask = Utils.parseMask(rand.nextInt(129));
+                } else {
+                    ip = new byte[4];
+                    rand.nextBytes(ip);
+                    ip[0] = (byte) (10 + rand.nextInt(2));
+                    mask = Utils.parseMask(rand.nextInt(33));
+                }
+                for (int j = 0; j < mask.length; ++j) {
+                    ip[j] &= mask[j];
+                }
+                for (int j = mask.length; j < ip.length; ++j) {
+                    ip[j] = 0;
+                }
+                int minPort = rand.nextInt(1000);
+                SecurityGroupRule r = new SecurityGroupRule("r" + i, ip, mask,
+                    rand.nextInt(5) == 0 ? Protocol.UDP : Protocol.TCP,
+                    minPort, minPort + rand.nextInt(1000), rand.nextBoolean());
+                try {
+                    secg.addRule(r);
+                } catch (AlreadyExistException ignore) {
+                    continue;
+                }
+                added.add(r);
+            }
+
+            for (int removed = 0; removed < 2; ++removed) {
+                for (int i = 0; i < 2000; ++i) {
+                    byte[] ip;
+                    if (rand.nextBoolean()) {
+                        // near a rule
+                        SecurityGroupRule r = added.get(rand.nextInt(added.size()));
+                        ip = r.ip.clone();
+                        int k = rand.nextInt(ip.length);
+                        ip[k] ^= (byte) (1 << rand.nextInt(8));
+                    } else if (rand.nextInt(4) == 0) {
+                        ip = new byte[16];
+                        rand.nextBytes(ip);
+                        if (rand.nextBoolean()) {
+                            // ipv4-compatible or ipv4-mapped address
+                            for (int j = 0; j < 12; ++j) {
+                                ip[j] = 0;
+                            }
+                            if (rand.nextBoolean()) {
+                                ip[10] = (byte) 0xff;
+                                ip[11] = (byte) 0xff;
+                            }
+                            ip[12] = (byte) (10 + rand.nextInt(2));
+                        }
+                    } else {
+                        ip = new byte[4];
+                        rand.nextBytes(ip);
+                        ip[0] = (byte) (10 + rand.nextInt(2));
+                    }
+                    InetAddress address = InetAddress.getByAddress(ip);
+                    int port = rand.nextInt(2000);
+                    Protocol protocol = rand.nextInt(5) == 0 ? Protocol.UDP : Protocol.TCP;
+                    assertEquals(address + ":" + port + " " + protocol,
+                        linearAllow(secg, protocol, address, port),
+                        secg.allow(protocol, address, port));
+                }
+                // remove half of the rules and check again
+                for (int i = 0; i < added.size() / 2; ++i) {
+                    secg.removeRule(added.remove(rand.nextInt(added.size())).alias);
+                }
+            }
+        }
+    }
+}
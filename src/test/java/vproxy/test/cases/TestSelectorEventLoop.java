@@ -0,0 +1,153 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vfd.DatagramFD;
+import vfd.EventSet;
+import vfd.FDProvider;
+import vproxy.selector.Handler;
+import vproxy.selector.HandlerContext;
+import vproxy.selector.SelectorEventLoop;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestSelectorEventLoop {
+    private SelectorEventLoop loop;
+    private DatagramFD fd;
+    private DatagramSocket client;
+
+    @Before
+    public void setUp() throws Exception {
+        loop = SelectorEventLoop.open();
+        loop.loop(r -> new Thread(r, "TestSelectorEventLoop"));
+        fd = FDProvider.get().openDatagramFD();
+        fd.configureBlocking(false);
+        fd.bind(new InetSocketAddress("127.0.0.1", 0));
+        client = new DatagramSocket();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        fd.close();
+        loop.close();
+    }
+
+    // records the events as strings
+    private static class RecordHandler implements Handler<DatagramFD> {
+        final String name;
+        final BlockingQueue<String> events;
+
+        RecordHandler(String name, BlockingQueue<String> events) {
+            this.name = name;
+            this.events = events;
+        }
+
+        @Override
+        public void accept(HandlerContext<DatagramFD> ctx) {
+        }
+
+        @Override
+        public void connected(HandlerContext<DatagramFD> ctx) {
+        }
+
+        @Override
+        public void readable(HandlerContext<DatagramFD> ctx) {
+            ByteBuffer buf = ByteBuffer.allocate(64);
+            try {
+                ctx.getChannel().receive(buf);
+            } catch (Exception e) {
+                events.add(name + ":error");
+                return;
+            }
+            events.add(name + ":readable:" + new String(buf.array(), 0, buf.position()));
+        }
+
+        @Override
+        public void writable(HandlerContext<DatagramFD> ctx) {
+        }
+
+        @Override
+        public void removed(HandlerContext<DatagramFD> ctx) {
+            events.add(name + ":removed");
+        }
+    }
+
+    private void send(String s) throws Exception {
+        byte[] b = s.getBytes();
+        client.send(new DatagramPacket(b, b.length, fd.getLocalAddress()));
+    }
+
+    private void onLoop(ThrowingRunnable r) throws Exception {
+        CompletableFuture<Void> f = new CompletableFuture<>();
+        loop.runOnLoop(() -> {
+            try {
+                r.run();
+                f.complete(null);
+            } catch (Throwable t) {
+                f.completeExceptionally(t);
+            }
+        });
+        f.get(5, TimeUnit.SECONDS);
+    }
+
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+
+    @Test
+    public void addRightAfterRemove() throws Exception {
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        onLoop(() -> loop.add(fd, EventSet.read(), null, new RecordHandler("h1", events)));
+        send("a");
+        assertEquals("h1:readable:a", events.poll(5, TimeUnit.SECONDS));
+
+        // the key is canceled but not removed from the selector yet,
+        // the channel is still considered added, and the ops can be modified before it's registered
+        onLoop(() -> {
+            loop.remove(fd);
+            loop.add(fd, EventSet.none(), "att2", new RecordHandler("h2", events));
+            assertEquals(EventSet.none(), loop.getOps(fd));
+            assertEquals("att2", loop.getAtt(fd));
+            loop.addOps(fd, EventSet.read());
+            assertEquals(EventSet.read(), loop.getOps(fd));
+        });
+        assertEquals("h1:removed", events.poll(5, TimeUnit.SECONDS));
+        send("b");
+        assertEquals("h2:readable:b", events.poll(5, TimeUnit.SECONDS));
+        assertEquals(EventSet.read(), loop.getOps(fd));
+        assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void removeBeforeRegistered() throws Exception {
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        onLoop(() -> loop.add(fd, EventSet.read(), null, new RecordHandler("h1", events)));
+        onLoop(() -> {
+            loop.remove(fd);
+            loop.add(fd, EventSet.read(), null, new RecordHandler("h2", events));
+            loop.remove(fd);
+        });
+        assertEquals("h1:removed", events.poll(5, TimeUnit.SECONDS));
+        assertEquals("h2:removed", events.poll(5, TimeUnit.SECONDS));
+
+        // not registered after the pending ticks
+        Thread.sleep(100);
+        send("a");
+        assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+
+        // and can be added again
+        onLoop(() -> loop.add(fd, EventSet.read(), null, new RecordHandler("h3", events)));
+        assertEquals("h3:readable:a", events.poll(5, TimeUnit.SECONDS));
+    }
+}
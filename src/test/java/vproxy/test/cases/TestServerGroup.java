@@ -0,0 +1,494 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.elgroup.EventLoopWrapper;
+import vproxy.component.svrgroup.MaglevTable;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.SvrHandleConnector;
+import vproxy.component.check.CheckProtocol;
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.connection.ConnectableConnection;
+import vproxy.connection.ConnectionOpts;
+import vproxy.util.RingBuffer;
+import vproxy.util.Utils;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestServerGroup {
+    private EventLoopGroup elg;
+    private ServerGroup sg;
+    // the servers only accept connections into the backlog, so that connections to them can be counted
+    private List<ServerSocket> listeners;
+    private List<ConnectableConnection> connections;
+
+    @Before
+    public void setUp() throws Exception {
+        // no event loop, so the health checks are not started
+        elg = new EventLoopGroup("elg0");
+        sg = new ServerGroup("sg0", elg, new HealthCheckConfig(1000, 10000, 1, 3, CheckProtocol.none), Method.maglev);
+        listeners = new ArrayList<>();
+        connections = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (ConnectableConnection c : connections) {
+            c.close();
+        }
+        for (ServerSocket s : listeners) {
+            s.close();
+        }
+        sg.destroy();
+        elg.close();
+    }
+
+    private ServerGroup.ServerHandle addServer(String alias, int weight) throws Exception {
+        ServerSocket s = new ServerSocket(0, 1000, InetAddress.getByName("127.0.0.1"));
+        listeners.add(s);
+        ServerGroup.ServerHandle h = sg.add(alias, new InetSocketAddress("127.0.0.1", s.getLocalPort()), weight);
+        h.healthy = true;
+        return h;
+    }
+
+    private static InetSocketAddress source(int i) {
+        return new InetSocketAddress(Utils.l3addr(new byte[]{10, (byte) (i >> 16), (byte) (i >> 8), (byte) i}), 12345);
+    }
+
+    private ServerGroup.ServerHandle connect(InetSocketAddress source) throws Exception {
+        SvrHandleConnector connector = sg.next(source);
+        assertNotNull(connector);
+        connections.add(connector.connect(ConnectionOpts.getDefault(), RingBuffer.allocate(16), RingBuffer.allocate(16)));
+        return connector.getServerHandle();
+    }
+
+    private Map<InetSocketAddress, String> mapping(int sources) {
+        Map<InetSocketAddress, String> ret = new HashMap<>();
+        for (int i = 0; i < sources; ++i) {
+            InetSocketAddress src = source(i);
+            ret.put(src, sg.next(src).getServerHandle().alias);
+        }
+        return ret;
+    }
+
+    private static byte[] key(int i) {
+        return new byte[]{10, 0, (byte) (i >> 8), (byte) i, 0, 80};
+    }
+
+    private static int[] slotsOfEachBackend(MaglevTable table) {
+        int[] ret = new int[table.backends()];
+        for (int s = 0; s < table.size(); ++s) {
+            ++ret[table.get(s)];
+        }
+        return ret;
+    }
+
+    @Test
+    public void maglevTablePopulation() {
+        MaglevTable empty = new MaglevTable(new byte[0][], new int[0]);
+        assertEquals(-1, empty.lookup(123));
+
+        // the table size is a prime much larger than the backend count
+        byte[][] keys = new byte[10][];
+        int[] weights = new int[10];
+        for (int i = 0; i < 10; ++i) {
+            keys[i] = key(i);
+            weights[i] = 10;
+        }
+        MaglevTable table = new MaglevTable(keys, weights);
+        assertEquals(65537, table.size());
+        assertEquals(10, table.backends());
+
+        // every slot is filled, and the backends with the same weight get almost the same count of slots
+        int[] slots = slotsOfEachBackend(table);
+        for (int n : slots) {
+            assertTrue(Arrays.toString(slots), n == table.size() / 10 || n == table.size() / 10 + 1);
+        }
+
+        // the same keys always build the same table
+        MaglevTable again = new MaglevTable(keys, weights);
+        for (int s = 0; s < table.size(); ++s) {
+            assertEquals(table.get(s), again.get(s));
+        }
+
+        // slots proportional to the weights
+        byte[][] wkeys = {key(0), key(1), key(2), key(3)};
+        MaglevTable weighted = new MaglevTable(wkeys, new int[]{1, 2, 3, 4});
+        slots = slotsOfEachBackend(weighted);
+        for (int i = 0; i < 4; ++i) {
+            double expected = weighted.size() * (i + 1) / 10d;
+            assertEquals(Arrays.toString(slots), expected, slots[i], 1);
+        }
+
+        try {
+            new MaglevTable(wkeys, new int[]{1, 0, 1, 1});
+            fail();
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+
+    @Test
+    public void maglevTableMinimalRemapping() {
+        int n = 10;
+        byte[][] keys = new byte[n][];
+        int[] weights = new int[n];
+        for (int i = 0; i < n; ++i) {
+            keys[i] = key(i);
+            weights[i] = 10;
+        }
+        MaglevTable table = new MaglevTable(keys, weights);
+
+        // add one backend, about 1/(n+1) of the slots are moved to it
+        byte[][] addKeys = Arrays.copyOf(keys, n + 1);
+        addKeys[n] = key(1000);
+        int[] addWeights = Arrays.copyOf(weights, n + 1);
+        addWeights[n] = 10;
+        MaglevTable added = new MaglevTable(addKeys, addWeights);
+        assertEquals(table.size(), added.size());
+        int changed = 0;
+        for (int s = 0; s < table.size(); ++s) {
+            if (table.get(s) != added.get(s)) {
+                ++changed;
+            }
+        }
+        double ratio = changed / (double) table.size();
+        assertTrue("changed " + ratio, ratio < 1d / (n + 1) + 0.01);
+
+        // remove one backend, only its slots move, and very few slots of other backends are affected
+        int removed = 3;
+        byte[][] rmKeys = new byte[n - 1][];
+        int[] rmWeights = new int[n - 1];
+        int[] rmIndex = new int[n - 1];
+        for (int i = 0, j = 0; i < n; ++i) {
+            if (i == removed) {
+                continue;
+            }
+            rmKeys[j] = keys[i];
+            rmWeights[j] = weights[i];
+            rmIndex[j] = i;
+            ++j;
+        }
+        MaglevTable rm = new MaglevTable(rmKeys, rmWeights);
+        int others = 0;
+        for (int s = 0; s < table.size(); ++s) {
+            int before = table.get(s);
+            int after = rmIndex[rm.get(s)];
+            if (before != removed && before != after) {
+                ++others;
+            }
+        }
+        ratio = others / (double) table.size();
+        assertTrue("changed " + ratio, ratio < 0.01);
+    }
+
+    @Test
+    public void maglevBoundedLoad() throws Exception {
+        for (int i = 0; i < 4; ++i) {
+            addServer("svr" + i, 10);
+        }
+        // all connections come from the same source, so they hash into the same slot
+        InetSocketAddress src = source(1);
+        ServerGroup.ServerHandle first = connect(src);
+        int total = 1;
+        for (; total < 40; ++total) {
+            // a server holds at most ceil(1.25 * (total + 1) * weight / totalWeight) connections
+            int bound = (int) Math.ceil(1.25 * (total + 1) / 4);
+            ServerGroup.ServerHandle h = connect(src);
+            assertTrue(h.alias + " " + h.connectionCount() + " > " + bound, h.connectionCount() <= bound);
+            for (ServerGroup.ServerHandle x : sg.getServerHandles()) {
+                assertTrue(x.connectionCount() <= bound);
+            }
+        }
+        // the first server is filled up to the bound, and the rest spill over to other servers
+        assertEquals((int) Math.ceil(1.25 * 40 / 4), first.connectionCount());
+        int others = 0;
+        for (ServerGroup.ServerHandle x : sg.getServerHandles()) {
+            if (x != first) {
+                others += x.connectionCount();
+            }
+        }
+        assertEquals(40 - first.connectionCount(), others);
+
+        // new connections go back to the first server after connections are closed
+        for (ConnectableConnection c : connections) {
+            c.close();
+        }
+        connections.clear();
+        assertEquals(0, first.connectionCount());
+        assertSame(first, connect(src));
+
+        // skip DOWN servers
+        first.healthy = false;
+        ServerGroup.ServerHandle h = connect(src);
+        assertNotSame(first, h);
+        assertTrue(h.healthy);
+    }
+
+    @Test
+    public void maglevBoundedLoadWithWeights() throws Exception {
+        ServerGroup.ServerHandle heavy = addServer("heavy", 30);
+        addServer("light0", 10);
+        addServer("light1", 10);
+        int total = 100;
+        for (int i = 0; i < total; ++i) {
+            connect(source(i));
+        }
+        for (ServerGroup.ServerHandle h : sg.getServerHandles()) {
+            // bounded by the weight
+            assertTrue(h.alias + " " + h.connectionCount(), h.connectionCount() <= Math.ceil(1.25 * total * h.getWeight() / 50));
+        }
+        assertTrue(heavy.connectionCount() > 100 * 30 / 50 / 2);
+    }
+
+    @Test
+    public void maglevMinimalRemapping() throws Exception {
+        for (int i = 0; i < 8; ++i) {
+            addServer("svr" + i, 10);
+        }
+        int sources = 2000;
+        Map<InetSocketAddress, String> before = mapping(sources);
+
+        // a new server takes sources from other servers, and very few sources move between the old servers
+        addServer("svr8", 10);
+        Map<InetSocketAddress, String> added = mapping(sources);
+        int moved = 0;
+        int others = 0;
+        for (InetSocketAddress src : before.keySet()) {
+            if (!before.get(src).equals(added.get(src))) {
+                if (added.get(src).equals("svr8")) {
+                    ++moved;
+                } else {
+                    ++others;
+                }
+            }
+        }
+        assertTrue("moved " + moved, moved > sources / 9 / 2);
+        assertTrue("moved " + moved, moved < sources / 9 * 3 / 2);
+        assertTrue("others " + others, others < sources / 100);
+
+        // removing the server moves the sources back
+        sg.remove("svr8");
+        assertEquals(before, mapping(sources));
+
+        // removing another server only moves its own sources, except very few ones
+        sg.remove("svr3");
+        Map<InetSocketAddress, String> removed = mapping(sources);
+        others = 0;
+        for (InetSocketAddress src : before.keySet()) {
+            assertNotEquals("svr3", removed.get(src));
+            if (!before.get(src).equals("svr3") && !before.get(src).equals(removed.get(src))) {
+                ++others;
+            }
+        }
+        assertTrue("others " + others, others < sources / 100);
+    }
+
+    private ConnectableConnection connectTo(ServerGroup.ServerHandle h) throws Exception {
+        SvrHandleConnector connector = h.makeConnector();
+        ConnectableConnection conn = connector.connect(ConnectionOpts.getDefault(), RingBuffer.allocate(16), RingBuffer.allocate(16));
+        connections.add(conn);
+        return conn;
+    }
+
+    private void closeAll() {
+        for (ConnectableConnection c : connections) {
+            c.close();
+        }
+        connections.clear();
+    }
+
+    @Test
+    public void p2cPrefersLessLoaded() throws Exception {
+        sg.setMethod(Method.p2c);
+        List<ServerGroup.ServerHandle> servers = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            servers.add(addServer("svr" + i, 10));
+        }
+        ServerGroup.ServerHandle loaded = servers.get(0);
+        connectTo(loaded);
+
+        // the two picked servers are always different, so the loaded one never wins
+        for (int i = 0; i < 1000; ++i) {
+            assertNotSame(loaded, sg.next(source(i)).getServerHandle());
+        }
+
+        // the connections are spread evenly
+        closeAll();
+        for (int i = 0; i < 50; ++i) {
+            connect(source(i));
+        }
+        for (ServerGroup.ServerHandle h : servers) {
+            assertTrue(h.alias + " " + h.connectionCount(), h.connectionCount() >= 5 && h.connectionCount() <= 15);
+        }
+
+        // compared by connections / weight
+        closeAll();
+        sg.remove("svr2");
+        sg.remove("svr3");
+        sg.remove("svr4");
+        servers.get(0).setWeight(30);
+        connectTo(servers.get(0));
+        connectTo(servers.get(0));
+        connectTo(servers.get(1));
+        for (int i = 0; i < 100; ++i) {
+            // (2 + 1) / 30 < (1 + 1) / 10
+            assertSame(servers.get(0), sg.next(source(i)).getServerHandle());
+        }
+
+        // DOWN servers are skipped
+        servers.get(0).healthy = false;
+        for (int i = 0; i < 100; ++i) {
+            assertSame(servers.get(1), sg.next(source(i)).getServerHandle());
+        }
+    }
+
+    // record a connect time of at least `delayMillis` for the server
+    private void recordLatency(ServerGroup.ServerHandle h, int delayMillis) throws Exception {
+        SvrHandleConnector connector = h.makeConnector();
+        ConnectableConnection conn = connector.connect(ConnectionOpts.getDefault(), RingBuffer.allocate(16), RingBuffer.allocate(16));
+        if (delayMillis > 0) {
+            Thread.sleep(delayMillis);
+        }
+        connector.connectionSucceeded();
+        conn.close();
+    }
+
+    @Test
+    public void ewmaFollowsLatency() throws Exception {
+        sg.setMethod(Method.ewma);
+        ServerGroup.ServerHandle slow = addServer("slow", 10);
+        ServerGroup.ServerHandle fast = addServer("fast", 10);
+        assertEquals(-1, slow.getLatencyEWMA());
+
+        // the first sample is used directly
+        recordLatency(slow, 30);
+        long ewma = slow.getLatencyEWMA();
+        assertTrue("ewma " + ewma, ewma >= 30_000_000);
+        recordLatency(fast, 0);
+        assertTrue(fast.getLatencyEWMA() >= 0);
+        assertTrue(fast.getLatencyEWMA() < ewma);
+
+        // servers without latency records are preferred, it wins whenever it's one of the two picked servers
+        ServerGroup.ServerHandle fresh = addServer("fresh", 10);
+        int freshCount = 0;
+        for (int i = 0; i < 300; ++i) {
+            ServerGroup.ServerHandle h = sg.next(source(i)).getServerHandle();
+            assertNotSame(slow, h);
+            if (h == fresh) {
+                ++freshCount;
+            }
+        }
+        assertTrue("fresh " + freshCount, freshCount > 100);
+        sg.remove("fresh");
+
+        // the slow server is avoided
+        for (int i = 0; i < 100; ++i) {
+            assertSame(fast, sg.next(source(i)).getServerHandle());
+        }
+
+        // the ewma moves 1/8 of the distance to the new sample
+        recordLatency(slow, 0);
+        long next = slow.getLatencyEWMA();
+        assertTrue(next < ewma);
+        assertTrue(next + "/" + ewma, next >= ewma * 7 / 8);
+        for (int i = 0; i < 60; ++i) {
+            recordLatency(slow, 0);
+        }
+        assertTrue("ewma " + slow.getLatencyEWMA(), slow.getLatencyEWMA() < 1_000_000);
+
+        // the fast server turns slow
+        for (int i = 0; i < 3; ++i) {
+            recordLatency(fast, 30);
+        }
+        assertTrue(fast.getLatencyEWMA() > 10_000_000);
+        for (int i = 0; i < 100; ++i) {
+            assertSame(slow, sg.next(source(i)).getServerHandle());
+        }
+    }
+
+    // pick servers on each event loop of the group at the same time, and count the result of each loop
+    private List<Map<String, Integer>> pickOnEachLoop(EventLoopGroup loops, int times) throws Exception {
+        List<EventLoopWrapper> list = loops.list();
+        List<Map<String, Integer>> ret = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(list.size());
+        for (EventLoopWrapper w : list) {
+            Map<String, Integer> counts = new HashMap<>();
+            ret.add(counts);
+            w.getSelectorEventLoop().runOnLoop(() -> {
+                for (int i = 0; i < times; ++i) {
+                    counts.merge(sg.next(source(i)).getServerHandle().alias, 1, Integer::sum);
+                }
+                latch.countDown();
+            });
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        return ret;
+    }
+
+    @Test
+    public void wrrDistributionOfEachLoop() throws Exception {
+        sg.setMethod(Method.wrr);
+        addServer("s1", 1);
+        addServer("s2", 2);
+        addServer("s3", 3);
+
+        // the cursors are kept per thread, so each event loop walks through the whole seq by itself,
+        // wherever it starts, every full round gives exactly the weighted distribution
+        EventLoopGroup loops = new EventLoopGroup("loops");
+        try {
+            for (int i = 0; i < 3; ++i) {
+                loops.add("el" + i);
+            }
+            for (Map<String, Integer> counts : pickOnEachLoop(loops, 600)) {
+                assertEquals(counts.toString(), 100, (int) counts.get("s1"));
+                assertEquals(counts.toString(), 200, (int) counts.get("s2"));
+                assertEquals(counts.toString(), 300, (int) counts.get("s3"));
+            }
+        } finally {
+            loops.close();
+        }
+
+        // threads other than the event loops have their own cursors as well
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 60; ++i) {
+            counts.merge(sg.next(source(i)).getServerHandle().alias, 1, Integer::sum);
+        }
+        assertEquals(counts.toString(), 10, (int) counts.get("s1"));
+        assertEquals(counts.toString(), 20, (int) counts.get("s2"));
+        assertEquals(counts.toString(), 30, (int) counts.get("s3"));
+    }
+
+    @Test
+    public void wlcDistributionOfEachLoop() throws Exception {
+        sg.setMethod(Method.wlc);
+        addServer("s1", 10);
+        addServer("s2", 10);
+        addServer("s3", 10);
+
+        // no connection is made, all servers have the same load,
+        // each event loop starts scanning from its own cursor, so it spreads the picks over all servers
+        EventLoopGroup loops = new EventLoopGroup("loops");
+        try {
+            for (int i = 0; i < 3; ++i) {
+                loops.add("el" + i);
+            }
+            for (Map<String, Integer> counts : pickOnEachLoop(loops, 300)) {
+                assertEquals(counts.toString(), 100, (int) counts.get("s1"));
+                assertEquals(counts.toString(), 100, (int) counts.get("s2"));
+                assertEquals(counts.toString(), 100, (int) counts.get("s3"));
+            }
+        } finally {
+            loops.close();
+        }
+    }
+}
@@ -0,0 +1,521 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vfd.Event;
+import vfd.FDProvider;
+import vfd.SocketFD;
+import vfd.posix.Posix;
+import vfd.posix.PosixSocketFD;
+import vfd.posix.SplicePipe;
+import vproxy.connection.*;
+import vproxy.selector.SelectorEventLoop;
+import vproxy.util.RingBuffer;
+import vproxy.util.RingBufferETHandler;
+import vproxy.util.Tuple;
+import vproxy.util.nio.ByteArrayChannel;
+import vproxy.util.ringbuffer.AbstractRingBuffer;
+import vproxy.util.ringbuffer.DirectBufferPool;
+import vproxy.util.ringbuffer.SimpleRingBuffer;
+import vproxy.util.ringbuffer.SpliceRingBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestSplice {
+    private static final int PAGE = 4096;
+    private static final int PIPE_READ = 100;
+    private static final int PIPE_WRITE = 101;
+
+    // the chunks written into the sockets by the remote side, each chunk is spliced into separated pages
+    private Map<Integer, Deque<byte[]>> socketInput;
+    private Set<Integer> socketEOF;
+    // bytes written into the sockets
+    private Map<Integer, ByteArrayOutputStream> socketOutput;
+    // the pages in the fake pipe
+    private Deque<byte[]> pipe;
+    private int pipeSlots;
+    private Set<Integer> closed;
+    private boolean spliceSupported;
+    private Posix posix;
+
+    private SelectorEventLoop loop;
+
+    @Before
+    public void setUp() throws Exception {
+        socketInput = new HashMap<>();
+        socketEOF = new HashSet<>();
+        socketOutput = new HashMap<>();
+        pipe = new ArrayDeque<>();
+        closed = new HashSet<>();
+        spliceSupported = true;
+        posix = (Posix) Proxy.newProxyInstance(Posix.class.getClassLoader(), new Class[]{Posix.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "spliceSupported":
+                    return spliceSupported;
+                case "openSplicePipe":
+                    // the kernel rounds the size up to pages
+                    pipeSlots = ((int) args[0] + PAGE - 1) / PAGE;
+                    return new int[]{PIPE_READ, PIPE_WRITE, pipeSlots * PAGE};
+                case "splice":
+                    return splice((int) args[0], (int) args[1], (int) args[2]);
+                case "read":
+                    assertEquals(PIPE_READ, (int) args[0]);
+                    return readPipe((ByteBuffer) args[1], (int) args[2], (int) args[3]);
+                case "close":
+                    closed.add((int) args[0]);
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        loop = SelectorEventLoop.open();
+        loop.loop(r -> new Thread(r, "TestSplice"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        loop.close();
+    }
+
+    private int splice(int fdIn, int fdOut, int len) {
+        if (fdOut == PIPE_WRITE) {
+            Deque<byte[]> input = socketInput.computeIfAbsent(fdIn, k -> new ArrayDeque<>());
+            if (input.isEmpty()) {
+                return socketEOF.contains(fdIn) ? -1 : 0;
+            }
+            int n = 0;
+            while (n < len && pipe.size() < pipeSlots && !input.isEmpty()) {
+                byte[] chunk = input.poll();
+                int take = Math.min(Math.min(chunk.length, len - n), PAGE);
+                pipe.add(Arrays.copyOf(chunk, take));
+                if (take < chunk.length) {
+                    input.push(Arrays.copyOfRange(chunk, take, chunk.length));
+                }
+                n += take;
+            }
+            return n; // 0 when the pipe is full
+        }
+        assertEquals(PIPE_READ, fdIn);
+        ByteArrayOutputStream out = socketOutput.computeIfAbsent(fdOut, k -> new ByteArrayOutputStream());
+        byte[] b = takeFromPipe(len);
+        out.write(b, 0, b.length);
+        return b.length;
+    }
+
+    private int readPipe(ByteBuffer buf, int off, int len) {
+        assertTrue(buf.isDirect());
+        byte[] b = takeFromPipe(len);
+        for (int i = 0; i < b.length; ++i) {
+            buf.put(off + i, b[i]);
+        }
+        return b.length;
+    }
+
+    private byte[] takeFromPipe(int len) {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        while (ret.size() < len && !pipe.isEmpty()) {
+            byte[] page = pipe.poll();
+            int take = Math.min(page.length, len - ret.size());
+            ret.write(page, 0, take);
+            if (take < page.length) {
+                pipe.push(Arrays.copyOfRange(page, take, page.length));
+            }
+        }
+        return ret.toByteArray();
+    }
+
+    private void input(int fd, String s) {
+        input(fd, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void input(int fd, byte[] b) {
+        socketInput.computeIfAbsent(fd, k -> new ArrayDeque<>()).add(b);
+    }
+
+    private String output(int fd) {
+        return new String(socketOutput.computeIfAbsent(fd, k -> new ByteArrayOutputStream()).toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private SocketFD sock(int fd) {
+        return new PosixSocketFD(posix, fd, true);
+    }
+
+    private <T> T onLoop(Callable<T> c) throws Exception {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        loop.runOnLoop(() -> {
+            try {
+                f.complete(c.call());
+            } catch (Throwable t) {
+                f.completeExceptionally(t);
+            }
+        });
+        return f.get(5, TimeUnit.SECONDS);
+    }
+
+    private void waitUntil(Callable<Boolean> c) throws Exception {
+        long start = System.currentTimeMillis();
+        while (!onLoop(c)) {
+            if (System.currentTimeMillis() - start > 5000) {
+                fail("timeout");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static class CountingHandler implements RingBufferETHandler {
+        int readable = 0;
+        int writable = 0;
+
+        @Override
+        public void readableET() {
+            ++readable;
+        }
+
+        @Override
+        public void writableET() {
+            ++writable;
+        }
+    }
+
+    @Test
+    public void splicePipe() throws Exception {
+        SocketFD src = sock(10);
+        SocketFD dst = sock(11);
+        assertTrue(SplicePipe.supports(src));
+        SocketFD jdk = FDProvider.get().openSocketFD();
+        assertFalse(SplicePipe.supports(jdk));
+        jdk.close();
+
+        SplicePipe p = SplicePipe.open(src, 3 * PAGE - 100);
+        assertEquals(3 * PAGE, p.capacity());
+        assertEquals(0, p.used());
+        assertEquals(0, p.spliceFrom(src, 100));
+
+        // each chunk occupies one page
+        input(10, "hello");
+        input(10, "world");
+        assertEquals(8, p.spliceFrom(src, 8));
+        assertEquals(8, p.used());
+        assertEquals(2, pipe.size());
+
+        // the moved bytes never exceed the bytes in the pipe
+        assertEquals(4, p.spliceTo(dst, 4));
+        assertEquals("hell", output(11));
+        assertEquals(4, p.spliceTo(dst, 100));
+        assertEquals("hellowor", output(11));
+        assertEquals(0, p.used());
+        assertEquals(0, p.spliceTo(dst, 100));
+
+        // read into user space
+        assertEquals(2, p.spliceFrom(src, 100));
+        ByteBuffer buf = ByteBuffer.allocateDirect(10);
+        buf.position(3);
+        assertEquals(2, p.read(buf));
+        assertEquals(5, buf.position());
+        assertEquals('l', buf.get(3));
+        assertEquals('d', buf.get(4));
+
+        // clear drops everything
+        input(10, "abc");
+        input(10, "def");
+        assertEquals(6, p.spliceFrom(src, 100));
+        p.clear();
+        assertEquals(0, p.used());
+        assertTrue(pipe.isEmpty());
+
+        socketEOF.add(10);
+        assertEquals(-1, p.spliceFrom(src, 100));
+
+        p.close();
+        assertTrue(p.isClosed());
+        assertEquals(Set.of(PIPE_READ, PIPE_WRITE), closed);
+        p.close();
+        try {
+            p.spliceFrom(src, 1);
+            fail();
+        } catch (IOException ignore) {
+        }
+
+        spliceSupported = false;
+        assertFalse(SplicePipe.supports(src));
+        assertNull(SpliceRingBuffer.allocate(src, PAGE));
+    }
+
+    @Test
+    public void ringBufferFullByPages() throws Exception {
+        SocketFD src = sock(10);
+        SocketFD dst = sock(11);
+        SpliceRingBuffer buf = SpliceRingBuffer.allocate(src, 2 * PAGE);
+        assertNotNull(buf);
+        CountingHandler h = new CountingHandler();
+        buf.addHandler(h);
+        assertEquals(2 * PAGE, buf.capacity());
+        assertEquals(2 * PAGE, buf.free());
+
+        input(10, "aaa");
+        assertEquals(3, buf.storeBytesFrom(src));
+        assertEquals(1, h.readable);
+        input(10, "bb");
+        assertEquals(2, buf.storeBytesFrom(src));
+        assertEquals(1, h.readable); // not readable from empty
+
+        // both pages are occupied, nothing can be stored though the counted bytes are small
+        input(10, "c");
+        assertEquals(0, buf.storeBytesFrom(src));
+        assertEquals(5, buf.used());
+        assertEquals(0, buf.free());
+
+        // writable again after some bytes are moved out
+        assertEquals(4, buf.writeTo(dst, 4));
+        assertEquals("aaab", output(11));
+        assertEquals(1, h.writable);
+        assertEquals(2 * PAGE - 1, buf.free());
+        assertEquals(1, buf.storeBytesFrom(src));
+        assertEquals(2, buf.writeTo(dst, 100));
+        assertEquals("aaabbc", output(11));
+        assertEquals(0, buf.used());
+
+        // clear when full
+        input(10, "x");
+        input(10, "y");
+        input(10, "z");
+        assertEquals(2, buf.storeBytesFrom(src));
+        assertEquals(0, buf.storeBytesFrom(src));
+        assertEquals(0, buf.free());
+        buf.clear();
+        assertEquals(0, buf.used());
+        assertEquals(2, h.writable);
+        assertEquals(1, buf.storeBytesFrom(src));
+
+        // only posix sockets can be spliced
+        try {
+            buf.storeBytesFrom((ReadableByteChannel) ByteArrayChannel.fromFull(new byte[1]));
+            fail();
+        } catch (IOException ignore) {
+        }
+
+        buf.clean();
+        assertEquals(Set.of(PIPE_READ, PIPE_WRITE), closed);
+    }
+
+    @Test
+    public void ringBufferToByteArrayChannel() throws Exception {
+        SocketFD src = sock(10);
+        SpliceRingBuffer buf = SpliceRingBuffer.allocate(src, 16 * PAGE);
+        assertNotNull(buf);
+        byte[] data = new byte[40000];
+        new Random(1).nextBytes(data);
+
+        // copied with the buffer from the loop pool
+        DirectBufferPool pool = loop.bufferPool;
+        for (int round = 0; round < 2; ++round) {
+            input(10, data);
+            while (buf.used() < data.length) {
+                assertTrue(buf.storeBytesFrom(src) > 0);
+            }
+            ByteArrayChannel chnl = ByteArrayChannel.fromEmpty(data.length);
+            assertEquals(data.length, (int) onLoop(() -> buf.writeTo(chnl)));
+            assertArrayEquals(data, chnl.getBytes());
+            assertEquals(0, buf.used());
+        }
+        assertEquals(1, pool.getMiss());
+        assertEquals(1, pool.getHit());
+
+        // not on a loop, and the channel is smaller than the buffer
+        input(10, "0123456789");
+        buf.storeBytesFrom(src);
+        ByteArrayChannel chnl = ByteArrayChannel.fromEmpty(4);
+        assertEquals(4, buf.writeTo(chnl));
+        assertEquals("0123", new String(chnl.getBytes(), StandardCharsets.UTF_8));
+        assertEquals(6, buf.used());
+        buf.clean();
+    }
+
+    // similar to the splice buffer, it can store at most `maxSegments` reads until bytes are moved out,
+    // and it only finds itself full when trying to store
+    private static class SegmentLimitedRingBuffer extends AbstractRingBuffer {
+        private final SimpleRingBuffer buffer = SimpleRingBuffer.allocate(1024);
+        private final int maxSegments;
+        private int segments = 0;
+        private boolean full = false;
+
+        SegmentLimitedRingBuffer(int maxSegments) {
+            this.maxSegments = maxSegments;
+        }
+
+        @Override
+        public int storeBytesFrom(ReadableByteChannel channel) throws IOException {
+            if (segments == maxSegments) {
+                full = true;
+                return 0;
+            }
+            boolean triggerReadable = used() == 0;
+            int n = buffer.storeBytesFrom(channel);
+            if (n > 0) {
+                ++segments;
+                if (triggerReadable) {
+                    triggerReadable();
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public int writeTo(WritableByteChannel channel, int maxBytesToWrite) throws IOException {
+            boolean triggerWritable = free() == 0;
+            int n = buffer.writeTo(channel, maxBytesToWrite);
+            if (n > 0) {
+                segments = used() == 0 ? 0 : 1;
+                full = false;
+                if (triggerWritable) {
+                    triggerWritable();
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public int free() {
+            return full ? 0 : buffer.free();
+        }
+
+        @Override
+        public int used() {
+            return buffer.used();
+        }
+
+        @Override
+        public int capacity() {
+            return buffer.capacity();
+        }
+
+        @Override
+        public void clean() {
+            buffer.clean();
+        }
+
+        @Override
+        public void clear() {
+            buffer.clear();
+            segments = 0;
+            full = false;
+        }
+    }
+
+    @Test
+    public void removeReadWhenFullOnStoring() throws Exception {
+        NetEventLoop netEventLoop = new NetEventLoop(loop);
+        ServerSock server = ServerSock.create(new InetSocketAddress("127.0.0.1", 0));
+        SegmentLimitedRingBuffer inBuffer = new SegmentLimitedRingBuffer(2);
+        CompletableFuture<Connection> accepted = new CompletableFuture<>();
+        netEventLoop.addServer(server, null, new ServerHandler() {
+            @Override
+            public void acceptFail(ServerHandlerContext ctx, IOException err) {
+                accepted.completeExceptionally(err);
+            }
+
+            @Override
+            public void connection(ServerHandlerContext ctx, Connection connection) {
+                try {
+                    ctx.eventLoop.addConnection(connection, null, new ConnectionHandler() {
+                        @Override
+                        public void readable(ConnectionHandlerContext ctx) {
+                            // keep the bytes in the buffer
+                        }
+
+                        @Override
+                        public void writable(ConnectionHandlerContext ctx) {
+                        }
+
+                        @Override
+                        public void exception(ConnectionHandlerContext ctx, IOException err) {
+                        }
+
+                        @Override
+                        public void remoteClosed(ConnectionHandlerContext ctx) {
+                            ctx.connection.close();
+                        }
+
+                        @Override
+                        public void closed(ConnectionHandlerContext ctx) {
+                        }
+
+                        @Override
+                        public void removed(ConnectionHandlerContext ctx) {
+                        }
+                    });
+                    accepted.complete(connection);
+                } catch (IOException e) {
+                    accepted.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public Tuple<RingBuffer, RingBuffer> getIOBuffers(SocketFD channel) {
+                return new Tuple<>(inBuffer, RingBuffer.allocate(16));
+            }
+
+            @Override
+            public void removed(ServerHandlerContext ctx) {
+                ctx.server.close();
+            }
+        });
+
+        try (Socket client = new Socket()) {
+            client.connect(server.bind);
+            Connection conn = accepted.get(5, TimeUnit.SECONDS);
+            OutputStream out = client.getOutputStream();
+
+            out.write('a');
+            out.flush();
+            waitUntil(() -> inBuffer.used() == 1);
+            out.write('b');
+            out.flush();
+            waitUntil(() -> inBuffer.used() == 2);
+            assertTrue(onLoop(() -> loop.getOps(conn.channel).have(Event.READABLE)));
+
+            // the buffer finds itself full when storing the third segment, so READ is removed
+            out.write('c');
+            out.flush();
+            waitUntil(() -> !loop.getOps(conn.channel).have(Event.READABLE));
+            Thread.sleep(100);
+            assertEquals(2, (int) onLoop(inBuffer::used));
+            assertFalse(onLoop(() -> loop.getOps(conn.channel).have(Event.READABLE)));
+
+            // READ is added back when bytes are moved out of the buffer
+            ByteArrayChannel chnl = ByteArrayChannel.fromEmpty(2);
+            assertEquals(2, (int) onLoop(() -> inBuffer.writeTo(chnl)));
+            assertEquals("ab", new String(chnl.getBytes(), StandardCharsets.UTF_8));
+            waitUntil(() -> inBuffer.used() == 1);
+            assertTrue(onLoop(() -> loop.getOps(conn.channel).have(Event.READABLE)));
+            ByteArrayChannel chnl2 = ByteArrayChannel.fromEmpty(1);
+            assertEquals(1, (int) onLoop(() -> inBuffer.writeTo(chnl2)));
+            assertEquals("c", new String(chnl2.getBytes(), StandardCharsets.UTF_8));
+
+            onLoop(() -> {
+                conn.close();
+                return null;
+            });
+        } finally {
+            netEventLoop.removeServer(server);
+            server.close();
+        }
+    }
+}
@@ -3,18 +3,37 @@ package vproxy.test.cases;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 import vproxy.selector.PeriodicEvent;
 import vproxy.selector.SelectorEventLoop;
 import vproxy.selector.TimerEvent;
+import vproxy.util.TimeQueue;
+
+import java.util.Arrays;
+import java.util.Collection;
 
 import static org.junit.Assert.*;
 
+@RunWith(Parameterized.class)
 public class TestTimer {
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> timeQueues() {
+        return Arrays.asList(new Object[][]{{"heap"}, {"wheel"}});
+    }
+
+    @Parameterized.Parameter
+    public String timeQueue;
+
     private SelectorEventLoop loop;
 
     @Before
     public void setUp() throws Exception {
-        loop = SelectorEventLoop.open();
+        if (timeQueue.equals("wheel")) {
+            loop = SelectorEventLoop.open(TimeQueue.createTimingWheel());
+        } else {
+            loop = SelectorEventLoop.open(TimeQueue.createPriorityQueue());
+        }
         loop.loop(r -> new Thread(r, "EventLoop"));
     }
 
@@ -75,4 +94,18 @@ public class TestTimer {
         Thread.sleep(500);
         assertEquals("still 3 alerts", 3, i[0]);
     }
+
+    @Test
+    public void manyTasks() throws Exception {
+        int[] count = {0};
+        TimerEvent[] events = new TimerEvent[1000];
+        for (int i = 0; i < events.length; ++i) {
+            events[i] = loop.delay(100 + i, () -> ++count[0]);
+        }
+        for (int i = 0; i < events.length; i += 2) {
+            events[i].cancel();
+        }
+        Thread.sleep(1200);
+        assertEquals("half of the tasks are canceled", 500, count[0]);
+    }
 }
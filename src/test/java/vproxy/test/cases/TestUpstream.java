@@ -0,0 +1,183 @@
+package vproxy.test.cases;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import vproxy.app.util.AnnotationKeys;
+import vproxy.component.check.HealthCheckConfig;
+import vproxy.component.elgroup.EventLoopGroup;
+import vproxy.component.svrgroup.Method;
+import vproxy.component.svrgroup.ServerGroup;
+import vproxy.component.svrgroup.Upstream;
+import vproxy.processor.Hint;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestUpstream {
+    private EventLoopGroup elg;
+
+    @Before
+    public void setUp() {
+        elg = new EventLoopGroup("elg0");
+    }
+
+    @After
+    public void tearDown() {
+        elg.close();
+    }
+
+    private ServerGroup group(String alias, Map<String, String> annotations) throws Exception {
+        ServerGroup g = new ServerGroup(alias, elg,
+            new HealthCheckConfig(1000, /* disable health check */24 * 60 * 60 * 1000, 2, 3), Method.wrr);
+        g.setAnnotations(annotations);
+        return g;
+    }
+
+    // how the upstream searched for groups before the hint index: check the groups one by one
+    @SuppressWarnings("unchecked")
+    private static Upstream.ServerGroupHandle linearSearch(Upstream ups, Hint hint) {
+        int level = 0;
+        Upstream.ServerGroupHandle lastMax = null;
+        for (Upstream.ServerGroupHandle h : ups.getServerGroupHandles()) {
+            int l = hint.matchLevel(h.getAnnotations(), h.group.getAnnotations());
+            if (l > level) {
+                level = l;
+                lastMax = h;
+            }
+            if (l == Hint.MAX_MATCH_LEVEL) {
+                break;
+            }
+        }
+        return lastMax;
+    }
+
+    private static String alias(Upstream.ServerGroupHandle h) {
+        return h == null ? null : h.alias;
+    }
+
+    @Test
+    public void reversedLabels() throws Exception {
+        Upstream ups = new Upstream("ups0");
+        ups.add(group("com", Map.of(AnnotationKeys.ServerGroup_HintHost, "com")), 10);
+        ups.add(group("example", Map.of(AnnotationKeys.ServerGroup_HintHost, "example.com")), 10);
+        ups.add(group("www", Map.of(AnnotationKeys.ServerGroup_HintHost, "www.example.com")), 10);
+        ups.add(group("api", Map.of(AnnotationKeys.ServerGroup_HintHost, "api.example.com",
+            AnnotationKeys.ServerGroup_HintPort, "8080")), 10);
+        ups.add(group("grpc", Map.of(AnnotationKeys.ServerGroup_HintHost, "grpc.test.org",
+            AnnotationKeys.ServerGroup_HintUri, "/vproxy.Greeter/")), 10);
+
+        // exact
+        assertEquals("www", alias(ups.searchForGroup(new Hint("www.example.com"))));
+        assertEquals("example", alias(ups.searchForGroup(new Hint("example.com"))));
+        // parent domain, the first group in the upstream wins
+        assertEquals("com", alias(ups.searchForGroup(new Hint("a.www.example.com"))));
+        assertEquals("com", alias(ups.searchForGroup(new Hint("other.com"))));
+        // same suffix but not a sub domain
+        assertNull(ups.searchForGroup(new Hint("xcom")));
+        // port
+        assertEquals("api", alias(ups.searchForGroup(new Hint("api.example.com:8080"))));
+        assertEquals("api", alias(ups.searchForGroup(new Hint("api.example.com"))));
+        assertEquals("com", alias(ups.searchForGroup(new Hint("api.example.com:80"))));
+        // sub domain of the hint
+        assertEquals("grpc", alias(ups.searchForGroup(new Hint("test.org", "/vproxy.Greeter/SayHello"))));
+        assertNull(ups.searchForGroup(new Hint("test.org", "/other")));
+        assertNull(ups.searchForGroup(new Hint("org")));
+
+        // the handle annotations take precedence
+        ups.getServerGroupHandles().get(0).setAnnotations(Map.of(AnnotationKeys.ServerGroup_HintHost, "example.net"));
+        assertEquals("example", alias(ups.searchForGroup(new Hint("a.www.example.com"))));
+        assertEquals("com", alias(ups.searchForGroup(new Hint("net"))));
+
+        for (Upstream.ServerGroupHandle h : ups.getServerGroupHandles()) {
+            h.group.destroy();
+        }
+    }
+
+    @Test
+    public void randomHintsMatchTheLinearSearch() throws Exception {
+        Random rand = new Random(1);
+        String[] labels = {"a", "b", "www", "api", "example", "test", "com", "org"};
+        String[] ports = {null, "80", "8080"};
+        String[] uris = {null, "/", "/a", "/a/b", "/c"};
+
+        for (int round = 0; round < 10; ++round) {
+            Upstream ups = new Upstream("ups" + round);
+            List<ServerGroup> groups = new ArrayList<>();
+            for (int i = 0; i < 30; ++i) {
+                Map<String, String> anno = new HashMap<>();
+                if (rand.nextInt(10) != 0) {
+                    anno.put(AnnotationKeys.ServerGroup_HintHost, randomHost(rand, labels));
+                }
+                String port = ports[rand.nextInt(ports.length)];
+                if (port != null) {
+                    anno.put(AnnotationKeys.ServerGroup_HintPort, port);
+                }
+                String uri = uris[rand.nextInt(uris.length)];
+                if (uri != null) {
+                    anno.put(AnnotationKeys.ServerGroup_HintUri, uri);
+                }
+                ServerGroup g = group("sg" + i, anno);
+                groups.add(g);
+                Upstream.ServerGroupHandle h = ups.add(g, 10);
+                if (rand.nextInt(5) == 0) {
+                    h.setAnnotations(Map.of(AnnotationKeys.ServerGroup_HintHost, randomHost(rand, labels)));
+                }
+            }
+
+            for (int removed = 0; removed < 2; ++removed) {
+                for (int i = 0; i < 1000; ++i) {
+                    String host = randomHost(rand, labels);
+                    String port = ports[rand.nextInt(ports.length)];
+                    String uri = uris[rand.nextInt(uris.length)];
+                    Hint hint = new Hint(port == null ? host : host + ":" + port, uri);
+                    assertEquals(hint.toString(), alias(linearSearch(ups, hint)), alias(ups.searchForGroup(hint)));
+                }
+                // remove some groups and change annotations, then check again
+                for (int i = 0; i < 10; ++i) {
+                    ups.remove(groups.remove(rand.nextInt(groups.size())));
+                }
+                groups.get(0).setAnnotations(Map.of(AnnotationKeys.ServerGroup_HintHost, randomHost(rand, labels)));
+            }
+            ups.destroy();
+            for (ServerGroup g : groups) {
+                g.destroy();
+            }
+        }
+    }
+
+    private static String randomHost(Random rand, String[] labels) {
+        int n = 1 + rand.nextInt(3);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; ++i) {
+            if (i != 0) {
+                sb.append(".");
+            }
+            sb.append(labels[rand.nextInt(labels.length)]);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void destroyDetachesGroups() throws Exception {
+        ServerGroup g = group("sg0", Map.of(AnnotationKeys.ServerGroup_HintHost, "a.com"));
+        Upstream ups0 = new Upstream("ups0");
+        Upstream ups1 = new Upstream("ups1");
+        ups0.add(g, 10);
+        ups1.add(g, 10);
+        assertEquals("sg0", alias(ups0.searchForGroup(new Hint("a.com"))));
+        assertEquals("sg0", alias(ups1.searchForGroup(new Hint("a.com"))));
+
+        ups0.destroy();
+        g.setAnnotations(Map.of(AnnotationKeys.ServerGroup_HintHost, "b.com"));
+        // the group no longer notifies the removed upstream, so its index is not rebuilt
+        assertEquals("sg0", alias(ups0.searchForGroup(new Hint("a.com"))));
+        assertNull(ups0.searchForGroup(new Hint("b.com")));
+        // other upstreams are still notified
+        assertNull(ups1.searchForGroup(new Hint("a.com")));
+        assertEquals("sg0", alias(ups1.searchForGroup(new Hint("b.com"))));
+
+        g.destroy();
+    }
+}